@@ -72,6 +72,18 @@ public class TesseractFactory
     }
 
 
+    /**
+     * 
+     * @return a copy of all variables set.
+     */
+    public Properties getVariables()
+    {
+        Properties res = new Properties();
+        res.putAll(mSettings);
+        return res;
+    }
+
+
     public void setLanguage(String aLanguage)
     {
         mLanguage = aLanguage;
@@ -148,6 +160,24 @@ public class TesseractFactory
     }
 
 
+    /**
+     * Take over all settings of the given factory: variables, language, data
+     * path, page segmentation and engine mode and configs.
+     * 
+     * @param aFactory
+     *            the factory to copy the settings from.
+     */
+    public void setSettings(TesseractFactory aFactory)
+    {
+        mSettings = aFactory.getVariables();
+        mLanguage = aFactory.getLanguage();
+        mDatapath = aFactory.getDatapath();
+        mPageSegMode = aFactory.getPageSegnMode();
+        mOcrEngineMode = aFactory.getOcrEngineMode();
+        setConfigs(aFactory.getConfigList());
+    }
+
+
     /**
      * Initialize the given (newly created) instance.
      * 
@@ -153,6 +153,190 @@ public class Config extends Properties
      */
     public static final String PROP_OCR_IMG_SCALE = "ocr.scale";
 
+    /**
+     * Property key that stores the value for the flag if rendered page images
+     * are pre-processed (binarized, despeckled, deskewed) before OCR.
+     */
+    public static final String PROP_OCR_PREPROCESS = "ocr.preprocess.enable";
+
+    /**
+     * Property key that stores the binarization method used by the OCR image
+     * pre-processing. Valid values are "otsu", "sauvola" and "none".
+     */
+    public static final String PROP_OCR_PREPROCESS_BINARIZE = "ocr.preprocess.binarize";
+
+    /**
+     * Property key that stores the maximum size (in pixels) of speckles that
+     * are removed by the OCR image pre-processing. 0 disables despeckling.
+     */
+    public static final String PROP_OCR_PREPROCESS_DESPECKLE = "ocr.preprocess.despeckle";
+
+    /**
+     * Property key that stores the value for the flag if skewed scans are
+     * straightened by the OCR image pre-processing.
+     */
+    public static final String PROP_OCR_PREPROCESS_DESKEW = "ocr.preprocess.deskew";
+
+    /**
+     * Property key that stores the number of threads used for OCR. 0 means the
+     * number of threads is chosen (and adjusted while running) automatically
+     * based on the available processors and free memory.
+     */
+    public static final String PROP_OCR_THREAD_COUNT = "ocr.threadCount";
+
+    /**
+     * Property key that stores the number of worker processes used for OCR. 0
+     * means OCR runs in the application process.
+     */
+    public static final String PROP_OCR_WORKERS = "ocr.workers";
+
+    /**
+     * Property key that stores the number of pages after which an OCR worker
+     * process is replaced by a new one (0 = never).
+     */
+    public static final String PROP_OCR_WORKERS_MAX_PAGES = "ocr.workers.maxPages";
+
+    /**
+     * Property key that stores the memory in MB above which an OCR worker
+     * process is replaced by a new one (0 = never).
+     */
+    public static final String PROP_OCR_WORKERS_MAX_MEMORY = "ocr.workers.maxMemory";
+
+    /**
+     * Property key that stores the time in ms a page may take to render
+     * before it is abandoned (0 = no limit).
+     */
+    public static final String PROP_DEADLINE_RENDER = "deadline.render";
+
+    /**
+     * Property key that stores the time in ms the QR code detection may take
+     * for a page before it is abandoned (0 = no limit).
+     */
+    public static final String PROP_DEADLINE_QR = "deadline.qr";
+
+    /**
+     * Property key that stores the time in ms OCR may take for a page before
+     * it is abandoned (0 = no limit).
+     */
+    public static final String PROP_DEADLINE_OCR = "deadline.ocr";
+
+    /**
+     * Property key that stores the memory policy for PDF documents. Valid
+     * values are "auto", "memory", "mixed" and "file".
+     */
+    public static final String PROP_MEMORY_POLICY = "memory.policy";
+
+    /**
+     * Property key that stores the fraction (0.0 - 1.0) of the maximum heap
+     * above which new documents use temporary files instead of main memory.
+     */
+    public static final String PROP_MEMORY_THRESHOLD = "memory.threshold";
+
+    /**
+     * Property key that stores the memory budget in MB for the preview images
+     * of all opened documents.
+     */
+    public static final String PROP_PREVIEW_CACHE_SIZE = "preview.cacheSize";
+
+    /**
+     * Property key that stores the size limit in MB of the page previews that
+     * are kept on disk for documents opened again (0 to disable).
+     */
+    public static final String PROP_PREVIEW_DISK_CACHE_SIZE = "preview.diskCacheSize";
+
+    /**
+     * Property key that stores the directory of the page previews that are
+     * kept on disk.
+     */
+    public static final String PROP_PREVIEW_DISK_CACHE_DIR = "preview.diskCacheDir";
+
+    /**
+     * Property key that stores the time in seconds after which the document of
+     * a tab that is not used is closed (0 to keep all documents open). It is
+     * loaded again from its file when the tab is used again.
+     */
+    public static final String PROP_TABS_IDLE_TIMEOUT = "tabs.idleTimeout";
+
+    /**
+     * Property key that stores the name of the render profile for page
+     * previews ("quality", "preview" or "analysis").
+     */
+    public static final String PROP_RENDER_PROFILE_PREVIEW = "render.profile.preview";
+
+    /**
+     * Property key that stores the name of the render profile for pages that
+     * are searched for QR codes or checked for being empty.
+     */
+    public static final String PROP_RENDER_PROFILE_ANALYSIS = "render.profile.analysis";
+
+    /**
+     * Property key that stores the value for the flag if source PDF files are
+     * read through memory mapped file access instead of buffered file access.
+     */
+    public static final String PROP_IO_MAPPED = "io.mapped";
+
+    /**
+     * Property key that stores the value for the flag if unmodified objects
+     * are copied directly from the source file into split files (only used if
+     * no OCR text was added to the document).
+     */
+    public static final String PROP_OUTPUT_PASS_THROUGH = "output.passThrough";
+
+    /**
+     * Property key that stores the value for the flag if split files are
+     * written compact (duplicate streams removed, compressed object streams).
+     */
+    public static final String PROP_OUTPUT_COMPACT = "output.compact";
+
+    /**
+     * Property key that stores the value for the flag if images of split files
+     * are recompressed (bitonal images as CCITT G4, downsampling).
+     */
+    public static final String PROP_OUTPUT_RECOMPRESS = "output.recompress";
+
+    /**
+     * Property key that stores the resolution to downsample images of split
+     * files to (0 = no downsampling).
+     */
+    public static final String PROP_OUTPUT_RECOMPRESS_DPI = "output.recompress.dpi";
+
+    /**
+     * Property key that stores the value for the flag if split files are
+     * written linearized (fast web view).
+     */
+    public static final String PROP_OUTPUT_LINEARIZED = "output.linearized";
+
+    /**
+     * Property key that stores how split files are published in the target
+     * directory (direct, atomic, batch or sync).
+     */
+    public static final String PROP_OUTPUT_COMMIT = "output.commit";
+
+    /**
+     * Property key that stores the number of split files that are forced to
+     * disk together (only used by output.commit=batch).
+     */
+    public static final String PROP_OUTPUT_COMMIT_BATCH_SIZE = "output.commit.batchSize";
+
+    /**
+     * Property key that stores the maximum time in ms a split file waits for
+     * its batch (only used by output.commit=batch).
+     */
+    public static final String PROP_OUTPUT_COMMIT_BATCH_INTERVAL = "output.commit.batchInterval";
+
+    /**
+     * Property key that stores the value for the flag if splitting is
+     * recorded in a journal next to the split files, so an interrupted split
+     * can be resumed.
+     */
+    public static final String PROP_SPLIT_JOURNAL = "split.journal";
+
+    /**
+     * Property key that stores the number of worker processes the command
+     * line splitter shards a source file across (0 or 1 = split in process).
+     */
+    public static final String PROP_SPLIT_SHARDS = "split.shards";
+
     /**
      * Retrieve the config files that stores the application config. The logic
      * is to return only existing config files in the order of the following
@@ -346,6 +530,39 @@ public class Config extends Properties
         res.put(PROP_OCR_LANG, "deu+eng");
         res.put(PROP_OCR_ENGINE_MODE, "3");
         res.put(PROP_OCR_IMG_SCALE, "2.5");
+        res.put(PROP_OCR_PREPROCESS, String.valueOf(false));
+        res.put(PROP_OCR_PREPROCESS_BINARIZE, "sauvola");
+        res.put(PROP_OCR_PREPROCESS_DESPECKLE, "4");
+        res.put(PROP_OCR_PREPROCESS_DESKEW, String.valueOf(true));
+        res.put(PROP_OCR_THREAD_COUNT, "0");
+        res.put(PROP_OCR_WORKERS, "0");
+        res.put(PROP_OCR_WORKERS_MAX_PAGES, "500");
+        res.put(PROP_OCR_WORKERS_MAX_MEMORY, "1024");
+        res.put(PROP_DEADLINE_RENDER, "60000");
+        res.put(PROP_DEADLINE_QR, "30000");
+        res.put(PROP_DEADLINE_OCR, "120000");
+        res.put(PROP_MEMORY_POLICY, "auto");
+        res.put(PROP_MEMORY_THRESHOLD, "0.75");
+        res.put(PROP_PREVIEW_CACHE_SIZE, "128");
+        res.put(PROP_PREVIEW_DISK_CACHE_SIZE, "256");
+        res.put(PROP_TABS_IDLE_TIMEOUT, "300");
+        res.put(PROP_PREVIEW_DISK_CACHE_DIR,
+                new File(System.getProperty("user.home"),
+                        ".pdfsplit" + File.separator + "previews")
+                                .getAbsolutePath());
+        res.put(PROP_RENDER_PROFILE_PREVIEW, "preview");
+        res.put(PROP_RENDER_PROFILE_ANALYSIS, "analysis");
+        res.put(PROP_IO_MAPPED, String.valueOf(false));
+        res.put(PROP_OUTPUT_PASS_THROUGH, String.valueOf(false));
+        res.put(PROP_OUTPUT_COMPACT, String.valueOf(false));
+        res.put(PROP_OUTPUT_RECOMPRESS, String.valueOf(false));
+        res.put(PROP_OUTPUT_RECOMPRESS_DPI, "300");
+        res.put(PROP_OUTPUT_LINEARIZED, String.valueOf(false));
+        res.put(PROP_OUTPUT_COMMIT, "atomic");
+        res.put(PROP_OUTPUT_COMMIT_BATCH_SIZE, "32");
+        res.put(PROP_OUTPUT_COMMIT_BATCH_INTERVAL, "1000");
+        res.put(PROP_SPLIT_JOURNAL, String.valueOf(true));
+        res.put(PROP_SPLIT_SHARDS, "0");
 
         res.put(PROP_FILTER_DO_EMPTY_PAGE, String.valueOf(true));
         res.put(PROP_FILTER_EMPTY_PAGE_TH_PIXEL, "25");
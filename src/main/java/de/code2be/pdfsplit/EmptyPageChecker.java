@@ -1,11 +1,15 @@
 package de.code2be.pdfsplit;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
 /**
@@ -59,6 +63,12 @@ public class EmptyPageChecker
      */
     private PDFRenderer mRenderer = null;
 
+    /**
+     * The profile the renderer renders with.
+     */
+    private RenderProfile mRenderProfile = RenderProfile
+            .forName(RenderProfile.ANALYSIS);
+
     /**
      * Create a new instance for the given document.
      * 
@@ -182,6 +192,29 @@ public class EmptyPageChecker
     }
 
 
+    /**
+     * 
+     * @param aRenderProfile
+     *            the profile to render pages with, by default
+     *            {@link RenderProfile#ANALYSIS}.
+     */
+    public void setRenderProfile(RenderProfile aRenderProfile)
+    {
+        mRenderProfile = aRenderProfile;
+        mRenderer = null;
+    }
+
+
+    /**
+     * 
+     * @return the profile pages are rendered with.
+     */
+    public RenderProfile getRenderProfile()
+    {
+        return mRenderProfile;
+    }
+
+
     /**
      * Check if the block for the given buffer is rated filled.
      * 
@@ -192,15 +225,33 @@ public class EmptyPageChecker
      */
     protected boolean isBlockFilled(int[] aBuffer)
     {
-        int pxCount = aBuffer.length / 3;
+        return isBlockFilled(aBuffer, 3);
+    }
+
+
+    /**
+     * Check if the block for the given buffer is rated filled.
+     * 
+     * @param aBuffer
+     *            the buffer to check.
+     * @param aBands
+     *            the number of samples per pixel, 3 for RGB and 1 for gray.
+     * @return true if the buffer shows that the block is filled, false
+     *         otherwise.
+     */
+    protected boolean isBlockFilled(int[] aBuffer, int aBands)
+    {
+        int pxCount = aBuffer.length / aBands;
 
         int pixelThreshold = (mPixelFilledThreshold * 765) / 100;
         int blockThreshold = mBlockFilledThreshold * pxCount / 100;
         int pxFilled = 0;
-        for (int idx = 0; idx < aBuffer.length; idx += 3)
+        for (int idx = 0; idx < aBuffer.length; idx += aBands)
         {
-            if ((765 - aBuffer[idx] - aBuffer[idx + 1]
-                    - aBuffer[idx + 2]) > pixelThreshold)
+            int sum = aBands == 3
+                    ? aBuffer[idx] + aBuffer[idx + 1] + aBuffer[idx + 2]
+                    : aBuffer[idx] * 3;
+            if ((765 - sum) > pixelThreshold)
             {
                 pxFilled++;
                 if (pxFilled > blockThreshold)
@@ -239,44 +290,179 @@ public class EmptyPageChecker
             {
                 if (mRenderer == null)
                 {
-                    mRenderer = new PDFRenderer(mDocument);
+                    mRenderer = mRenderProfile.createRenderer(mDocument);
                 }
-                img = mRenderer.renderImage(aPageIndex);
+                // gray at 72 DPI like the QR code search, so both rate a
+                // page the same
+                img = mRenderer.renderImageWithDPI(aPageIndex, 72f,
+                        ImageType.GRAY);
             }
+            return isImageEmpty(img);
+        }
+        catch (Exception ex)
+        {
+            LOGGER.log(Level.ERROR, ex.getMessage(), ex);
+            // can not say that page is empty
+            return false;
+        }
+    }
+
+
+    /**
+     * Check if an image of a page is empty. This allows to check images that
+     * were rendered before, e.g. while searching for QR codes.
+     * 
+     * @param aImage
+     *            the RGB or gray image of the page.
+     * @return true if the image is rated empty based on configured thresholds,
+     *         false otherwise.
+     */
+    public boolean isImageEmpty(BufferedImage aImage)
+    {
+        int[] table = createFilledTable(aImage);
+        int limit = Math.max(1, mPageFilledThreshold);
+        return countFilledBlocks(table, aImage.getWidth(), aImage.getHeight(),
+                mBlockCountH, mBlockCountV, limit) < limit;
+    }
+
 
-            int pW = img.getWidth();
-            int pH = img.getHeight();
-            int bW = pW / mBlockCountH;
-            int bH = pH / mBlockCountV;
-            int pixelCount = (bW * bH);
-            int[] buffer = new int[pixelCount * 3];
-            int sumBlocks = 0;
+    /**
+     * Create the summed area table of the filled pixels of an image. The entry
+     * at <code>y * (width + 1) + x</code> is the number of filled pixels above
+     * and left of pixel x, y, so the filled pixels of any block are counted
+     * from 4 entries, see {@link #countFilledBlocks}. <br/>
+     * Gray images with one byte per pixel (as rendered with
+     * {@link ImageType#GRAY}) are read from their data buffer directly, other
+     * images line by line from their raster.
+     * 
+     * @param aImage
+     *            the RGB or gray image of the page.
+     * @return the table with <code>(width + 1) * (height + 1)</code> entries.
+     */
+    protected int[] createFilledTable(BufferedImage aImage)
+    {
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        int stride = w + 1;
+        int[] res = new int[stride * (h + 1)];
+        // a pixel is filled if the sum of its RGB values is below this
+        int pixelThreshold = 765 - (mPixelFilledThreshold * 765) / 100;
+
+        Raster raster = aImage.getRaster();
+        byte[] data = null;
+        int offset = 0;
+        int scanline = 0;
+        if (raster.getNumBands() == 1
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getDataBuffer().getNumBanks() == 1
+                && raster.getSampleModel() instanceof ComponentSampleModel
+                && ((ComponentSampleModel) raster.getSampleModel())
+                        .getPixelStride() == 1)
+        {
+            ComponentSampleModel sm = (ComponentSampleModel) raster
+                    .getSampleModel();
+            data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            scanline = sm.getScanlineStride();
+            offset = raster.getDataBuffer().getOffset() + sm.getOffset(
+                    -raster.getSampleModelTranslateX(),
+                    -raster.getSampleModelTranslateY());
+        }
 
-            for (int block_w = 0; block_w < 10; block_w++)
+        boolean[] filledGray = new boolean[256];
+        for (int v = 0; v < filledGray.length; v++)
+        {
+            filledGray[v] = v * 3 < pixelThreshold;
+        }
+        int bands = raster.getNumBands();
+        int[] line = data == null ? new int[w * bands] : null;
+
+        for (int y = 0; y < h; y++)
+        {
+            int rowSum = 0;
+            int above = y * stride;
+            int pos = above + stride;
+            if (data != null)
             {
-                for (int block_h = 0; block_h < 10; block_h++)
+                int px = offset + y * scanline;
+                for (int x = 0; x < w; x++)
                 {
-                    buffer = img.getRaster().getPixels(block_w * bW,
-                            block_h * bH, bW, bH, (int[]) buffer);
-                    if (isBlockFilled(buffer))
+                    if (filledGray[data[px++] & 0xFF])
                     {
-                        sumBlocks++;
-                        if (sumBlocks >= mPageFilledThreshold)
-                        {
-                            return false;
-                        }
+                        rowSum++;
                     }
+                    res[++pos] = res[++above] + rowSum;
+                }
+            }
+            else
+            {
+                raster.getPixels(0, y, w, 1, line);
+                for (int idx = 0; idx < line.length; idx += bands)
+                {
+                    boolean filled = bands >= 3
+                            ? line[idx] + line[idx + 1]
+                                    + line[idx + 2] < pixelThreshold
+                            : filledGray[line[idx] & 0xFF];
+                    if (filled)
+                    {
+                        rowSum++;
+                    }
+                    res[++pos] = res[++above] + rowSum;
                 }
-
             }
-            return true;
         }
-        catch (Exception ex)
+        return res;
+    }
+
+
+    /**
+     * Count the filled blocks of an image. The image is split into a grid of
+     * blocks of equal size, pixels to the right and the bottom that do not
+     * fill a whole block are ignored. As the table is built once, different
+     * grids can be evaluated on it without reading the image again.
+     * 
+     * @param aTable
+     *            the table created by {@link #createFilledTable}.
+     * @param aWidth
+     *            the width of the image.
+     * @param aHeight
+     *            the height of the image.
+     * @param aBlockCountH
+     *            the number of blocks in horizontal direction.
+     * @param aBlockCountV
+     *            the number of blocks in vertical direction.
+     * @param aLimit
+     *            the number of filled blocks to stop counting at.
+     * @return the number of filled blocks, at most aLimit.
+     */
+    protected int countFilledBlocks(int[] aTable, int aWidth, int aHeight,
+        int aBlockCountH, int aBlockCountV, int aLimit)
+    {
+        int stride = aWidth + 1;
+        int bW = aWidth / aBlockCountH;
+        int bH = aHeight / aBlockCountV;
+        int blockThreshold = mBlockFilledThreshold * (bW * bH) / 100;
+        int res = 0;
+        for (int by = 0; by < aBlockCountV; by++)
         {
-            LOGGER.log(Level.ERROR, ex.getMessage(), ex);
-            // can not say that page is empty
-            return false;
+            int top = by * bH * stride;
+            int bottom = top + bH * stride;
+            for (int bx = 0; bx < aBlockCountH; bx++)
+            {
+                int left = bx * bW;
+                int right = left + bW;
+                int filled = aTable[bottom + right] - aTable[bottom + left]
+                        - aTable[top + right] + aTable[top + left];
+                if (filled > blockThreshold)
+                {
+                    res++;
+                    if (res >= aLimit)
+                    {
+                        return res;
+                    }
+                }
+            }
         }
+        return res;
     }
 
 }
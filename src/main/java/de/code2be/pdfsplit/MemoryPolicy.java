@@ -0,0 +1,488 @@
+package de.code2be.pdfsplit;
+
+import java.io.File;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+
+/**
+ * A policy that decides which kind of scratch storage (main memory, mixed or
+ * temporary files) PDFBox is to use for a document. The decision is based on
+ * the size of the document and the current heap headroom:
+ * <ul>
+ * <li>If the document fits into the free heap (or its size is unknown, as for
+ * new documents), mixed mode is used with the main memory part limited to a
+ * fraction of the free heap. A document that grows beyond that limit spills
+ * to temporary files instead of failing.
+ * <li>Otherwise temporary files are used.
+ * </ul>
+ * Additionally the policy can register a usage threshold on the heap memory
+ * pools (see {@link MemoryPoolMXBean#setUsageThreshold(long)}). Once a
+ * threshold is crossed, all new documents use temporary files until the heap
+ * usage has dropped below the threshold again.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class MemoryPolicy
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(MemoryPolicy.class.getName());
+
+    /**
+     * Mode to choose the scratch storage automatically.
+     */
+    public static final int MODE_AUTO = 0;
+
+    /**
+     * Mode to always use main memory.
+     */
+    public static final int MODE_MAIN_MEMORY = 1;
+
+    /**
+     * Mode to always use mixed scratch storage.
+     */
+    public static final int MODE_MIXED = 2;
+
+    /**
+     * Mode to always use temporary files.
+     */
+    public static final int MODE_TEMP_FILE = 3;
+
+    /**
+     * The factor to calculate the expected heap usage of a document out of its
+     * file size (decompressed streams, object tree).
+     */
+    private static final int SIZE_FACTOR = 3;
+
+    /**
+     * The mode of this policy, one of the MODE_* constants.
+     */
+    private final int mMode;
+
+    /**
+     * The fraction (0.0 - 1.0) of the maximum heap at which the usage threshold
+     * is set.
+     */
+    private double mUsageThreshold = 0.75d;
+
+    /**
+     * The maximum fraction (0.0 - 1.0) of the free heap a single document may
+     * use.
+     */
+    private double mMaxHeapShare = 0.25d;
+
+    /**
+     * The directory for temporary files or null to use the default.
+     */
+    private File mTempDirectory;
+
+    /**
+     * A flag to indicate that a usage threshold was crossed.
+     */
+    private volatile boolean mThresholdExceeded = false;
+
+    /**
+     * The memory pools the usage threshold was set on.
+     */
+    private final List<MemoryPoolMXBean> mPools = new ArrayList<>();
+
+    /**
+     * The listener registered at the memory MX bean or null if not installed.
+     */
+    private NotificationListener mListener;
+
+    /**
+     * Create a new policy that chooses the scratch storage automatically.
+     */
+    public MemoryPolicy()
+    {
+        this(MODE_AUTO);
+    }
+
+
+    /**
+     * Create a new policy.
+     *
+     * @param aMode
+     *            the mode, one of the MODE_* constants.
+     */
+    public MemoryPolicy(int aMode)
+    {
+        if (aMode < MODE_AUTO || aMode > MODE_TEMP_FILE)
+        {
+            throw new IllegalArgumentException("Invalid mode " + aMode);
+        }
+        mMode = aMode;
+    }
+
+
+    /**
+     * Create a policy from its textual representation.
+     *
+     * @param aMode
+     *            one of "auto", "memory", "mixed" or "file". Unknown values
+     *            result in an automatic policy.
+     * @return the new policy.
+     */
+    public static MemoryPolicy forName(String aMode)
+    {
+        String mode = aMode != null ? aMode.trim().toLowerCase() : "auto";
+        switch (mode)
+        {
+            case "memory":
+                return new MemoryPolicy(MODE_MAIN_MEMORY);
+            case "mixed":
+                return new MemoryPolicy(MODE_MIXED);
+            case "file":
+                return new MemoryPolicy(MODE_TEMP_FILE);
+            case "auto":
+                return new MemoryPolicy(MODE_AUTO);
+            default:
+                LOGGER.log(Level.WARNING,
+                        "Unknown memory policy {0}, will use auto.", aMode);
+                return new MemoryPolicy(MODE_AUTO);
+        }
+    }
+
+
+    /**
+     *
+     * @return the mode of this policy, one of the MODE_* constants.
+     */
+    public int getMode()
+    {
+        return mMode;
+    }
+
+
+    /**
+     *
+     * @param aUsageThreshold
+     *            the fraction (0.0 - 1.0) of the maximum heap above which new
+     *            documents are using temporary files. This needs to be set
+     *            before {@link #install()} is called.
+     */
+    public void setUsageThreshold(double aUsageThreshold)
+    {
+        mUsageThreshold = aUsageThreshold;
+    }
+
+
+    /**
+     *
+     * @return the fraction (0.0 - 1.0) of the maximum heap above which new
+     *         documents are using temporary files.
+     */
+    public double getUsageThreshold()
+    {
+        return mUsageThreshold;
+    }
+
+
+    /**
+     *
+     * @param aMaxHeapShare
+     *            the maximum fraction (0.0 - 1.0) of the free heap a single
+     *            document may use.
+     */
+    public void setMaxHeapShare(double aMaxHeapShare)
+    {
+        mMaxHeapShare = aMaxHeapShare;
+    }
+
+
+    /**
+     *
+     * @return the maximum fraction (0.0 - 1.0) of the free heap a single
+     *         document may use.
+     */
+    public double getMaxHeapShare()
+    {
+        return mMaxHeapShare;
+    }
+
+
+    /**
+     *
+     * @param aTempDirectory
+     *            the directory for temporary files or null to use the default
+     *            temporary directory.
+     */
+    public void setTempDirectory(File aTempDirectory)
+    {
+        mTempDirectory = aTempDirectory;
+    }
+
+
+    /**
+     *
+     * @return the directory for temporary files or null if the default
+     *         temporary directory is used.
+     */
+    public File getTempDirectory()
+    {
+        return mTempDirectory;
+    }
+
+
+    /**
+     * Register a usage threshold on all heap memory pools that support it and
+     * start listening for threshold notifications. Calling this multiple times
+     * has no further effect.
+     */
+    public synchronized void install()
+    {
+        if (mListener != null)
+        {
+            return;
+        }
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() != MemoryType.HEAP
+                    || !pool.isUsageThresholdSupported())
+            {
+                continue;
+            }
+            long max = pool.getUsage().getMax();
+            if (max <= 0)
+            {
+                continue;
+            }
+            long threshold = (long) (max * mUsageThreshold);
+            pool.setUsageThreshold(threshold);
+            if (pool.isCollectionUsageThresholdSupported())
+            {
+                pool.setCollectionUsageThreshold(threshold);
+            }
+            mPools.add(pool);
+            LOGGER.log(Level.DEBUG, "Set usage threshold of {0} to {1} bytes.",
+                    pool.getName(), threshold);
+        }
+
+        mListener = (Notification aNotification, Object aHandback) -> {
+            String type = aNotification.getType();
+            if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+                    || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+                            .equals(type))
+            {
+                if (!mThresholdExceeded)
+                {
+                    LOGGER.log(Level.INFO,
+                            "Heap usage threshold exceeded, new documents will use temporary files.");
+                }
+                mThresholdExceeded = true;
+            }
+        };
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                .addNotificationListener(mListener, null, null);
+    }
+
+
+    /**
+     * Stop listening for threshold notifications and remove the usage
+     * thresholds set by {@link #install()}.
+     */
+    public synchronized void uninstall()
+    {
+        if (mListener == null)
+        {
+            return;
+        }
+        try
+        {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                    .removeNotificationListener(mListener);
+        }
+        catch (ListenerNotFoundException ex)
+        {
+            LOGGER.log(Level.WARNING, ex.getMessage(), ex);
+        }
+        for (MemoryPoolMXBean pool : mPools)
+        {
+            pool.setUsageThreshold(0);
+            if (pool.isCollectionUsageThresholdSupported())
+            {
+                pool.setCollectionUsageThreshold(0);
+            }
+        }
+        mPools.clear();
+        mListener = null;
+        mThresholdExceeded = false;
+    }
+
+
+    /**
+     * Check if the heap usage is above the usage threshold. A previously
+     * received threshold notification is reset, as soon as all pools are below
+     * their threshold again.
+     *
+     * @return true if new documents should use temporary files only.
+     */
+    public boolean isUnderPressure()
+    {
+        if (mThresholdExceeded)
+        {
+            boolean exceeded = false;
+            synchronized (this)
+            {
+                for (MemoryPoolMXBean pool : mPools)
+                {
+                    if (pool.isUsageThresholdExceeded())
+                    {
+                        exceeded = true;
+                        break;
+                    }
+                }
+            }
+            if (!exceeded)
+            {
+                LOGGER.log(Level.INFO,
+                        "Heap usage below threshold again, new documents might use main memory.");
+                mThresholdExceeded = false;
+            }
+        }
+
+        return mThresholdExceeded
+                || getFreeHeap() < getMaxHeap() * (1.0d - mUsageThreshold);
+    }
+
+
+    /**
+     * Get the memory usage setting for a document of the given size.
+     *
+     * @param aSize
+     *            the (file) size of the document in bytes or -1 if unknown
+     *            (e.g. for new documents).
+     * @return the memory usage setting to use.
+     */
+    public MemoryUsageSetting getMemoryUsageSetting(long aSize)
+    {
+        MemoryUsageSetting res;
+        long free = getFreeHeap();
+        long maxShare = (long) (free * mMaxHeapShare);
+        switch (mMode)
+        {
+            case MODE_MAIN_MEMORY:
+                res = MemoryUsageSetting.setupMainMemoryOnly();
+                break;
+            case MODE_MIXED:
+                res = MemoryUsageSetting.setupMixed(Math.max(1L, maxShare));
+                break;
+            case MODE_TEMP_FILE:
+                res = MemoryUsageSetting.setupTempFileOnly();
+                break;
+            default:
+                long expected = aSize > 0 ? aSize * SIZE_FACTOR : 0;
+                if (isUnderPressure())
+                {
+                    res = MemoryUsageSetting.setupTempFileOnly();
+                }
+                else if (expected <= free)
+                {
+                    // also used for new documents, which can grow beyond any
+                    // limit, so memory only would fail for large parts
+                    res = MemoryUsageSetting.setupMixed(Math.max(1L, maxShare));
+                }
+                else
+                {
+                    res = MemoryUsageSetting.setupTempFileOnly();
+                }
+                break;
+        }
+
+        if (mTempDirectory != null)
+        {
+            res.setTempDir(mTempDirectory);
+        }
+        LOGGER.log(Level.DEBUG,
+                "Memory setting for document of {0} bytes ({1} bytes free): {2}",
+                aSize, free, res);
+        return res;
+    }
+
+
+    /**
+     * Get the memory usage setting for the given file.
+     *
+     * @param aFile
+     *            the PDF file to be loaded.
+     * @return the memory usage setting to use.
+     */
+    public MemoryUsageSetting getMemoryUsageSetting(File aFile)
+    {
+        return getMemoryUsageSetting(aFile != null ? aFile.length() : -1L);
+    }
+
+
+    /**
+     * Get the stream cache to be passed to
+     * {@link org.apache.pdfbox.Loader#loadPDF(File, StreamCacheCreateFunction)}
+     * for the given file.
+     *
+     * @param aFile
+     *            the PDF file to be loaded.
+     * @return the stream cache function to use.
+     */
+    public StreamCacheCreateFunction getStreamCache(File aFile)
+    {
+        return getMemoryUsageSetting(aFile).streamCache;
+    }
+
+
+    /**
+     *
+     * @return the maximum heap size in bytes.
+     */
+    protected long getMaxHeap()
+    {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage();
+        long max = heap.getMax();
+        return max > 0 ? max : Runtime.getRuntime().maxMemory();
+    }
+
+
+    /**
+     *
+     * @return the currently free heap in bytes. This includes heap that is not
+     *         yet committed. The used heap is taken from the usage of the heap
+     *         pools after their last collection, so garbage is not counted as
+     *         used.
+     */
+    protected long getFreeHeap()
+    {
+        long used = 0L;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() != MemoryType.HEAP || !pool.isValid())
+            {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage == null)
+            {
+                // not collected by a GC, all of it is live
+                usage = pool.getUsage();
+            }
+            used += usage.getUsed();
+        }
+        return Math.max(0L, getMaxHeap() - used);
+    }
+}
@@ -1,14 +1,22 @@
 package de.code2be.pdfsplit;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
+import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.IOUtils;
 import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
 import org.apache.pdfbox.io.ScratchFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
@@ -20,6 +28,8 @@ import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
 
+import de.code2be.pdfsplit.io.MappedRandomAccessRead;
+
 /**
  * Some helper functions for handling PDF Documents.
  * 
@@ -32,6 +42,47 @@ public class PDFHelper
     private static final Logger LOGGER = System
             .getLogger(PDFHelper.class.getName());
 
+    /**
+     * Load a PDF document from a file.
+     * 
+     * @param aFile
+     *            the file to load.
+     * @param aMapped
+     *            true to read the file through memory mapped chunks (see
+     *            {@link MappedRandomAccessRead}), false to use buffered file
+     *            access.
+     * @param aStreamCache
+     *            the stream cache to use for the document or null to use main
+     *            memory only.
+     * @return the loaded document.
+     * @throws IOException
+     *             if the file can not be read or parsed.
+     */
+    public static PDDocument loadPDF(File aFile, boolean aMapped,
+            StreamCacheCreateFunction aStreamCache)
+        throws IOException
+    {
+        StreamCacheCreateFunction cache = aStreamCache != null ? aStreamCache
+                : IOUtils.createMemoryOnlyStreamCache();
+        if (!aMapped)
+        {
+            return Loader.loadPDF(aFile, cache);
+        }
+
+        MappedRandomAccessRead source = new MappedRandomAccessRead(aFile);
+        try
+        {
+            // the document closes the source on close
+            return Loader.loadPDF(source, cache);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            source.close();
+            throw ex;
+        }
+    }
+
+
     /**
      * Create a new PDF document and copy the attributes from the given existing
      * document.
@@ -160,4 +211,43 @@ public class PDFHelper
         return imported;
     }
 
+
+    /**
+     * Compute the hash of the content of a file, e.g. to recognize a file
+     * that was processed before.
+     * 
+     * @param aFile
+     *            the file.
+     * @return the SHA-256 hash of the given file as hex string.
+     * @throws IOException
+     *             if the file can not be read.
+     */
+    public static String computeHash(File aFile) throws IOException
+    {
+        MessageDigest md;
+        try
+        {
+            md = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(aFile.toPath()))
+        {
+            int len;
+            while ((len = in.read(buf)) > 0)
+            {
+                md.update(buf, 0, len);
+            }
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : md.digest())
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
 }
@@ -4,15 +4,20 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.util.List;
 
 import javax.swing.UIManager;
 
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
+import de.code2be.pdfsplit.image.ImageRecompressor;
+import de.code2be.pdfsplit.output.IOutputSink;
+import de.code2be.pdfsplit.output.OutputCommitter;
+import de.code2be.pdfsplit.output.ZipOutputSink;
+import de.code2be.pdfsplit.shard.ShardedSplitter;
 import de.code2be.pdfsplit.split.TextSplitIdentifier;
 import de.code2be.pdfsplit.ui.swing.PDFSplitFrame;
 
@@ -28,6 +33,28 @@ public class PDFSplitter
 
     private static String mSeparator = DEFAULT_SEP;
 
+    private static boolean mMapped = false;
+
+    private static boolean mPassThrough = false;
+
+    private static boolean mCompact = false;
+
+    private static boolean mRecompress = false;
+
+    private static int mRecompressDpi = 300;
+
+    private static boolean mLinearized = false;
+
+    private static String mCommitMode = "atomic";
+
+    private static int mCommitBatchSize = 32;
+
+    private static int mCommitBatchInterval = 1000;
+
+    private static boolean mJournal = true;
+
+    private static int mShards = 0;
+
     private static void loadSettings()
     {
         String exedir = System.getProperty("launch4j.exedir");
@@ -59,6 +86,55 @@ public class PDFSplitter
                     {
                         mSeparator = parts[1].trim();
                     }
+                    if (parts[0].trim().equals(Config.PROP_IO_MAPPED))
+                    {
+                        mMapped = Boolean.parseBoolean(parts[1].trim());
+                    }
+                    if (parts[0].trim()
+                            .equals(Config.PROP_OUTPUT_PASS_THROUGH))
+                    {
+                        mPassThrough = Boolean.parseBoolean(parts[1].trim());
+                    }
+                    if (parts[0].trim().equals(Config.PROP_OUTPUT_COMPACT))
+                    {
+                        mCompact = Boolean.parseBoolean(parts[1].trim());
+                    }
+                    if (parts[0].trim().equals(Config.PROP_OUTPUT_RECOMPRESS))
+                    {
+                        mRecompress = Boolean.parseBoolean(parts[1].trim());
+                    }
+                    if (parts[0].trim()
+                            .equals(Config.PROP_OUTPUT_RECOMPRESS_DPI))
+                    {
+                        mRecompressDpi = Integer.parseInt(parts[1].trim());
+                    }
+                    if (parts[0].trim().equals(Config.PROP_OUTPUT_LINEARIZED))
+                    {
+                        mLinearized = Boolean.parseBoolean(parts[1].trim());
+                    }
+                    if (parts[0].trim().equals(Config.PROP_OUTPUT_COMMIT))
+                    {
+                        mCommitMode = parts[1].trim();
+                    }
+                    if (parts[0].trim()
+                            .equals(Config.PROP_OUTPUT_COMMIT_BATCH_SIZE))
+                    {
+                        mCommitBatchSize = Integer.parseInt(parts[1].trim());
+                    }
+                    if (parts[0].trim()
+                            .equals(Config.PROP_OUTPUT_COMMIT_BATCH_INTERVAL))
+                    {
+                        mCommitBatchInterval = Integer
+                                .parseInt(parts[1].trim());
+                    }
+                    if (parts[0].trim().equals(Config.PROP_SPLIT_JOURNAL))
+                    {
+                        mJournal = Boolean.parseBoolean(parts[1].trim());
+                    }
+                    if (parts[0].trim().equals(Config.PROP_SPLIT_SHARDS))
+                    {
+                        mShards = Integer.parseInt(parts[1].trim());
+                    }
                 }
             }
         }
@@ -80,7 +156,20 @@ public class PDFSplitter
             {
                 mSeparator = args[1];
             }
-            performSplit(input, mSeparator, input.getParentFile());
+            if (args.length > 2 && args[2].equals("-"))
+            {
+                // stream all split documents as ZIP archive to stdout
+                try (ZipOutputSink sink = new ZipOutputSink(System.out))
+                {
+                    performSplit(input, mSeparator, sink);
+                }
+            }
+            else
+            {
+                performSplit(input, mSeparator, args.length > 2
+                        ? new File(args[2])
+                        : input.getParentFile());
+            }
         }
         else
         {
@@ -93,42 +182,184 @@ public class PDFSplitter
     protected static int performSplit(File aFile, String aSeparator,
             File aDirectory)
         throws IOException
+    {
+        if (!aDirectory.isDirectory())
+        {
+            throw new RuntimeException(
+                    "Directory " + aDirectory + " does not exist!");
+        }
+        return performSplit(aFile, aSeparator, aDirectory, null, System.out);
+    }
+
+
+    /**
+     * Split the given file into the given sink. Messages are printed to
+     * stderr, as the sink might write to stdout.
+     */
+    protected static int performSplit(File aFile, String aSeparator,
+            IOutputSink aSink)
+        throws IOException
+    {
+        return performSplit(aFile, aSeparator, null, aSink, System.err);
+    }
+
+
+    private static int performSplit(File aFile, String aSeparator,
+            File aDirectory, IOutputSink aSink, PrintStream aMessages)
+        throws IOException
     {
         if (!aFile.exists() || !aFile.isFile() || !aFile.canRead())
         {
             throw new RuntimeException(
                     "File " + aFile + " does not exist or can not be read!");
         }
-        if (!aDirectory.isDirectory())
+        if (mShards > 1 && aDirectory != null)
         {
-            throw new RuntimeException(
-                    "Directory " + aDirectory + " does not exist!");
+            return performShardedSplit(aFile, aSeparator, aDirectory,
+                    aMessages);
+        }
+
+        MemoryPolicy memPolicy = new MemoryPolicy();
+        memPolicy.install();
+        try
+        {
+            return performSplit(aFile, aSeparator, aDirectory, aSink,
+                    aMessages, memPolicy);
         }
+        finally
+        {
+            // the usage thresholds are global to the JVM
+            memPolicy.uninstall();
+        }
+    }
 
-        PDDocument doc = Loader.loadPDF(aFile);
+
+    /**
+     * Split the given file in this process with the given memory policy.
+     */
+    private static int performSplit(File aFile, String aSeparator,
+            File aDirectory, IOutputSink aSink, PrintStream aMessages,
+            MemoryPolicy aMemPolicy)
+        throws IOException
+    {
+        PDDocument doc = PDFHelper.loadPDF(aFile, mMapped,
+                aMemPolicy.getStreamCache(aFile));
         int pgCount = doc.getNumberOfPages();
-        System.out.println("Found " + pgCount + " pages!");
+        aMessages.println("Found " + pgCount + " pages!");
 
+        String namePattern = aFile.getName().replace(".pdf", "_{0}.pdf");
         SmartSplitter ss = new SmartSplitter();
+        ss.setTargetDirectory(aDirectory);
+        ss.setOutputSink(aSink);
+        ss.setNamePattern(namePattern);
+        ss.setMemoryPolicy(aMemPolicy);
+        ss.setSourceFile(aFile);
+        ss.setPassThrough(mPassThrough);
+        ss.setCompact(mCompact);
+        ss.setLinearized(mLinearized);
+        OutputCommitter committer = OutputCommitter.forName(mCommitMode);
+        committer.setBatchSize(mCommitBatchSize);
+        committer.setBatchInterval(mCommitBatchInterval);
+        ss.setOutputCommitter(committer);
+        if (mRecompress)
+        {
+            ImageRecompressor recompressor = new ImageRecompressor();
+            recompressor.setTargetDpi(mRecompressDpi);
+            ss.setImageRecompressor(recompressor);
+        }
         ss.addSplitPageIdentifier(new TextSplitIdentifier(new String[]
         {
                 aSeparator
         }, 1));
-        List<PDDocument> allDocs = ss.split(doc);
-
-        System.out.println("Found " + allDocs.size() + " documents!");
+        // split files of a stream sink can not be resumed
+        SplitJournal journal = null;
+        if (mJournal && aDirectory != null)
+        {
+            Config settings = new Config();
+            settings.setConfigValS(Config.PROP_SEPARATOR_TEXT, aSeparator);
+            settings.setConfigValI(Config.PROP_SEPARATOR_MATCH_COUNT, 1);
+            journal = SplitJournal.open(aFile, aDirectory,
+                    SplitJournal.getSettings(settings, namePattern));
+        }
+        List<PDDocument> allDocs;
+        try
+        {
+            ss.setJournal(journal);
+            allDocs = ss.split(doc);
+        }
+        finally
+        {
+            if (journal != null)
+            {
+                journal.close();
+            }
+        }
 
-        int id = 0;
+        aMessages.println("Found " + allDocs.size() + " documents!");
 
+        // the split documents are already written by the splitter
         for (PDDocument newDoc : allDocs)
         {
-            File f = new File(aDirectory,
-                    aFile.getName().replace(".pdf", "_" + id + ".pdf"));
-            newDoc.save(f);
-            id++;
+            newDoc.close();
+        }
+        doc.close();
+
+        return allDocs.size();
+    }
+
+
+    /**
+     * Split the given file with {@link #mShards} worker processes.
+     */
+    private static int performShardedSplit(File aFile, String aSeparator,
+            File aDirectory, PrintStream aMessages)
+        throws IOException
+    {
+        Config cfg = Config.createDefaultConfig();
+        cfg.put(Config.PROP_SEPARATOR_USE_QR, String.valueOf(false));
+        cfg.put(Config.PROP_SEPARATOR_USE_TEXT, String.valueOf(true));
+        cfg.put(Config.PROP_SEPARATOR_TEXT, aSeparator);
+        cfg.put(Config.PROP_SEPARATOR_MATCH_COUNT, "1");
+        cfg.put(Config.PROP_SEPARATOR_DO_OCR, String.valueOf(false));
+        cfg.put(Config.PROP_FILTER_DO_OCR, String.valueOf(false));
+        cfg.put(Config.PROP_IO_MAPPED, String.valueOf(mMapped));
+        cfg.put(Config.PROP_OUTPUT_PASS_THROUGH, String.valueOf(mPassThrough));
+        cfg.put(Config.PROP_OUTPUT_COMPACT, String.valueOf(mCompact));
+        cfg.put(Config.PROP_OUTPUT_RECOMPRESS, String.valueOf(mRecompress));
+        cfg.put(Config.PROP_OUTPUT_RECOMPRESS_DPI,
+                String.valueOf(mRecompressDpi));
+        cfg.put(Config.PROP_OUTPUT_LINEARIZED, String.valueOf(mLinearized));
+        cfg.put(Config.PROP_OUTPUT_COMMIT, mCommitMode);
+        cfg.put(Config.PROP_OUTPUT_COMMIT_BATCH_SIZE,
+                String.valueOf(mCommitBatchSize));
+        cfg.put(Config.PROP_OUTPUT_COMMIT_BATCH_INTERVAL,
+                String.valueOf(mCommitBatchInterval));
+        if (mJournal)
+        {
+            aMessages.println(
+                    "The journal is not supported with shards, an interrupted split starts over.");
+        }
+
+        ShardedSplitter ss = new ShardedSplitter(cfg);
+        ss.setShardCount(mShards);
+        ss.setTargetDirectory(aDirectory);
+        ss.setNamePattern(aFile.getName().replace(".pdf", "_{0}.pdf"));
+        MemoryPolicy memPolicy = new MemoryPolicy();
+        memPolicy.install();
+        List<File> files;
+        try
+        {
+            // documents at shard boundaries are written in this process
+            ss.setMemoryPolicy(memPolicy);
+            files = ss.split(aFile);
+        }
+        finally
+        {
+            memPolicy.uninstall();
         }
 
-        return id;
+        aMessages.println("Found " + files.size() + " documents!");
+        return files.size();
     }
 
 
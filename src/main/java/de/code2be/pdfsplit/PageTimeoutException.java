@@ -0,0 +1,63 @@
+package de.code2be.pdfsplit;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the {@link PageWatchdog} if a stage of the page analysis
+ * (rendering, QR code detection or OCR) did not finish within its deadline.
+ * The stuck work is abandoned, its result is not used.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class PageTimeoutException extends IOException
+{
+
+    private static final long serialVersionUID = 4906310741395275188L;
+
+    private final String mStage;
+
+    private final int mPageIndex;
+
+    private final long mDeadline;
+
+    public PageTimeoutException(String aStage, int aPageIndex, long aDeadline)
+    {
+        super(aStage + " of page " + (aPageIndex + 1)
+                + " did not finish within " + aDeadline + "ms");
+        mStage = aStage;
+        mPageIndex = aPageIndex;
+        mDeadline = aDeadline;
+    }
+
+
+    /**
+     *
+     * @return the stage that timed out, one of the PageWatchdog.STAGE_*
+     *         constants.
+     */
+    public String getStage()
+    {
+        return mStage;
+    }
+
+
+    /**
+     *
+     * @return the index of the page (starting at 0).
+     */
+    public int getPageIndex()
+    {
+        return mPageIndex;
+    }
+
+
+    /**
+     *
+     * @return the deadline in ms that was exceeded.
+     */
+    public long getDeadline()
+    {
+        return mDeadline;
+    }
+}
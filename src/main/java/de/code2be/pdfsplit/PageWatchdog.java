@@ -0,0 +1,816 @@
+package de.code2be.pdfsplit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Runs the stages of the page analysis (rendering, QR code detection, OCR)
+ * with a deadline per stage, so a single pathological page (e.g. a huge
+ * vector drawing or a corrupt image) can not stall a whole batch. <br/>
+ * A stage with a deadline runs on a separate thread while the calling thread
+ * waits for it. If the deadline passes, the calling thread gets a
+ * {@link PageTimeoutException} and continues with the next page. The stuck
+ * work can not be stopped (neither PDFBox nor the native OCR library react
+ * on interrupts), it is abandoned and its result is dropped when it
+ * finishes. <br/>
+ * An abandoned render keeps using (and locking) its document. So renders
+ * with a deadline use a separate copy of the document, loaded from the
+ * {@link #setSourceFile(File) source file}. When a render is abandoned, its
+ * copy is left to it and closed when it finishes, the next renders use a new
+ * copy. The document that is split is never touched by a stuck render.
+ * Without a source file, a render is abandoned together with its document:
+ * renders of the document fail with a {@link RenderAbandonedException} until
+ * the stuck render finishes. <br/>
+ * The watchdog also keeps latency statistics for all stages, including
+ * stages without deadline.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class PageWatchdog implements Closeable
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(PageWatchdog.class.getName());
+
+    /**
+     * The stage that renders a page to an image.
+     */
+    public static final String STAGE_RENDER = "render";
+
+    /**
+     * The stage that searches QR codes in a page image.
+     */
+    public static final String STAGE_QR = "qr";
+
+    /**
+     * The stage that runs OCR on a page image.
+     */
+    public static final String STAGE_OCR = "ocr";
+
+    private static final int STATE_RUNNING = 0;
+
+    private static final int STATE_DONE = 1;
+
+    private static final int STATE_ABANDONED = 2;
+
+    /**
+     * The deadlines in ms per stage. Stages without deadline run in the
+     * calling thread.
+     */
+    private final Map<String, Long> mDeadlines = new ConcurrentHashMap<>();
+
+    private final Map<String, StageStats> mStats = new ConcurrentHashMap<>();
+
+    /**
+     * The timeouts that occurred so far.
+     */
+    private final List<PageTimeoutException> mTimeouts = new ArrayList<>();
+
+    /**
+     * The number of abandoned tasks that are still running.
+     */
+    private final AtomicInteger mAbandonedCount = new AtomicInteger();
+
+    /**
+     * The file to load the copies for renders with deadline from or null to
+     * render from the given document.
+     */
+    private File mSourceFile;
+
+    /**
+     * The copy of the source that renders with deadline use, loaded on first
+     * use and replaced when a render of it is abandoned.
+     */
+    private PDDocument mRenderDocument;
+
+    /**
+     * The documents with abandoned renders that are still running, with the
+     * number of these renders. Guarded by itself.
+     */
+    private final Map<PDDocument, Integer> mStuckDocuments = new IdentityHashMap<>();
+
+    private final ExecutorService mExecutor = Executors
+            .newCachedThreadPool((aRunnable) -> {
+                Thread t = new Thread(aRunnable, "PageWatchdog");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * Latency statistics of a stage. Percentiles are calculated on the most
+     * recent {@value #WINDOW} calls.
+     */
+    public static class StageStats
+    {
+
+        private static final int WINDOW = 4096;
+
+        private final long[] mLatencies = new long[WINDOW];
+
+        private long mCount = 0L;
+
+        private long mTimeoutCount = 0L;
+
+        private long mMaxLatency = 0L;
+
+        synchronized void record(long aMillis, boolean aTimeout)
+        {
+            mLatencies[(int) (mCount % WINDOW)] = aMillis;
+            mCount++;
+            mMaxLatency = Math.max(mMaxLatency, aMillis);
+            if (aTimeout)
+            {
+                mTimeoutCount++;
+            }
+        }
+
+
+        /**
+         *
+         * @return the number of calls of the stage.
+         */
+        public synchronized long getCount()
+        {
+            return mCount;
+        }
+
+
+        /**
+         *
+         * @return the number of calls that exceeded the deadline.
+         */
+        public synchronized long getTimeoutCount()
+        {
+            return mTimeoutCount;
+        }
+
+
+        /**
+         *
+         * @return the maximum latency in ms. For timed out calls, the
+         *         deadline is counted.
+         */
+        public synchronized long getMaxLatency()
+        {
+            return mMaxLatency;
+        }
+
+
+        /**
+         *
+         * @param aPercentile
+         *            the percentile (0.0 - 1.0), e.g. 0.95.
+         * @return the latency in ms that the given part of the recent calls
+         *         did not exceed, 0 if there were no calls.
+         */
+        public synchronized long getPercentile(double aPercentile)
+        {
+            int n = (int) Math.min(mCount, WINDOW);
+            if (n == 0)
+            {
+                return 0L;
+            }
+            long[] sorted = Arrays.copyOf(mLatencies, n);
+            Arrays.sort(sorted);
+            int idx = (int) Math.ceil(aPercentile * n) - 1;
+            return sorted[Math.max(0, Math.min(n - 1, idx))];
+        }
+
+
+        @Override
+        public synchronized String toString()
+        {
+            return mCount + " calls, " + mTimeoutCount + " timeouts, p50 "
+                    + getPercentile(0.5) + "ms, p95 " + getPercentile(0.95)
+                    + "ms, p99 " + getPercentile(0.99) + "ms, max "
+                    + mMaxLatency + "ms";
+        }
+    }
+
+    /**
+     * A render of a page.
+     *
+     * @param <T>
+     *            the result of the render, usually an image.
+     */
+    @FunctionalInterface
+    public interface RenderTask<T>
+    {
+
+        /**
+         * Render a page of the given document. The caller holds the lock of
+         * the document.
+         *
+         * @param aDocument
+         *            the document to render from. This can be a copy of the
+         *            document the render was requested for.
+         * @return the result.
+         * @throws Exception
+         *             if the page can not be rendered.
+         */
+        T render(PDDocument aDocument) throws Exception;
+    }
+
+    /**
+     *
+     * @param aSourceFile
+     *            the file of the analysed document. Renders with deadline use
+     *            copies of the document loaded from this file, so a stuck
+     *            render does not block the document. Null to render from the
+     *            document itself.
+     */
+    public synchronized void setSourceFile(File aSourceFile)
+    {
+        mSourceFile = aSourceFile;
+        closeRenderDocument();
+    }
+
+
+    /**
+     *
+     * @return the file of the analysed document or null.
+     */
+    public synchronized File getSourceFile()
+    {
+        return mSourceFile;
+    }
+
+
+    /**
+     *
+     * @param aStage
+     *            the stage, one of the STAGE_* constants.
+     * @param aDeadline
+     *            the deadline in ms for a single call of the stage or 0 for
+     *            no deadline.
+     */
+    public void setDeadline(String aStage, long aDeadline)
+    {
+        if (aDeadline > 0L)
+        {
+            mDeadlines.put(aStage, aDeadline);
+        }
+        else
+        {
+            mDeadlines.remove(aStage);
+        }
+    }
+
+
+    /**
+     *
+     * @param aStage
+     *            the stage, one of the STAGE_* constants.
+     * @return the deadline in ms of the stage or 0 if it has no deadline.
+     */
+    public long getDeadline(String aStage)
+    {
+        return mDeadlines.getOrDefault(aStage, 0L);
+    }
+
+
+    /**
+     *
+     * @param aStage
+     *            the stage, one of the STAGE_* constants.
+     * @return the latency statistics of the stage.
+     */
+    public StageStats getStats(String aStage)
+    {
+        return mStats.computeIfAbsent(aStage, (k) -> new StageStats());
+    }
+
+
+    /**
+     *
+     * @return the timeouts that occurred so far. Each one names the stage and
+     *         the page that was abandoned.
+     */
+    public List<PageTimeoutException> getTimeouts()
+    {
+        synchronized (mTimeouts)
+        {
+            return new ArrayList<>(mTimeouts);
+        }
+    }
+
+
+    /**
+     *
+     * @return the number of abandoned tasks that are still running.
+     */
+    public int getAbandonedCount()
+    {
+        return mAbandonedCount.get();
+    }
+
+
+    /**
+     * Run a stage of the analysis of a page with the watchdog if one is
+     * given, otherwise directly.
+     *
+     * @param aWatchdog
+     *            the watchdog or null.
+     * @param aStage
+     *            the stage, one of the STAGE_* constants.
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aTask
+     *            the work of the stage.
+     * @return the result of the task.
+     * @throws PageTimeoutException
+     *             if the stage did not finish within its deadline.
+     * @throws Exception
+     *             if the task failed.
+     */
+    public static <T> T call(PageWatchdog aWatchdog, String aStage,
+        int aPageIndex, Callable<T> aTask)
+        throws Exception
+    {
+        return call(aWatchdog, aStage, aPageIndex, aTask, null);
+    }
+
+
+    /**
+     * Run a stage of the analysis of a page with the watchdog if one is
+     * given, otherwise directly.
+     *
+     * @param aWatchdog
+     *            the watchdog or null.
+     * @param aStage
+     *            the stage, one of the STAGE_* constants.
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aTask
+     *            the work of the stage.
+     * @param aAbandonedFinished
+     *            called when the task finishes after it was abandoned, e.g.
+     *            to free the resources it used. This can be null.
+     * @return the result of the task.
+     * @throws PageTimeoutException
+     *             if the stage did not finish within its deadline.
+     * @throws Exception
+     *             if the task failed.
+     */
+    public static <T> T call(PageWatchdog aWatchdog, String aStage,
+        int aPageIndex, Callable<T> aTask, Runnable aAbandonedFinished)
+        throws Exception
+    {
+        if (aWatchdog == null)
+        {
+            return aTask.call();
+        }
+        return aWatchdog.call(aStage, aPageIndex, aTask, aAbandonedFinished);
+    }
+
+
+    /**
+     * Run a stage of the analysis of a page. If the stage has a deadline, the
+     * task runs in a separate thread and is abandoned when the deadline
+     * passes.
+     *
+     * @param aStage
+     *            the stage, one of the STAGE_* constants.
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aTask
+     *            the work of the stage.
+     * @return the result of the task.
+     * @throws PageTimeoutException
+     *             if the stage did not finish within its deadline.
+     * @throws Exception
+     *             if the task failed.
+     */
+    public <T> T call(String aStage, int aPageIndex, Callable<T> aTask)
+        throws Exception
+    {
+        return call(aStage, aPageIndex, aTask, null);
+    }
+
+
+    /**
+     * Run a stage of the analysis of a page. If the stage has a deadline, the
+     * task runs in a separate thread and is abandoned when the deadline
+     * passes. The abandoned task keeps running, as native code can not be
+     * interrupted. When it finishes, the given callback is run in its thread.
+     *
+     * @param aStage
+     *            the stage, one of the STAGE_* constants.
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aTask
+     *            the work of the stage.
+     * @param aAbandonedFinished
+     *            called when the task finishes after it was abandoned, e.g.
+     *            to free the resources it used. This can be null.
+     * @return the result of the task.
+     * @throws PageTimeoutException
+     *             if the stage did not finish within its deadline.
+     * @throws Exception
+     *             if the task failed.
+     */
+    public <T> T call(String aStage, int aPageIndex, Callable<T> aTask,
+        Runnable aAbandonedFinished)
+        throws Exception
+    {
+        StageStats stats = getStats(aStage);
+        long deadline = getDeadline(aStage);
+        long start = System.nanoTime();
+        if (deadline <= 0L)
+        {
+            try
+            {
+                return aTask.call();
+            }
+            finally
+            {
+                stats.record(elapsed(start), false);
+            }
+        }
+
+        AtomicInteger state = new AtomicInteger(STATE_RUNNING);
+        Future<T> future = mExecutor.submit(() -> {
+            try
+            {
+                return aTask.call();
+            }
+            finally
+            {
+                if (!state.compareAndSet(STATE_RUNNING, STATE_DONE))
+                {
+                    mAbandonedCount.decrementAndGet();
+                    LOGGER.log(Level.INFO,
+                            "Abandoned {0} of page {1} finished after {2}ms.",
+                            aStage, aPageIndex + 1, elapsed(start));
+                    abandonedFinished(aAbandonedFinished);
+                }
+            }
+        });
+        try
+        {
+            T res = future.get(deadline, TimeUnit.MILLISECONDS);
+            stats.record(elapsed(start), false);
+            return res;
+        }
+        catch (TimeoutException ex)
+        {
+            if (!state.compareAndSet(STATE_RUNNING, STATE_ABANDONED))
+            {
+                // finished right at the deadline
+                return getResult(future, stats, start);
+            }
+            mAbandonedCount.incrementAndGet();
+            future.cancel(true);
+            stats.record(deadline, true);
+            PageTimeoutException res = new PageTimeoutException(aStage,
+                    aPageIndex, deadline);
+            synchronized (mTimeouts)
+            {
+                mTimeouts.add(res);
+            }
+            LOGGER.log(Level.WARNING, res.getMessage());
+            throw res;
+        }
+        catch (ExecutionException ex)
+        {
+            stats.record(elapsed(start), false);
+            throw unwrap(ex);
+        }
+        catch (InterruptedException ex)
+        {
+            future.cancel(true);
+            throw ex;
+        }
+    }
+
+
+    /**
+     * Render a page with the watchdog if one is given, otherwise directly
+     * from the given document.
+     *
+     * @param aWatchdog
+     *            the watchdog or null.
+     * @param aDocument
+     *            the document to render from.
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aTask
+     *            the render.
+     * @return the result of the render.
+     * @throws PageTimeoutException
+     *             if the render did not finish within its deadline.
+     * @throws Exception
+     *             if the render failed.
+     */
+    public static <T> T render(PageWatchdog aWatchdog, PDDocument aDocument,
+        int aPageIndex, RenderTask<T> aTask)
+        throws Exception
+    {
+        if (aWatchdog == null)
+        {
+            synchronized (aDocument)
+            {
+                return aTask.render(aDocument);
+            }
+        }
+        return aWatchdog.render(aDocument, aPageIndex, aTask);
+    }
+
+
+    /**
+     * Render a page as {@link #STAGE_RENDER} stage. With a deadline, the page
+     * is rendered from a copy of the document if a source file is set, see
+     * the class description.
+     *
+     * @param aDocument
+     *            the document to render from.
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aTask
+     *            the render.
+     * @return the result of the render.
+     * @throws PageTimeoutException
+     *             if the render of a copy did not finish within its deadline.
+     * @throws RenderAbandonedException
+     *             if a render of the document itself was abandoned, now or
+     *             before.
+     * @throws Exception
+     *             if the render failed.
+     */
+    public <T> T render(PDDocument aDocument, int aPageIndex,
+        RenderTask<T> aTask)
+        throws Exception
+    {
+        if (getDeadline(STAGE_RENDER) <= 0L)
+        {
+            return call(STAGE_RENDER, aPageIndex, () -> {
+                synchronized (aDocument)
+                {
+                    return aTask.render(aDocument);
+                }
+            });
+        }
+
+        PDDocument doc = getRenderDocument(aDocument);
+        synchronized (mStuckDocuments)
+        {
+            if (doc == aDocument && mStuckDocuments.containsKey(doc))
+            {
+                throw new RenderAbandonedException(aPageIndex, "Page "
+                        + (aPageIndex + 1)
+                        + " is not rendered, an abandoned render of the document is still running");
+            }
+        }
+        AtomicInteger state = new AtomicInteger(STATE_RUNNING);
+        try
+        {
+            return call(STAGE_RENDER, aPageIndex, () -> {
+                try
+                {
+                    synchronized (doc)
+                    {
+                        return aTask.render(doc);
+                    }
+                }
+                finally
+                {
+                    renderFinished(doc, doc != aDocument, state);
+                }
+            });
+        }
+        catch (PageTimeoutException ex)
+        {
+            if (abandonRender(doc, state) && doc == aDocument)
+            {
+                RenderAbandonedException res = new RenderAbandonedException(
+                        aPageIndex, ex.getMessage()
+                                + ", the document can not be analysed further");
+                res.initCause(ex);
+                throw res;
+            }
+            throw ex;
+        }
+    }
+
+
+    /**
+     *
+     * @return the copy of the source to render from or the given document if
+     *         there is no source file.
+     */
+    private synchronized PDDocument getRenderDocument(PDDocument aDocument)
+        throws IOException
+    {
+        if (mSourceFile == null)
+        {
+            return aDocument;
+        }
+        if (mRenderDocument == null)
+        {
+            PDDocument doc = PDFHelper.loadPDF(mSourceFile, false, null);
+            if (doc.getNumberOfPages() != aDocument.getNumberOfPages())
+            {
+                doc.close();
+                LOGGER.log(Level.WARNING,
+                        "{0} does not match the analysed document, will render from the document.",
+                        mSourceFile);
+                mSourceFile = null;
+                return aDocument;
+            }
+            mRenderDocument = doc;
+        }
+        return mRenderDocument;
+    }
+
+
+    /**
+     * Mark the document of a render that did not finish as stuck. A copy is
+     * not used for new renders anymore.
+     *
+     * @return true if the render is still running.
+     */
+    private boolean abandonRender(PDDocument aDocument, AtomicInteger aState)
+    {
+        synchronized (mStuckDocuments)
+        {
+            if (aState.get() == STATE_DONE)
+            {
+                return false;
+            }
+            aState.set(STATE_ABANDONED);
+            mStuckDocuments.merge(aDocument, 1, Integer::sum);
+        }
+        synchronized (this)
+        {
+            if (mRenderDocument == aDocument)
+            {
+                mRenderDocument = null;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Called by each render when it finishes. A copy is closed when the last
+     * abandoned render of it finishes.
+     */
+    private void renderFinished(PDDocument aDocument, boolean aCopy,
+        AtomicInteger aState)
+    {
+        synchronized (mStuckDocuments)
+        {
+            if (aState.getAndSet(STATE_DONE) != STATE_ABANDONED)
+            {
+                return;
+            }
+            int count = mStuckDocuments.get(aDocument).intValue();
+            if (count > 1)
+            {
+                mStuckDocuments.put(aDocument, count - 1);
+                return;
+            }
+            mStuckDocuments.remove(aDocument);
+        }
+        if (aCopy)
+        {
+            close(aDocument);
+        }
+    }
+
+
+    private void closeRenderDocument()
+    {
+        if (mRenderDocument != null)
+        {
+            close(mRenderDocument);
+            mRenderDocument = null;
+        }
+    }
+
+
+    private static void close(PDDocument aDocument)
+    {
+        try
+        {
+            aDocument.close();
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.DEBUG, "Can not close render copy: {0}",
+                    ex.toString());
+        }
+    }
+
+
+    /**
+     * Close the copy of the source used for renders. Copies with abandoned
+     * renders are closed when these finish.
+     */
+    @Override
+    public synchronized void close()
+    {
+        closeRenderDocument();
+    }
+
+
+    private static void abandonedFinished(Runnable aCallback)
+    {
+        if (aCallback == null)
+        {
+            return;
+        }
+        try
+        {
+            aCallback.run();
+        }
+        catch (RuntimeException ex)
+        {
+            LOGGER.log(Level.WARNING,
+                    "Can not clean up abandoned task: {0}", ex.toString());
+        }
+    }
+
+
+    private static <T> T getResult(Future<T> aFuture, StageStats aStats,
+        long aStart)
+        throws Exception
+    {
+        try
+        {
+            return aFuture.get();
+        }
+        catch (ExecutionException ex)
+        {
+            throw unwrap(ex);
+        }
+        finally
+        {
+            aStats.record(elapsed(aStart), false);
+        }
+    }
+
+
+    private static Exception unwrap(ExecutionException aEx)
+    {
+        Throwable cause = aEx.getCause();
+        if (cause instanceof Error)
+        {
+            throw (Error) cause;
+        }
+        return cause instanceof Exception ? (Exception) cause : aEx;
+    }
+
+
+    private static long elapsed(long aStart)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - aStart);
+    }
+
+
+    /**
+     *
+     * @return a summary of the statistics of all stages.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String stage : new String[]
+        {
+                STAGE_RENDER, STAGE_QR, STAGE_OCR
+        })
+        {
+            StageStats stats = mStats.get(stage);
+            if (stats != null)
+            {
+                if (sb.length() > 0)
+                {
+                    sb.append("; ");
+                }
+                sb.append(stage).append(": ").append(stats);
+            }
+        }
+        return sb.toString();
+    }
+}
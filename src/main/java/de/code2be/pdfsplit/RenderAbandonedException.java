@@ -0,0 +1,37 @@
+package de.code2be.pdfsplit;
+
+/**
+ * Thrown by the {@link PageWatchdog} if a page of a document can not be
+ * rendered because an abandoned render of the same document is still running.
+ * This only happens for documents the watchdog has no separate copy of (see
+ * {@link PageWatchdog#setSourceFile(java.io.File)}), as the stuck render still
+ * uses the document. The analysis of the document has to stop, the remaining
+ * pages can not be checked.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class RenderAbandonedException extends IllegalStateException
+{
+
+    private static final long serialVersionUID = -3061837127437911412L;
+
+    private final int mPageIndex;
+
+    public RenderAbandonedException(int aPageIndex, String aMessage)
+    {
+        super(aMessage);
+        mPageIndex = aPageIndex;
+    }
+
+
+    /**
+     *
+     * @return the index of the page (starting at 0) that could not be
+     *         rendered.
+     */
+    public int getPageIndex()
+    {
+        return mPageIndex;
+    }
+}
@@ -0,0 +1,313 @@
+package de.code2be.pdfsplit;
+
+import java.awt.RenderingHints;
+import java.io.Serializable;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+/**
+ * Describes how pages are rendered. PDFBox renders with the best quality by
+ * default, which is more than needed for small previews or for images that
+ * are only searched for QR codes or content:
+ * <ul>
+ * <li>{@link #QUALITY} - the PDFBox defaults.
+ * <li>{@link #PREVIEW} - large images are subsampled to the output resolution
+ * (a scanned page is decoded at a fraction of its size), images are
+ * interpolated bilinear instead of bicubic and annotations are skipped.
+ * Shapes and text are still antialiased.
+ * <li>{@link #ANALYSIS} - like {@link #PREVIEW}, but without any antialiasing
+ * or interpolation. This gives crisp edges for binarization.
+ * </ul>
+ * Transparency groups are rendered by all profiles: PDFBox has no switch to
+ * draw them cheaper without losing their content.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class RenderProfile implements Serializable
+{
+
+    private static final long serialVersionUID = 2311780413295577362L;
+
+    private static final Logger LOGGER = System
+            .getLogger(RenderProfile.class.getName());
+
+    /**
+     * The name of the profile with the PDFBox default quality.
+     */
+    public static final String QUALITY = "quality";
+
+    /**
+     * The name of the profile for page previews.
+     */
+    public static final String PREVIEW = "preview";
+
+    /**
+     * The name of the profile for renders that are only analyzed (QR codes,
+     * empty pages).
+     */
+    public static final String ANALYSIS = "analysis";
+
+    private final String mName;
+
+    /**
+     * Allow to subsample images with a resolution above the output
+     * resolution.
+     */
+    private boolean mSubsampling = false;
+
+    /**
+     * Antialias shapes and text.
+     */
+    private boolean mAntialiasing = true;
+
+    /**
+     * Interpolate scaled images, bicubic if {@link #mFastHints} is false,
+     * otherwise bilinear.
+     */
+    private boolean mInterpolation = true;
+
+    /**
+     * Prefer speed over quality for the rendering hints.
+     */
+    private boolean mFastHints = false;
+
+    /**
+     * Render the appearances of annotations.
+     */
+    private boolean mAnnotations = true;
+
+    /**
+     * Create a new profile with the PDFBox defaults.
+     *
+     * @param aName
+     *            the name of the profile.
+     */
+    public RenderProfile(String aName)
+    {
+        mName = aName;
+    }
+
+
+    /**
+     * Get a profile by name.
+     *
+     * @param aName
+     *            the name of the profile, one of {@link #QUALITY},
+     *            {@link #PREVIEW} and {@link #ANALYSIS}.
+     * @return a new instance of the profile. For an unknown name the
+     *         {@link #QUALITY} profile is returned.
+     */
+    public static RenderProfile forName(String aName)
+    {
+        String name = aName != null ? aName.trim().toLowerCase() : QUALITY;
+        RenderProfile res = new RenderProfile(name);
+        switch (name)
+        {
+            case PREVIEW:
+                res.setSubsampling(true);
+                res.setFastHints(true);
+                res.setAnnotations(false);
+                return res;
+            case ANALYSIS:
+                res.setSubsampling(true);
+                res.setFastHints(true);
+                res.setAntialiasing(false);
+                res.setInterpolation(false);
+                res.setAnnotations(false);
+                return res;
+            case QUALITY:
+                return res;
+            default:
+                LOGGER.log(Level.WARNING,
+                        "Unknown render profile {0}, will use quality.",
+                        aName);
+                return new RenderProfile(QUALITY);
+        }
+    }
+
+
+    /**
+     *
+     * @return the name of the profile.
+     */
+    public String getName()
+    {
+        return mName;
+    }
+
+
+    /**
+     *
+     * @return true if images with a resolution above the output resolution
+     *         may be subsampled.
+     */
+    public boolean isSubsampling()
+    {
+        return mSubsampling;
+    }
+
+
+    /**
+     *
+     * @param aSubsampling
+     *            true to allow subsampling of images with a resolution above
+     *            the output resolution.
+     */
+    public void setSubsampling(boolean aSubsampling)
+    {
+        mSubsampling = aSubsampling;
+    }
+
+
+    /**
+     *
+     * @return true if shapes and text are antialiased.
+     */
+    public boolean isAntialiasing()
+    {
+        return mAntialiasing;
+    }
+
+
+    /**
+     *
+     * @param aAntialiasing
+     *            true to antialias shapes and text.
+     */
+    public void setAntialiasing(boolean aAntialiasing)
+    {
+        mAntialiasing = aAntialiasing;
+    }
+
+
+    /**
+     *
+     * @return true if scaled images are interpolated.
+     */
+    public boolean isInterpolation()
+    {
+        return mInterpolation;
+    }
+
+
+    /**
+     *
+     * @param aInterpolation
+     *            true to interpolate scaled images, false for nearest
+     *            neighbor.
+     */
+    public void setInterpolation(boolean aInterpolation)
+    {
+        mInterpolation = aInterpolation;
+    }
+
+
+    /**
+     *
+     * @return true if the rendering hints prefer speed over quality.
+     */
+    public boolean isFastHints()
+    {
+        return mFastHints;
+    }
+
+
+    /**
+     *
+     * @param aFastHints
+     *            true to prefer speed over quality for the rendering hints.
+     */
+    public void setFastHints(boolean aFastHints)
+    {
+        mFastHints = aFastHints;
+    }
+
+
+    /**
+     *
+     * @return true if the appearances of annotations are rendered.
+     */
+    public boolean isAnnotations()
+    {
+        return mAnnotations;
+    }
+
+
+    /**
+     *
+     * @param aAnnotations
+     *            true to render the appearances of annotations (e.g. form
+     *            fields, stamps, comments).
+     */
+    public void setAnnotations(boolean aAnnotations)
+    {
+        mAnnotations = aAnnotations;
+    }
+
+
+    /**
+     *
+     * @return the rendering hints of the profile or null to use the PDFBox
+     *         defaults.
+     */
+    public RenderingHints createRenderingHints()
+    {
+        if (!mFastHints && mAntialiasing && mInterpolation)
+        {
+            return null;
+        }
+        RenderingHints res = new RenderingHints(null);
+        res.put(RenderingHints.KEY_RENDERING,
+                mFastHints ? RenderingHints.VALUE_RENDER_SPEED
+                        : RenderingHints.VALUE_RENDER_QUALITY);
+        res.put(RenderingHints.KEY_COLOR_RENDERING,
+                mFastHints ? RenderingHints.VALUE_COLOR_RENDER_SPEED
+                        : RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        res.put(RenderingHints.KEY_ANTIALIASING,
+                mAntialiasing ? RenderingHints.VALUE_ANTIALIAS_ON
+                        : RenderingHints.VALUE_ANTIALIAS_OFF);
+        res.put(RenderingHints.KEY_TEXT_ANTIALIASING,
+                mAntialiasing ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON
+                        : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        Object interpolation = RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+        if (mInterpolation)
+        {
+            interpolation = mFastHints
+                    ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                    : RenderingHints.VALUE_INTERPOLATION_BICUBIC;
+        }
+        res.put(RenderingHints.KEY_INTERPOLATION, interpolation);
+        return res;
+    }
+
+
+    /**
+     * Create a renderer for a document that renders with this profile.
+     *
+     * @param aDocument
+     *            the document to render.
+     * @return the renderer.
+     */
+    public PDFRenderer createRenderer(PDDocument aDocument)
+    {
+        PDFRenderer res = new PDFRenderer(aDocument);
+        res.setSubsamplingAllowed(mSubsampling);
+        res.setRenderingHints(createRenderingHints());
+        if (!mAnnotations)
+        {
+            res.setAnnotationsFilter((aAnnotation) -> false);
+        }
+        return res;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return mName;
+    }
+}
@@ -2,8 +2,10 @@ package de.code2be.pdfsplit;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.nio.file.Files;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -11,9 +13,17 @@ import java.util.List;
 
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 
+import de.code2be.pdfsplit.image.ImageRecompressor;
+import de.code2be.pdfsplit.io.LinearizedWriter;
+import de.code2be.pdfsplit.io.PassThroughWriter;
+import de.code2be.pdfsplit.io.StreamDeduplicator;
+import de.code2be.pdfsplit.output.IOutputSink;
+import de.code2be.pdfsplit.output.OutputCommitter;
+import de.code2be.pdfsplit.output.OutputNameAllocator;
 import de.code2be.pdfsplit.split.ISplitPageIdentifier;
 
 /**
@@ -63,6 +73,60 @@ public class SmartSplitter
      */
     private MemoryUsageSetting mMemoryUsageSetting = null;
 
+    /**
+     * The optional memory policy that decides on the memory usage of new and
+     * reloaded documents. If this is set, it has precedence over
+     * {@link #mMemoryUsageSetting}.
+     */
+    private MemoryPolicy mMemoryPolicy = null;
+
+    /**
+     * The file the source document was loaded from. This is required to copy
+     * unmodified objects directly into the target files.
+     */
+    private File mSourceFile = null;
+
+    /**
+     * A flag to indicate if target files are written by a
+     * {@link PassThroughWriter}.
+     */
+    private boolean mPassThrough = false;
+
+    /**
+     * The pass through writer for the current split or null if target files
+     * are saved by PDFBox.
+     */
+    private PassThroughWriter mPassThroughWriter = null;
+
+    /**
+     * The indices of the source pages within the current target document.
+     */
+    private final List<Integer> mTargetPageIndices = new ArrayList<>();
+
+    /**
+     * A flag to indicate if target files are written with the compact output
+     * profile (duplicate streams removed, object and cross reference streams).
+     */
+    private boolean mCompact = false;
+
+    /**
+     * A flag to indicate if target files are written linearized (fast web
+     * view).
+     */
+    private boolean mLinearized = false;
+
+    /**
+     * The optional stage that recompresses the images of target documents
+     * before they are written.
+     */
+    private ImageRecompressor mImageRecompressor = null;
+
+    /**
+     * The number of bytes saved by the output stages for the last written
+     * target document.
+     */
+    private long mSavedBytes = 0L;
+
     /**
      * A flag to indicate if abort was requested. If this is set to true, the
      * split process is aborted on next page.
@@ -90,6 +154,29 @@ public class SmartSplitter
      */
     private String mNamePattern;
 
+    /**
+     * The optional sink to write split documents to. If this is null, the
+     * documents are written to {@link #mTargetDirectory}.
+     */
+    private IOutputSink mOutputSink;
+
+    /**
+     * The allocator for file names in the target directory, created on first
+     * use within a split.
+     */
+    private OutputNameAllocator mNameAllocator;
+
+    /**
+     * The optional committer that publishes files written to the target
+     * directory atomically. If this is null, files are written in place.
+     */
+    private OutputCommitter mOutputCommitter;
+
+    /**
+     * The optional checkpoint journal to resume an interrupted split from.
+     */
+    private SplitJournal mJournal;
+
     /**
      * The target directory is the directory to save split PDF files in.
      * 
@@ -138,6 +225,90 @@ public class SmartSplitter
     }
 
 
+    /**
+     * 
+     * @return the committer that publishes split files or null if files are
+     *         written in place.
+     */
+    public OutputCommitter getOutputCommitter()
+    {
+        return mOutputCommitter;
+    }
+
+
+    /**
+     * Set a committer to publish files written to the target directory. The
+     * files are written to a temporary name and renamed when complete, so
+     * programs polling the target directory never see partial files. Pending
+     * files are committed at the end of each split. The committer is not
+     * used for an {@link #setOutputSink(IOutputSink) output sink} or if no
+     * name pattern is set.
+     * 
+     * @param aOutputCommitter
+     *            the committer. This can be null to write in place.
+     */
+    public void setOutputCommitter(OutputCommitter aOutputCommitter)
+    {
+        mOutputCommitter = aOutputCommitter;
+    }
+
+
+    /**
+     * 
+     * @return the checkpoint journal or null if splitting is not journaled.
+     */
+    public SplitJournal getJournal()
+    {
+        return mJournal;
+    }
+
+
+    /**
+     * Set a checkpoint journal for the source document. Finished documents
+     * written to files and split page detection results are recorded in the
+     * journal. If the journal contains finished documents of an interrupted
+     * split, splitting continues after the last of them, the written files
+     * are loaded instead of split again. The journal is completed when all
+     * pages are processed and discarded on {@link #doAbort() abort}, so only
+     * a split that did not end (e.g. a crash) is resumed.
+     * 
+     * @param aJournal
+     *            the journal. This can be null to not journal splitting.
+     */
+    public void setJournal(SplitJournal aJournal)
+    {
+        mJournal = aJournal;
+    }
+
+
+    /**
+     * 
+     * @return the sink split documents are written to or null if they are
+     *         written to the target directory.
+     */
+    public IOutputSink getOutputSink()
+    {
+        return mOutputSink;
+    }
+
+
+    /**
+     * Set a sink to write split documents to instead of the target directory.
+     * The name pattern is used to name the documents. If the sink does not
+     * store files, the finished target documents are not loaded again from
+     * the written data, the target documents itself are returned by
+     * {@link #split(PDDocument)} and the status events have no file. The sink
+     * is not closed by the splitter.
+     * 
+     * @param aOutputSink
+     *            the sink to write split documents to. This can be null.
+     */
+    public void setOutputSink(IOutputSink aOutputSink)
+    {
+        mOutputSink = aOutputSink;
+    }
+
+
     /**
      * 
      * @return the number of target documents currently available.
@@ -252,6 +423,20 @@ public class SmartSplitter
 
 
     protected void sendStatusUpdate(int aID, PDDocument aDocument, File aFile)
+    {
+        sendStatusUpdate(aID, aDocument, aFile, 0L);
+    }
+
+
+    protected void sendStatusUpdate(int aID, PDDocument aDocument, File aFile,
+            long aSavedBytes)
+    {
+        sendStatusUpdate(aID, aDocument, aFile, aSavedBytes, null);
+    }
+
+
+    protected void sendStatusUpdate(int aID, PDDocument aDocument, File aFile,
+            long aSavedBytes, int[] aSourcePageIndices)
     {
         if (mListeners.size() == 0)
         {
@@ -261,7 +446,7 @@ public class SmartSplitter
         int docCount = mTargetDocs != null ? mTargetDocs.size() : 0;
         final SplitStatusEvent evt = new SplitStatusEvent(this, aID,
                 mSourceDoc.getNumberOfPages(), mCurrentPage, docCount,
-                aDocument, aFile);
+                aDocument, aFile, aSavedBytes, aSourcePageIndices);
 
         for (ISplitStatusListener l : mListeners)
         {
@@ -310,6 +495,176 @@ public class SmartSplitter
     }
 
 
+    /**
+     * 
+     * @return the currently assigned memory policy or null if none is set.
+     */
+    public MemoryPolicy getMemoryPolicy()
+    {
+        return mMemoryPolicy;
+    }
+
+
+    /**
+     * Set a memory policy that decides on the memory usage of further target
+     * documents (while being created and when reloaded after saving).
+     * 
+     * @param aMemoryPolicy
+     *            the new memory policy. If this is null, the
+     *            {@link #getMemoryUsageSetting()} is used for new documents.
+     */
+    public void setMemoryPolicy(MemoryPolicy aMemoryPolicy)
+    {
+        mMemoryPolicy = aMemoryPolicy;
+    }
+
+
+    /**
+     * 
+     * @return the file the source document was loaded from or null if not
+     *         known.
+     */
+    public File getSourceFile()
+    {
+        return mSourceFile;
+    }
+
+
+    /**
+     * Set the file the source document was loaded from. The file must not be
+     * changed while splitting.
+     * 
+     * @param aSourceFile
+     *            the source file. This can be null.
+     */
+    public void setSourceFile(File aSourceFile)
+    {
+        mSourceFile = aSourceFile;
+    }
+
+
+    /**
+     * 
+     * @return true if unmodified objects are copied directly from the source
+     *         file into the target files.
+     */
+    public boolean isPassThrough()
+    {
+        return mPassThrough;
+    }
+
+
+    /**
+     * Enable or disable the direct copy of unmodified objects from the source
+     * file (see {@link PassThroughWriter}). This is only used if a
+     * {@link #getSourceFile() source file} is set. Otherwise or if the source
+     * can not be handled, the target documents are saved by PDFBox.
+     * 
+     * @param aPassThrough
+     *            true to enable the direct copy.
+     */
+    public void setPassThrough(boolean aPassThrough)
+    {
+        mPassThrough = aPassThrough;
+    }
+
+
+    /**
+     * 
+     * @return true if target files are written with the compact output
+     *         profile.
+     */
+    public boolean isCompact()
+    {
+        return mCompact;
+    }
+
+
+    /**
+     * Enable or disable the compact output profile. If enabled, identical
+     * streams (e.g. fonts or images embedded once per page) are written only
+     * once per target file and the file is written with compressed object
+     * streams and a cross reference stream (PDF 1.5). This has precedence
+     * over {@link #setPassThrough(boolean) pass through}, which can not
+     * remove duplicates.
+     * 
+     * @param aCompact
+     *            true to enable the compact output profile.
+     */
+    public void setCompact(boolean aCompact)
+    {
+        mCompact = aCompact;
+    }
+
+
+    /**
+     * 
+     * @return true if target files are written linearized.
+     */
+    public boolean isLinearized()
+    {
+        return mLinearized;
+    }
+
+
+    /**
+     * Enable or disable linearized output. A linearized file starts with the
+     * first page and hint tables, so a viewer loading it over the network can
+     * show the first page before the whole file is loaded. This has
+     * precedence over {@link #setPassThrough(boolean) pass through}. With the
+     * {@link #setCompact(boolean) compact output profile} duplicate streams
+     * are still removed, but no object streams are written.
+     * 
+     * @param aLinearized
+     *            true to write linearized files.
+     */
+    public void setLinearized(boolean aLinearized)
+    {
+        mLinearized = aLinearized;
+    }
+
+
+    /**
+     * 
+     * @return the image recompression stage or null if images are written as
+     *         they are.
+     */
+    public ImageRecompressor getImageRecompressor()
+    {
+        return mImageRecompressor;
+    }
+
+
+    /**
+     * Set a stage that recompresses the images of target documents before they
+     * are written. If this is set, {@link #setPassThrough(boolean) pass
+     * through} is not used, as the written images differ from the source.
+     * 
+     * @param aImageRecompressor
+     *            the image recompression stage. This can be null.
+     */
+    public void setImageRecompressor(ImageRecompressor aImageRecompressor)
+    {
+        mImageRecompressor = aImageRecompressor;
+    }
+
+
+    /**
+     * 
+     * @return the memory usage setting to be used for the next new target
+     *         document.
+     */
+    protected MemoryUsageSetting getMemoryUsageSettingForNewDocument()
+    {
+        MemoryPolicy policy = mMemoryPolicy;
+        if (policy != null)
+        {
+            return policy.getMemoryUsageSetting(-1L);
+        }
+        return getMemoryUsageSetting();
+    }
+
+
     /**
      * Split the given documents.
      * 
@@ -325,11 +680,113 @@ public class SmartSplitter
         mTargetDocs = new ArrayList<PDDocument>();
         mSourceDoc = aDocument;
         mAbort = false;
-        processPages();
+        mNameAllocator = null;
+        mPassThroughWriter = createPassThroughWriter();
+        OutputCommitter committer = mOutputCommitter;
+        SplitJournal journal = mJournal;
+        int startPage = mStartPage;
+        Throwable failure = null;
+        try
+        {
+            if (journal != null)
+            {
+                resumeFromJournal(journal);
+            }
+            processPages();
+        }
+        catch (IOException | RuntimeException | Error ex)
+        {
+            failure = ex;
+            throw ex;
+        }
+        finally
+        {
+            try
+            {
+                if (committer != null)
+                {
+                    // publish the files of the last batch, also after a
+                    // failure, so the journal knows them
+                    flushCommitter(committer, failure);
+                }
+                if (journal != null && failure == null)
+                {
+                    if (mAbort)
+                    {
+                        // aborted by the user, the next split starts over
+                        journal.discard();
+                    }
+                    else
+                    {
+                        journal.complete();
+                    }
+                }
+            }
+            finally
+            {
+                mStartPage = startPage;
+                if (mPassThroughWriter != null)
+                {
+                    mPassThroughWriter.close();
+                    mPassThroughWriter = null;
+                }
+            }
+        }
         return mTargetDocs;
     }
 
 
+    /**
+     * Load the documents finished by an interrupted split from the journal
+     * and move the start page behind them.
+     */
+    private void resumeFromJournal(SplitJournal aJournal) throws IOException
+    {
+        int resumePage = aJournal.getResumePage();
+        if (resumePage <= 0)
+        {
+            return;
+        }
+        LOGGER.log(Level.INFO,
+                "Will resume split from page {0} after {1} finished documents.",
+                resumePage, aJournal.getCompletedFiles().size());
+        for (File f : aJournal.getCompletedFiles())
+        {
+            PDDocument doc = loadWrittenDocument(f);
+            mTargetDocs.add(doc);
+            sendStatusUpdate(SplitStatusEvent.EVENT_DOCUMENT_FINISHED, doc, f);
+        }
+        mStartPage = Math.max(mStartPage, resumePage);
+    }
+
+
+    /**
+     * 
+     * @return a new pass through writer for the current source document or
+     *         null if pass through is disabled or not possible.
+     */
+    protected PassThroughWriter createPassThroughWriter()
+    {
+        File sourceFile = mSourceFile;
+        if (!mPassThrough || mCompact || mLinearized
+                || mImageRecompressor != null || sourceFile == null)
+        {
+            return null;
+        }
+        try
+        {
+            return new PassThroughWriter(mSourceDoc, sourceFile);
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.WARNING,
+                    "Can not copy objects from {0}, will save split documents instead: {1}",
+                    sourceFile, ex.getMessage());
+            return null;
+        }
+    }
+
+
     /**
      * Set the index of the first page to process.
      * 
@@ -367,6 +824,18 @@ public class SmartSplitter
     }
 
 
+    /**
+     * 
+     * @return the name of the next split document, created from the name
+     *         pattern and the number of documents written so far.
+     */
+    protected String getNextDocumentName()
+    {
+        String pattern = mNamePattern != null ? mNamePattern : "split_{0}.pdf";
+        return MessageFormat.format(pattern, mTargetDocs.size());
+    }
+
+
     /**
      * Create a file to write the next split PDF file to.
      * 
@@ -377,25 +846,12 @@ public class SmartSplitter
     protected File getNextDocumentFile() throws IOException
     {
         File f = null;
-        if (mNamePattern != null && mTargetDirectory != null)
+        OutputNameAllocator allocator = getNameAllocator();
+        if (allocator != null)
         {
             // name pattern and target dir are set
             // --> try to create a new file there
-            for (int i = 0; i < 5000; i++)
-            {
-                String name = MessageFormat.format(mNamePattern, i);
-                f = new File(mTargetDirectory, name);
-                if (f.createNewFile())
-                {
-                    // we have created a new file
-                    return f;
-                }
-                if (!f.exists())
-                {
-                    // seems we don't have write permission --> no need to
-                    // follow up with the loop
-                }
-            }
+            f = allocator.allocate();
         }
 
         if (f == null)
@@ -408,6 +864,30 @@ public class SmartSplitter
     }
 
 
+    /**
+     * 
+     * @return the name allocator for the target directory and name pattern
+     *         or null if one of them is not set.
+     */
+    private OutputNameAllocator getNameAllocator()
+    {
+        if (mNamePattern == null || mTargetDirectory == null)
+        {
+            return null;
+        }
+        OutputNameAllocator allocator = mNameAllocator;
+        if (allocator == null
+                || !allocator.getNamePattern().equals(mNamePattern)
+                || !allocator.getDirectory().equals(mTargetDirectory))
+        {
+            allocator = new OutputNameAllocator(mTargetDirectory,
+                    mNamePattern);
+            mNameAllocator = allocator;
+        }
+        return allocator;
+    }
+
+
     /**
      * Perform the tasks to be required when a split page is found and an
      * unsaved document has at least 1 page.
@@ -420,16 +900,318 @@ public class SmartSplitter
     protected void performDocumentFinished(PDDocument aTargetDoc)
         throws IOException
     {
-        File docFile = getNextDocumentFile();
+        IOutputSink sink = mOutputSink;
+        OutputCommitter committer = mOutputCommitter;
+        if (sink == null && committer != null
+                && committer.getMode() != OutputCommitter.MODE_DIRECT
+                && getNameAllocator() != null)
+        {
+            File target = getNameAllocator().reserve();
+            if (target != null)
+            {
+                performDocumentCommit(aTargetDoc, committer, target);
+                return;
+            }
+        }
+        File docFile = sink != null ? sink.createFile(getNextDocumentName())
+                : getNextDocumentFile();
+        if (docFile == null)
+        {
+            String name = getNextDocumentName();
+            LOGGER.log(Level.DEBUG,
+                    "Will output split PDF with {0} pages to sink as {1}.",
+                    aTargetDoc.getNumberOfPages(), name);
+            int[] sourcePages = getSourcePageIndices(aTargetDoc);
+            try (OutputStream out = sink.openDocument(name))
+            {
+                writeDocument(aTargetDoc, out);
+            }
+            mTargetPageIndices.clear();
+            // there is no file to load the written document from
+            mTargetDocs.add(aTargetDoc);
+            sendStatusUpdate(SplitStatusEvent.EVENT_DOCUMENT_FINISHED,
+                    aTargetDoc, null, mSavedBytes, sourcePages);
+            return;
+        }
 
-        LOGGER.log(Level.DEBUG, "Will output split PDF with {0} pages to {0}.",
+        LOGGER.log(Level.DEBUG, "Will output split PDF with {0} pages to {1}.",
                 aTargetDoc.getNumberOfPages(), docFile);
-        aTargetDoc.save(docFile);
-        PDDocument savedDoc = Loader.loadPDF(docFile);
+        int[] sourcePages = getSourcePageIndices(aTargetDoc);
+        writeDocument(aTargetDoc, docFile);
+        if (!mTargetPageIndices.isEmpty())
+        {
+            recordDocument(mTargetPageIndices.get(0),
+                    mTargetPageIndices.get(mTargetPageIndices.size() - 1),
+                    docFile);
+        }
+        mTargetPageIndices.clear();
+        PDDocument savedDoc = loadWrittenDocument(docFile);
         mTargetDocs.add(savedDoc);
 
         sendStatusUpdate(SplitStatusEvent.EVENT_DOCUMENT_FINISHED, savedDoc,
-                docFile);
+                docFile, mSavedBytes, sourcePages);
+    }
+
+
+    /**
+     * Write a finished document to a temporary file and commit it with the
+     * given committer.
+     * 
+     * @param aTargetDoc
+     *            the document to be saved.
+     * @param aCommitter
+     *            the committer to publish the file.
+     * @param aTarget
+     *            the name to publish the file with.
+     * @throws IOException
+     *             in case the document can not be saved.
+     */
+    protected void performDocumentCommit(PDDocument aTargetDoc,
+        OutputCommitter aCommitter, File aTarget)
+        throws IOException
+    {
+        File temp = aCommitter.createTempFile(aTarget);
+        LOGGER.log(Level.DEBUG,
+                "Will output split PDF with {0} pages to {1} via {2}.",
+                aTargetDoc.getNumberOfPages(), aTarget, temp);
+        PDDocument savedDoc;
+        int firstPage = mTargetPageIndices.isEmpty() ? -1
+                : mTargetPageIndices.get(0);
+        int lastPage = mTargetPageIndices.isEmpty() ? -1
+                : mTargetPageIndices.get(mTargetPageIndices.size() - 1);
+        int[] sourcePages = getSourcePageIndices(aTargetDoc);
+        try
+        {
+            writeDocument(aTargetDoc, temp);
+            mTargetPageIndices.clear();
+            savedDoc = loadWrittenDocument(temp);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            if (!temp.delete())
+            {
+                temp.deleteOnExit();
+            }
+            throw ex;
+        }
+        // the loaded document keeps its file open, so it survives the rename
+        mTargetDocs.add(savedDoc);
+        long savedBytes = mSavedBytes;
+        // a file of a pending batch is only recorded and reported once it is
+        // published, so the journal continues with its pages after a crash
+        aCommitter.commit(temp, aTarget, (aFile) -> {
+            recordDocument(firstPage, lastPage, aFile);
+            sendStatusUpdate(SplitStatusEvent.EVENT_DOCUMENT_FINISHED,
+                    savedDoc, aFile, savedBytes, sourcePages);
+        });
+    }
+
+
+    /**
+     * 
+     * @return the index of the source page for each page of the given target
+     *         document or null if they are not known.
+     */
+    private int[] getSourcePageIndices(PDDocument aTargetDoc)
+    {
+        if (mTargetPageIndices.size() != aTargetDoc.getNumberOfPages())
+        {
+            return null;
+        }
+        return mTargetPageIndices.stream().mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+
+    /**
+     * Record a finished document in the journal, if any.
+     */
+    private void recordDocument(int aFirstPage, int aLastPage, File aFile)
+        throws IOException
+    {
+        SplitJournal journal = mJournal;
+        if (journal != null && aFirstPage >= 0)
+        {
+            journal.recordDocument(aFirstPage, aLastPage, aFile);
+        }
+    }
+
+
+    /**
+     * Publish the pending files of the committer. A failure of the flush is
+     * added to the failure of the split, if any, so it does not hide it.
+     */
+    private static void flushCommitter(OutputCommitter aCommitter,
+        Throwable aFailure)
+        throws IOException
+    {
+        try
+        {
+            aCommitter.flush();
+        }
+        catch (IOException ex)
+        {
+            if (aFailure == null)
+            {
+                throw ex;
+            }
+            aFailure.addSuppressed(ex);
+        }
+    }
+
+
+    /**
+     * Load a written split document.
+     */
+    private PDDocument loadWrittenDocument(File aFile) throws IOException
+    {
+        MemoryPolicy policy = mMemoryPolicy;
+        return policy != null
+                ? Loader.loadPDF(aFile, policy.getStreamCache(aFile))
+                : Loader.loadPDF(aFile);
+    }
+
+
+    /**
+     * Write the given target document to the given file. If an image
+     * recompression stage is set, it is applied first. With the compact
+     * output profile duplicate streams are removed before saving. Linearized
+     * files are written by the {@link LinearizedWriter}. Otherwise,
+     * if a pass through writer is available, the source pages are copied
+     * directly from the source file, else the document is saved by PDFBox.
+     * 
+     * @param aTargetDoc
+     *            the document to be saved.
+     * @param aFile
+     *            the file to write to.
+     * @throws IOException
+     *             in case the document can not be saved.
+     */
+    protected void writeDocument(PDDocument aTargetDoc, File aFile)
+        throws IOException
+    {
+        writeDocument(aTargetDoc, aFile, null);
+    }
+
+
+    /**
+     * Write the given target document to the given stream. This works like
+     * {@link #writeDocument(PDDocument, File)}, with pass through the pages
+     * are copied to a temporary file first, so the document can be saved
+     * instead if copying fails.
+     * 
+     * @param aTargetDoc
+     *            the document to be saved.
+     * @param aOut
+     *            the stream to write to. The stream might be closed by PDFBox.
+     * @throws IOException
+     *             in case the document can not be saved.
+     */
+    protected void writeDocument(PDDocument aTargetDoc, OutputStream aOut)
+        throws IOException
+    {
+        writeDocument(aTargetDoc, null, aOut);
+    }
+
+
+    private void writeDocument(PDDocument aTargetDoc, File aFile,
+        OutputStream aOut)
+        throws IOException
+    {
+        Object target = aFile != null ? aFile : "stream";
+        mSavedBytes = 0L;
+        ImageRecompressor recompressor = mImageRecompressor;
+        if (recompressor != null)
+        {
+            mSavedBytes += recompressor.recompress(aTargetDoc);
+            LOGGER.log(Level.INFO,
+                    "Recompressed {0} images ({1} bytes) for {2}.",
+                    recompressor.getReplacedCount(), mSavedBytes, target);
+        }
+        if (mCompact)
+        {
+            StreamDeduplicator dedup = new StreamDeduplicator();
+            long saved = dedup.deduplicate(aTargetDoc);
+            mSavedBytes += saved;
+            LOGGER.log(Level.INFO,
+                    "Removed {0} duplicate streams ({1} bytes) from {2}.",
+                    dedup.getRemovedCount(), saved, target);
+            if (!mLinearized)
+            {
+                if (aFile != null)
+                {
+                    aTargetDoc.save(aFile,
+                            CompressParameters.DEFAULT_COMPRESSION);
+                }
+                else
+                {
+                    aTargetDoc.save(aOut,
+                            CompressParameters.DEFAULT_COMPRESSION);
+                }
+                return;
+            }
+        }
+        if (mLinearized)
+        {
+            if (aFile != null)
+            {
+                new LinearizedWriter(aTargetDoc).write(aFile);
+            }
+            else
+            {
+                new LinearizedWriter(aTargetDoc).write(aOut);
+            }
+            return;
+        }
+
+        PassThroughWriter writer = mPassThroughWriter;
+        if (writer != null
+                && mTargetPageIndices.size() == aTargetDoc.getNumberOfPages())
+        {
+            // the stream can not be rewound, so the pages are copied to a
+            // temporary file first to be able to save the document instead
+            File file = aFile != null ? aFile
+                    : File.createTempFile("pdfsplit", ".pdf");
+            try
+            {
+                boolean copied;
+                try
+                {
+                    writer.write(mTargetPageIndices, file);
+                    copied = true;
+                }
+                catch (IOException ex)
+                {
+                    LOGGER.log(Level.WARNING,
+                            "Failed to copy pages to {0}, will save document instead: {1}",
+                            target, ex.getMessage());
+                    copied = false;
+                }
+                if (copied)
+                {
+                    if (aOut != null)
+                    {
+                        Files.copy(file.toPath(), aOut);
+                    }
+                    return;
+                }
+            }
+            finally
+            {
+                if (aOut != null && !file.delete())
+                {
+                    file.deleteOnExit();
+                }
+            }
+        }
+        if (aFile != null)
+        {
+            aTargetDoc.save(aFile);
+        }
+        else
+        {
+            aTargetDoc.save(aOut);
+        }
     }
 
 
@@ -447,6 +1229,7 @@ public class SmartSplitter
         int endPage = Math.min(mEndPage, mSourceDoc.getNumberOfPages());
 
         mCurrentPage = -1;
+        mTargetPageIndices.clear();
         PDDocument targetDoc = null;
         for (PDPage page : getSourceDocument().getPages())
         {
@@ -482,13 +1265,15 @@ public class SmartSplitter
                     // no active target document --> create a new target
                     // document
                     targetDoc = PDFHelper.createNewDocument(
-                            getMemoryUsageSetting(), getSourceDocument());
+                            getMemoryUsageSettingForNewDocument(),
+                            getSourceDocument());
                     sendStatusUpdate(SplitStatusEvent.EVENT_NEW_DOCUMENT,
                             targetDoc);
                 }
 
                 // import the page into the new target document
                 PDFHelper.importPage(targetDoc, page);
+                mTargetPageIndices.add(mCurrentPage);
                 sendStatusUpdate(SplitStatusEvent.EVENT_NEXT_PAGE, mSourceDoc);
             }
         }
@@ -505,7 +1290,8 @@ public class SmartSplitter
     /**
      * Check if the given page is identified as a split page. This method uses
      * the registered {@link ISplitPageIdentifier}'s to check if a page is a
-     * split page.
+     * split page. If a journal is set, a detection result recorded before is
+     * used instead.
      * 
      * @param aPage
      *            the page to check for the defined split text.
@@ -514,6 +1300,41 @@ public class SmartSplitter
      * @return true if the split text was found, false otherwise.
      */
     protected boolean isSplitPage(PDPage aPage, int aPageIndex)
+    {
+        SplitJournal journal = mJournal;
+        if (journal == null)
+        {
+            return detectSplitPage(aPage, aPageIndex);
+        }
+        Boolean cached = journal.getSplitPage(aPageIndex);
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+        boolean res = detectSplitPage(aPage, aPageIndex);
+        try
+        {
+            journal.recordSplitPage(aPageIndex, res);
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Can not record page {0} in journal: {1}",
+                    aPageIndex, ex.getMessage());
+        }
+        return res;
+    }
+
+
+    /**
+     * Run the split page identifiers for the given page.
+     * 
+     * @param aPage
+     *            the page to check.
+     * @param aPageIndex
+     *            the index of the page.
+     * @return true if any identifier detects the page as split page.
+     */
+    private boolean detectSplitPage(PDPage aPage, int aPageIndex)
     {
         for (ISplitPageIdentifier i : mSplitPageIdentifiers)
         {
@@ -524,6 +1345,18 @@ public class SmartSplitter
                     return true;
                 }
             }
+            catch (PageTimeoutException ex)
+            {
+                LOGGER.log(Level.WARNING,
+                        "Page {0} is not detected as split page by {1}: {2}",
+                        aPageIndex + 1, i.getClass().getSimpleName(),
+                        ex.getMessage());
+            }
+            catch (RenderAbandonedException ex)
+            {
+                // splitting on would merge all remaining pages
+                throw ex;
+            }
             catch (Exception ex)
             {
                 LOGGER.log(Level.ERROR, ex.getMessage(), ex);
@@ -0,0 +1,487 @@
+package de.code2be.pdfsplit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A checkpoint journal for splitting a source file. The journal is kept next
+ * to the split files and records the finished target documents with the
+ * range of source pages they contain as well as the result of the split page
+ * detection for each processed page. If splitting is interrupted (crash,
+ * abort, power loss), a new split of the same source continues after the
+ * last finished document and reuses the cached detection results instead of
+ * running OCR and detection for all pages again. <br/>
+ * The source is identified by its size and last modified time, so a journal
+ * for a changed source is discarded without reading the whole source. The key
+ * also contains a hash of the settings that decide the split (see
+ * {@link #getSettings(Config, String)}), so a split with other separators or
+ * another name pattern starts over. The journal is deleted when the split {@link #complete() completes} or is
+ * {@link #discard() aborted} by the user.
+ * <p>
+ * The journal is a text file with one record per line:
+ *
+ * <pre>
+ * source &lt;size of source&gt; &lt;last modified time of source&gt; &lt;hash of settings&gt;
+ * page &lt;page index&gt; &lt;1 if split page, else 0&gt;
+ * doc &lt;first page index&gt; &lt;last page index&gt; &lt;file&gt;
+ * </pre>
+ *
+ * Records are only appended, an incomplete last line of an interrupted write
+ * is ignored on load.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class SplitJournal implements Closeable
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(SplitJournal.class.getName());
+
+    private static final String REC_SOURCE = "source";
+
+    private static final String REC_PAGE = "page";
+
+    private static final String REC_DOC = "doc";
+
+    private final File mJournalFile;
+
+    private final String mSourceKey;
+
+    /**
+     * The cached split page detection results by page index.
+     */
+    private final Map<Integer, Boolean> mSplitPages = new HashMap<>();
+
+    /**
+     * The finished documents, in the order they were written.
+     */
+    private final List<Segment> mSegments = new ArrayList<>();
+
+    private FileOutputStream mStream;
+
+    private Writer mWriter;
+
+    /**
+     * A finished target document.
+     */
+    private static class Segment
+    {
+
+        final int mFirstPage;
+
+        final int mLastPage;
+
+        final File mFile;
+
+        Segment(int aFirstPage, int aLastPage, File aFile)
+        {
+            mFirstPage = aFirstPage;
+            mLastPage = aLastPage;
+            mFile = aFile;
+        }
+    }
+
+    private SplitJournal(File aJournalFile, String aSourceKey)
+    {
+        mJournalFile = aJournalFile;
+        mSourceKey = aSourceKey;
+    }
+
+
+    /**
+     * Open the journal for the given source file in the given directory. If
+     * a journal of an interrupted split of the same source with the same
+     * settings exists, its records are loaded. Finished documents whose file
+     * does not exist anymore are dropped together with all documents after
+     * them.
+     *
+     * @param aSourceFile
+     *            the file to be split.
+     * @param aDirectory
+     *            the directory the split files are written to.
+     * @param aSettings
+     *            the settings that decide the split pages and the split
+     *            files, e.g. from {@link #getSettings(Config, String)}.
+     * @return the opened journal.
+     * @throws IOException
+     *             if the source does not exist or the journal can not be
+     *             written.
+     */
+    public static SplitJournal open(File aSourceFile, File aDirectory,
+        String aSettings)
+        throws IOException
+    {
+        if (!aSourceFile.isFile())
+        {
+            throw new IOException("Source " + aSourceFile + " not found.");
+        }
+        File journalFile = new File(aDirectory,
+                "." + aSourceFile.getName() + ".journal");
+        SplitJournal res = new SplitJournal(journalFile,
+                aSourceFile.length() + " " + aSourceFile.lastModified() + " "
+                        + hash(aSettings));
+        if (journalFile.isFile())
+        {
+            res.load();
+        }
+        res.rewrite();
+        return res;
+    }
+
+
+    /**
+     * Collect the settings of the given config that decide the split pages
+     * and the content of the split files: separators, OCR and filters. The
+     * number of OCR threads and workers is left out, it does not change the
+     * result.
+     *
+     * @param aConfig
+     *            the config of the split.
+     * @param aNamePattern
+     *            the name pattern of the split files.
+     * @return the settings as text, one per line in the order of the keys.
+     */
+    public static String getSettings(Config aConfig, String aNamePattern)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("name=").append(aNamePattern).append('\n');
+        for (String key : new TreeSet<>(aConfig.stringPropertyNames()))
+        {
+            if ((key.startsWith("separator.") || key.startsWith("filter.")
+                    || key.startsWith("ocr."))
+                    && !key.equals(Config.PROP_OCR_THREAD_COUNT)
+                    && !key.startsWith(Config.PROP_OCR_WORKERS))
+            {
+                sb.append(key).append('=').append(aConfig.getProperty(key))
+                        .append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     *
+     * @return a short hash of the given settings.
+     */
+    private static String hash(String aSettings)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(aSettings.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++)
+            {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    /**
+     *
+     * @return the key of the source, built from its size, last modified time
+     *         and the hash of the settings.
+     */
+    public String getSourceKey()
+    {
+        return mSourceKey;
+    }
+
+
+    /**
+     *
+     * @return the journal file.
+     */
+    public File getJournalFile()
+    {
+        return mJournalFile;
+    }
+
+
+    /**
+     *
+     * @return the index of the first page that is not part of a finished
+     *         document. Splitting is continued from this page.
+     */
+    public synchronized int getResumePage()
+    {
+        return mSegments.isEmpty() ? 0
+                : mSegments.get(mSegments.size() - 1).mLastPage + 1;
+    }
+
+
+    /**
+     *
+     * @return the files of the finished documents, in the order they were
+     *         written.
+     */
+    public synchronized List<File> getCompletedFiles()
+    {
+        List<File> res = new ArrayList<>(mSegments.size());
+        for (Segment s : mSegments)
+        {
+            res.add(s.mFile);
+        }
+        return Collections.unmodifiableList(res);
+    }
+
+
+    /**
+     *
+     * @param aPageIndex
+     *            the index of the page.
+     * @return the cached result of the split page detection for the given
+     *         page or null if the page was not checked yet.
+     */
+    public synchronized Boolean getSplitPage(int aPageIndex)
+    {
+        return mSplitPages.get(aPageIndex);
+    }
+
+
+    /**
+     * Record the result of the split page detection for a page.
+     *
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aSplitPage
+     *            true if the page is a split page.
+     * @throws IOException
+     *             if the journal can not be written.
+     */
+    public synchronized void recordSplitPage(int aPageIndex,
+        boolean aSplitPage)
+        throws IOException
+    {
+        mSplitPages.put(aPageIndex, aSplitPage);
+        writeRecord(REC_PAGE + " " + aPageIndex + " " + (aSplitPage ? 1 : 0));
+        mWriter.flush();
+    }
+
+
+    /**
+     * Record a finished document. The journal is forced to disk, so the
+     * record survives a crash once this returns.
+     *
+     * @param aFirstPage
+     *            the index of the first source page of the document.
+     * @param aLastPage
+     *            the index of the last source page of the document.
+     * @param aFile
+     *            the file the document was written to.
+     * @throws IOException
+     *             if the journal can not be written.
+     */
+    public synchronized void recordDocument(int aFirstPage, int aLastPage,
+        File aFile)
+        throws IOException
+    {
+        mSegments.add(new Segment(aFirstPage, aLastPage, aFile));
+        writeRecord(REC_DOC + " " + aFirstPage + " " + aLastPage + " "
+                + toPath(aFile));
+        mWriter.flush();
+        mStream.getFD().sync();
+    }
+
+
+    /**
+     * Mark the split as complete. This closes and deletes the journal.
+     *
+     * @throws IOException
+     *             if the journal can not be closed.
+     */
+    public synchronized void complete() throws IOException
+    {
+        close();
+        Files.deleteIfExists(mJournalFile.toPath());
+    }
+
+
+    /**
+     * Drop the journal, e.g. after the split was aborted by the user, so the
+     * next split of the source starts over. This closes and deletes the
+     * journal.
+     *
+     * @throws IOException
+     *             if the journal can not be closed.
+     */
+    public synchronized void discard() throws IOException
+    {
+        complete();
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        Writer writer = mWriter;
+        if (writer != null)
+        {
+            mWriter = null;
+            mStream = null;
+            writer.close();
+        }
+    }
+
+
+    private void writeRecord(String aRecord) throws IOException
+    {
+        if (mWriter == null)
+        {
+            throw new IOException("Journal " + mJournalFile + " is closed.");
+        }
+        mWriter.write(aRecord);
+        mWriter.write('\n');
+    }
+
+
+    /**
+     * Load the records of an existing journal. A journal of another source
+     * or of other settings is ignored.
+     */
+    private void load() throws IOException
+    {
+        List<Segment> segments = new ArrayList<>();
+        try (BufferedReader rd = Files.newBufferedReader(mJournalFile.toPath(),
+                StandardCharsets.UTF_8))
+        {
+            String line = rd.readLine();
+            if (line == null || !line.equals(REC_SOURCE + " " + mSourceKey))
+            {
+                LOGGER.log(Level.INFO,
+                        "Journal {0} belongs to another source or settings, will start over.",
+                        mJournalFile);
+                return;
+            }
+            while ((line = rd.readLine()) != null)
+            {
+                String[] parts = line.split(" ", 4);
+                try
+                {
+                    if (parts[0].equals(REC_PAGE) && parts.length == 3)
+                    {
+                        mSplitPages.put(Integer.valueOf(parts[1]),
+                                parts[2].equals("1"));
+                    }
+                    else if (parts[0].equals(REC_DOC) && parts.length == 4)
+                    {
+                        segments.add(new Segment(Integer.parseInt(parts[1]),
+                                Integer.parseInt(parts[2]),
+                                toFile(parts[3])));
+                    }
+                }
+                catch (NumberFormatException ex)
+                {
+                    // incomplete record of an interrupted write
+                    LOGGER.log(Level.DEBUG, "Ignore journal record {0}.",
+                            line);
+                }
+            }
+        }
+        for (Segment s : segments)
+        {
+            if (!s.mFile.isFile())
+            {
+                LOGGER.log(Level.WARNING,
+                        "Split file {0} is missing, will continue at page {1}.",
+                        s.mFile, s.mFirstPage);
+                break;
+            }
+            mSegments.add(s);
+        }
+    }
+
+
+    /**
+     * Write the current state to a new journal file that replaces the
+     * existing one and open it for appending. The new file is closed before
+     * it is moved, as an open file can not be renamed on all platforms.
+     */
+    private void rewrite() throws IOException
+    {
+        File temp = new File(mJournalFile.getParentFile(),
+                mJournalFile.getName() + ".tmp");
+        mStream = new FileOutputStream(temp);
+        mWriter = new BufferedWriter(
+                new OutputStreamWriter(mStream, StandardCharsets.UTF_8));
+        try
+        {
+            writeRecord(REC_SOURCE + " " + mSourceKey);
+            for (Map.Entry<Integer, Boolean> e : mSplitPages.entrySet())
+            {
+                writeRecord(REC_PAGE + " " + e.getKey() + " "
+                        + (e.getValue() ? 1 : 0));
+            }
+            for (Segment s : mSegments)
+            {
+                writeRecord(REC_DOC + " " + s.mFirstPage + " " + s.mLastPage
+                        + " " + toPath(s.mFile));
+            }
+            mWriter.flush();
+            mStream.getFD().sync();
+            close();
+            Files.move(temp.toPath(), mJournalFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            mStream = new FileOutputStream(mJournalFile, true);
+            mWriter = new BufferedWriter(
+                    new OutputStreamWriter(mStream, StandardCharsets.UTF_8));
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            close();
+            Files.deleteIfExists(temp.toPath());
+            throw ex;
+        }
+    }
+
+
+    /**
+     *
+     * @return the path to record for a file, relative to the journal if the
+     *         file is in the same directory.
+     */
+    private String toPath(File aFile)
+    {
+        File dir = mJournalFile.getAbsoluteFile().getParentFile();
+        return dir.equals(aFile.getAbsoluteFile().getParentFile())
+                ? aFile.getName()
+                : aFile.getAbsolutePath();
+    }
+
+
+    private File toFile(String aPath)
+    {
+        File f = new File(aPath);
+        return f.isAbsolute() ? f
+                : new File(mJournalFile.getAbsoluteFile().getParentFile(),
+                        aPath);
+    }
+}
@@ -77,9 +77,39 @@ public class SplitStatusEvent extends EventObject
 
     private final File mFile;
 
+    /**
+     * The number of bytes saved by the output stages for the finished
+     * document.
+     */
+    private final long mSavedBytes;
+
+    /**
+     * The indexes of the source pages of the finished document, null if not
+     * known.
+     */
+    private final int[] mSourcePageIndices;
+
     public SplitStatusEvent(SmartSplitter aSplitter, int aID, int aPageCount,
             int aCurrentPage, int aDocumentCount, PDDocument aDocument,
             File aFile)
+    {
+        this(aSplitter, aID, aPageCount, aCurrentPage, aDocumentCount,
+                aDocument, aFile, 0L);
+    }
+
+
+    public SplitStatusEvent(SmartSplitter aSplitter, int aID, int aPageCount,
+            int aCurrentPage, int aDocumentCount, PDDocument aDocument,
+            File aFile, long aSavedBytes)
+    {
+        this(aSplitter, aID, aPageCount, aCurrentPage, aDocumentCount,
+                aDocument, aFile, aSavedBytes, null);
+    }
+
+
+    public SplitStatusEvent(SmartSplitter aSplitter, int aID, int aPageCount,
+            int aCurrentPage, int aDocumentCount, PDDocument aDocument,
+            File aFile, long aSavedBytes, int[] aSourcePageIndices)
     {
         super(aSplitter);
         mID = aID;
@@ -88,6 +118,8 @@ public class SplitStatusEvent extends EventObject
         mDocumentCount = aDocumentCount;
         mDocument = aDocument;
         mFile = aFile;
+        mSavedBytes = aSavedBytes;
+        mSourcePageIndices = aSourcePageIndices;
     }
 
 
@@ -164,4 +196,28 @@ public class SplitStatusEvent extends EventObject
         return mFile;
     }
 
+
+    /**
+     * 
+     * @return the number of bytes saved by the output stages (image
+     *         recompression, compact output profile) for the finished document
+     *         (only set for {@link #EVENT_DOCUMENT_FINISHED}).
+     */
+    public long getSavedBytes()
+    {
+        return mSavedBytes;
+    }
+
+
+    /**
+     * 
+     * @return the index of the source page for each page of the finished
+     *         document (only set for {@link #EVENT_DOCUMENT_FINISHED}) or null
+     *         if not known, e.g. for documents resumed from a journal.
+     */
+    public int[] getSourcePageIndices()
+    {
+        return mSourcePageIndices != null ? mSourcePageIndices.clone() : null;
+    }
+
 }
@@ -6,8 +6,10 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -24,6 +26,10 @@ import org.apache.pdfbox.text.PDFTextStripper;
 
 import de.code2be.help.TesseractC;
 import de.code2be.help.TesseractFactory;
+import de.code2be.pdfsplit.PageTimeoutException;
+import de.code2be.pdfsplit.PageWatchdog;
+import de.code2be.pdfsplit.image.GrayImage;
+import de.code2be.pdfsplit.image.ImagePreprocessor;
 import net.sourceforge.tess4j.TessAPI;
 import net.sourceforge.tess4j.Word;
 
@@ -53,15 +59,42 @@ public class OCRFilter extends AbstractDocumentFilter
     private final TesseractFactory mTF;
 
     /**
-     * The number of threads to be used for OCR.
+     * The number of threads to be used for OCR. This is only used if no
+     * {@link #mThreadPolicy} is set.
      */
     private int mThreadCount = 4;
 
+    /**
+     * The optional policy that decides on the number of OCR threads and adjusts
+     * it while processing. If this is null, {@link #mThreadCount} threads are
+     * used.
+     */
+    private OCRThreadPolicy mThreadPolicy;
+
     /**
      * The scale factor to use for converting PDF to image (1.0 means 72dpi).
      */
     private float mScale = 3.0f;
 
+    /**
+     * The optional image pre-processing to apply to rendered pages before OCR.
+     * If this is null, the page is rendered as binary image and passed to OCR
+     * directly.
+     */
+    private ImagePreprocessor mPreprocessor;
+
+    /**
+     * The index of the first page to process. Pages before are left
+     * unchanged.
+     */
+    private int mStartPage = 0;
+
+    /**
+     * The optional watchdog that limits the time for rendering and OCR of a
+     * page.
+     */
+    private transient PageWatchdog mWatchdog;
+
     public OCRFilter(TesseractFactory aTF)
     {
         mTF = aTF;
@@ -91,6 +124,77 @@ public class OCRFilter extends AbstractDocumentFilter
     }
 
 
+    /**
+     * 
+     * @param aThreadPolicy
+     *            the policy that decides on the number of OCR threads. If this
+     *            is null, a fixed number of threads as given by
+     *            {@link #setThreadCount(int)} is used.
+     */
+    public void setThreadPolicy(OCRThreadPolicy aThreadPolicy)
+    {
+        mThreadPolicy = aThreadPolicy;
+    }
+
+
+    /**
+     * 
+     * @return the policy that decides on the number of OCR threads or null if
+     *         a fixed number of threads is used.
+     */
+    public OCRThreadPolicy getThreadPolicy()
+    {
+        return mThreadPolicy;
+    }
+
+
+    /**
+     * 
+     * @param aStartPage
+     *            the index of the first page to process (starting at 0), e.g.
+     *            when a split is resumed. Pages before are left unchanged.
+     */
+    public void setStartPage(int aStartPage)
+    {
+        mStartPage = Math.max(0, aStartPage);
+    }
+
+
+    /**
+     * 
+     * @return the index of the first page to process.
+     */
+    public int getStartPage()
+    {
+        return mStartPage;
+    }
+
+
+    /**
+     * 
+     * @param aWatchdog
+     *            the watchdog that limits the time for rendering
+     *            ({@link PageWatchdog#STAGE_RENDER}) and OCR
+     *            ({@link PageWatchdog#STAGE_OCR}) of a page or null. Pages
+     *            that exceed a deadline are left without OCR text.
+     */
+    public void setWatchdog(PageWatchdog aWatchdog)
+    {
+        mWatchdog = aWatchdog;
+    }
+
+
+    /**
+     * 
+     * @return the watchdog that limits the time for rendering and OCR or
+     *         null.
+     */
+    public PageWatchdog getWatchdog()
+    {
+        return mWatchdog;
+    }
+
+
     /**
      * 
      * @param aScale
@@ -115,6 +219,30 @@ public class OCRFilter extends AbstractDocumentFilter
     }
 
 
+    /**
+     * 
+     * @param aPreprocessor
+     *            the image pre-processing to apply to rendered pages before
+     *            OCR. If this is null, pages are rendered as binary image and
+     *            passed to OCR without further processing.
+     */
+    public void setPreprocessor(ImagePreprocessor aPreprocessor)
+    {
+        mPreprocessor = aPreprocessor;
+    }
+
+
+    /**
+     * 
+     * @return the image pre-processing applied before OCR or null if none is
+     *         used.
+     */
+    public ImagePreprocessor getPreprocessor()
+    {
+        return mPreprocessor;
+    }
+
+
     /**
      * Helper method that cleans characters not able to encode in the given
      * encoding.
@@ -275,60 +403,230 @@ public class OCRFilter extends AbstractDocumentFilter
 
     /**
      * Process OCR rendering for the given items. This method is to be called
-     * multiple times in parallel threads.
+     * multiple times in parallel threads. If a thread policy is set, a permit
+     * is acquired from it for every page, so the number of threads actually
+     * working might be less than the number of threads calling this method.
      * 
      * @param aItems
      *            the items to process.
+     * @param aPolicy
+     *            the thread policy to use or null to process without limit.
      */
-    protected void process(ItemProvider<PageMetaData> aItems)
+    protected void process(ItemProvider<PageMetaData> aItems,
+            OCRThreadPolicy aPolicy)
     {
-        try (TesseractC trOCR = mTF.createCloseableInstance())
+        TesseractC trOCR = null;
+        try
         {
-            PageMetaData pmd;
-            while ((pmd = aItems.next()) != null)
+            while (true)
             {
-                notifyEvent(DocumentFilterEvent.EVENT_NEXT_PAGE, pmd);
-
-                if (!isToProcess(pmd.getDocument(), pmd.getPage(),
-                        pmd.getPageIndex()))
+                if (aPolicy != null)
                 {
-                    notifyEvent(DocumentFilterEvent.EVENT_PAGE_IGNORED, pmd);
-                    continue;
+                    aPolicy.acquire();
                 }
-
                 try
                 {
-                    long start = System.currentTimeMillis();
-                    PDDocument doc = pmd.getDocument();
-                    BufferedImage img;
-                    synchronized (doc)
+                    PageMetaData pmd = aItems.next();
+                    if (pmd == null)
                     {
-                        img = new PDFRenderer(doc).renderImage(
-                                pmd.getPageIndex(), mScale, ImageType.BINARY);
+                        return;
+                    }
+                    if (trOCR == null)
+                    {
+                        // created with the permit, so only threads that may
+                        // work hold an instance
+                        trOCR = mTF.createCloseableInstance();
+                        if (aPolicy != null)
+                        {
+                            aPolicy.engineCreated();
+                        }
+                    }
+                    if (!processPage(trOCR, pmd, aItems, aPolicy))
+                    {
+                        // the instance is still busy with an abandoned page,
+                        // it is closed when that finishes
+                        trOCR = null;
+                        if (aPolicy != null)
+                        {
+                            aPolicy.engineClosed();
+                        }
                     }
-
-                    LOGGER.log(Level.DEBUG, "Rendering took: {0}ms",
-                            (System.currentTimeMillis() - start));
-                    start = System.currentTimeMillis();
-                    List<Word> words = trOCR.getWords(img,
-                            TessAPI.TessPageIteratorLevel.RIL_WORD);
-                    LOGGER.log(Level.DEBUG, "OCR took: {0}ms",
-                            (System.currentTimeMillis() - start));
-                    pmd.setWords(words);
                 }
-                catch (Exception ex)
+                finally
                 {
-                    LOGGER.log(Level.ERROR, ex.getMessage(), ex);
+                    if (aPolicy != null)
+                    {
+                        aPolicy.release();
+                    }
                 }
-                finally
+                if (trOCR != null && aPolicy != null
+                        && aPolicy.releaseSurplusEngine())
+                {
+                    // the thread count was reduced, free the native memory
+                    trOCR.close();
+                    trOCR = null;
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            LOGGER.log(Level.WARNING, "OCR thread interrupted.");
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            if (trOCR != null)
+            {
+                trOCR.close();
+                if (aPolicy != null)
                 {
-                    notifyEvent(DocumentFilterEvent.EVENT_PAGE_DONE, pmd);
+                    aPolicy.engineClosed();
                 }
             }
         }
     }
 
 
+    /**
+     * Process OCR rendering for a single page.
+     * 
+     * @param aOCR
+     *            the Tesseract instance of the current thread.
+     * @param aPMD
+     *            the page to process.
+     * @param aItems
+     *            the item provider, used to re-queue the page if memory ran
+     *            out.
+     * @param aPolicy
+     *            the thread policy to inform about processed pages or null.
+     * @return false if OCR of the page was abandoned after its deadline, so
+     *         the given Tesseract instance is still in use. It is closed when
+     *         the abandoned OCR finishes.
+     */
+    protected boolean processPage(TesseractC aOCR, PageMetaData aPMD,
+            ItemProvider<PageMetaData> aItems, OCRThreadPolicy aPolicy)
+    {
+        if (!aPMD.isRetry())
+        {
+            notifyEvent(DocumentFilterEvent.EVENT_NEXT_PAGE, aPMD);
+
+            if (!isToProcess(aPMD.getDocument(), aPMD.getPage(),
+                    aPMD.getPageIndex()))
+            {
+                notifyEvent(DocumentFilterEvent.EVENT_PAGE_IGNORED, aPMD);
+                return true;
+            }
+        }
+
+        boolean requeued = false;
+        boolean engineFree = true;
+        try
+        {
+            long start = System.currentTimeMillis();
+            PDDocument doc = aPMD.getDocument();
+            ImagePreprocessor preprocessor = mPreprocessor;
+            BufferedImage img = PageWatchdog.render(mWatchdog, doc,
+                    aPMD.getPageIndex(),
+                    (aDoc) -> new PDFRenderer(aDoc).renderImage(
+                            aPMD.getPageIndex(), mScale,
+                            preprocessor != null ? ImageType.GRAY
+                                    : ImageType.BINARY));
+
+            LOGGER.log(Level.DEBUG, "Rendering took: {0}ms",
+                    (System.currentTimeMillis() - start));
+
+            GrayImage processed = null;
+            if (preprocessor != null)
+            {
+                processed = preprocessor.process(img);
+                img = processed.toBufferedImage();
+            }
+
+            start = System.currentTimeMillis();
+            BufferedImage ocrImg = img;
+            List<Word> words;
+            try
+            {
+                words = PageWatchdog.call(mWatchdog, PageWatchdog.STAGE_OCR,
+                        aPMD.getPageIndex(), () -> aOCR.getWords(ocrImg,
+                                TessAPI.TessPageIteratorLevel.RIL_WORD),
+                        aOCR::close);
+            }
+            catch (PageTimeoutException ex)
+            {
+                engineFree = false;
+                throw ex;
+            }
+            LOGGER.log(Level.DEBUG, "OCR took: {0}ms",
+                    (System.currentTimeMillis() - start));
+            if (processed != null && processed.getRotation() != 0.0d)
+            {
+                words = mapToSource(words, processed);
+            }
+            aPMD.setWords(words);
+            if (aPolicy != null)
+            {
+                aPolicy.pageDone();
+            }
+        }
+        catch (OutOfMemoryError err)
+        {
+            if (aPolicy != null && !aPMD.isRetry())
+            {
+                // the policy reduces the thread count, try once more later
+                aPolicy.outOfMemory();
+                aPMD.setRetry(true);
+                aItems.retry(aPMD);
+                requeued = true;
+            }
+            else
+            {
+                LOGGER.log(Level.ERROR, "Out of memory on page "
+                        + (aPMD.getPageIndex() + 1), err);
+            }
+        }
+        catch (PageTimeoutException ex)
+        {
+            LOGGER.log(Level.WARNING, "Page {0} is not OCRed: {1}",
+                    aPMD.getPageIndex() + 1, ex.getMessage());
+        }
+        catch (Exception ex)
+        {
+            LOGGER.log(Level.ERROR, ex.getMessage(), ex);
+        }
+        finally
+        {
+            if (!requeued)
+            {
+                notifyEvent(DocumentFilterEvent.EVENT_PAGE_DONE, aPMD);
+            }
+        }
+        return engineFree;
+    }
+
+
+    /**
+     * Map the bounding boxes of the given words from the pre-processed image
+     * back to the rendered page image.
+     * 
+     * @param aWords
+     *            the words found in the pre-processed image.
+     * @param aImage
+     *            the pre-processed image.
+     * @return the words with bounding boxes in page image coordinates.
+     */
+    protected List<Word> mapToSource(List<Word> aWords, GrayImage aImage)
+    {
+        List<Word> res = new ArrayList<>(aWords.size());
+        for (Word w : aWords)
+        {
+            res.add(new Word(w.getText(), w.getConfidence(),
+                    aImage.mapToSource(w.getBoundingBox())));
+        }
+        return res;
+    }
+
+
     @Override
     public PDDocument filter(PDDocument aDocument)
     {
@@ -341,17 +639,36 @@ public class OCRFilter extends AbstractDocumentFilter
         for (PDPage page : aDocument.getPages())
         {
             pidx++;
-            pmds.add(new PageMetaData(aDocument, pageCount, page, pidx));
+            if (pidx >= mStartPage)
+            {
+                pmds.add(new PageMetaData(aDocument, pageCount, page, pidx));
+            }
         }
 
         final ItemProvider<PageMetaData> metaProvider = new ItemProvider<>(
                 pmds);
 
+        final OCRThreadPolicy policy = mThreadPolicy;
         Runnable r = () -> {
-            process(metaProvider);
+            process(metaProvider, policy);
         };
 
-        int tc = Math.min(mThreadCount, pmds.size());
+        int tc;
+        if (policy != null && !pmds.isEmpty())
+        {
+            // start as many threads as the policy might allow, the policy
+            // decides how many of them are working at the same time
+            PDRectangle box = pmds.get(0).getPage().getMediaBox();
+            long workerMemory = policy.estimateWorkerMemory(
+                    (int) (box.getWidth() * mScale),
+                    (int) (box.getHeight() * mScale));
+            policy.start(workerMemory, pmds.size());
+            tc = Math.min(policy.getMaxThreadCount(), pmds.size());
+        }
+        else
+        {
+            tc = Math.min(mThreadCount, pmds.size());
+        }
 
         if (tc <= 1)
         {
@@ -409,6 +726,8 @@ public class OCRFilter extends AbstractDocumentFilter
 
         private final List<T> mItems;
 
+        private final Deque<T> mRetries = new ArrayDeque<>();
+
         private volatile int mCur = -1;
 
         ItemProvider(List<T> aItems)
@@ -419,6 +738,10 @@ public class OCRFilter extends AbstractDocumentFilter
 
         public synchronized T next()
         {
+            if (!mRetries.isEmpty())
+            {
+                return mRetries.poll();
+            }
             mCur++;
             if (mCur < mItems.size())
             {
@@ -426,6 +749,12 @@ public class OCRFilter extends AbstractDocumentFilter
             }
             return null;
         }
+
+
+        public synchronized void retry(T aItem)
+        {
+            mRetries.add(aItem);
+        }
     }
 
 
@@ -442,6 +771,8 @@ public class OCRFilter extends AbstractDocumentFilter
 
         private List<Word> mWords;
 
+        private boolean mRetry;
+
         public PageMetaData(PDDocument aDocument, int aPageCount, PDPage aPage,
                 int aPageIndex)
         {
@@ -464,6 +795,18 @@ public class OCRFilter extends AbstractDocumentFilter
         }
 
 
+        public void setRetry(boolean aRetry)
+        {
+            mRetry = aRetry;
+        }
+
+
+        public boolean isRetry()
+        {
+            return mRetry;
+        }
+
+
         public PDDocument getDocument()
         {
             return mDocument;
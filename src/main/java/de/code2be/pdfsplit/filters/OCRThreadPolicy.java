@@ -0,0 +1,505 @@
+package de.code2be.pdfsplit.filters;
+
+import java.io.Serializable;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * A policy that decides how many OCR threads may work in parallel. The initial
+ * thread count is derived from the number of available processors and the
+ * memory a single worker is expected to need (Tesseract instance plus page
+ * raster) compared to the free heap.<br/>
+ * While OCR is running, the workers acquire a permit before every page and
+ * report the finished page afterwards. Based on the measured throughput and
+ * the heap headroom / GC load (taken from the {@link MemoryMXBean} and the
+ * {@link GarbageCollectorMXBean}'s) the number of permits is adjusted:
+ * <ul>
+ * <li>On memory pressure (low heap headroom, high GC time or an
+ * {@link OutOfMemoryError}) the count is halved.
+ * <li>Otherwise one more thread is tried. If the throughput did not improve by
+ * that, the count is reverted and kept for some time.
+ * </ul>
+ * The workers create their Tesseract instance once they got their first
+ * permit and close it when the count was reduced (see
+ * {@link #releaseSurplusEngine()}), so only as many instances exist as
+ * threads may work. <br/>
+ * An instance is used for one document at a time. Only the configuration is
+ * kept on serialization, the measurements are reset by
+ * {@link #start(long, int)}.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class OCRThreadPolicy implements Serializable
+{
+
+    private static final long serialVersionUID = -4628813790152735207L;
+
+    private static final Logger LOGGER = System
+            .getLogger(OCRThreadPolicy.class.getName());
+
+    /**
+     * The default memory (in bytes) a single Tesseract instance is expected to
+     * need.
+     */
+    public static final long DEFAULT_TESSERACT_MEMORY = 64L * 1024L * 1024L;
+
+    /**
+     * The minimum relative throughput gain that is required to keep an
+     * additional thread.
+     */
+    private static final double MIN_GAIN = 1.05d;
+
+    /**
+     * The upper limit of threads. Never more threads will be used.
+     */
+    private final int mMaxThreadCount;
+
+    /**
+     * The memory (in bytes) a single Tesseract instance is expected to need.
+     */
+    private long mTesseractMemory = DEFAULT_TESSERACT_MEMORY;
+
+    /**
+     * The minimum fraction of the maximum heap that must stay free. If less
+     * heap is free, the thread count is reduced.
+     */
+    private double mMinHeapHeadroom = 0.15d;
+
+    /**
+     * The maximum fraction of wall time that may be spent in garbage
+     * collection. If more time is spent, the thread count is reduced.
+     */
+    private double mMaxGcTimeFraction = 0.2d;
+
+    /**
+     * The number of threads that may currently work in parallel.
+     */
+    private transient int mTargetThreadCount = 1;
+
+    /**
+     * The number of threads that currently hold a permit.
+     */
+    private transient int mActiveThreadCount = 0;
+
+    /**
+     * The number of Tesseract instances the workers currently hold.
+     */
+    private transient int mEngineCount = 0;
+
+    /**
+     * The number of pages finished in the current measurement window.
+     */
+    private transient int mWindowPages = 0;
+
+    /**
+     * The start time (nano seconds) of the current measurement window.
+     */
+    private transient long mWindowStart;
+
+    /**
+     * The accumulated GC time (ms) at the start of the current window.
+     */
+    private transient long mWindowGcTime;
+
+    /**
+     * The throughput (pages per second) of the last finished window.
+     */
+    private transient double mLastThroughput = 0.0d;
+
+    /**
+     * A flag to indicate that the last adjustment was an increase that needs
+     * to be validated by the next window.
+     */
+    private transient boolean mProbing = false;
+
+    /**
+     * The number of windows to wait before the next increase is tried.
+     */
+    private transient int mHoldWindows = 0;
+
+    /**
+     * Create a new policy with the number of available processors as upper
+     * limit.
+     */
+    public OCRThreadPolicy()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Create a new policy.
+     *
+     * @param aMaxThreadCount
+     *            the upper limit of threads to use.
+     */
+    public OCRThreadPolicy(int aMaxThreadCount)
+    {
+        mMaxThreadCount = Math.max(1, aMaxThreadCount);
+    }
+
+
+    /**
+     *
+     * @return the upper limit of threads.
+     */
+    public int getMaxThreadCount()
+    {
+        return mMaxThreadCount;
+    }
+
+
+    /**
+     *
+     * @param aTesseractMemory
+     *            the memory (in bytes) a single Tesseract instance is expected
+     *            to need.
+     */
+    public void setTesseractMemory(long aTesseractMemory)
+    {
+        mTesseractMemory = aTesseractMemory;
+    }
+
+
+    /**
+     *
+     * @return the memory (in bytes) a single Tesseract instance is expected to
+     *         need.
+     */
+    public long getTesseractMemory()
+    {
+        return mTesseractMemory;
+    }
+
+
+    /**
+     *
+     * @param aMinHeapHeadroom
+     *            the minimum fraction (0.0 - 1.0) of the maximum heap that
+     *            must stay free.
+     */
+    public void setMinHeapHeadroom(double aMinHeapHeadroom)
+    {
+        mMinHeapHeadroom = aMinHeapHeadroom;
+    }
+
+
+    /**
+     *
+     * @return the minimum fraction (0.0 - 1.0) of the maximum heap that must
+     *         stay free.
+     */
+    public double getMinHeapHeadroom()
+    {
+        return mMinHeapHeadroom;
+    }
+
+
+    /**
+     *
+     * @param aMaxGcTimeFraction
+     *            the maximum fraction (0.0 - 1.0) of wall time that may be
+     *            spent in garbage collection.
+     */
+    public void setMaxGcTimeFraction(double aMaxGcTimeFraction)
+    {
+        mMaxGcTimeFraction = aMaxGcTimeFraction;
+    }
+
+
+    /**
+     *
+     * @return the maximum fraction (0.0 - 1.0) of wall time that may be spent
+     *         in garbage collection.
+     */
+    public double getMaxGcTimeFraction()
+    {
+        return mMaxGcTimeFraction;
+    }
+
+
+    /**
+     *
+     * @return the number of threads that may currently work in parallel.
+     */
+    public synchronized int getTargetThreadCount()
+    {
+        return mTargetThreadCount;
+    }
+
+
+    /**
+     * Estimate the memory a single worker needs for a page of the given size.
+     *
+     * @param aWidth
+     *            the width of the rendered page image in pixels.
+     * @param aHeight
+     *            the height of the rendered page image in pixels.
+     * @return the estimated memory in bytes. This is the Tesseract instance
+     *         plus three gray rasters (render, pre-processing and the copy
+     *         Tesseract makes).
+     */
+    public long estimateWorkerMemory(int aWidth, int aHeight)
+    {
+        return mTesseractMemory + 3L * aWidth * aHeight;
+    }
+
+
+    /**
+     * Calculate the initial number of threads and reset all measurements. This
+     * is to be called before the workers are started.
+     *
+     * @param aWorkerMemory
+     *            the estimated memory (in bytes) a single worker needs.
+     * @param aItemCount
+     *            the number of pages to process.
+     * @return the initial number of threads.
+     */
+    public synchronized int start(long aWorkerMemory, int aItemCount)
+    {
+        long free = getFreeHeap();
+        long usable = (long) (free - getMaxHeap() * mMinHeapHeadroom);
+        int byMemory = (int) Math.max(1,
+                usable / Math.max(1L, aWorkerMemory));
+        int res = Math.min(mMaxThreadCount,
+                Math.min(byMemory, Math.max(1, aItemCount)));
+        res = Math.max(1, res);
+
+        mTargetThreadCount = res;
+        mActiveThreadCount = 0;
+        mEngineCount = 0;
+        mWindowPages = 0;
+        mWindowStart = System.nanoTime();
+        mWindowGcTime = getGcTime();
+        mLastThroughput = 0.0d;
+        mProbing = false;
+        mHoldWindows = 0;
+
+        LOGGER.log(Level.DEBUG,
+                "Initial OCR thread count {0} (cpu={1}, memory={2}, pages={3})",
+                res, mMaxThreadCount, byMemory, aItemCount);
+        return res;
+    }
+
+
+    /**
+     * Acquire a permit to process the next page. This blocks until less
+     * threads than {@link #getTargetThreadCount()} hold a permit.
+     *
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException
+    {
+        while (mActiveThreadCount >= mTargetThreadCount)
+        {
+            wait();
+        }
+        mActiveThreadCount++;
+    }
+
+
+    /**
+     * Release a previously acquired permit.
+     */
+    public synchronized void release()
+    {
+        mActiveThreadCount = Math.max(0, mActiveThreadCount - 1);
+        notifyAll();
+    }
+
+
+    /**
+     * Report that a worker created its Tesseract instance.
+     */
+    public synchronized void engineCreated()
+    {
+        mEngineCount++;
+    }
+
+
+    /**
+     * Report that a worker closed or abandoned its Tesseract instance.
+     */
+    public synchronized void engineClosed()
+    {
+        mEngineCount = Math.max(0, mEngineCount - 1);
+    }
+
+
+    /**
+     * Check if more Tesseract instances exist than threads may work. This is
+     * to be called by a worker that holds an instance after it released its
+     * permit.
+     *
+     * @return true if the caller has to close its instance. It is counted as
+     *         closed already.
+     */
+    public synchronized boolean releaseSurplusEngine()
+    {
+        if (mEngineCount > mTargetThreadCount)
+        {
+            mEngineCount--;
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     *
+     * @return the number of Tesseract instances the workers currently hold.
+     */
+    public synchronized int getEngineCount()
+    {
+        return mEngineCount;
+    }
+
+
+    /**
+     * Report a finished page. This updates the measurements and possibly
+     * adjusts the target thread count.
+     */
+    public synchronized void pageDone()
+    {
+        mWindowPages++;
+        if (mWindowPages < Math.max(2, mTargetThreadCount))
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long gcTime = getGcTime();
+        double elapsedMs = Math.max(1.0d, (now - mWindowStart) / 1000000.0d);
+        double throughput = mWindowPages * 1000.0d / elapsedMs;
+        double gcFraction = (gcTime - mWindowGcTime) / elapsedMs;
+        double headroom = (double) getFreeHeap() / getMaxHeap();
+
+        int oldTarget = mTargetThreadCount;
+        if (headroom < mMinHeapHeadroom || gcFraction > mMaxGcTimeFraction)
+        {
+            // memory pressure --> back off
+            mTargetThreadCount = Math.max(1, mTargetThreadCount / 2);
+            mProbing = false;
+            mHoldWindows = 3;
+        }
+        else if (mProbing)
+        {
+            mProbing = false;
+            if (throughput < mLastThroughput * MIN_GAIN)
+            {
+                // the additional thread did not help --> revert and wait
+                mTargetThreadCount = Math.max(1, mTargetThreadCount - 1);
+                mHoldWindows = 3;
+            }
+        }
+        else if (mHoldWindows > 0)
+        {
+            mHoldWindows--;
+        }
+        else if (mTargetThreadCount < mMaxThreadCount)
+        {
+            mTargetThreadCount++;
+            mProbing = true;
+        }
+
+        if (oldTarget != mTargetThreadCount)
+        {
+            LOGGER.log(Level.DEBUG,
+                    "OCR thread count {0} -> {1} (throughput={2} pages/s, heap free={3}%, gc={4}%)",
+                    oldTarget, mTargetThreadCount,
+                    String.format("%.2f", throughput), (int) (headroom * 100),
+                    (int) (gcFraction * 100));
+            notifyAll();
+        }
+
+        mLastThroughput = throughput;
+        mWindowPages = 0;
+        mWindowStart = now;
+        mWindowGcTime = gcTime;
+    }
+
+
+    /**
+     * Report that a worker ran out of memory. The thread count is reduced to
+     * a single thread and increases are suspended for some time.
+     */
+    public synchronized void outOfMemory()
+    {
+        LOGGER.log(Level.WARNING,
+                "Out of memory with {0} OCR threads, falling back to 1.",
+                mTargetThreadCount);
+        mTargetThreadCount = 1;
+        mProbing = false;
+        mHoldWindows = 10;
+        notifyAll();
+    }
+
+
+    /**
+     *
+     * @return the maximum heap size in bytes.
+     */
+    protected long getMaxHeap()
+    {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage();
+        long max = heap.getMax();
+        return max > 0 ? max : Runtime.getRuntime().maxMemory();
+    }
+
+
+    /**
+     *
+     * @return the currently free heap in bytes. This includes heap that is not
+     *         yet committed. The used heap is taken from the usage of the heap
+     *         pools after their last collection, so garbage is not counted as
+     *         used.
+     */
+    protected long getFreeHeap()
+    {
+        long used = 0L;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() != MemoryType.HEAP || !pool.isValid())
+            {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage == null)
+            {
+                // not collected by a GC, all of it is live
+                usage = pool.getUsage();
+            }
+            used += usage.getUsed();
+        }
+        return Math.max(0L, getMaxHeap() - used);
+    }
+
+
+    /**
+     *
+     * @return the accumulated time (ms) all garbage collectors spent so far.
+     */
+    protected long getGcTime()
+    {
+        long res = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory
+                .getGarbageCollectorMXBeans())
+        {
+            long t = gc.getCollectionTime();
+            if (t > 0)
+            {
+                res += t;
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,310 @@
+package de.code2be.pdfsplit.image;
+
+/**
+ * A {@link IPreprocessStep} that converts a gray image into a black and white
+ * image. Two threshold methods are supported:
+ * <ul>
+ * <li>{@link #METHOD_OTSU} - a global threshold calculated from the image
+ * histogram. This is fast and good for evenly lit scans.
+ * <li>{@link #METHOD_SAUVOLA} - a local threshold calculated from mean and
+ * standard deviation in a window around each pixel. This is slower but handles
+ * shadows, stains and uneven background.
+ * </ul>
+ * After processing all pixels are either {@link GrayImage#BLACK} or
+ * {@link GrayImage#WHITE}.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class BinarizeStep implements IPreprocessStep
+{
+
+    private static final long serialVersionUID = -3915386021468207613L;
+
+    /**
+     * Use a global threshold calculated with Otsu's method.
+     */
+    public static final int METHOD_OTSU = 1;
+
+    /**
+     * Use a local threshold calculated with Sauvola's method.
+     */
+    public static final int METHOD_SAUVOLA = 2;
+
+    /**
+     * The threshold method to use.
+     */
+    private final int mMethod;
+
+    /**
+     * The size of the window for {@link #METHOD_SAUVOLA} in pixels. If this is
+     * 0 or below, the window size is derived from the image size.
+     */
+    private int mWindowSize = 0;
+
+    /**
+     * The sensitivity parameter k of the Sauvola method. Typical values are
+     * between 0.2 and 0.5.
+     */
+    private double mSauvolaK = 0.34d;
+
+    /**
+     * Create a new step with the given threshold method.
+     *
+     * @param aMethod
+     *            either {@link #METHOD_OTSU} or {@link #METHOD_SAUVOLA}.
+     */
+    public BinarizeStep(int aMethod)
+    {
+        if (aMethod != METHOD_OTSU && aMethod != METHOD_SAUVOLA)
+        {
+            throw new IllegalArgumentException(
+                    "Unknown binarization method: " + aMethod);
+        }
+        mMethod = aMethod;
+    }
+
+
+    /**
+     *
+     * @return the threshold method used by this step.
+     */
+    public int getMethod()
+    {
+        return mMethod;
+    }
+
+
+    /**
+     *
+     * @param aWindowSize
+     *            the window size (in pixels) for the Sauvola method. Values of
+     *            0 or below mean the size is derived from the image size.
+     */
+    public void setWindowSize(int aWindowSize)
+    {
+        mWindowSize = aWindowSize;
+    }
+
+
+    /**
+     *
+     * @return the window size (in pixels) for the Sauvola method.
+     */
+    public int getWindowSize()
+    {
+        return mWindowSize;
+    }
+
+
+    /**
+     *
+     * @param aSauvolaK
+     *            the sensitivity parameter k of the Sauvola method.
+     */
+    public void setSauvolaK(double aSauvolaK)
+    {
+        mSauvolaK = aSauvolaK;
+    }
+
+
+    /**
+     *
+     * @return the sensitivity parameter k of the Sauvola method.
+     */
+    public double getSauvolaK()
+    {
+        return mSauvolaK;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return mMethod == METHOD_OTSU ? "binarize(otsu)" : "binarize(sauvola)";
+    }
+
+
+    @Override
+    public void process(GrayImage aImage)
+    {
+        if (mMethod == METHOD_OTSU)
+        {
+            applyGlobalThreshold(aImage, calculateOtsuThreshold(aImage));
+        }
+        else
+        {
+            applySauvola(aImage);
+        }
+    }
+
+
+    /**
+     * Calculate the global threshold for the given image using Otsu's method.
+     * All pixels with a value less or equal the threshold are ink.
+     *
+     * @param aImage
+     *            the image to calculate the threshold for.
+     * @return the threshold value (0 - 255).
+     */
+    public static int calculateOtsuThreshold(GrayImage aImage)
+    {
+        byte[] px = aImage.getPixels();
+        int count = aImage.getWidth() * aImage.getHeight();
+        int[] hist = new int[256];
+        for (int i = 0; i < count; i++)
+        {
+            hist[px[i] & 0xFF]++;
+        }
+
+        long sumAll = 0;
+        for (int v = 0; v < 256; v++)
+        {
+            sumAll += (long) v * hist[v];
+        }
+
+        long sumBack = 0;
+        long weightBack = 0;
+        double maxVariance = -1.0d;
+        int threshold = 127;
+        for (int t = 0; t < 256; t++)
+        {
+            weightBack += hist[t];
+            if (weightBack == 0)
+            {
+                continue;
+            }
+            long weightFore = count - weightBack;
+            if (weightFore == 0)
+            {
+                break;
+            }
+            sumBack += (long) t * hist[t];
+            double meanBack = (double) sumBack / weightBack;
+            double meanFore = (double) (sumAll - sumBack) / weightFore;
+            double diff = meanBack - meanFore;
+            double variance = (double) weightBack * weightFore * diff * diff;
+            if (variance > maxVariance)
+            {
+                maxVariance = variance;
+                threshold = t;
+            }
+        }
+        return threshold;
+    }
+
+
+    /**
+     * Apply a global threshold to the image.
+     *
+     * @param aImage
+     *            the image to modify.
+     * @param aThreshold
+     *            all pixels less or equal this value are set to black, all
+     *            other to white.
+     */
+    protected static void applyGlobalThreshold(GrayImage aImage,
+            int aThreshold)
+    {
+        byte[] px = aImage.getPixels();
+        int count = aImage.getWidth() * aImage.getHeight();
+        for (int i = 0; i < count; i++)
+        {
+            px[i] = (byte) ((px[i] & 0xFF) <= aThreshold ? GrayImage.BLACK
+                    : GrayImage.WHITE);
+        }
+    }
+
+
+    /**
+     * Apply the Sauvola threshold. The local mean and variance are calculated
+     * with sliding column sums, so the memory overhead is one output image
+     * and two arrays of the image width.
+     *
+     * @param aImage
+     *            the image to modify.
+     */
+    protected void applySauvola(GrayImage aImage)
+    {
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        byte[] src = aImage.getPixels();
+        byte[] dst = new byte[w * h];
+
+        int win = mWindowSize > 0 ? mWindowSize
+                : Math.max(15, Math.min(w, h) / 40);
+        int r = Math.max(1, win / 2);
+        double k = mSauvolaK;
+        double range = 128.0d;
+
+        int[] colSum = new int[w];
+        long[] colSq = new long[w];
+
+        // pre-fill the column sums with the rows above the first window end
+        for (int y = 0; y < Math.min(r, h); y++)
+        {
+            addRow(src, w, y, colSum, colSq, 1);
+        }
+
+        for (int y = 0; y < h; y++)
+        {
+            if (y + r < h)
+            {
+                addRow(src, w, y + r, colSum, colSq, 1);
+            }
+            if (y - r - 1 >= 0)
+            {
+                addRow(src, w, y - r - 1, colSum, colSq, -1);
+            }
+            int rows = Math.min(h - 1, y + r) - Math.max(0, y - r) + 1;
+
+            long sum = 0;
+            long sq = 0;
+            for (int x = 0; x < Math.min(r, w); x++)
+            {
+                sum += colSum[x];
+                sq += colSq[x];
+            }
+            int rowOffs = y * w;
+            for (int x = 0; x < w; x++)
+            {
+                if (x + r < w)
+                {
+                    sum += colSum[x + r];
+                    sq += colSq[x + r];
+                }
+                if (x - r - 1 >= 0)
+                {
+                    sum -= colSum[x - r - 1];
+                    sq -= colSq[x - r - 1];
+                }
+                int cols = Math.min(w - 1, x + r) - Math.max(0, x - r) + 1;
+                double n = (double) rows * cols;
+                double mean = sum / n;
+                double variance = Math.max(0.0d, sq / n - mean * mean);
+                double std = Math.sqrt(variance);
+                double threshold = mean * (1.0d + k * (std / range - 1.0d));
+                int v = src[rowOffs + x] & 0xFF;
+                dst[rowOffs + x] = (byte) (v <= threshold ? GrayImage.BLACK
+                        : GrayImage.WHITE);
+            }
+        }
+        aImage.setPixels(dst);
+    }
+
+
+    /**
+     * Add (or remove) the pixels of a single row to the column sums.
+     */
+    private static void addRow(byte[] aSrc, int aWidth, int aRow,
+            int[] aColSum, long[] aColSq, int aSign)
+    {
+        int offs = aRow * aWidth;
+        for (int x = 0; x < aWidth; x++)
+        {
+            int v = aSrc[offs + x] & 0xFF;
+            aColSum[x] += aSign * v;
+            aColSq[x] += aSign * v * v;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package de.code2be.pdfsplit.image;
+
+import java.util.Arrays;
+
+/**
+ * A {@link IPreprocessStep} that detects and corrects a skewed (slightly
+ * rotated) scan. The skew angle is detected with horizontal projection
+ * profiles: for every candidate angle the black pixels are projected on the
+ * rotated vertical axis. The angle, where the text lines produce the sharpest
+ * profile (the highest sum of squared bin counts), is the skew angle.<br/>
+ * The search is done in two passes, a coarse one over the complete range and a
+ * fine one around the best coarse angle. The image is expected to be binarized
+ * (pixels below 128 are treated as black).
+ *
+ * @author Michael Weiss
+ *
+ */
+public class DeskewStep implements IPreprocessStep
+{
+
+    private static final long serialVersionUID = -1406316004806342215L;
+
+    /**
+     * The maximum absolute skew angle (in degrees) that is searched for.
+     */
+    private double mMaxAngle = 5.0d;
+
+    /**
+     * The step (in degrees) for the coarse search.
+     */
+    private double mCoarseStep = 0.5d;
+
+    /**
+     * The step (in degrees) for the fine search.
+     */
+    private double mFineStep = 0.05d;
+
+    /**
+     * The minimum absolute angle (in degrees) that is corrected. Smaller
+     * angles are ignored as the correction would not improve OCR.
+     */
+    private double mMinAngle = 0.1d;
+
+    /**
+     * Only every n'th pixel of a row is used to detect the skew angle. All rows
+     * are used, as skipping rows would alias with the projection bins and
+     * favor an angle of 0.
+     */
+    private int mSampleStep = 2;
+
+    /**
+     *
+     * @param aMaxAngle
+     *            the maximum absolute skew angle (in degrees) to search for.
+     */
+    public void setMaxAngle(double aMaxAngle)
+    {
+        mMaxAngle = aMaxAngle;
+    }
+
+
+    /**
+     *
+     * @return the maximum absolute skew angle (in degrees) to search for.
+     */
+    public double getMaxAngle()
+    {
+        return mMaxAngle;
+    }
+
+
+    /**
+     *
+     * @param aMinAngle
+     *            the minimum absolute angle (in degrees) that is corrected.
+     */
+    public void setMinAngle(double aMinAngle)
+    {
+        mMinAngle = aMinAngle;
+    }
+
+
+    /**
+     *
+     * @return the minimum absolute angle (in degrees) that is corrected.
+     */
+    public double getMinAngle()
+    {
+        return mMinAngle;
+    }
+
+
+    /**
+     *
+     * @param aSampleStep
+     *            only every n'th pixel of a row is used for skew detection.
+     */
+    public void setSampleStep(int aSampleStep)
+    {
+        mSampleStep = Math.max(1, aSampleStep);
+    }
+
+
+    /**
+     *
+     * @return only every n'th pixel of a row is used for skew detection.
+     */
+    public int getSampleStep()
+    {
+        return mSampleStep;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return "deskew";
+    }
+
+
+    @Override
+    public void process(GrayImage aImage)
+    {
+        double angle = detectSkewAngle(aImage);
+        if (Math.abs(angle) < mMinAngle)
+        {
+            return;
+        }
+        rotate(aImage, Math.toRadians(angle));
+    }
+
+
+    /**
+     * Detect the skew angle of the given image.
+     *
+     * @param aImage
+     *            the image to check.
+     * @return the skew angle in degrees. Positive values mean the text lines
+     *         are falling from left to right (in image coordinates).
+     */
+    public double detectSkewAngle(GrayImage aImage)
+    {
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        byte[] px = aImage.getPixels();
+        int step = mSampleStep;
+
+        int inkCount = 0;
+        for (int y = 0; y < h; y++)
+        {
+            int rowOffs = y * w;
+            for (int x = 0; x < w; x += step)
+            {
+                if ((px[rowOffs + x] & 0xFF) < 128)
+                {
+                    inkCount++;
+                }
+            }
+        }
+        if (inkCount < 50)
+        {
+            // not enough content to detect anything
+            return 0.0d;
+        }
+
+        int[] xs = new int[inkCount];
+        int[] ys = new int[inkCount];
+        int idx = 0;
+        for (int y = 0; y < h; y++)
+        {
+            int rowOffs = y * w;
+            for (int x = 0; x < w; x += step)
+            {
+                if ((px[rowOffs + x] & 0xFF) < 128)
+                {
+                    xs[idx] = x;
+                    ys[idx] = y;
+                    idx++;
+                }
+            }
+        }
+
+        int margin = (int) Math
+                .ceil(w * Math.sin(Math.toRadians(Math.abs(mMaxAngle)))) + 2;
+        int[] bins = new int[h + 2 * margin];
+
+        double best = 0.0d;
+        double bestScore = score(xs, ys, 0.0d, bins, margin);
+        for (double a = -mMaxAngle; a <= mMaxAngle; a += mCoarseStep)
+        {
+            double s = score(xs, ys, a, bins, margin);
+            if (s > bestScore)
+            {
+                bestScore = s;
+                best = a;
+            }
+        }
+
+        double coarse = best;
+        for (double a = coarse - mCoarseStep; a <= coarse
+                + mCoarseStep; a += mFineStep)
+        {
+            if (Math.abs(a) > mMaxAngle)
+            {
+                continue;
+            }
+            double s = score(xs, ys, a, bins, margin);
+            if (s > bestScore)
+            {
+                bestScore = s;
+                best = a;
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * Calculate the projection profile score for the given angle.
+     */
+    private static double score(int[] aXs, int[] aYs, double aAngle,
+            int[] aBins, int aMargin)
+    {
+        double rad = Math.toRadians(aAngle);
+        double sin = Math.sin(rad);
+        double cos = Math.cos(rad);
+        Arrays.fill(aBins, 0);
+        for (int i = 0; i < aXs.length; i++)
+        {
+            int bin = (int) (aYs[i] * cos - aXs[i] * sin) + aMargin;
+            if (bin >= 0 && bin < aBins.length)
+            {
+                aBins[bin]++;
+            }
+        }
+        double res = 0.0d;
+        for (int b : aBins)
+        {
+            res += (double) b * b;
+        }
+        return res;
+    }
+
+
+    /**
+     * Rotate the image content by the given skew angle, so that the text
+     * lines become horizontal. Nearest neighbor sampling is used, uncovered
+     * areas are filled white.
+     *
+     * @param aImage
+     *            the image to rotate.
+     * @param aSkew
+     *            the detected skew angle in radians.
+     */
+    protected static void rotate(GrayImage aImage, double aSkew)
+    {
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        byte[] src = aImage.getPixels();
+        byte[] dst = new byte[w * h];
+        double cos = Math.cos(aSkew);
+        double sin = Math.sin(aSkew);
+        double cx = w / 2.0d;
+        double cy = h / 2.0d;
+
+        for (int y = 0; y < h; y++)
+        {
+            double dy = y - cy;
+            // source = R(skew) * destination (both relative to the center)
+            double sxBase = -dy * sin + cx;
+            double syBase = dy * cos + cy;
+            int rowOffs = y * w;
+            for (int x = 0; x < w; x++)
+            {
+                double dx = x - cx;
+                int sx = (int) Math.round(dx * cos + sxBase);
+                int sy = (int) Math.round(dx * sin + syBase);
+                if (sx >= 0 && sx < w && sy >= 0 && sy < h)
+                {
+                    dst[rowOffs + x] = src[sy * w + sx];
+                }
+                else
+                {
+                    dst[rowOffs + x] = (byte) GrayImage.WHITE;
+                }
+            }
+        }
+        aImage.setPixels(dst);
+        aImage.setRotation(aImage.getRotation() - aSkew);
+    }
+}
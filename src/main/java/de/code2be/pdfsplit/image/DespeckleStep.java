@@ -0,0 +1,144 @@
+package de.code2be.pdfsplit.image;
+
+/**
+ * A {@link IPreprocessStep} that removes small speckles (dust, scanner noise)
+ * from a black and white image. All 8-connected components of black pixels
+ * with at most {@link #getMaxSpeckleSize()} pixels are set to white.<br/>
+ * The image is expected to be binarized already. Pixels with a value below 128
+ * are treated as black, so gray images are implicitly thresholded at the
+ * middle.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class DespeckleStep implements IPreprocessStep
+{
+
+    private static final long serialVersionUID = 3571398452671632447L;
+
+    /**
+     * Temporary marker for black pixels that are already visited.
+     */
+    private static final byte VISITED = 1;
+
+    /**
+     * The maximum number of pixels a component may have to be removed.
+     */
+    private final int mMaxSpeckleSize;
+
+    /**
+     * Create a new step.
+     *
+     * @param aMaxSpeckleSize
+     *            the maximum number of pixels of a black component that is
+     *            seen as speckle and removed.
+     */
+    public DespeckleStep(int aMaxSpeckleSize)
+    {
+        if (aMaxSpeckleSize < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Speckle size must be at least 1 but is " + aMaxSpeckleSize);
+        }
+        mMaxSpeckleSize = aMaxSpeckleSize;
+    }
+
+
+    /**
+     *
+     * @return the maximum number of pixels of a black component that is seen as
+     *         speckle and removed.
+     */
+    public int getMaxSpeckleSize()
+    {
+        return mMaxSpeckleSize;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return "despeckle";
+    }
+
+
+    @Override
+    public void process(GrayImage aImage)
+    {
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        int count = w * h;
+        byte[] px = aImage.getPixels();
+
+        // normalize to pure black and white, so we can use VISITED as marker
+        for (int i = 0; i < count; i++)
+        {
+            px[i] = (byte) ((px[i] & 0xFF) < 128 ? GrayImage.BLACK
+                    : GrayImage.WHITE);
+        }
+
+        // the queue holds the pixel indices of the current component. As the
+        // queue is never cleared while processing one component, it contains
+        // all pixels of the component afterwards.
+        int[] queue = new int[Math.max(64, mMaxSpeckleSize * 4)];
+
+        for (int start = 0; start < count; start++)
+        {
+            if (px[start] != GrayImage.BLACK)
+            {
+                continue;
+            }
+
+            px[start] = VISITED;
+            queue[0] = start;
+            int head = 0;
+            int tail = 1;
+            while (head < tail)
+            {
+                int p = queue[head++];
+                int py = p / w;
+                int pxl = p - py * w;
+                int yMin = Math.max(0, py - 1);
+                int yMax = Math.min(h - 1, py + 1);
+                int xMin = Math.max(0, pxl - 1);
+                int xMax = Math.min(w - 1, pxl + 1);
+                for (int ny = yMin; ny <= yMax; ny++)
+                {
+                    int rowOffs = ny * w;
+                    for (int nx = xMin; nx <= xMax; nx++)
+                    {
+                        int n = rowOffs + nx;
+                        if (px[n] == GrayImage.BLACK)
+                        {
+                            px[n] = VISITED;
+                            if (tail == queue.length)
+                            {
+                                int[] newQueue = new int[queue.length * 2];
+                                System.arraycopy(queue, 0, newQueue, 0, tail);
+                                queue = newQueue;
+                            }
+                            queue[tail++] = n;
+                        }
+                    }
+                }
+            }
+
+            if (tail <= mMaxSpeckleSize)
+            {
+                for (int i = 0; i < tail; i++)
+                {
+                    px[queue[i]] = (byte) GrayImage.WHITE;
+                }
+            }
+        }
+
+        // restore all remaining (visited) components to black
+        for (int i = 0; i < count; i++)
+        {
+            if (px[i] == VISITED)
+            {
+                px[i] = GrayImage.BLACK;
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package de.code2be.pdfsplit.image;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A simple 8 bit gray scale image that is backed by a primitive byte array.
+ * This is the working format for all {@link IPreprocessStep}'s. A pixel value
+ * of 0 means black (ink), a value of 255 means white (paper).
+ *
+ * @author Michael Weiss
+ *
+ */
+public class GrayImage
+{
+
+    /**
+     * The pixel value of a black (ink) pixel.
+     */
+    public static final int BLACK = 0;
+
+    /**
+     * The pixel value of a white (paper) pixel.
+     */
+    public static final int WHITE = 255;
+
+    /**
+     * The width of the image in pixels.
+     */
+    private final int mWidth;
+
+    /**
+     * The height of the image in pixels.
+     */
+    private final int mHeight;
+
+    /**
+     * The pixel data, one byte per pixel, row by row without padding.
+     */
+    private byte[] mPixels;
+
+    /**
+     * The rotation (in radians) that was applied to the image content by a
+     * deskew step. This is used to map coordinates back to the source image.
+     */
+    private double mRotation = 0.0d;
+
+    /**
+     * The time (in nanoseconds) every processing step took, in order of
+     * execution.
+     */
+    private final Map<String, Long> mTimings = new LinkedHashMap<>();
+
+    /**
+     * Create a new image for the given pixel data.
+     *
+     * @param aWidth
+     *            the width of the image.
+     * @param aHeight
+     *            the height of the image.
+     * @param aPixels
+     *            the pixel data. The array is used directly (not copied) and
+     *            must contain at least aWidth * aHeight elements.
+     */
+    public GrayImage(int aWidth, int aHeight, byte[] aPixels)
+    {
+        if (aWidth <= 0 || aHeight <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "Invalid image size " + aWidth + "x" + aHeight);
+        }
+        if (aPixels == null || aPixels.length < aWidth * aHeight)
+        {
+            throw new IllegalArgumentException(
+                    "Pixel array does not match image size!");
+        }
+        mWidth = aWidth;
+        mHeight = aHeight;
+        mPixels = aPixels;
+    }
+
+
+    /**
+     * Create a gray image from the given {@link BufferedImage}. For images of
+     * type {@link BufferedImage#TYPE_BYTE_GRAY} with a compact raster the
+     * underlying data array is used directly, all other images are converted.
+     *
+     * @param aImage
+     *            the image to convert.
+     * @return the gray image.
+     */
+    public static GrayImage fromBufferedImage(BufferedImage aImage)
+    {
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        Raster raster = aImage.getRaster();
+        if (aImage.getType() == BufferedImage.TYPE_BYTE_GRAY
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0)
+        {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            if (data.length == w * h)
+            {
+                return new GrayImage(w, h, data);
+            }
+        }
+
+        BufferedImage gray = aImage;
+        if (aImage.getType() != BufferedImage.TYPE_BYTE_GRAY)
+        {
+            gray = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g = gray.createGraphics();
+            try
+            {
+                g.drawImage(aImage, 0, 0, null);
+            }
+            finally
+            {
+                g.dispose();
+            }
+        }
+        byte[] pixels = new byte[w * h];
+        gray.getRaster().getDataElements(0, 0, w, h, pixels);
+        return new GrayImage(w, h, pixels);
+    }
+
+
+    /**
+     * Create a {@link BufferedImage} of type
+     * {@link BufferedImage#TYPE_BYTE_GRAY} that shares the pixel data with
+     * this image.
+     *
+     * @return the new image.
+     */
+    public BufferedImage toBufferedImage()
+    {
+        DataBufferByte buffer = new DataBufferByte(mPixels, mWidth * mHeight);
+        WritableRaster raster = Raster.createInterleavedRaster(buffer, mWidth,
+                mHeight, mWidth, 1, new int[]
+                {
+                        0
+                }, null);
+        ColorModel cm = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+
+    /**
+     *
+     * @return the width of the image in pixels.
+     */
+    public int getWidth()
+    {
+        return mWidth;
+    }
+
+
+    /**
+     *
+     * @return the height of the image in pixels.
+     */
+    public int getHeight()
+    {
+        return mHeight;
+    }
+
+
+    /**
+     *
+     * @return the pixel data. This is the internal array, so modifications
+     *         directly apply to this image.
+     */
+    public byte[] getPixels()
+    {
+        return mPixels;
+    }
+
+
+    /**
+     * Replace the pixel data of this image.
+     *
+     * @param aPixels
+     *            the new pixel data, must have the same size as the current.
+     */
+    public void setPixels(byte[] aPixels)
+    {
+        if (aPixels == null || aPixels.length < mWidth * mHeight)
+        {
+            throw new IllegalArgumentException(
+                    "Pixel array does not match image size!");
+        }
+        mPixels = aPixels;
+    }
+
+
+    /**
+     *
+     * @return the rotation (in radians) that was applied to the image content.
+     */
+    public double getRotation()
+    {
+        return mRotation;
+    }
+
+
+    /**
+     *
+     * @param aRotation
+     *            the rotation (in radians) that was applied to the image
+     *            content around the image center.
+     */
+    public void setRotation(double aRotation)
+    {
+        mRotation = aRotation;
+    }
+
+
+    /**
+     * Store the time a processing step took.
+     *
+     * @param aStepName
+     *            the name of the step.
+     * @param aNanos
+     *            the time the step took in nanoseconds.
+     */
+    public void addTiming(String aStepName, long aNanos)
+    {
+        mTimings.merge(aStepName, aNanos, Long::sum);
+    }
+
+
+    /**
+     *
+     * @return a read only map of step name to the time (in nanoseconds) the
+     *         step took. The map is ordered by execution.
+     */
+    public Map<String, Long> getTimings()
+    {
+        return Collections.unmodifiableMap(mTimings);
+    }
+
+
+    /**
+     * Map a rectangle found in this (processed) image back to the coordinate
+     * system of the source image. This reverts a rotation applied by a deskew
+     * step. The size of the rectangle is kept, only its center is rotated
+     * back.
+     *
+     * @param aRect
+     *            the rectangle in this image.
+     * @return the rectangle in source image coordinates.
+     */
+    public Rectangle mapToSource(Rectangle aRect)
+    {
+        if (mRotation == 0.0d || aRect == null)
+        {
+            return aRect;
+        }
+        double cx = mWidth / 2.0d;
+        double cy = mHeight / 2.0d;
+        double rx = aRect.getCenterX() - cx;
+        double ry = aRect.getCenterY() - cy;
+        double cos = Math.cos(-mRotation);
+        double sin = Math.sin(-mRotation);
+        double sx = rx * cos - ry * sin + cx;
+        double sy = rx * sin + ry * cos + cy;
+        return new Rectangle((int) Math.round(sx - aRect.width / 2.0d),
+                (int) Math.round(sy - aRect.height / 2.0d), aRect.width,
+                aRect.height);
+    }
+}
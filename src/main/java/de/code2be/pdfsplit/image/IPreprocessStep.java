@@ -0,0 +1,32 @@
+package de.code2be.pdfsplit.image;
+
+import java.io.Serializable;
+
+/**
+ * Interface for a single step of the image pre-processing that is performed
+ * before an image is passed to OCR. Implementations work in place on the
+ * primitive pixel array of a {@link GrayImage} and must be thread safe, as the
+ * same step is used by multiple OCR threads at the same time.
+ *
+ * @author Michael Weiss
+ *
+ */
+public interface IPreprocessStep extends Serializable
+{
+
+    /**
+     *
+     * @return the name of the step. This is used to report timings.
+     */
+    String getName();
+
+
+    /**
+     * Process the given image.
+     *
+     * @param aImage
+     *            the image to process. Modifications are applied to this
+     *            image.
+     */
+    void process(GrayImage aImage);
+}
@@ -0,0 +1,127 @@
+package de.code2be.pdfsplit.image;
+
+import java.awt.image.BufferedImage;
+import java.io.Serializable;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * The image pre-processing stage that runs between rendering a PDF page and
+ * passing the image to OCR. It holds an ordered list of
+ * {@link IPreprocessStep}'s (e.g. binarize, despeckle, deskew) that are applied
+ * one after the other on a {@link GrayImage}. The time of every step is
+ * recorded in the image and logged.<br/>
+ * An instance is thread safe as long as the registered steps are and might be
+ * shared between multiple OCR threads.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class ImagePreprocessor implements Serializable
+{
+
+    private static final long serialVersionUID = 8106392867047011253L;
+
+    private static final Logger LOGGER = System
+            .getLogger(ImagePreprocessor.class.getName());
+
+    /**
+     * The list of steps to be applied in the given order.
+     */
+    private final List<IPreprocessStep> mSteps = new ArrayList<>();
+
+    /**
+     * Add a step to the end of the processing chain.
+     *
+     * @param aStep
+     *            the step to be added. If this is null, nothing is done.
+     */
+    public void addStep(IPreprocessStep aStep)
+    {
+        if (aStep != null)
+        {
+            mSteps.add(aStep);
+        }
+    }
+
+
+    /**
+     * Remove a previously added step.
+     *
+     * @param aStep
+     *            the step to be removed.
+     * @return true if the step was removed, false otherwise.
+     */
+    public boolean removeStep(IPreprocessStep aStep)
+    {
+        return mSteps.remove(aStep);
+    }
+
+
+    /**
+     *
+     * @return a read only list of the registered steps.
+     */
+    public List<IPreprocessStep> getSteps()
+    {
+        return Collections.unmodifiableList(mSteps);
+    }
+
+
+    /**
+     * Process the given image with all registered steps.
+     *
+     * @param aImage
+     *            the image to process. A {@link BufferedImage#TYPE_BYTE_GRAY}
+     *            image (as rendered with
+     *            {@link org.apache.pdfbox.rendering.ImageType#GRAY}) is
+     *            processed without copying the pixel data.
+     * @return the processed image.
+     */
+    public GrayImage process(BufferedImage aImage)
+    {
+        long start = System.nanoTime();
+        GrayImage img = GrayImage.fromBufferedImage(aImage);
+        img.addTiming("convert", System.nanoTime() - start);
+        return process(img);
+    }
+
+
+    /**
+     * Process the given image with all registered steps.
+     *
+     * @param aImage
+     *            the image to process. The image is modified.
+     * @return the given image for further processing.
+     */
+    public GrayImage process(GrayImage aImage)
+    {
+        for (IPreprocessStep step : mSteps)
+        {
+            long start = System.nanoTime();
+            step.process(aImage);
+            aImage.addTiming(step.getName(), System.nanoTime() - start);
+        }
+
+        if (LOGGER.isLoggable(Level.DEBUG))
+        {
+            StringBuilder sb = new StringBuilder();
+            for (Entry<String, Long> e : aImage.getTimings().entrySet())
+            {
+                if (sb.length() > 0)
+                {
+                    sb.append(", ");
+                }
+                sb.append(e.getKey()).append("=")
+                        .append(e.getValue() / 1000000L).append("ms");
+            }
+            LOGGER.log(Level.DEBUG, "Preprocessing of {0}x{1} image took: {2}",
+                    aImage.getWidth(), aImage.getHeight(), sb);
+        }
+        return aImage;
+    }
+}
@@ -0,0 +1,657 @@
+package de.code2be.pdfsplit.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * An output stage that makes scanned pages smaller before a document is
+ * saved. All images that are directly used by the pages of a document are
+ * analyzed:
+ * <ul>
+ * <li>Effectively bitonal images (black text on white paper, stored as JPEG
+ * or 8 bit image) are binarized and encoded with CCITT group 4.
+ * <li>Images with a resolution above {@link #getTargetDpi()} are downsampled
+ * to that resolution.
+ * <li>Color images that only contain gray pixels are stored as gray images.
+ * </ul>
+ * An image is only replaced if the new image is smaller. The images are
+ * decoded and analyzed in parallel, reading from and writing to the document
+ * is synchronized on the document.<br/>
+ * The resolution of an image is estimated from the page size, assuming an
+ * image is at most as big as its page. This is exact for scanned pages and
+ * too low for smaller images, so images are never downsampled below the
+ * target resolution.<br/>
+ * Pages with replaced images get their own resource dictionaries, so pages
+ * imported from another document do not change the source document.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class ImageRecompressor
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(ImageRecompressor.class.getName());
+
+    /**
+     * The minimum width and height of an image to be processed. Smaller images
+     * (icons, logos) are not worth the effort.
+     */
+    private static final int MIN_IMAGE_SIZE = 64;
+
+    /**
+     * Pixels with a luminance between this and 255 minus this are treated as
+     * mid tone (neither black nor white).
+     */
+    private static final int MID_TONE_MARGIN = 48;
+
+    /**
+     * Pixels where the difference between the highest and lowest color
+     * component is above this are treated as colored.
+     */
+    private static final int COLOR_MARGIN = 40;
+
+    /**
+     * The resolution to downsample images to. If this is 0 or below, images
+     * are not downsampled.
+     */
+    private int mTargetDpi = 300;
+
+    /**
+     * The maximum fraction of mid tone pixels in an image that is treated as
+     * bitonal.
+     */
+    private double mBitonalTolerance = 0.05d;
+
+    /**
+     * The maximum fraction of colored pixels in an image that is treated as
+     * gray.
+     */
+    private double mColorTolerance = 0.002d;
+
+    /**
+     * The quality for images that are stored as JPEG again.
+     */
+    private float mJpegQuality = 0.75f;
+
+    /**
+     * The number of threads to analyze images with.
+     */
+    private int mThreadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of images replaced by the last call to
+     * {@link #recompress(PDDocument)}.
+     */
+    private int mReplacedCount = 0;
+
+    /**
+     *
+     * @return the resolution to downsample images to.
+     */
+    public int getTargetDpi()
+    {
+        return mTargetDpi;
+    }
+
+
+    /**
+     *
+     * @param aTargetDpi
+     *            the resolution to downsample images to. If this is 0 or
+     *            below, images are not downsampled.
+     */
+    public void setTargetDpi(int aTargetDpi)
+    {
+        mTargetDpi = aTargetDpi;
+    }
+
+
+    /**
+     *
+     * @return the maximum fraction of mid tone pixels in a bitonal image.
+     */
+    public double getBitonalTolerance()
+    {
+        return mBitonalTolerance;
+    }
+
+
+    /**
+     *
+     * @param aBitonalTolerance
+     *            the maximum fraction (0.0 - 1.0) of mid tone pixels an image
+     *            can have to be stored as black and white image.
+     */
+    public void setBitonalTolerance(double aBitonalTolerance)
+    {
+        mBitonalTolerance = aBitonalTolerance;
+    }
+
+
+    /**
+     *
+     * @return the maximum fraction of colored pixels in a gray image.
+     */
+    public double getColorTolerance()
+    {
+        return mColorTolerance;
+    }
+
+
+    /**
+     *
+     * @param aColorTolerance
+     *            the maximum fraction (0.0 - 1.0) of colored pixels an image
+     *            can have to be stored as gray image.
+     */
+    public void setColorTolerance(double aColorTolerance)
+    {
+        mColorTolerance = aColorTolerance;
+    }
+
+
+    /**
+     *
+     * @return the quality for images that are stored as JPEG again.
+     */
+    public float getJpegQuality()
+    {
+        return mJpegQuality;
+    }
+
+
+    /**
+     *
+     * @param aJpegQuality
+     *            the quality (0.0 - 1.0) for images that are stored as JPEG
+     *            again.
+     */
+    public void setJpegQuality(float aJpegQuality)
+    {
+        mJpegQuality = aJpegQuality;
+    }
+
+
+    /**
+     *
+     * @return the number of threads to analyze images with.
+     */
+    public int getThreadCount()
+    {
+        return mThreadCount;
+    }
+
+
+    /**
+     *
+     * @param aThreadCount
+     *            the number of threads to analyze images with.
+     */
+    public void setThreadCount(int aThreadCount)
+    {
+        if (aThreadCount < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Thread count must be positive but is " + aThreadCount);
+        }
+        mThreadCount = aThreadCount;
+    }
+
+
+    /**
+     *
+     * @return the number of images replaced by the last call to
+     *         {@link #recompress(PDDocument)}.
+     */
+    public int getReplacedCount()
+    {
+        return mReplacedCount;
+    }
+
+
+    /**
+     * Recompress the images of all pages of the given document.
+     *
+     * @param aDocument
+     *            the document to process.
+     * @return the number of stream bytes saved.
+     * @throws IOException
+     *             if an image can not be read or written.
+     */
+    public long recompress(PDDocument aDocument) throws IOException
+    {
+        mReplacedCount = 0;
+        List<Item> items = collectImages(aDocument);
+        if (items.isEmpty())
+        {
+            return 0L;
+        }
+
+        int threads = Math.min(mThreadCount, items.size());
+        if (threads <= 1)
+        {
+            for (Item item : items)
+            {
+                process(aDocument, item);
+            }
+        }
+        else
+        {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try
+            {
+                List<Future<?>> futures = new ArrayList<>();
+                for (Item item : items)
+                {
+                    futures.add(executor.submit(() -> {
+                        process(aDocument, item);
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures)
+                {
+                    f.get();
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while recompressing images",
+                        ex);
+            }
+            catch (ExecutionException ex)
+            {
+                if (ex.getCause() instanceof IOException)
+                {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+
+        long saved = 0L;
+        for (Item item : items)
+        {
+            if (item.mReplacement != null)
+            {
+                saved += replace(item);
+                mReplacedCount++;
+            }
+        }
+        LOGGER.log(Level.DEBUG, "Replaced {0} of {1} images ({2} bytes saved).",
+                mReplacedCount, items.size(), saved);
+        return saved;
+    }
+
+
+    /**
+     * Collect all images that are candidates for recompression. Images that
+     * are used by multiple pages are only collected once.
+     */
+    private List<Item> collectImages(PDDocument aDocument) throws IOException
+    {
+        Map<COSStream, Item> items = new IdentityHashMap<>();
+        List<Item> res = new ArrayList<>();
+        for (PDPage page : aDocument.getPages())
+        {
+            PDResources resources = page.getResources();
+            if (resources == null)
+            {
+                continue;
+            }
+            for (COSName name : resources.getXObjectNames())
+            {
+                PDXObject xobj = resources.getXObject(name);
+                if (!(xobj instanceof PDImageXObject))
+                {
+                    continue;
+                }
+                PDImageXObject img = (PDImageXObject) xobj;
+                Item item = items.get(img.getCOSObject());
+                if (item == null)
+                {
+                    if (!isCandidate(img))
+                    {
+                        continue;
+                    }
+                    item = new Item(img, estimateDpi(img, page));
+                    items.put(img.getCOSObject(), item);
+                    res.add(item);
+                }
+                item.mUsages.add(new Usage(page, name));
+            }
+        }
+        return res;
+    }
+
+
+    /**
+     * Check if an image can be processed. Masks, images with transparency and
+     * images that are already black and white are skipped.
+     */
+    private static boolean isCandidate(PDImageXObject aImage)
+        throws IOException
+    {
+        COSStream stream = aImage.getCOSObject();
+        if (aImage.isStencil() || aImage.getBitsPerComponent() == 1
+                || stream.containsKey(COSName.SMASK)
+                || stream.containsKey(COSName.MASK)
+                || aImage.getWidth() < MIN_IMAGE_SIZE
+                || aImage.getHeight() < MIN_IMAGE_SIZE)
+        {
+            return false;
+        }
+        List<COSName> filters = aImage.getStream().getFilters();
+        return !filters.contains(COSName.CCITTFAX_DECODE)
+                && !filters.contains(COSName.JBIG2_DECODE)
+                && !filters.contains(COSName.JPX_DECODE);
+    }
+
+
+    /**
+     * Estimate the resolution of an image on the given page. The image is
+     * assumed to be at most as big as the page.
+     */
+    private static double estimateDpi(PDImageXObject aImage, PDPage aPage)
+    {
+        PDRectangle box = aPage.getMediaBox();
+        double pageSize = Math.max(box.getWidth(), box.getHeight());
+        if (pageSize <= 0)
+        {
+            return 0.0d;
+        }
+        return Math.max(aImage.getWidth(), aImage.getHeight()) * 72.0d
+                / pageSize;
+    }
+
+
+    /**
+     * Decode and analyze an image and create the replacement if it is smaller.
+     */
+    private void process(PDDocument aDocument, Item aItem) throws IOException
+    {
+        PDImageXObject detached;
+        boolean jpeg;
+        long oldLength;
+        synchronized (aDocument)
+        {
+            detached = detach(aItem.mImage);
+            jpeg = aItem.mImage.getStream().getFilters()
+                    .contains(COSName.DCT_DECODE);
+            oldLength = aItem.mImage.getCOSObject().getLength();
+        }
+
+        BufferedImage img = detached.getImage();
+        int w = img.getWidth();
+        int h = img.getHeight();
+        double scale = 1.0d;
+        if (mTargetDpi > 0 && aItem.mDpi > mTargetDpi)
+        {
+            scale = mTargetDpi / aItem.mDpi;
+        }
+
+        long[] stats = analyze(img);
+        double pixels = (double) w * h;
+        boolean bitonal = stats[0] <= pixels * mBitonalTolerance
+                && stats[1] <= pixels * mColorTolerance;
+        boolean gray = stats[1] <= pixels * mColorTolerance
+                && detached.getColorSpace().getNumberOfComponents() > 1;
+
+        BufferedImage result;
+        if (bitonal)
+        {
+            GrayImage gi = GrayImage.fromBufferedImage(scale(img, scale,
+                    BufferedImage.TYPE_BYTE_GRAY));
+            new BinarizeStep(BinarizeStep.METHOD_OTSU).process(gi);
+            result = toBinary(gi);
+        }
+        else if (scale < 1.0d || gray)
+        {
+            result = scale(img, scale, gray ? BufferedImage.TYPE_BYTE_GRAY
+                    : BufferedImage.TYPE_INT_RGB);
+        }
+        else
+        {
+            return;
+        }
+
+        synchronized (aDocument)
+        {
+            PDImageXObject replacement;
+            if (bitonal)
+            {
+                replacement = CCITTFactory.createFromImage(aDocument, result);
+            }
+            else if (jpeg)
+            {
+                replacement = JPEGFactory.createFromImage(aDocument, result,
+                        mJpegQuality);
+            }
+            else
+            {
+                replacement = LosslessFactory.createFromImage(aDocument,
+                        result);
+            }
+            if (replacement.getCOSObject().getLength() < oldLength)
+            {
+                aItem.mReplacement = replacement;
+                aItem.mSaved = oldLength
+                        - replacement.getCOSObject().getLength();
+            }
+        }
+    }
+
+
+    /**
+     * Create a copy of the given image that does not depend on the document
+     * anymore. All objects required to decode the image are resolved, so the
+     * copy can be decoded without synchronization.
+     */
+    private static PDImageXObject detach(PDImageXObject aImage)
+        throws IOException
+    {
+        COSStream src = aImage.getCOSObject();
+        COSStream copy = new COSStream();
+        for (Map.Entry<COSName, COSBase> e : src.entrySet())
+        {
+            copy.setItem(e.getKey(), src.getDictionaryObject(e.getKey()));
+        }
+        try (InputStream in = src.createRawInputStream();
+                OutputStream out = copy.createRawOutputStream())
+        {
+            in.transferTo(out);
+        }
+        PDImageXObject res = new PDImageXObject(new PDStream(copy), null);
+        // resolve the color space now, this may read more objects
+        res.getColorSpace();
+        return res;
+    }
+
+
+    /**
+     * Count the mid tone and the colored pixels of an image.
+     *
+     * @return the number of mid tone pixels and the number of colored pixels.
+     */
+    private static long[] analyze(BufferedImage aImage)
+    {
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        int[] row = new int[w];
+        long midTone = 0;
+        long colored = 0;
+        for (int y = 0; y < h; y++)
+        {
+            aImage.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++)
+            {
+                int r = (row[x] >> 16) & 0xFF;
+                int g = (row[x] >> 8) & 0xFF;
+                int b = row[x] & 0xFF;
+                int lum = (r * 299 + g * 587 + b * 114) / 1000;
+                if (lum > MID_TONE_MARGIN && lum < 255 - MID_TONE_MARGIN)
+                {
+                    midTone++;
+                }
+                int max = Math.max(r, Math.max(g, b));
+                int min = Math.min(r, Math.min(g, b));
+                if (max - min > COLOR_MARGIN)
+                {
+                    colored++;
+                }
+            }
+        }
+        return new long[]
+        {
+                midTone, colored
+        };
+    }
+
+
+    /**
+     * Scale an image and convert it to the given type.
+     */
+    private static BufferedImage scale(BufferedImage aImage, double aScale,
+            int aType)
+    {
+        int w = Math.max(1, (int) Math.round(aImage.getWidth() * aScale));
+        int h = Math.max(1, (int) Math.round(aImage.getHeight() * aScale));
+        BufferedImage res = new BufferedImage(w, h, aType);
+        Graphics2D g = res.createGraphics();
+        try
+        {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING,
+                    RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(aImage, 0, 0, w, h, null);
+        }
+        finally
+        {
+            g.dispose();
+        }
+        return res;
+    }
+
+
+    /**
+     * Convert a binarized gray image into a 1 bit image.
+     */
+    private static BufferedImage toBinary(GrayImage aImage)
+    {
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        byte[] pixels = aImage.getPixels();
+        BufferedImage res = new BufferedImage(w, h,
+                BufferedImage.TYPE_BYTE_BINARY);
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++)
+        {
+            int off = y * w;
+            for (int x = 0; x < w; x++)
+            {
+                row[x] = (pixels[off + x] & 0xFF) < 128 ? 0 : 1;
+            }
+            res.getRaster().setPixels(0, y, w, 1, row);
+        }
+        return res;
+    }
+
+
+    /**
+     * Replace an image on all pages it is used on.
+     *
+     * @return the number of bytes saved.
+     */
+    private static long replace(Item aItem)
+    {
+        for (Usage usage : aItem.mUsages)
+        {
+            PDPage page = usage.mPage;
+            // copy the resources, they might be shared with other pages or
+            // with a source document
+            COSDictionary res = new COSDictionary(
+                    page.getResources().getCOSObject());
+            COSDictionary xobjects = new COSDictionary(
+                    res.getCOSDictionary(COSName.XOBJECT));
+            xobjects.setItem(usage.mName, aItem.mReplacement);
+            res.setItem(COSName.XOBJECT, xobjects);
+            page.setResources(new PDResources(res));
+        }
+        return aItem.mSaved;
+    }
+
+    /**
+     * An image to be processed together with the pages it is used on.
+     */
+    private static class Item
+    {
+
+        private final PDImageXObject mImage;
+
+        private final double mDpi;
+
+        private final List<Usage> mUsages = new ArrayList<>();
+
+        private PDImageXObject mReplacement;
+
+        private long mSaved;
+
+        Item(PDImageXObject aImage, double aDpi)
+        {
+            mImage = aImage;
+            mDpi = aDpi;
+        }
+    }
+
+    /**
+     * The use of an image under a name on a page.
+     */
+    private static class Usage
+    {
+
+        private final PDPage mPage;
+
+        private final COSName mName;
+
+        Usage(PDPage aPage, COSName aName)
+        {
+            mPage = aPage;
+            mName = aName;
+        }
+    }
+}
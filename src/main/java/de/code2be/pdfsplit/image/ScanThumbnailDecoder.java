@@ -0,0 +1,321 @@
+package de.code2be.pdfsplit.image;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+
+/**
+ * Creates thumbnails of scanned pages without rendering them. A typical
+ * scanned page consists of a single JPEG image and nothing else. For such a
+ * page the JPEG stream is decoded directly with source subsampling, so the
+ * full resolution image is never built and the PDF renderer is not needed.
+ * <br/>
+ * A page qualifies if its content stream only sets the transformation
+ * (q, Q, cm) and draws exactly one image, the image is an unrotated 8 bit
+ * gray or RGB JPEG without mask or decode array, and the page has neither
+ * annotations nor rotation. For all other pages null is returned and the
+ * caller renders the page as usual.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class ScanThumbnailDecoder
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(ScanThumbnailDecoder.class.getName());
+
+    /**
+     * The image of a scanned page and where it is drawn.
+     */
+    private static final class PageImage
+    {
+
+        private final PDImageXObject mImage;
+
+        /**
+         * The transformation of the unit square to the page.
+         */
+        private final Matrix mMatrix;
+
+        private PageImage(PDImageXObject aImage, Matrix aMatrix)
+        {
+            mImage = aImage;
+            mMatrix = aMatrix;
+        }
+    }
+
+    private ScanThumbnailDecoder()
+    {
+    }
+
+
+    /**
+     * Create a thumbnail of a scanned page.
+     *
+     * @param aPage
+     *            the page.
+     * @param aSize
+     *            the size of the box the media box of the page is fitted in.
+     * @return the thumbnail in the size PDFRenderer would render the page in
+     *         or null if the page is not a single JPEG image or the
+     *         image can not be decoded.
+     */
+    public static BufferedImage decode(PDPage aPage, Dimension aSize)
+    {
+        try
+        {
+            PageImage img = findPageImage(aPage);
+            if (img == null)
+            {
+                return null;
+            }
+            // the same size PDFRenderer renders the page in when the media
+            // box is fitted into the given size
+            PDRectangle media = aPage.getMediaBox();
+            float dpi = (float) (72.0f
+                    / Math.max(media.getWidth() / aSize.getWidth(),
+                            media.getHeight() / aSize.getHeight()));
+            float scale = dpi / 72.0f;
+            PDRectangle crop = aPage.getCropBox();
+            int width = (int) Math.max(Math.floor(crop.getWidth() * scale), 1);
+            int height = (int) Math
+                    .max(Math.floor(crop.getHeight() * scale), 1);
+
+            // the image rectangle in thumbnail coordinates (y down)
+            Matrix m = img.mMatrix;
+            int x = Math
+                    .round((m.getTranslateX() - crop.getLowerLeftX()) * scale);
+            int y = Math.round((crop.getUpperRightY()
+                    - (m.getTranslateY() + m.getScaleY())) * scale);
+            int w = Math.max(1, Math.round(m.getScaleX() * scale));
+            int h = Math.max(1, Math.round(m.getScaleY() * scale));
+
+            BufferedImage src = readSubsampled(img.mImage, w, h);
+            if (src == null)
+            {
+                return null;
+            }
+            BufferedImage res = new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = res.createGraphics();
+            try
+            {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(src, x, y, w, h, null);
+            }
+            finally
+            {
+                g.dispose();
+            }
+            return res;
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            LOGGER.log(Level.DEBUG,
+                    "Can not decode page image directly: {0}", ex.toString());
+            return null;
+        }
+    }
+
+
+    /**
+     * Find the single JPEG image of a scanned page.
+     *
+     * @param aPage
+     *            the page.
+     * @return the image and its placement or null if the page is not a
+     *         single JPEG image.
+     * @throws IOException
+     *             if the content stream can not be parsed.
+     */
+    private static PageImage findPageImage(PDPage aPage) throws IOException
+    {
+        if (aPage.getRotation() != 0 || !aPage.getAnnotations().isEmpty()
+                || !aPage.hasContents())
+        {
+            return null;
+        }
+        PDResources res = aPage.getResources();
+        if (res == null)
+        {
+            return null;
+        }
+
+        Matrix ctm = new Matrix();
+        Deque<Matrix> stack = new ArrayDeque<>();
+        List<COSBase> operands = new ArrayList<>();
+        PageImage found = null;
+        PDFStreamParser parser = new PDFStreamParser(aPage);
+        for (Object token = parser.parseNextToken(); token != null; token = parser
+                .parseNextToken())
+        {
+            if (!(token instanceof Operator))
+            {
+                operands.add((COSBase) token);
+                continue;
+            }
+            String op = ((Operator) token).getName();
+            switch (op)
+            {
+            case "q":
+                stack.push(ctm.clone());
+                break;
+            case "Q":
+                if (stack.isEmpty())
+                {
+                    return null;
+                }
+                ctm = stack.pop();
+                break;
+            case "cm":
+                if (operands.size() != 6)
+                {
+                    return null;
+                }
+                float[] v = new float[6];
+                Iterator<COSBase> it = operands.iterator();
+                for (int i = 0; i < 6; i++)
+                {
+                    COSBase o = it.next();
+                    if (!(o instanceof COSNumber))
+                    {
+                        return null;
+                    }
+                    v[i] = ((COSNumber) o).floatValue();
+                }
+                ctm = new Matrix(v[0], v[1], v[2], v[3], v[4], v[5])
+                        .multiply(ctm);
+                break;
+            case "Do":
+                if (found != null || operands.size() != 1
+                        || !(operands.get(0) instanceof COSName))
+                {
+                    return null;
+                }
+                PDXObject xobj = res.getXObject((COSName) operands.get(0));
+                if (!(xobj instanceof PDImageXObject))
+                {
+                    return null;
+                }
+                found = new PageImage((PDImageXObject) xobj, ctm.clone());
+                break;
+            default:
+                // anything else is drawn or changes the drawing
+                return null;
+            }
+            operands.clear();
+        }
+        if (found == null || !isPlainJpeg(found.mImage))
+        {
+            return null;
+        }
+        Matrix m = found.mMatrix;
+        if (m.getShearX() != 0.0f || m.getShearY() != 0.0f
+                || m.getScaleX() <= 0.0f || m.getScaleY() <= 0.0f)
+        {
+            // rotated or mirrored
+            return null;
+        }
+        return found;
+    }
+
+
+    private static boolean isPlainJpeg(PDImageXObject aImage)
+        throws IOException
+    {
+        List<COSName> filters = aImage.getStream().getFilters();
+        if (filters.size() != 1 || !COSName.DCT_DECODE.equals(filters.get(0))
+                || aImage.getBitsPerComponent() != 8 || aImage.isStencil()
+                || aImage.getDecode() != null
+                || aImage.getCOSObject().containsKey(COSName.SMASK)
+                || aImage.getCOSObject().containsKey(COSName.MASK))
+        {
+            return false;
+        }
+        PDColorSpace cs = aImage.getColorSpace();
+        if (cs instanceof PDICCBased)
+        {
+            int n = cs.getNumberOfComponents();
+            return n == 1 || n == 3;
+        }
+        return cs instanceof PDDeviceGray || cs instanceof PDDeviceRGB;
+    }
+
+
+    /**
+     * Decode a JPEG image with the largest subsampling that still gives at
+     * least the requested size.
+     *
+     * @param aImage
+     *            the JPEG image.
+     * @param aWidth
+     *            the width the image will be drawn with.
+     * @param aHeight
+     *            the height the image will be drawn with.
+     * @return the decoded image or null if there is no JPEG reader.
+     * @throws IOException
+     *             if the image can not be decoded.
+     */
+    private static BufferedImage readSubsampled(PDImageXObject aImage,
+        int aWidth, int aHeight)
+        throws IOException
+    {
+        Iterator<ImageReader> readers = ImageIO
+                .getImageReadersByFormatName("jpeg");
+        if (!readers.hasNext())
+        {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try (InputStream is = aImage.getCOSObject().createRawInputStream();
+                ImageInputStream iis = ImageIO.createImageInputStream(is))
+        {
+            reader.setInput(iis, true, true);
+            int sub = Math.max(1, Math.min(reader.getWidth(0) / aWidth,
+                    reader.getHeight(0) / aHeight));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(sub, sub, 0, 0);
+            return reader.read(0, param);
+        }
+        finally
+        {
+            reader.dispose();
+        }
+    }
+}
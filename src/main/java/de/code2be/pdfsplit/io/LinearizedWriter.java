@@ -0,0 +1,1187 @@
+package de.code2be.pdfsplit.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * A writer that saves a document as linearized PDF ("fast web view"). A
+ * viewer that loads the file with range requests can show the first page as
+ * soon as the first-page section is loaded, independent of the length of the
+ * document. The file layout follows Annex F of the PDF specification:
+ * <ol>
+ * <li>the linearization parameter dictionary and the first-page cross
+ * reference table,
+ * <li>the catalog and the primary hint stream (page offset and shared object
+ * hint tables),
+ * <li>the first page with all objects it uses,
+ * <li>each further page with the objects only used by this page,
+ * <li>the objects shared by several pages,
+ * <li>all other objects (page tree, document information, outlines, ...)
+ * and the main cross reference table.
+ * </ol>
+ * The page tree is flattened and inheritable page attributes are copied into
+ * the pages. All objects are serialized from the loaded document into a
+ * temporary file first, so the target file can be the file the document was
+ * loaded from. Object streams are not written and encrypted documents are not
+ * supported.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class LinearizedWriter
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(LinearizedWriter.class.getName());
+
+    /**
+     * The page attributes that can be inherited from the page tree.
+     */
+    private static final COSName[] INHERITABLE =
+    {
+            COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX,
+            COSName.ROTATE
+    };
+
+    /**
+     * The length of a cross reference table entry.
+     */
+    private static final int XREF_ENTRY_LENGTH = 20;
+
+    /**
+     * The document to write.
+     */
+    private final PDDocument mDocument;
+
+    /**
+     * Create a new writer for the given document.
+     *
+     * @param aDocument
+     *            the document to write.
+     * @throws IOException
+     *             if the document is encrypted.
+     */
+    public LinearizedWriter(PDDocument aDocument) throws IOException
+    {
+        if (aDocument.isEncrypted())
+        {
+            throw new IOException(
+                    "Encrypted documents can not be written linearized");
+        }
+        mDocument = aDocument;
+    }
+
+
+    /**
+     * Write the document to the given file.
+     *
+     * @param aTarget
+     *            the file to write to. An existing file is overwritten.
+     * @throws IOException
+     *             if the document can not be written.
+     */
+    public void write(File aTarget) throws IOException
+    {
+        write(aTarget, null);
+    }
+
+
+    /**
+     * Write the document to the given stream. Objects are copied from the
+     * scratch file directly into the file channel if the stream is a
+     * {@link FileOutputStream}.
+     *
+     * @param aTarget
+     *            the stream to write to. The stream is not closed.
+     * @throws IOException
+     *             if the document can not be written.
+     */
+    public void write(OutputStream aTarget) throws IOException
+    {
+        write(null, aTarget);
+    }
+
+
+    private void write(File aFile, OutputStream aStream) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        File scratch = File.createTempFile("pdfsplit_lin_", ".tmp");
+        try
+        {
+            Job job = new Job();
+            job.prepare();
+            job.serialize(scratch);
+            if (aFile != null)
+            {
+                Files.deleteIfExists(aFile.toPath());
+                try (FileOutputStream fos = new FileOutputStream(aFile))
+                {
+                    job.assemble(scratch, fos);
+                }
+            }
+            else
+            {
+                job.assemble(scratch, aStream);
+            }
+            LOGGER.log(Level.DEBUG,
+                    "Wrote linearized {0} ({1} pages, {2} objects) in {3}ms.",
+                    aFile != null ? aFile : "stream", job.mPages.size(),
+                    job.mObjectCount, System.currentTimeMillis() - start);
+        }
+        finally
+        {
+            if (!scratch.delete())
+            {
+                scratch.deleteOnExit();
+            }
+        }
+    }
+
+
+    private static COSBase resolve(COSBase aObject)
+    {
+        if (aObject instanceof COSObject)
+        {
+            return ((COSObject) aObject).getObject();
+        }
+        return aObject;
+    }
+
+
+    /**
+     * Check if a value is written as indirect object. This follows the rules
+     * of {@link COSWriter}: references stay references, streams and all
+     * dictionaries that are not flagged as direct become indirect objects.
+     */
+    private static boolean isIndirect(COSBase aValue, COSBase aResolved)
+    {
+        return aValue instanceof COSObject || aResolved instanceof COSStream
+                || (aResolved instanceof COSDictionary
+                        && !aResolved.isDirect());
+    }
+
+
+    /**
+     * Find an inherited page attribute in the parents of a page.
+     */
+    private static COSBase findInherited(COSDictionary aPage, COSName aKey)
+    {
+        COSDictionary node = aPage.getCOSDictionary(COSName.PARENT);
+        int depth = 0;
+        while (node != null && depth++ < 100)
+        {
+            COSBase value = node.getItem(aKey);
+            if (value != null)
+            {
+                return value;
+            }
+            node = node.getCOSDictionary(COSName.PARENT);
+        }
+        return null;
+    }
+
+
+    private static byte[] ascii(String aText)
+    {
+        return aText.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    /**
+     *
+     * @return the number of bits required to store the given value.
+     */
+    private static int bits(long aValue)
+    {
+        return 64 - Long.numberOfLeadingZeros(aValue);
+    }
+
+    /**
+     * The state of writing a document.
+     */
+    private class Job
+    {
+
+        /**
+         * Replacements for objects that are not written themselves: the
+         * original pages, page tree nodes and the catalog.
+         */
+        private final Map<COSBase, COSBase> mAliases = new IdentityHashMap<>();
+
+        /**
+         * The object numbers of all written objects.
+         */
+        private final Map<COSBase, Integer> mNumbers = new IdentityHashMap<>();
+
+        /**
+         * The position and length of each serialized object in the scratch
+         * file, indexed by object number.
+         */
+        private long[][] mBodies;
+
+        /**
+         * The flattened pages.
+         */
+        private final List<COSDictionary> mPages = new ArrayList<>();
+
+        /**
+         * The same as {@link #mPages} for fast lookup.
+         */
+        private final Set<COSBase> mPageSet = Collections
+                .newSetFromMap(new IdentityHashMap<>());
+
+        private COSDictionary mCatalog;
+
+        private COSDictionary mPagesNode;
+
+        private COSDictionary mInfo;
+
+        /**
+         * The first page and all objects it uses (part 6).
+         */
+        private List<COSBase> mFirstPage;
+
+        /**
+         * Each further page with the objects only used by it (part 7).
+         */
+        private final List<List<COSBase>> mOtherPages = new ArrayList<>();
+
+        /**
+         * The shared object identifiers used by each page.
+         */
+        private final List<List<Integer>> mSharedRefs = new ArrayList<>();
+
+        /**
+         * The objects used by more than one page (part 8).
+         */
+        private final List<COSBase> mShared = new ArrayList<>();
+
+        /**
+         * All other objects (part 9).
+         */
+        private final List<COSBase> mOthers = new ArrayList<>();
+
+        /**
+         * The number of objects in the main cross reference table (without
+         * object 0).
+         */
+        private int mMainCount;
+
+        private int mObjectCount;
+
+        /**
+         * Build the flat page tree and assign objects to the parts of the
+         * file.
+         */
+        void prepare() throws IOException
+        {
+            COSDictionary origCatalog = mDocument.getDocumentCatalog()
+                    .getCOSObject();
+            mCatalog = new COSDictionary(origCatalog);
+            mAliases.put(origCatalog, mCatalog);
+
+            mPagesNode = new COSDictionary();
+            mPagesNode.setItem(COSName.TYPE, COSName.PAGES);
+            COSArray kids = new COSArray();
+            for (PDPage page : mDocument.getPages())
+            {
+                COSDictionary orig = page.getCOSObject();
+                COSDictionary copy = new COSDictionary(orig);
+                for (COSName key : INHERITABLE)
+                {
+                    if (!copy.containsKey(key))
+                    {
+                        COSBase value = findInherited(orig, key);
+                        if (value != null)
+                        {
+                            copy.setItem(key, value);
+                        }
+                    }
+                }
+                copy.setItem(COSName.PARENT, mPagesNode);
+                kids.add(copy);
+                mPages.add(copy);
+                mPageSet.add(copy);
+                mAliases.put(orig, copy);
+            }
+            if (mPages.isEmpty())
+            {
+                throw new IOException("Document has no pages");
+            }
+            mPagesNode.setItem(COSName.KIDS, kids);
+            mPagesNode.setInt(COSName.COUNT, mPages.size());
+            aliasPageTree(origCatalog.getCOSDictionary(COSName.PAGES));
+            mCatalog.setItem(COSName.PAGES, mPagesNode);
+            mInfo = mDocument.getDocument().getTrailer() != null
+                    ? mDocument.getDocument().getTrailer()
+                            .getCOSDictionary(COSName.INFO)
+                    : null;
+
+            // part 6: the first page with everything it uses
+            mFirstPage = new ArrayList<>();
+            mFirstPage.add(mPages.get(0));
+            mFirstPage.addAll(reach(mPages.get(0)));
+            Set<COSBase> firstPage = identitySet(mFirstPage);
+
+            // count the pages that use each object
+            List<List<COSBase>> used = new ArrayList<>();
+            Map<COSBase, Integer> useCount = new IdentityHashMap<>();
+            for (int i = 1; i < mPages.size(); i++)
+            {
+                List<COSBase> objs = reach(mPages.get(i));
+                used.add(objs);
+                for (COSBase obj : objs)
+                {
+                    if (!firstPage.contains(obj))
+                    {
+                        useCount.merge(obj, 1, Integer::sum);
+                    }
+                }
+            }
+
+            // part 7 and 8: private objects per page and shared objects
+            Set<COSBase> shared = Collections
+                    .newSetFromMap(new IdentityHashMap<>());
+            for (List<COSBase> objs : used)
+            {
+                List<COSBase> section = new ArrayList<>();
+                section.add(mPages.get(mOtherPages.size() + 1));
+                for (COSBase obj : objs)
+                {
+                    Integer count = useCount.get(obj);
+                    if (count == null)
+                    {
+                        continue;
+                    }
+                    if (count.intValue() == 1)
+                    {
+                        section.add(obj);
+                    }
+                    else if (shared.add(obj))
+                    {
+                        mShared.add(obj);
+                    }
+                }
+                mOtherPages.add(section);
+            }
+
+            // part 9: page tree, document information and the rest
+            Set<COSBase> assigned = identitySet(mFirstPage);
+            for (List<COSBase> section : mOtherPages)
+            {
+                assigned.addAll(section);
+            }
+            assigned.addAll(mShared);
+            mOthers.add(mPagesNode);
+            addOthers(reach(mCatalog), assigned);
+            if (mInfo != null && !assigned.contains(mInfo))
+            {
+                mOthers.add(mInfo);
+                assigned.add(mInfo);
+                addOthers(reach(mInfo), assigned);
+            }
+
+            // the main cross reference table holds parts 7 to 9, the first
+            // page table the linearization dictionary, catalog, hint stream
+            // and part 6
+            int num = 1;
+            for (List<COSBase> section : mOtherPages)
+            {
+                for (COSBase obj : section)
+                {
+                    mNumbers.put(obj, num++);
+                }
+            }
+            for (COSBase obj : mShared)
+            {
+                mNumbers.put(obj, num++);
+            }
+            for (COSBase obj : mOthers)
+            {
+                mNumbers.put(obj, num++);
+            }
+            mMainCount = num - 1;
+            // linearization dictionary and hint stream are mMainCount + 1
+            // and + 3
+            mNumbers.put(mCatalog, mMainCount + 2);
+            num = mMainCount + 4;
+            for (COSBase obj : mFirstPage)
+            {
+                mNumbers.put(obj, num++);
+            }
+            mObjectCount = num - 1;
+
+            // the shared object identifiers: first page objects, then the
+            // shared objects section
+            Map<COSBase, Integer> sharedIds = new IdentityHashMap<>();
+            for (COSBase obj : mFirstPage)
+            {
+                sharedIds.put(obj, sharedIds.size());
+            }
+            for (COSBase obj : mShared)
+            {
+                sharedIds.put(obj, sharedIds.size());
+            }
+            mSharedRefs.add(Collections.emptyList());
+            for (List<COSBase> objs : used)
+            {
+                List<Integer> refs = new ArrayList<>();
+                for (COSBase obj : objs)
+                {
+                    Integer id = sharedIds.get(obj);
+                    if (id != null && !mPageSet.contains(obj))
+                    {
+                        refs.add(id);
+                    }
+                }
+                mSharedRefs.add(refs);
+            }
+        }
+
+
+        private void addOthers(List<COSBase> aObjects, Set<COSBase> aAssigned)
+        {
+            for (COSBase obj : aObjects)
+            {
+                if (aAssigned.add(obj))
+                {
+                    mOthers.add(obj);
+                }
+            }
+        }
+
+
+        /**
+         * Map all nodes of the original page tree to the new flat page tree
+         * node.
+         */
+        private void aliasPageTree(COSDictionary aRoot)
+        {
+            Deque<COSDictionary> todo = new ArrayDeque<>();
+            Set<COSBase> seen = Collections
+                    .newSetFromMap(new IdentityHashMap<>());
+            if (aRoot != null)
+            {
+                todo.push(aRoot);
+            }
+            while (!todo.isEmpty())
+            {
+                COSDictionary node = todo.pop();
+                if (!seen.add(node)
+                        || !COSName.PAGES.equals(node.getCOSName(COSName.TYPE)))
+                {
+                    continue;
+                }
+                mAliases.put(node, mPagesNode);
+                COSArray kids = node.getCOSArray(COSName.KIDS);
+                if (kids != null)
+                {
+                    for (int i = 0; i < kids.size(); i++)
+                    {
+                        COSBase kid = kids.getObject(i);
+                        if (kid instanceof COSDictionary)
+                        {
+                            todo.push((COSDictionary) kid);
+                        }
+                    }
+                }
+            }
+        }
+
+
+        private Set<COSBase> identitySet(List<COSBase> aObjects)
+        {
+            Set<COSBase> res = Collections
+                    .newSetFromMap(new IdentityHashMap<>());
+            res.addAll(aObjects);
+            return res;
+        }
+
+
+        private COSBase canonical(COSBase aObject)
+        {
+            COSBase alias = mAliases.get(aObject);
+            return alias != null ? alias : aObject;
+        }
+
+
+        private boolean isStructure(COSBase aObject)
+        {
+            return aObject == mCatalog || aObject == mPagesNode
+                    || mPageSet.contains(aObject);
+        }
+
+
+        /**
+         * Collect all indirect objects reachable from the given object. The
+         * traversal stops at pages, the page tree and the catalog.
+         */
+        private List<COSBase> reach(COSBase aStart)
+        {
+            List<COSBase> res = new ArrayList<>();
+            Set<COSBase> seen = Collections
+                    .newSetFromMap(new IdentityHashMap<>());
+            seen.add(aStart);
+            Deque<COSBase> todo = new ArrayDeque<>();
+            todo.add(aStart);
+            while (!todo.isEmpty())
+            {
+                COSBase container = todo.poll();
+                Iterable<COSBase> children;
+                if (container instanceof COSDictionary)
+                {
+                    children = ((COSDictionary) container).getValues();
+                }
+                else if (container instanceof COSArray)
+                {
+                    children = (COSArray) container;
+                }
+                else
+                {
+                    continue;
+                }
+                for (COSBase child : children)
+                {
+                    COSBase resolved = canonical(resolve(child));
+                    if (resolved == null || isStructure(resolved)
+                            || !seen.add(resolved))
+                    {
+                        continue;
+                    }
+                    if (isIndirect(child, resolved))
+                    {
+                        res.add(resolved);
+                    }
+                    todo.add(resolved);
+                }
+            }
+            return res;
+        }
+
+
+        /**
+         * Serialize all objects except the linearization dictionary and the
+         * hint stream into the scratch file.
+         */
+        void serialize(File aScratch) throws IOException
+        {
+            mBodies = new long[mObjectCount + 1][];
+            try (CountingOutputStream out = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(aScratch),
+                            65536)))
+            {
+                for (Entry<COSBase, Integer> e : mNumbers.entrySet())
+                {
+                    long start = out.getCount();
+                    writeObject(out, e.getValue(), e.getKey());
+                    mBodies[e.getValue()] = new long[]
+                    {
+                            start, out.getCount() - start
+                    };
+                }
+            }
+        }
+
+
+        private void writeObject(OutputStream aOut, int aNumber,
+            COSBase aObject)
+            throws IOException
+        {
+            aOut.write(ascii(aNumber + " 0 obj\n"));
+            if (aObject instanceof COSStream)
+            {
+                COSStream stream = (COSStream) aObject;
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                try (InputStream in = stream.createRawInputStream())
+                {
+                    in.transferTo(data);
+                }
+                COSDictionary dict = new COSDictionary();
+                for (Entry<COSName, COSBase> e : stream.entrySet())
+                {
+                    dict.setItem(e.getKey(), e.getValue());
+                }
+                dict.setLong(COSName.LENGTH, data.size());
+                writeValue(aOut, dict, true);
+                aOut.write(ascii("\nstream\r\n"));
+                data.writeTo(aOut);
+                aOut.write(ascii("\r\nendstream"));
+            }
+            else
+            {
+                writeValue(aOut, aObject, true);
+            }
+            aOut.write(ascii("\nendobj\n"));
+        }
+
+
+        /**
+         * Write a value. Nested indirect objects are written as references.
+         */
+        private void writeValue(OutputStream aOut, COSBase aValue,
+            boolean aTopLevel)
+            throws IOException
+        {
+            COSBase resolved = aValue == null ? null
+                    : canonical(resolve(aValue));
+            if (resolved == null || resolved instanceof COSNull)
+            {
+                aOut.write(ascii("null"));
+            }
+            else if (!aTopLevel && isIndirect(aValue, resolved))
+            {
+                Integer num = mNumbers.get(resolved);
+                aOut.write(ascii(num != null ? num + " 0 R" : "null"));
+            }
+            else if (resolved instanceof COSDictionary)
+            {
+                aOut.write(COSWriter.DICT_OPEN);
+                for (Entry<COSName, COSBase> e : ((COSDictionary) resolved)
+                        .entrySet())
+                {
+                    e.getKey().writePDF(aOut);
+                    aOut.write(' ');
+                    writeValue(aOut, e.getValue(), false);
+                    aOut.write('\n');
+                }
+                aOut.write(COSWriter.DICT_CLOSE);
+            }
+            else if (resolved instanceof COSArray)
+            {
+                aOut.write(COSWriter.ARRAY_OPEN);
+                boolean first = true;
+                for (COSBase b : (COSArray) resolved)
+                {
+                    if (!first)
+                    {
+                        aOut.write(' ');
+                    }
+                    first = false;
+                    writeValue(aOut, b, false);
+                }
+                aOut.write(COSWriter.ARRAY_CLOSE);
+            }
+            else if (resolved instanceof COSString)
+            {
+                COSWriter.writeString((COSString) resolved, aOut);
+            }
+            else if (resolved instanceof COSName)
+            {
+                ((COSName) resolved).writePDF(aOut);
+            }
+            else if (resolved instanceof COSInteger)
+            {
+                ((COSInteger) resolved).writePDF(aOut);
+            }
+            else if (resolved instanceof COSFloat)
+            {
+                ((COSFloat) resolved).writePDF(aOut);
+            }
+            else if (resolved instanceof COSBoolean)
+            {
+                ((COSBoolean) resolved).writePDF(aOut);
+            }
+            else
+            {
+                throw new IOException("Unsupported object type "
+                        + resolved.getClass().getName());
+            }
+        }
+
+
+        private long bodyLength(COSBase aObject)
+        {
+            return mBodies[mNumbers.get(aObject)][1];
+        }
+
+
+        /**
+         * Compute the final layout and write the target file.
+         */
+        void assemble(File aScratch, OutputStream aTarget) throws IOException
+        {
+            int firstCount = mObjectCount - mMainCount;
+            String id = createId();
+            byte[] header = ascii(String.format(Locale.ROOT,
+                    "%%PDF-%.1f\n%%âãÏÓ\n",
+                    Math.max(1.4f, mDocument.getVersion())));
+            int linLength = linearizationObject(0, 0, 0, 0, 0).length;
+            byte[] firstXrefHead = ascii("xref\n" + (mMainCount + 1) + " "
+                    + firstCount + "\n");
+            int firstTrailerLength = firstTrailer(id, 0).length;
+
+            // offsets without the hint stream, as used in the hint tables
+            long firstXrefOffset = header.length + linLength;
+            long catalogOffset = firstXrefOffset + firstXrefHead.length
+                    + (long) firstCount * XREF_ENTRY_LENGTH
+                    + firstTrailerLength;
+            long hintOffset = catalogOffset + bodyLength(mCatalog);
+            long[] offsets = new long[mObjectCount + 1];
+            long pos = hintOffset;
+            List<COSBase> order = new ArrayList<>(mFirstPage);
+            for (List<COSBase> section : mOtherPages)
+            {
+                order.addAll(section);
+            }
+            order.addAll(mShared);
+            order.addAll(mOthers);
+            long firstPageEnd = 0;
+            for (COSBase obj : order)
+            {
+                offsets[mNumbers.get(obj)] = pos;
+                pos += bodyLength(obj);
+                if (obj == mFirstPage.get(mFirstPage.size() - 1))
+                {
+                    firstPageEnd = pos;
+                }
+            }
+            long mainXrefOffset = pos;
+
+            byte[] hint = hintObject(offsets, firstPageEnd);
+            long hintLength = hint.length;
+            for (COSBase obj : order)
+            {
+                offsets[mNumbers.get(obj)] += hintLength;
+            }
+            offsets[mNumbers.get(mCatalog)] = catalogOffset;
+            offsets[mMainCount + 1] = header.length;
+            offsets[mMainCount + 3] = hintOffset;
+            firstPageEnd += hintLength;
+            mainXrefOffset += hintLength;
+
+            String mainXrefHead = "xref\n0 " + (mMainCount + 1) + "\n";
+            byte[] mainTrailer = ascii("trailer\n<< /Size " + (mMainCount + 1)
+                    + " /ID [" + id + " " + id + "] >>\nstartxref\n"
+                    + firstXrefOffset + "\n%%EOF\n");
+            long fileLength = mainXrefOffset + mainXrefHead.length()
+                    + (long) (mMainCount + 1) * XREF_ENTRY_LENGTH
+                    + mainTrailer.length;
+            byte[] lin = linearizationObject(fileLength, hintLength,
+                    firstPageEnd, mainXrefOffset + mainXrefHead.length() - 1,
+                    hintOffset);
+
+            WritableByteChannel target = aTarget instanceof FileOutputStream
+                    ? ((FileOutputStream) aTarget).getChannel()
+                    : Channels.newChannel(aTarget);
+            CountingOutputStream out = new CountingOutputStream(
+                    new BufferedOutputStream(aTarget, 65536));
+            try (FileChannel scratch = FileChannel.open(aScratch.toPath(),
+                    StandardOpenOption.READ))
+            {
+                out.write(header);
+                out.write(lin);
+                out.write(firstXrefHead);
+                for (int i = mMainCount + 1; i <= mObjectCount; i++)
+                {
+                    out.write(xrefEntry(offsets[i], 0, 'n'));
+                }
+                out.write(firstTrailer(id, mainXrefOffset));
+                copyBody(scratch, target, out, mCatalog);
+                out.write(hint);
+                for (COSBase obj : order)
+                {
+                    if (out.getCount() != offsets[mNumbers.get(obj)])
+                    {
+                        throw new IOException("Invalid layout for object "
+                                + mNumbers.get(obj));
+                    }
+                    copyBody(scratch, target, out, obj);
+                }
+                out.write(ascii(mainXrefHead));
+                out.write(xrefEntry(0, 65535, 'f'));
+                for (int i = 1; i <= mMainCount; i++)
+                {
+                    out.write(xrefEntry(offsets[i], 0, 'n'));
+                }
+                out.write(mainTrailer);
+                out.flush();
+                if (out.getCount() != fileLength)
+                {
+                    throw new IOException("Invalid file length "
+                            + out.getCount() + ", expected " + fileLength);
+                }
+            }
+        }
+
+
+        private void copyBody(FileChannel aScratch,
+            WritableByteChannel aTarget, CountingOutputStream aOut,
+            COSBase aObject)
+            throws IOException
+        {
+            long[] body = mBodies[mNumbers.get(aObject)];
+            if (body[1] < 8192)
+            {
+                byte[] buf = new byte[(int) body[1]];
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                while (bb.hasRemaining())
+                {
+                    if (aScratch.read(bb, body[0] + bb.position()) < 0)
+                    {
+                        throw new IOException("Unexpected end of scratch file");
+                    }
+                }
+                aOut.write(buf);
+                return;
+            }
+            aOut.flush();
+            long done = 0;
+            while (done < body[1])
+            {
+                done += aScratch.transferTo(body[0] + done, body[1] - done,
+                        aTarget);
+            }
+            aOut.addCount(body[1]);
+        }
+
+
+        private byte[] linearizationObject(long aFileLength, long aHintLength,
+            long aFirstPageEnd, long aMainXrefEntry, long aHintOffset)
+        {
+            // fixed width numbers, so the length does not depend on the values
+            return ascii(String.format(Locale.ROOT, "%d 0 obj\n<< /Linearized 1"
+                    + " /L %-10d /H [ %-10d %-10d ] /O %-10d /E %-10d"
+                    + " /N %-10d /T %-10d >>\nendobj\n", mMainCount + 1,
+                    aFileLength, aHintOffset, aHintLength,
+                    mNumbers.get(mPages.get(0)), aFirstPageEnd, mPages.size(),
+                    aMainXrefEntry));
+        }
+
+
+        private byte[] firstTrailer(String aId, long aPrev)
+        {
+            StringBuilder sb = new StringBuilder("trailer\n<< /Size ");
+            sb.append(mObjectCount + 1);
+            sb.append(" /Root ").append(mNumbers.get(mCatalog)).append(" 0 R");
+            if (mInfo != null)
+            {
+                sb.append(" /Info ").append(mNumbers.get(mInfo)).append(" 0 R");
+            }
+            sb.append(" /ID [").append(aId).append(' ').append(aId)
+                    .append(']');
+            sb.append(String.format(Locale.ROOT, " /Prev %-10d", aPrev));
+            sb.append(" >>\nstartxref\n0\n%%EOF\n");
+            return ascii(sb.toString());
+        }
+
+
+        private byte[] xrefEntry(long aOffset, int aGeneration, char aType)
+        {
+            return ascii(String.format(Locale.ROOT, "%010d %05d %c\r\n",
+                    aOffset, aGeneration, aType));
+        }
+
+
+        /**
+         * Create the document ID. An existing ID is kept.
+         */
+        private String createId() throws IOException
+        {
+            COSDictionary trailer = mDocument.getDocument().getTrailer();
+            COSArray ids = trailer != null ? trailer.getCOSArray(COSName.ID)
+                    : null;
+            byte[] id;
+            if (ids != null && ids.size() > 0
+                    && ids.getObject(0) instanceof COSString)
+            {
+                id = ((COSString) ids.getObject(0)).getBytes();
+            }
+            else
+            {
+                try
+                {
+                    MessageDigest md = MessageDigest.getInstance("MD5");
+                    md.update(ascii(System.nanoTime() + "/" + mObjectCount
+                            + "/" + mPages.size()));
+                    id = md.digest();
+                }
+                catch (NoSuchAlgorithmException ex)
+                {
+                    throw new IOException(ex);
+                }
+            }
+            StringBuilder sb = new StringBuilder("<");
+            for (byte b : id)
+            {
+                sb.append(String.format(Locale.ROOT, "%02X", b & 0xFF));
+            }
+            return sb.append('>').toString();
+        }
+
+
+        /**
+         * Create the primary hint stream with the page offset and the shared
+         * object hint table. All offsets are given as if the hint stream was
+         * not present.
+         */
+        private byte[] hintObject(long[] aOffsets, long aFirstPageEnd)
+            throws IOException
+        {
+            int pageCount = mPages.size();
+            long[] objCount = new long[pageCount];
+            long[] length = new long[pageCount];
+            objCount[0] = mFirstPage.size();
+            length[0] = aFirstPageEnd
+                    - aOffsets[mNumbers.get(mFirstPage.get(0))];
+            for (int i = 1; i < pageCount; i++)
+            {
+                List<COSBase> section = mOtherPages.get(i - 1);
+                objCount[i] = section.size();
+                COSBase last = section.get(section.size() - 1);
+                length[i] = aOffsets[mNumbers.get(last)] + bodyLength(last)
+                        - aOffsets[mNumbers.get(section.get(0))];
+            }
+            long minObj = Long.MAX_VALUE;
+            long maxObj = 0;
+            long minLen = Long.MAX_VALUE;
+            long maxLen = 0;
+            long maxRefs = 0;
+            long maxId = 0;
+            for (int i = 0; i < pageCount; i++)
+            {
+                minObj = Math.min(minObj, objCount[i]);
+                maxObj = Math.max(maxObj, objCount[i]);
+                minLen = Math.min(minLen, length[i]);
+                maxLen = Math.max(maxLen, length[i]);
+                maxRefs = Math.max(maxRefs, mSharedRefs.get(i).size());
+                for (Integer id : mSharedRefs.get(i))
+                {
+                    maxId = Math.max(maxId, id);
+                }
+            }
+            int objBits = bits(maxObj - minObj);
+            int lenBits = bits(maxLen - minLen);
+            int refBits = bits(maxRefs);
+            int idBits = bits(maxId);
+
+            BitWriter bw = new BitWriter();
+            // page offset hint table header
+            bw.write(minObj, 32);
+            bw.write(aOffsets[mNumbers.get(mFirstPage.get(0))], 32);
+            bw.write(objBits, 16);
+            bw.write(minLen, 32);
+            bw.write(lenBits, 16);
+            // content streams are treated as the complete page
+            bw.write(0, 32);
+            bw.write(0, 16);
+            bw.write(minLen, 32);
+            bw.write(lenBits, 16);
+            bw.write(refBits, 16);
+            bw.write(idBits, 16);
+            bw.write(0, 16);
+            bw.write(1, 16);
+            // per page entries, each item starts at a byte boundary
+            for (int i = 0; i < pageCount; i++)
+            {
+                bw.write(objCount[i] - minObj, objBits);
+            }
+            bw.align();
+            for (int i = 0; i < pageCount; i++)
+            {
+                bw.write(length[i] - minLen, lenBits);
+            }
+            bw.align();
+            for (int i = 0; i < pageCount; i++)
+            {
+                bw.write(mSharedRefs.get(i).size(), refBits);
+            }
+            bw.align();
+            for (int i = 0; i < pageCount; i++)
+            {
+                for (Integer id : mSharedRefs.get(i))
+                {
+                    bw.write(id, idBits);
+                }
+            }
+            bw.align();
+            // numerators use 0 bits, content offsets are all 0
+            for (int i = 0; i < pageCount; i++)
+            {
+                bw.write(length[i] - minLen, lenBits);
+            }
+            bw.align();
+
+            // shared object hint table
+            int sharedOffset = bw.size();
+            List<COSBase> groups = new ArrayList<>(mFirstPage);
+            groups.addAll(mShared);
+            long minGroup = Long.MAX_VALUE;
+            long maxGroup = 0;
+            for (COSBase obj : groups)
+            {
+                minGroup = Math.min(minGroup, bodyLength(obj));
+                maxGroup = Math.max(maxGroup, bodyLength(obj));
+            }
+            int groupBits = bits(maxGroup - minGroup);
+            if (mShared.isEmpty())
+            {
+                bw.write(0, 32);
+                bw.write(0, 32);
+            }
+            else
+            {
+                bw.write(mNumbers.get(mShared.get(0)), 32);
+                bw.write(aOffsets[mNumbers.get(mShared.get(0))], 32);
+            }
+            bw.write(mFirstPage.size(), 32);
+            bw.write(groups.size(), 32);
+            bw.write(0, 16);
+            bw.write(minGroup, 32);
+            bw.write(groupBits, 16);
+            for (COSBase obj : groups)
+            {
+                bw.write(bodyLength(obj) - minGroup, groupBits);
+            }
+            bw.align();
+            // no MD5 signatures, all groups have a single object
+            for (int i = 0; i < groups.size(); i++)
+            {
+                bw.write(0, 1);
+            }
+            bw.align();
+
+            byte[] data = bw.toByteArray();
+            ByteArrayOutputStream res = new ByteArrayOutputStream();
+            res.write(ascii((mMainCount + 3) + " 0 obj\n<< /Length "
+                    + data.length + " /S " + sharedOffset
+                    + " >>\nstream\r\n"));
+            res.write(data);
+            res.write(ascii("\r\nendstream\nendobj\n"));
+            return res.toByteArray();
+        }
+    }
+
+    /**
+     * Writes bit packed values, most significant bit first.
+     */
+    private static class BitWriter
+    {
+
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+        private int mBuffer = 0;
+
+        private int mBitCount = 0;
+
+        void write(long aValue, int aBits)
+        {
+            for (int i = aBits - 1; i >= 0; i--)
+            {
+                mBuffer = (mBuffer << 1) | (int) ((aValue >>> i) & 1L);
+                if (++mBitCount == 8)
+                {
+                    mOut.write(mBuffer);
+                    mBuffer = 0;
+                    mBitCount = 0;
+                }
+            }
+        }
+
+
+        void align()
+        {
+            if (mBitCount > 0)
+            {
+                write(0, 8 - mBitCount);
+            }
+        }
+
+
+        int size()
+        {
+            return mOut.size();
+        }
+
+
+        byte[] toByteArray()
+        {
+            align();
+            return mOut.toByteArray();
+        }
+    }
+
+    /**
+     * An output stream that counts the written bytes.
+     */
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream aOut)
+        {
+            super(aOut);
+        }
+
+
+        @Override
+        public void write(int aByte) throws IOException
+        {
+            out.write(aByte);
+            mCount++;
+        }
+
+
+        @Override
+        public void write(byte[] aBuffer, int aOffset, int aLength)
+            throws IOException
+        {
+            out.write(aBuffer, aOffset, aLength);
+            mCount += aLength;
+        }
+
+
+        long getCount()
+        {
+            return mCount;
+        }
+
+
+        void addCount(long aCount)
+        {
+            mCount += aCount;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package de.code2be.pdfsplit.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadView;
+
+/**
+ * A {@link RandomAccessRead} that reads a file through memory mapped chunks.
+ * In contrast to {@link org.apache.pdfbox.io.RandomAccessReadMemoryMappedFile}
+ * files bigger than 2GB are supported, as the file is mapped in multiple
+ * chunks of {@link #getChunkSize()} bytes. Chunks are mapped on first access,
+ * so only the parts of a file that are actually read are mapped.<br/>
+ * Views created by {@link #createView(long, long)} share the mappings but have
+ * their own read position, so reading through a view does not move the
+ * position of this reader. The mappings are released when this reader is
+ * closed, views are not usable anymore afterwards.<br/>
+ * An instance is not thread safe.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class MappedRandomAccessRead implements RandomAccessRead
+{
+
+    /**
+     * The default size of a single mapped chunk (1GB).
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * The mappings shared with all views.
+     */
+    private final Mapping mMapping;
+
+    /**
+     * A flag to indicate this reader owns the mappings (is not a view).
+     */
+    private final boolean mOwner;
+
+    /**
+     * The current read position.
+     */
+    private long mPosition = 0;
+
+    /**
+     * The chunk that contains the current position or null if not yet
+     * resolved. This is a duplicate of the shared mapping, so it has its own
+     * position.
+     */
+    private ByteBuffer mChunk;
+
+    /**
+     * The index of {@link #mChunk}.
+     */
+    private int mChunkIndex = -1;
+
+    /**
+     * A flag to indicate this reader is closed.
+     */
+    private boolean mClosed = false;
+
+    /**
+     * Create a new reader with the default chunk size.
+     *
+     * @param aFile
+     *            the file to read.
+     * @throws IOException
+     *             if the file can not be opened.
+     */
+    public MappedRandomAccessRead(File aFile) throws IOException
+    {
+        this(aFile, DEFAULT_CHUNK_SIZE);
+    }
+
+
+    /**
+     * Create a new reader.
+     *
+     * @param aFile
+     *            the file to read.
+     * @param aChunkSize
+     *            the size of a single mapped chunk.
+     * @throws IOException
+     *             if the file can not be opened.
+     */
+    public MappedRandomAccessRead(File aFile, int aChunkSize) throws IOException
+    {
+        if (aChunkSize <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "Chunk size must be positive but is " + aChunkSize);
+        }
+        mMapping = new Mapping(FileChannel.open(aFile.toPath(),
+                StandardOpenOption.READ), aChunkSize);
+        mOwner = true;
+    }
+
+
+    /**
+     * Create a new reader on shared mappings.
+     */
+    private MappedRandomAccessRead(Mapping aMapping)
+    {
+        mMapping = aMapping;
+        mOwner = false;
+    }
+
+
+    /**
+     *
+     * @return the size of a single mapped chunk.
+     */
+    public int getChunkSize()
+    {
+        return mMapping.mChunkSize;
+    }
+
+
+    /**
+     * Ensure this reader is not closed.
+     */
+    private void checkClosed() throws IOException
+    {
+        if (mClosed)
+        {
+            throw new IOException("MappedRandomAccessRead already closed");
+        }
+    }
+
+
+    /**
+     * Ensure {@link #mChunk} contains the current position.
+     *
+     * @return the chunk positioned at the current read position or null if
+     *         the end of file is reached.
+     */
+    private ByteBuffer chunk() throws IOException
+    {
+        if (mMapping.mReleased)
+        {
+            throw new IOException("MappedRandomAccessRead already closed");
+        }
+        if (mPosition >= mMapping.mLength)
+        {
+            return null;
+        }
+        int idx = (int) (mPosition / mMapping.mChunkSize);
+        if (idx != mChunkIndex)
+        {
+            mChunk = mMapping.getChunk(idx).duplicate();
+            mChunkIndex = idx;
+        }
+        mChunk.position((int) (mPosition - (long) idx * mMapping.mChunkSize));
+        return mChunk;
+    }
+
+
+    @Override
+    public int read() throws IOException
+    {
+        checkClosed();
+        ByteBuffer chunk = chunk();
+        if (chunk == null)
+        {
+            return -1;
+        }
+        mPosition++;
+        return chunk.get() & 0xFF;
+    }
+
+
+    @Override
+    public int read(byte[] aBuffer, int aOffset, int aLength) throws IOException
+    {
+        checkClosed();
+        if (aLength == 0)
+        {
+            return 0;
+        }
+        int res = 0;
+        while (res < aLength)
+        {
+            ByteBuffer chunk = chunk();
+            if (chunk == null)
+            {
+                break;
+            }
+            int len = Math.min(aLength - res, chunk.remaining());
+            chunk.get(aBuffer, aOffset + res, len);
+            res += len;
+            mPosition += len;
+        }
+        return res == 0 ? -1 : res;
+    }
+
+
+    @Override
+    public long getPosition() throws IOException
+    {
+        checkClosed();
+        return mPosition;
+    }
+
+
+    @Override
+    public void seek(long aPosition) throws IOException
+    {
+        checkClosed();
+        if (aPosition < 0)
+        {
+            throw new IOException("Invalid position " + aPosition);
+        }
+        mPosition = Math.min(aPosition, mMapping.mLength);
+    }
+
+
+    @Override
+    public long length() throws IOException
+    {
+        checkClosed();
+        return mMapping.mLength;
+    }
+
+
+    @Override
+    public boolean isClosed()
+    {
+        return mClosed;
+    }
+
+
+    @Override
+    public boolean isEOF() throws IOException
+    {
+        checkClosed();
+        return mPosition >= mMapping.mLength;
+    }
+
+
+    @Override
+    public RandomAccessReadView createView(long aStartPosition,
+            long aStreamLength)
+        throws IOException
+    {
+        checkClosed();
+        if (aStartPosition < 0 || aStreamLength < 0
+                || aStartPosition + aStreamLength > mMapping.mLength)
+        {
+            throw new EOFException("View " + aStartPosition + "+"
+                    + aStreamLength + " exceeds file length "
+                    + mMapping.mLength);
+        }
+        return new RandomAccessReadView(new MappedRandomAccessRead(mMapping),
+                aStartPosition, aStreamLength, true);
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        if (mClosed)
+        {
+            return;
+        }
+        mClosed = true;
+        mChunk = null;
+        if (mOwner)
+        {
+            mMapping.release();
+        }
+    }
+
+    /**
+     * The file channel and the lazily created chunk mappings. This is shared
+     * between a reader and all its views.
+     */
+    private static class Mapping
+    {
+
+        private final FileChannel mChannel;
+
+        private final long mLength;
+
+        private final int mChunkSize;
+
+        private final MappedByteBuffer[] mChunks;
+
+        private volatile boolean mReleased = false;
+
+        Mapping(FileChannel aChannel, int aChunkSize) throws IOException
+        {
+            mChannel = aChannel;
+            mLength = aChannel.size();
+            mChunkSize = aChunkSize;
+            long count = (mLength + aChunkSize - 1) / aChunkSize;
+            if (count > Integer.MAX_VALUE)
+            {
+                aChannel.close();
+                throw new IOException("File too big for chunk size "
+                        + aChunkSize + ": " + mLength);
+            }
+            mChunks = new MappedByteBuffer[(int) count];
+        }
+
+
+        synchronized ByteBuffer getChunk(int aIndex) throws IOException
+        {
+            if (mReleased)
+            {
+                throw new IOException("Mapping already released");
+            }
+            MappedByteBuffer res = mChunks[aIndex];
+            if (res == null)
+            {
+                long start = (long) aIndex * mChunkSize;
+                long size = Math.min(mChunkSize, mLength - start);
+                res = mChannel.map(MapMode.READ_ONLY, start, size);
+                mChunks[aIndex] = res;
+            }
+            return res;
+        }
+
+
+        synchronized void release() throws IOException
+        {
+            mReleased = true;
+            for (int i = 0; i < mChunks.length; i++)
+            {
+                if (mChunks[i] != null)
+                {
+                    IOUtils.unmap(mChunks[i]);
+                    mChunks[i] = null;
+                }
+            }
+            mChannel.close();
+        }
+    }
+}
@@ -0,0 +1,1027 @@
+package de.code2be.pdfsplit.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.cos.COSUpdateInfo;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * A writer that creates a PDF file out of some pages of a source document by
+ * copying the unmodified indirect objects (content streams, images, fonts,
+ * ...) byte by byte from the source file. Only the page dictionaries, the page
+ * tree, the catalog, the document information and the cross reference table
+ * are newly written. The raw copies are done by
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the objects are neither parsed nor serialized again.<br/>
+ * All objects keep their object numbers from the source file. Objects that
+ * can not be copied raw (e.g. they are stored in an object stream, were
+ * modified after loading or have no entry in the cross reference table) are
+ * serialized from the loaded document instead. References to objects that are
+ * not copied (e.g. link destinations on pages of other parts) become dangling
+ * references, which PDF readers treat as null.<br/>
+ * The writer needs the loaded source document and the unchanged file it was
+ * loaded from. Encrypted documents are not supported.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class PassThroughWriter implements Closeable
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(PassThroughWriter.class.getName());
+
+    private static final byte[] KEYWORD_OBJ = "obj"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final byte[] KEYWORD_ENDOBJ = "endobj"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final byte[] KEYWORD_STREAM = "stream"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final byte[] KEYWORD_ENDSTREAM = "endstream"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * The keys that might be inherited from the page tree.
+     */
+    private static final COSName[] INHERITABLE =
+    {
+            COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX,
+            COSName.ROTATE
+    };
+
+    /**
+     * The size of the buffer used to scan for keywords in the source file.
+     */
+    private static final int SCAN_BUFFER_SIZE = 4096;
+
+    /**
+     * The source document.
+     */
+    private final PDDocument mSource;
+
+    /**
+     * The channel to read the source file.
+     */
+    private final FileChannel mSourceChannel;
+
+    /**
+     * The cross reference table of the source document.
+     */
+    private final Map<COSObjectKey, Long> mXref;
+
+    /**
+     * The sorted offsets of all objects stored directly in the source file.
+     * This is used to limit the range of an object.
+     */
+    private final long[] mOffsets;
+
+    /**
+     * The highest object number of the source document.
+     */
+    private final long mMaxObjectNumber;
+
+    /**
+     * The buffer used to scan the source file.
+     */
+    private final ByteBuffer mScanBuffer = ByteBuffer
+            .allocate(SCAN_BUFFER_SIZE);
+
+    /**
+     * The number of objects copied raw by this writer.
+     */
+    private long mRawCount = 0;
+
+    /**
+     * The number of objects serialized by this writer.
+     */
+    private long mSerializedCount = 0;
+
+    /**
+     * Create a new writer.
+     *
+     * @param aSource
+     *            the loaded source document.
+     * @param aSourceFile
+     *            the file the source document was loaded from. This must not
+     *            have been changed since.
+     * @throws IOException
+     *             if the source is encrypted or the file can not be opened.
+     */
+    public PassThroughWriter(PDDocument aSource, File aSourceFile)
+        throws IOException
+    {
+        if (aSource.isEncrypted())
+        {
+            throw new IOException(
+                    "Pass-through writing of encrypted documents is not supported");
+        }
+        mSource = aSource;
+        mXref = new HashMap<>(aSource.getDocument().getXrefTable());
+
+        long maxNum = 0;
+        long[] offsets = new long[mXref.size()];
+        int count = 0;
+        for (Entry<COSObjectKey, Long> e : mXref.entrySet())
+        {
+            maxNum = Math.max(maxNum, e.getKey().getNumber());
+            Long offs = e.getValue();
+            if (offs != null && offs.longValue() > 0)
+            {
+                offsets[count++] = offs.longValue();
+            }
+        }
+        mOffsets = Arrays.copyOf(offsets, count);
+        Arrays.sort(mOffsets);
+        mMaxObjectNumber = maxNum;
+        mSourceChannel = FileChannel.open(aSourceFile.toPath(),
+                StandardOpenOption.READ);
+    }
+
+
+    /**
+     *
+     * @return the number of objects that were copied raw from the source file.
+     */
+    public long getRawCount()
+    {
+        return mRawCount;
+    }
+
+
+    /**
+     *
+     * @return the number of objects that were serialized from the loaded
+     *         document.
+     */
+    public long getSerializedCount()
+    {
+        return mSerializedCount;
+    }
+
+
+    /**
+     * Write the given pages of the source document into a new PDF file.
+     *
+     * @param aPageIndices
+     *            the indices (0 based) of the pages to write in the output
+     *            order.
+     * @param aTarget
+     *            the file to write to. An existing file is overwritten.
+     * @throws IOException
+     *             on read or write errors.
+     */
+    public void write(List<Integer> aPageIndices, File aTarget)
+        throws IOException
+    {
+        try (FileOutputStream fos = new FileOutputStream(aTarget))
+        {
+            write(aPageIndices, fos);
+        }
+    }
+
+
+    /**
+     * Write the given pages of the source document to the given stream. Raw
+     * copies are done directly into the file channel if the stream is a
+     * {@link FileOutputStream}.
+     *
+     * @param aPageIndices
+     *            the indices (0 based) of the pages to write in the output
+     *            order.
+     * @param aTarget
+     *            the stream to write to. The stream is not closed.
+     * @throws IOException
+     *             on read or write errors.
+     */
+    public void write(List<Integer> aPageIndices, OutputStream aTarget)
+        throws IOException
+    {
+        synchronized (mSource)
+        {
+            new Job(aTarget).write(aPageIndices);
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        mSourceChannel.close();
+    }
+
+
+    /**
+     * Get the key of the given reference, which is the key of the reference
+     * itself or else the key the referenced object was resolved from.
+     *
+     * @return the key or null if the object has no object number.
+     */
+    private static COSObjectKey keyOf(COSObject aObject)
+    {
+        COSObjectKey res = aObject.getKey();
+        if (res == null && !aObject.isObjectNull())
+        {
+            res = aObject.getObject().getKey();
+        }
+        return res;
+    }
+
+
+    /**
+     * Check if the given object is a node of the document structure (page,
+     * page tree node or catalog) that must not be copied.
+     */
+    private static boolean isStructureNode(COSBase aBase)
+    {
+        if (!(aBase instanceof COSDictionary)
+                || aBase instanceof COSStream)
+        {
+            return false;
+        }
+        COSName type = ((COSDictionary) aBase).getCOSName(COSName.TYPE);
+        return COSName.PAGE.equals(type) || COSName.PAGES.equals(type)
+                || COSName.CATALOG.equals(type);
+    }
+
+
+    /**
+     * Read from the source file into the scan buffer.
+     *
+     * @return the number of bytes read (might be 0 at end of file).
+     */
+    private int readSource(long aPosition) throws IOException
+    {
+        mScanBuffer.clear();
+        int res = 0;
+        while (mScanBuffer.hasRemaining())
+        {
+            int r = mSourceChannel.read(mScanBuffer, aPosition + res);
+            if (r < 0)
+            {
+                break;
+            }
+            res += r;
+        }
+        return res;
+    }
+
+
+    /**
+     * Search for the given keyword in the source file.
+     *
+     * @param aStart
+     *            the position to start at.
+     * @param aLimit
+     *            the position to stop searching at.
+     * @return the position of the keyword or -1 if not found.
+     */
+    private long find(byte[] aKeyword, long aStart, long aLimit)
+        throws IOException
+    {
+        long pos = aStart;
+        while (pos < aLimit)
+        {
+            int len = (int) Math.min(readSource(pos), aLimit - pos);
+            if (len < aKeyword.length)
+            {
+                return -1;
+            }
+            byte[] buf = mScanBuffer.array();
+            for (int i = 0; i <= len - aKeyword.length; i++)
+            {
+                int k = 0;
+                while (k < aKeyword.length && buf[i + k] == aKeyword[k])
+                {
+                    k++;
+                }
+                if (k == aKeyword.length)
+                {
+                    return pos + i;
+                }
+            }
+            // overlap the windows by the keyword length
+            pos += len - aKeyword.length + 1;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Determine the range of the given object in the source file.
+     *
+     * @param aKey
+     *            the key of the object.
+     * @param aObject
+     *            the resolved object.
+     * @param aOffset
+     *            the offset of the object as given in the cross reference
+     *            table.
+     * @return the start position (first byte of the object header) and the
+     *         position after the "endobj" keyword or null if the object can
+     *         not be located reliably.
+     */
+    private long[] findObject(COSObjectKey aKey, COSBase aObject,
+            long aOffset)
+        throws IOException
+    {
+        int idx = Arrays.binarySearch(mOffsets, aOffset);
+        long limit = idx >= 0 && idx + 1 < mOffsets.length ? mOffsets[idx + 1]
+                : mSourceChannel.size();
+
+        // check the header "<num> <gen> obj", the offset might point to
+        // white space before the header
+        int len = Math.min(readSource(aOffset), 64);
+        byte[] buf = mScanBuffer.array();
+        int lead = 0;
+        while (lead < len && Character.isWhitespace(buf[lead]))
+        {
+            lead++;
+        }
+        String header = new String(buf, lead, len - lead,
+                StandardCharsets.ISO_8859_1);
+        String expected = aKey.getNumber() + " " + aKey.getGeneration() + " ";
+        if (!header.startsWith(expected)
+                || !header.substring(expected.length()).trim()
+                        .startsWith("obj"))
+        {
+            return null;
+        }
+        long start = aOffset + lead;
+        long bodyStart = find(KEYWORD_OBJ, start, limit);
+        if (bodyStart < 0)
+        {
+            return null;
+        }
+        bodyStart += KEYWORD_OBJ.length;
+
+        long searchFrom = bodyStart;
+        if (aObject instanceof COSStream)
+        {
+            long streamPos = find(KEYWORD_STREAM, bodyStart, limit);
+            if (streamPos < 0)
+            {
+                return null;
+            }
+            long dataStart = streamPos + KEYWORD_STREAM.length;
+            readSource(dataStart);
+            if (buf[0] == '\r' && buf[1] == '\n')
+            {
+                dataStart += 2;
+            }
+            else if (buf[0] == '\n' || buf[0] == '\r')
+            {
+                dataStart++;
+            }
+            long dataEnd = dataStart + ((COSStream) aObject).getLength();
+            // "endstream" must follow the data after optional white space
+            long endStream = find(KEYWORD_ENDSTREAM, dataEnd,
+                    Math.min(limit, dataEnd + 32));
+            if (endStream < 0)
+            {
+                return null;
+            }
+            searchFrom = endStream + KEYWORD_ENDSTREAM.length;
+        }
+
+        long endObj = find(KEYWORD_ENDOBJ, searchFrom, limit);
+        if (endObj < 0)
+        {
+            return null;
+        }
+        return new long[]
+        {
+                start, endObj + KEYWORD_ENDOBJ.length
+        };
+    }
+
+    /**
+     * The state of writing a single output file.
+     */
+    private class Job
+    {
+
+        /**
+         * The output stream, counting the written bytes.
+         */
+        private final CountingOutputStream mOut;
+
+        /**
+         * The channel of the target, used for raw copies.
+         */
+        private final WritableByteChannel mTargetChannel;
+
+        /**
+         * The source objects to copy, with their resolved value.
+         */
+        private final Map<COSObjectKey, COSBase> mObjects = new LinkedHashMap<>();
+
+        /**
+         * Objects without (usable) source object number, with the number
+         * assigned to them in the output.
+         */
+        private final Map<COSObjectKey, COSBase> mNewObjects = new LinkedHashMap<>();
+
+        /**
+         * The page dictionaries to write, in page order.
+         */
+        private final Map<COSObjectKey, COSDictionary> mPages = new LinkedHashMap<>();
+
+        /**
+         * All objects that are written as indirect object, with their key in
+         * the output. This also contains the source page dictionaries.
+         */
+        private final Map<COSBase, COSObjectKey> mIndirect = new IdentityHashMap<>();
+
+        /**
+         * The offsets of the written objects.
+         */
+        private final TreeMap<Long, long[]> mWritten = new TreeMap<>();
+
+        /**
+         * The next object number for new objects.
+         */
+        private long mNextNumber = mMaxObjectNumber + 1;
+
+        Job(OutputStream aOut)
+        {
+            mTargetChannel = aOut instanceof FileOutputStream
+                    ? ((FileOutputStream) aOut).getChannel()
+                    : Channels.newChannel(aOut);
+            mOut = new CountingOutputStream(
+                    new BufferedOutputStream(aOut, 64 * 1024));
+        }
+
+
+        void write(List<Integer> aPageIndices) throws IOException
+        {
+            collect(aPageIndices);
+
+            String version = String.format(java.util.Locale.ROOT, "%.1f",
+                    mSource.getVersion());
+            writeAscii("%PDF-" + version + "\n");
+            // binary marker
+            mOut.write(new byte[]
+            {
+                    '%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3,
+                    '\n'
+            });
+
+            long pagesNum = mNextNumber++;
+            long catalogNum = mNextNumber++;
+
+            for (Entry<COSObjectKey, COSBase> e : mObjects.entrySet())
+            {
+                writeSourceObject(e.getKey(), e.getValue());
+            }
+            for (Entry<COSObjectKey, COSBase> e : mNewObjects.entrySet())
+            {
+                writeSerialized(e.getKey().getNumber(), 0, e.getValue());
+            }
+
+            // the page dictionaries, linked to the new page tree
+            COSArray kids = new COSArray();
+            for (Entry<COSObjectKey, COSDictionary> e : mPages.entrySet())
+            {
+                COSDictionary page = e.getValue();
+                page.setItem(COSName.PARENT, ref(pagesNum, 0));
+                writeSerialized(e.getKey().getNumber(),
+                        e.getKey().getGeneration(), page);
+                kids.add(ref(e.getKey().getNumber(),
+                        e.getKey().getGeneration()));
+            }
+
+            COSDictionary pages = new COSDictionary();
+            pages.setItem(COSName.TYPE, COSName.PAGES);
+            pages.setItem(COSName.KIDS, kids);
+            pages.setInt(COSName.COUNT, mPages.size());
+            writeSerialized(pagesNum, 0, pages);
+
+            COSDictionary catalog = new COSDictionary();
+            catalog.setItem(COSName.TYPE, COSName.CATALOG);
+            catalog.setItem(COSName.PAGES, ref(pagesNum, 0));
+            COSBase viewerPrefs = mSource.getDocumentCatalog().getCOSObject()
+                    .getDictionaryObject(COSName.VIEWER_PREFERENCES);
+            if (viewerPrefs instanceof COSDictionary)
+            {
+                catalog.setItem(COSName.VIEWER_PREFERENCES,
+                        copyDirect((COSDictionary) viewerPrefs));
+            }
+            writeSerialized(catalogNum, 0, catalog);
+
+            long infoNum = -1;
+            COSDictionary info = mSource.getDocumentInformation()
+                    .getCOSObject();
+            if (info != null && info.size() > 0)
+            {
+                infoNum = mNextNumber++;
+                writeSerialized(infoNum, 0, copyDirect(info));
+            }
+
+            writeXref(catalogNum, infoNum);
+            mOut.flush();
+        }
+
+
+        /**
+         * Collect all objects that are reachable from the given pages.
+         */
+        private void collect(List<Integer> aPageIndices) throws IOException
+        {
+            Deque<COSBase> todo = new ArrayDeque<>();
+            Map<COSBase, Boolean> visited = new IdentityHashMap<>();
+            for (int idx : aPageIndices)
+            {
+                PDPage page = mSource.getPage(idx);
+                COSDictionary src = page.getCOSObject();
+                COSObjectKey key = src.getKey();
+                if (key == null || mPages.containsKey(key))
+                {
+                    // we need a distinct object number for the page
+                    key = new COSObjectKey(mNextNumber++, 0);
+                }
+
+                // shallow copy, so the source page stays untouched
+                COSDictionary out = new COSDictionary();
+                for (Entry<COSName, COSBase> e : src.entrySet())
+                {
+                    out.setItem(e.getKey(), e.getValue());
+                }
+                for (COSName inheritable : INHERITABLE)
+                {
+                    if (!out.containsKey(inheritable))
+                    {
+                        COSBase value = findInherited(src, inheritable);
+                        if (value != null)
+                        {
+                            out.setItem(inheritable, value);
+                        }
+                    }
+                }
+                out.removeItem(COSName.PARENT);
+                mPages.put(key, out);
+                mIndirect.put(src, key);
+                visited.put(src, Boolean.TRUE);
+                todo.add(out);
+            }
+
+            while (!todo.isEmpty())
+            {
+                COSBase cur = todo.poll();
+                if (cur instanceof COSObject)
+                {
+                    COSObject ref = (COSObject) cur;
+                    COSBase resolved = ref.getObject();
+                    if (resolved == null || mIndirect.containsKey(resolved))
+                    {
+                        continue;
+                    }
+                    if (isStructureNode(resolved))
+                    {
+                        // pages of other parts and the page tree are not
+                        // copied, the reference stays dangling
+                        continue;
+                    }
+                    register(resolved, keyOf(ref));
+                    cur = resolved;
+                }
+                else if (cur instanceof COSStream
+                        || (cur != null && cur.getKey() != null
+                                && mXref.containsKey(cur.getKey())))
+                {
+                    // an indirect object stored directly, e.g. a stream
+                    // added after loading (OCR text layer)
+                    if (!mIndirect.containsKey(cur) && !isStructureNode(cur))
+                    {
+                        register(cur, cur.getKey());
+                    }
+                }
+
+                if (visited.put(cur, Boolean.TRUE) != null)
+                {
+                    continue;
+                }
+                if (cur instanceof COSDictionary)
+                {
+                    for (COSBase b : ((COSDictionary) cur).getValues())
+                    {
+                        if (b != null)
+                        {
+                            todo.add(b);
+                        }
+                    }
+                }
+                else if (cur instanceof COSArray)
+                {
+                    for (COSBase b : (COSArray) cur)
+                    {
+                        if (b != null)
+                        {
+                            todo.add(b);
+                        }
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * Register an object to be written as indirect object.
+         *
+         * @param aObject
+         *            the resolved object.
+         * @param aKey
+         *            the key of the object in the source or null.
+         */
+        private void register(COSBase aObject, COSObjectKey aKey)
+        {
+            if (aKey != null && mXref.containsKey(aKey)
+                    && !mObjects.containsKey(aKey))
+            {
+                mObjects.put(aKey, aObject);
+                mIndirect.put(aObject, aKey);
+            }
+            else
+            {
+                COSObjectKey key = new COSObjectKey(mNextNumber++, 0);
+                mNewObjects.put(key, aObject);
+                mIndirect.put(aObject, key);
+            }
+        }
+
+
+        private COSBase findInherited(COSDictionary aPage, COSName aKey)
+        {
+            COSBase parent = aPage.getDictionaryObject(COSName.PARENT);
+            int depth = 0;
+            while (parent instanceof COSDictionary && depth++ < 1000)
+            {
+                COSDictionary p = (COSDictionary) parent;
+                COSBase value = p.getItem(aKey);
+                if (value != null)
+                {
+                    return value;
+                }
+                parent = p.getDictionaryObject(COSName.PARENT);
+            }
+            return null;
+        }
+
+
+        /**
+         * Create a direct copy of the given dictionary, with all nested
+         * dictionaries resolved. This is used for small dictionaries like the
+         * document information.
+         */
+        private COSDictionary copyDirect(COSDictionary aDict)
+        {
+            COSDictionary res = new COSDictionary();
+            for (COSName key : aDict.keySet())
+            {
+                COSBase value = aDict.getDictionaryObject(key);
+                if (value instanceof COSDictionary || value instanceof COSArray)
+                {
+                    // nested structures are not copied
+                    continue;
+                }
+                if (value != null)
+                {
+                    res.setItem(key, value);
+                }
+            }
+            return res;
+        }
+
+
+        private COSObject ref(long aNumber, int aGeneration)
+        {
+            return new COSObject(null, new COSObjectKey(aNumber, aGeneration));
+        }
+
+
+        /**
+         * Write an object of the source document, raw if possible.
+         */
+        private void writeSourceObject(COSObjectKey aKey, COSBase aObject)
+            throws IOException
+        {
+            Long offset = mXref.get(aKey);
+            boolean modified = aObject instanceof COSUpdateInfo
+                    && ((COSUpdateInfo) aObject).isNeedToBeUpdated();
+            if (offset != null && offset.longValue() > 0 && !modified)
+            {
+                long[] range = findObject(aKey, aObject, offset.longValue());
+                if (range != null)
+                {
+                    mOut.flush();
+                    long start = range[0];
+                    long end = range[1];
+                    mWritten.put(aKey.getNumber(), new long[]
+                    {
+                            mOut.getCount(), aKey.getGeneration()
+                    });
+                    long pos = start;
+                    while (pos < end)
+                    {
+                        long n = mSourceChannel.transferTo(pos, end - pos,
+                                mTargetChannel);
+                        if (n <= 0)
+                        {
+                            throw new IOException(
+                                    "Unable to copy object " + aKey);
+                        }
+                        pos += n;
+                    }
+                    mOut.addCount(end - start);
+                    writeAscii("\n");
+                    mRawCount++;
+                    return;
+                }
+                LOGGER.log(Level.DEBUG,
+                        "Unable to locate object {0} in source, will serialize it.",
+                        aKey);
+            }
+            writeSerialized(aKey.getNumber(), aKey.getGeneration(), aObject);
+        }
+
+
+        /**
+         * Serialize an object.
+         */
+        private void writeSerialized(long aNumber, int aGeneration,
+            COSBase aObject)
+            throws IOException
+        {
+            mWritten.put(aNumber, new long[]
+            {
+                    mOut.getCount(), aGeneration
+            });
+            writeAscii(aNumber + " " + aGeneration + " obj\n");
+            if (aObject instanceof COSStream)
+            {
+                COSStream stream = (COSStream) aObject;
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                try (InputStream in = stream.createRawInputStream())
+                {
+                    in.transferTo(data);
+                }
+                COSDictionary dict = new COSDictionary();
+                for (Entry<COSName, COSBase> e : stream.entrySet())
+                {
+                    dict.setItem(e.getKey(), e.getValue());
+                }
+                dict.setLong(COSName.LENGTH, data.size());
+                writeValue(dict, false);
+                writeAscii("\nstream\r\n");
+                data.writeTo(mOut);
+                writeAscii("\r\nendstream");
+            }
+            else
+            {
+                writeValue(aObject, true);
+            }
+            writeAscii("\nendobj\n");
+            mSerializedCount++;
+        }
+
+
+        /**
+         * Write a direct value.
+         *
+         * @param aTopLevel
+         *            true if the value is the object itself, false if it is
+         *            nested in an other object.
+         */
+        private void writeValue(COSBase aValue, boolean aTopLevel)
+            throws IOException
+        {
+            if (aValue == null || aValue instanceof COSNull)
+            {
+                writeAscii("null");
+            }
+            else if (aValue instanceof COSObject)
+            {
+                COSObject obj = (COSObject) aValue;
+                COSObjectKey key = obj.isObjectNull() ? null
+                        : mIndirect.get(obj.getObject());
+                if (key == null)
+                {
+                    // not copied (dangling) or a new reference
+                    key = keyOf(obj);
+                }
+                if (key != null)
+                {
+                    writeAscii(key.getNumber() + " " + key.getGeneration()
+                            + " R");
+                }
+                else
+                {
+                    writeAscii("null");
+                }
+            }
+            else if (!aTopLevel && mIndirect.containsKey(aValue))
+            {
+                COSObjectKey key = mIndirect.get(aValue);
+                writeAscii(key.getNumber() + " " + key.getGeneration() + " R");
+            }
+            else if (aValue instanceof COSDictionary)
+            {
+                mOut.write(COSWriter.DICT_OPEN);
+                for (Entry<COSName, COSBase> e : ((COSDictionary) aValue)
+                        .entrySet())
+                {
+                    e.getKey().writePDF(mOut);
+                    mOut.write(' ');
+                    writeValue(e.getValue(), false);
+                    mOut.write('\n');
+                }
+                mOut.write(COSWriter.DICT_CLOSE);
+            }
+            else if (aValue instanceof COSArray)
+            {
+                mOut.write(COSWriter.ARRAY_OPEN);
+                boolean first = true;
+                for (COSBase b : (COSArray) aValue)
+                {
+                    if (!first)
+                    {
+                        mOut.write(' ');
+                    }
+                    first = false;
+                    writeValue(b, false);
+                }
+                mOut.write(COSWriter.ARRAY_CLOSE);
+            }
+            else if (aValue instanceof COSString)
+            {
+                COSWriter.writeString((COSString) aValue, mOut);
+            }
+            else if (aValue instanceof COSName)
+            {
+                ((COSName) aValue).writePDF(mOut);
+            }
+            else if (aValue instanceof COSInteger)
+            {
+                ((COSInteger) aValue).writePDF(mOut);
+            }
+            else if (aValue instanceof COSFloat)
+            {
+                ((COSFloat) aValue).writePDF(mOut);
+            }
+            else if (aValue instanceof COSBoolean)
+            {
+                ((COSBoolean) aValue).writePDF(mOut);
+            }
+            else
+            {
+                throw new IOException("Unsupported object type "
+                        + aValue.getClass().getName());
+            }
+        }
+
+
+        /**
+         * Write the cross reference table and the trailer.
+         */
+        private void writeXref(long aCatalogNum, long aInfoNum)
+            throws IOException
+        {
+            long xrefOffset = mOut.getCount();
+            writeAscii("xref\n0 1\n0000000000 65535 f\r\n");
+
+            // write sub sections of consecutive object numbers only, as
+            // the object numbers of the source might be sparse
+            List<Long> run = new ArrayList<>();
+            long last = -1;
+            for (Long num : mWritten.keySet())
+            {
+                if (!run.isEmpty() && num.longValue() != last + 1)
+                {
+                    writeXrefSection(run);
+                    run.clear();
+                }
+                run.add(num);
+                last = num.longValue();
+            }
+            if (!run.isEmpty())
+            {
+                writeXrefSection(run);
+            }
+
+            COSDictionary trailer = new COSDictionary();
+            trailer.setLong(COSName.SIZE, mWritten.lastKey() + 1);
+            trailer.setItem(COSName.ROOT, ref(aCatalogNum, 0));
+            if (aInfoNum > 0)
+            {
+                trailer.setItem(COSName.INFO, ref(aInfoNum, 0));
+            }
+            writeAscii("trailer\n");
+            writeValue(trailer, true);
+            writeAscii("\nstartxref\n" + xrefOffset + "\n%%EOF\n");
+        }
+
+
+        private void writeXrefSection(List<Long> aNumbers) throws IOException
+        {
+            writeAscii(aNumbers.get(0) + " " + aNumbers.size() + "\n");
+            for (Long num : aNumbers)
+            {
+                long[] entry = mWritten.get(num);
+                writeAscii(String.format(java.util.Locale.ROOT,
+                        "%010d %05d n\r\n", entry[0], entry[1]));
+            }
+        }
+
+
+        private void writeAscii(String aText) throws IOException
+        {
+            mOut.write(aText.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * An output stream that counts the written bytes.
+     */
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream aOut)
+        {
+            super(aOut);
+        }
+
+
+        @Override
+        public void write(int aByte) throws IOException
+        {
+            out.write(aByte);
+            mCount++;
+        }
+
+
+        @Override
+        public void write(byte[] aBuffer, int aOffset, int aLength)
+            throws IOException
+        {
+            out.write(aBuffer, aOffset, aLength);
+            mCount += aLength;
+        }
+
+
+        long getCount()
+        {
+            return mCount;
+        }
+
+
+        void addCount(long aCount)
+        {
+            mCount += aCount;
+        }
+    }
+}
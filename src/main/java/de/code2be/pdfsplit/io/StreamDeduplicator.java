@@ -0,0 +1,281 @@
+package de.code2be.pdfsplit.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Removes duplicate streams from a document. Two streams are duplicates if
+ * their raw (encoded) data and all dictionary entries except the length are
+ * equal. All references to a duplicate are replaced by references to the
+ * first stream with the same content, so the duplicate is not written
+ * anymore when the document is saved.<br/>
+ * This typically happens for split documents whose pages embed the same font
+ * or logo image separately. Only streams of the same length are hashed, so
+ * the overhead for documents without duplicates is small.<br/>
+ * Note that the dictionaries that reference a duplicate are changed in place.
+ * For imported pages these are shared with the source document, which is
+ * fine as both streams have the same content.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class StreamDeduplicator
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(StreamDeduplicator.class.getName());
+
+    /**
+     * The number of streams removed by the last call to
+     * {@link #deduplicate(PDDocument)}.
+     */
+    private int mRemovedCount = 0;
+
+    /**
+     * Remove duplicate streams from the given document.
+     *
+     * @param aDocument
+     *            the document to process.
+     * @return the number of raw stream bytes that are not written anymore.
+     * @throws IOException
+     *             if a stream can not be read.
+     */
+    public long deduplicate(PDDocument aDocument) throws IOException
+    {
+        mRemovedCount = 0;
+        COSDictionary trailer = aDocument.getDocument().getTrailer();
+        if (trailer == null)
+        {
+            return 0L;
+        }
+
+        // group all reachable streams by their raw length
+        Map<Long, List<COSStream>> byLength = new HashMap<>();
+        for (COSStream stream : collectStreams(trailer))
+        {
+            byLength.computeIfAbsent(stream.getLength(),
+                    (k) -> new ArrayList<>()).add(stream);
+        }
+
+        // hash only streams with the same length as another one
+        Map<COSStream, COSStream> replacements = new IdentityHashMap<>();
+        long saved = 0L;
+        for (List<COSStream> streams : byLength.values())
+        {
+            if (streams.size() < 2)
+            {
+                continue;
+            }
+            Map<String, COSStream> byHash = new HashMap<>();
+            for (COSStream stream : streams)
+            {
+                COSStream first = byHash.putIfAbsent(contentKey(stream),
+                        stream);
+                if (first != null)
+                {
+                    replacements.put(stream, first);
+                    saved += stream.getLength();
+                }
+            }
+        }
+
+        if (!replacements.isEmpty())
+        {
+            replaceReferences(trailer, replacements);
+        }
+        mRemovedCount = replacements.size();
+        LOGGER.log(Level.DEBUG, "Removed {0} duplicate streams ({1} bytes).",
+                mRemovedCount, saved);
+        return saved;
+    }
+
+
+    /**
+     *
+     * @return the number of streams removed by the last call to
+     *         {@link #deduplicate(PDDocument)}.
+     */
+    public int getRemovedCount()
+    {
+        return mRemovedCount;
+    }
+
+
+    /**
+     * Collect all streams reachable from the given root.
+     */
+    private static List<COSStream> collectStreams(COSDictionary aRoot)
+    {
+        List<COSStream> res = new ArrayList<>();
+        Set<COSBase> visited = Collections
+                .newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> todo = new ArrayDeque<>();
+        todo.push(aRoot);
+        while (!todo.isEmpty())
+        {
+            COSBase obj = resolve(todo.pop());
+            if (obj == null || !visited.add(obj))
+            {
+                continue;
+            }
+            if (obj instanceof COSStream)
+            {
+                res.add((COSStream) obj);
+            }
+            if (obj instanceof COSDictionary)
+            {
+                for (COSBase value : ((COSDictionary) obj).getValues())
+                {
+                    todo.push(value);
+                }
+            }
+            else if (obj instanceof COSArray)
+            {
+                for (int i = 0; i < ((COSArray) obj).size(); i++)
+                {
+                    todo.push(((COSArray) obj).get(i));
+                }
+            }
+        }
+        return res;
+    }
+
+
+    /**
+     * Replace all references to the keys of the given map by references to
+     * the values.
+     */
+    private static void replaceReferences(COSDictionary aRoot,
+            Map<COSStream, COSStream> aReplacements)
+    {
+        Set<COSBase> visited = Collections
+                .newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> todo = new ArrayDeque<>();
+        todo.push(aRoot);
+        while (!todo.isEmpty())
+        {
+            COSBase obj = resolve(todo.pop());
+            if (obj == null || !visited.add(obj))
+            {
+                continue;
+            }
+            if (obj instanceof COSDictionary)
+            {
+                COSDictionary dict = (COSDictionary) obj;
+                for (COSName key : new ArrayList<>(dict.keySet()))
+                {
+                    COSBase value = dict.getItem(key);
+                    COSStream replacement = aReplacements.get(resolve(value));
+                    if (replacement != null)
+                    {
+                        dict.setItem(key, replacement);
+                    }
+                    else
+                    {
+                        todo.push(value);
+                    }
+                }
+            }
+            else if (obj instanceof COSArray)
+            {
+                COSArray array = (COSArray) obj;
+                for (int i = 0; i < array.size(); i++)
+                {
+                    COSBase value = array.get(i);
+                    COSStream replacement = aReplacements.get(resolve(value));
+                    if (replacement != null)
+                    {
+                        array.set(i, replacement);
+                    }
+                    else
+                    {
+                        todo.push(value);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Create a key that is equal for streams with equal content. This
+     * contains the dictionary entries (without the length) and a hash of the
+     * raw data.
+     */
+    private static String contentKey(COSStream aStream) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<COSName, COSBase> e : aStream.entrySet())
+        {
+            if (COSName.LENGTH.equals(e.getKey()))
+            {
+                continue;
+            }
+            sb.append(e.getKey().getName()).append('=');
+            COSBase value = e.getValue();
+            if (value instanceof COSObject)
+            {
+                // compare references by object key, not by content
+                sb.append(((COSObject) value).getKey());
+            }
+            else
+            {
+                sb.append(value);
+            }
+            sb.append(';');
+        }
+
+        MessageDigest md;
+        try
+        {
+            md = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IOException(ex);
+        }
+        byte[] buf = new byte[8192];
+        try (InputStream in = aStream.createRawInputStream())
+        {
+            int len;
+            while ((len = in.read(buf)) > 0)
+            {
+                md.update(buf, 0, len);
+            }
+        }
+        sb.append(Base64.getEncoder().encodeToString(md.digest()));
+        return sb.toString();
+    }
+
+
+    private static COSBase resolve(COSBase aObject)
+    {
+        if (aObject instanceof COSObject)
+        {
+            return ((COSObject) aObject).getObject();
+        }
+        return aObject;
+    }
+}
@@ -0,0 +1,332 @@
+package de.code2be.pdfsplit.ocr;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import de.code2be.help.TesseractC;
+import de.code2be.help.TesseractFactory;
+import net.sourceforge.tess4j.Word;
+
+/**
+ * The child process of an {@link OCRWorkerPool}. The worker connects to the
+ * pool over a loopback socket, receives the Tesseract settings and then
+ * processes OCR requests with a single Tesseract instance until the pool
+ * sends a quit request or closes the connection. <br/>
+ * A socket is used instead of stdin/stdout, as the native library might
+ * write to stdout. All values are written big endian by
+ * {@link DataOutputStream}:
+ *
+ * <pre>
+ * connect:  token (UTF), settings (properties as UTF-8 bytes with int length)
+ * request:  op (int, {@link #OP_WORDS} with level (int), {@link #OP_TEXT} or
+ *           {@link #OP_QUIT}), image
+ * image:    kind ({@link #IMAGE_BINARY} or {@link #IMAGE_GRAY}), width,
+ *           height, data length (int), data (packed bits or gray bytes)
+ * response: status (int, 0 = ok), words (count, then text, confidence,
+ *           x, y, width, height each) or text (UTF-8 bytes with int length)
+ *           or error message, memory of the worker in bytes (long)
+ * </pre>
+ *
+ * @author Michael Weiss
+ *
+ */
+public class OCRWorker
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(OCRWorker.class.getName());
+
+    static final int OP_QUIT = 0;
+
+    static final int OP_WORDS = 1;
+
+    static final int OP_TEXT = 2;
+
+    static final int IMAGE_BINARY = 1;
+
+    static final int IMAGE_GRAY = 8;
+
+    static final int STATUS_OK = 0;
+
+    static final int STATUS_ERROR = 1;
+
+    /**
+     * The settings key for the class name of the {@link TesseractFactory}
+     * that creates the OCR engine of the worker.
+     */
+    static final String KEY_FACTORY = "factory";
+
+    static final String KEY_LANGUAGE = "language";
+
+    static final String KEY_DATAPATH = "datapath";
+
+    static final String KEY_ENGINE_MODE = "engineMode";
+
+    static final String KEY_PAGE_SEG_MODE = "pageSegMode";
+
+    static final String KEY_CONFIGS = "configs";
+
+    /**
+     * The prefix of settings keys for Tesseract variables.
+     */
+    static final String KEY_VAR_PREFIX = "var.";
+
+    public static void main(String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: " + OCRWorker.class.getName()
+                    + " <port> <token>");
+            System.exit(2);
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                Integer.parseInt(args[0])))
+        {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), 65536));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), 65536));
+            out.writeUTF(args[1]);
+            out.flush();
+            TesseractFactory factory = createFactory(readSettings(in));
+            try (TesseractC ocr = factory.createCloseableInstance())
+            {
+                serve(ocr, in, out);
+            }
+        }
+        catch (EOFException ex)
+        {
+            // the pool is gone
+            LOGGER.log(Level.DEBUG, "Connection to pool closed.");
+        }
+        catch (Exception ex)
+        {
+            LOGGER.log(Level.ERROR, ex.getMessage(), ex);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+
+    private static Properties readSettings(DataInputStream aIn)
+        throws IOException
+    {
+        byte[] data = new byte[aIn.readInt()];
+        aIn.readFully(data);
+        Properties res = new Properties();
+        res.load(new StringReader(new String(data, StandardCharsets.UTF_8)));
+        return res;
+    }
+
+
+    /**
+     * Create the factory for the OCR engine from the settings sent by the
+     * pool.
+     */
+    static TesseractFactory createFactory(Properties aSettings)
+        throws ReflectiveOperationException
+    {
+        TesseractFactory res = (TesseractFactory) Class
+                .forName(aSettings.getProperty(KEY_FACTORY,
+                        TesseractFactory.class.getName()))
+                .getConstructor().newInstance();
+        res.setLanguage(aSettings.getProperty(KEY_LANGUAGE, "eng"));
+        res.setDatapath(aSettings.getProperty(KEY_DATAPATH));
+        res.setOcrEngineMode(Integer.parseInt(aSettings.getProperty(
+                KEY_ENGINE_MODE, String.valueOf(res.getOcrEngineMode()))));
+        res.setPageSegnMode(Integer.parseInt(
+                aSettings.getProperty(KEY_PAGE_SEG_MODE, "-1")));
+        String configs = aSettings.getProperty(KEY_CONFIGS, "");
+        if (!configs.isEmpty())
+        {
+            res.setConfigs(Arrays.asList(configs.split(";")));
+        }
+        for (String key : aSettings.stringPropertyNames())
+        {
+            if (key.startsWith(KEY_VAR_PREFIX))
+            {
+                res.setVariable(key.substring(KEY_VAR_PREFIX.length()),
+                        aSettings.getProperty(key));
+            }
+        }
+        return res;
+    }
+
+
+    private static void serve(TesseractC aOCR, DataInputStream aIn,
+        DataOutputStream aOut)
+        throws Exception
+    {
+        while (true)
+        {
+            int op = aIn.readInt();
+            if (op == OP_QUIT)
+            {
+                return;
+            }
+            int level = op == OP_WORDS ? aIn.readInt() : 0;
+            BufferedImage img = readImage(aIn);
+            try
+            {
+                if (op == OP_WORDS)
+                {
+                    List<Word> words = aOCR.getWords(img, level);
+                    aOut.writeInt(STATUS_OK);
+                    aOut.writeInt(words.size());
+                    for (Word w : words)
+                    {
+                        Rectangle r = w.getBoundingBox();
+                        aOut.writeUTF(w.getText());
+                        aOut.writeFloat(w.getConfidence());
+                        aOut.writeInt(r.x);
+                        aOut.writeInt(r.y);
+                        aOut.writeInt(r.width);
+                        aOut.writeInt(r.height);
+                    }
+                }
+                else
+                {
+                    String text = aOCR.doOCR(img);
+                    aOut.writeInt(STATUS_OK);
+                    writeString(aOut, text != null ? text : "");
+                }
+            }
+            catch (Exception ex)
+            {
+                LOGGER.log(Level.ERROR, ex.getMessage(), ex);
+                aOut.writeInt(STATUS_ERROR);
+                writeString(aOut, String.valueOf(ex.getMessage()));
+            }
+            aOut.writeLong(getMemoryUsage());
+            aOut.flush();
+        }
+    }
+
+
+    static void writeString(DataOutputStream aOut, String aText)
+        throws IOException
+    {
+        byte[] data = aText.getBytes(StandardCharsets.UTF_8);
+        aOut.writeInt(data.length);
+        aOut.write(data);
+    }
+
+
+    static String readString(DataInputStream aIn) throws IOException
+    {
+        byte[] data = new byte[aIn.readInt()];
+        aIn.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Write an image. Binary images are sent as packed bits, all others as 8
+     * bit gray, which is what Tesseract works on.
+     */
+    static void writeImage(DataOutputStream aOut, BufferedImage aImage)
+        throws IOException
+    {
+        BufferedImage img = aImage;
+        int kind = IMAGE_BINARY;
+        if (!isPlainBinary(img))
+        {
+            kind = IMAGE_GRAY;
+            if (img.getType() != BufferedImage.TYPE_BYTE_GRAY
+                    || img.getRaster().getParent() != null)
+            {
+                img = new BufferedImage(aImage.getWidth(), aImage.getHeight(),
+                        BufferedImage.TYPE_BYTE_GRAY);
+                img.getGraphics().drawImage(aImage, 0, 0, null);
+            }
+        }
+        byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer())
+                .getData();
+        aOut.writeInt(kind);
+        aOut.writeInt(img.getWidth());
+        aOut.writeInt(img.getHeight());
+        aOut.writeInt(data.length);
+        aOut.write(data);
+    }
+
+
+    private static boolean isPlainBinary(BufferedImage aImage)
+    {
+        return aImage.getType() == BufferedImage.TYPE_BYTE_BINARY
+                && aImage.getColorModel().getPixelSize() == 1
+                && aImage.getRaster().getParent() == null
+                && aImage.getSampleModel() instanceof MultiPixelPackedSampleModel
+                && ((DataBufferByte) aImage.getRaster().getDataBuffer())
+                        .getData().length == ((aImage.getWidth() + 7) / 8)
+                                * aImage.getHeight();
+    }
+
+
+    static BufferedImage readImage(DataInputStream aIn) throws IOException
+    {
+        int kind = aIn.readInt();
+        int width = aIn.readInt();
+        int height = aIn.readInt();
+        int length = aIn.readInt();
+        BufferedImage res = new BufferedImage(width, height,
+                kind == IMAGE_BINARY ? BufferedImage.TYPE_BYTE_BINARY
+                        : BufferedImage.TYPE_BYTE_GRAY);
+        byte[] data = ((DataBufferByte) res.getRaster().getDataBuffer())
+                .getData();
+        if (data.length != length)
+        {
+            throw new IOException("Invalid image data length " + length);
+        }
+        aIn.readFully(data);
+        return res;
+    }
+
+
+    /**
+     *
+     * @return the resident memory of this process (native and heap) or the
+     *         used heap if the resident memory is not known.
+     */
+    static long getMemoryUsage()
+    {
+        try
+        {
+            for (String line : Files
+                    .readAllLines(Path.of("/proc/self/status")))
+            {
+                if (line.startsWith("VmRSS:"))
+                {
+                    String kb = line.substring(6).trim().split("\\s+")[0];
+                    return Long.parseLong(kb) * 1024L;
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            // not on Linux
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+}
@@ -0,0 +1,768 @@
+package de.code2be.pdfsplit.ocr;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.code2be.help.TesseractC;
+import de.code2be.help.TesseractFactory;
+import net.sourceforge.tess4j.Tesseract;
+import net.sourceforge.tess4j.Word;
+
+/**
+ * A Tesseract factory that runs OCR in a pool of child JVMs
+ * ({@link OCRWorker}) instead of calling the native library in this process.
+ * A native crash on a malformed image only kills a worker: the page fails
+ * and a new worker is started for the next page. Workers are recycled after
+ * a number of pages or when their resident memory exceeds a threshold, so
+ * native heap fragmentation does not build up over long runs. <br/>
+ * The instances created by {@link #createCloseableInstance()} and
+ * {@link #createInstance()} can be used wherever a Tesseract instance of
+ * this factory is used. Each OCR call takes an idle worker (starting one if
+ * less than {@link #getWorkerCount()} are running), so the number of threads
+ * using the pool should match the worker count. The page image is sent to
+ * the worker over a loopback socket without encoding (packed bits for binary
+ * images), so the overhead per page is small compared to the OCR itself.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class OCRWorkerPool extends TesseractFactory implements Closeable
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(OCRWorkerPool.class.getName());
+
+    /**
+     * The maximum number of workers running at the same time.
+     */
+    private int mWorkerCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of pages after which a worker is recycled.
+     */
+    private int mMaxPages = 500;
+
+    /**
+     * The resident memory in bytes above which a worker is recycled.
+     */
+    private long mMaxMemory = 1024L * 1024L * 1024L;
+
+    /**
+     * The time in ms a new worker has to connect.
+     */
+    private long mStartTimeout = 30000L;
+
+    /**
+     * The time in ms a worker has to answer a request, 0 for no limit.
+     */
+    private long mRequestTimeout = 0L;
+
+    /**
+     * Additional JVM arguments for the workers (e.g. -Xmx).
+     */
+    private List<String> mJvmArguments = Collections.emptyList();
+
+    /**
+     * The class name of the factory that creates the OCR engine in the
+     * workers.
+     */
+    private String mEngineFactory = TesseractFactory.class.getName();
+
+    /**
+     * The idle workers, the most recently used first.
+     */
+    private final Deque<Worker> mIdle = new ArrayDeque<>();
+
+    /**
+     * The number of running workers (idle, busy or starting).
+     */
+    private int mLiveCount = 0;
+
+    private boolean mClosed = false;
+
+    private final AtomicLong mStartedCount = new AtomicLong();
+
+    private final AtomicLong mRecycledCount = new AtomicLong();
+
+    private final AtomicLong mFailedCount = new AtomicLong();
+
+    private final AtomicLong mPageCount = new AtomicLong();
+
+    /**
+     * A running worker process with its connection.
+     */
+    private static class Worker
+    {
+
+        final Process mProcess;
+
+        final Socket mSocket;
+
+        final DataInputStream mIn;
+
+        final DataOutputStream mOut;
+
+        int mPages = 0;
+
+        long mMemory = 0L;
+
+        Worker(Process aProcess, Socket aSocket) throws IOException
+        {
+            mProcess = aProcess;
+            mSocket = aSocket;
+            mIn = new DataInputStream(
+                    new BufferedInputStream(aSocket.getInputStream(), 65536));
+            mOut = new DataOutputStream(new BufferedOutputStream(
+                    aSocket.getOutputStream(), 65536));
+        }
+
+
+        /**
+         * Ask the worker to quit and wait for it shortly.
+         */
+        void stop()
+        {
+            try
+            {
+                mOut.writeInt(OCRWorker.OP_QUIT);
+                mOut.flush();
+                mSocket.close();
+                if (!mProcess.waitFor(1, TimeUnit.SECONDS))
+                {
+                    mProcess.destroyForcibly();
+                }
+            }
+            catch (IOException ex)
+            {
+                kill();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                kill();
+            }
+        }
+
+
+        void kill()
+        {
+            try
+            {
+                mSocket.close();
+            }
+            catch (IOException ex)
+            {
+                // ignore, the process is killed anyway
+            }
+            mProcess.destroyForcibly();
+        }
+    }
+
+    /**
+     * Reads the payload of a successful response.
+     */
+    private interface IResponseReader<T>
+    {
+
+        T read(DataInputStream aIn) throws IOException;
+    }
+
+    /**
+     *
+     * @return the maximum number of workers running at the same time.
+     */
+    public int getWorkerCount()
+    {
+        return mWorkerCount;
+    }
+
+
+    /**
+     *
+     * @param aWorkerCount
+     *            the maximum number of workers running at the same time.
+     */
+    public void setWorkerCount(int aWorkerCount)
+    {
+        if (aWorkerCount < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Worker count must be at least 1.");
+        }
+        synchronized (this)
+        {
+            mWorkerCount = aWorkerCount;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     *
+     * @return the number of pages after which a worker is recycled.
+     */
+    public int getMaxPages()
+    {
+        return mMaxPages;
+    }
+
+
+    /**
+     *
+     * @param aMaxPages
+     *            the number of pages after which a worker is recycled. 0 to
+     *            not recycle by page count.
+     */
+    public void setMaxPages(int aMaxPages)
+    {
+        mMaxPages = aMaxPages > 0 ? aMaxPages : Integer.MAX_VALUE;
+    }
+
+
+    /**
+     *
+     * @return the resident memory in bytes above which a worker is recycled.
+     */
+    public long getMaxMemory()
+    {
+        return mMaxMemory;
+    }
+
+
+    /**
+     *
+     * @param aMaxMemory
+     *            the resident memory (heap and native) in bytes above which
+     *            a worker is recycled after its current page. 0 to not
+     *            recycle by memory.
+     */
+    public void setMaxMemory(long aMaxMemory)
+    {
+        mMaxMemory = aMaxMemory > 0L ? aMaxMemory : Long.MAX_VALUE;
+    }
+
+
+    /**
+     *
+     * @param aStartTimeout
+     *            the time in ms a new worker has to connect to the pool.
+     */
+    public void setStartTimeout(long aStartTimeout)
+    {
+        mStartTimeout = Math.max(1L, aStartTimeout);
+    }
+
+
+    /**
+     *
+     * @param aRequestTimeout
+     *            the time in ms a worker has to answer a request or 0 for no
+     *            limit. A worker that does not answer in time is killed and
+     *            the request fails.
+     */
+    public void setRequestTimeout(long aRequestTimeout)
+    {
+        mRequestTimeout = Math.max(0L, Math.min(Integer.MAX_VALUE,
+                aRequestTimeout));
+    }
+
+
+    /**
+     *
+     * @return the time in ms a worker has to answer a request or 0 for no
+     *         limit.
+     */
+    public long getRequestTimeout()
+    {
+        return mRequestTimeout;
+    }
+
+
+    /**
+     *
+     * @return the additional JVM arguments for the workers.
+     */
+    public List<String> getJvmArguments()
+    {
+        return mJvmArguments;
+    }
+
+
+    /**
+     *
+     * @param aJvmArguments
+     *            additional JVM arguments for the workers (e.g. -Xmx256m).
+     */
+    public void setJvmArguments(List<String> aJvmArguments)
+    {
+        mJvmArguments = aJvmArguments != null ? List.copyOf(aJvmArguments)
+                : Collections.emptyList();
+    }
+
+
+    /**
+     *
+     * @return the class name of the factory that creates the OCR engine in
+     *         the workers.
+     */
+    public String getEngineFactory()
+    {
+        return mEngineFactory;
+    }
+
+
+    /**
+     *
+     * @param aEngineFactory
+     *            the class name of a {@link TesseractFactory} with a public
+     *            default constructor that creates the OCR engine in the
+     *            workers. The settings of this pool are applied to it.
+     */
+    public void setEngineFactory(String aEngineFactory)
+    {
+        mEngineFactory = aEngineFactory;
+    }
+
+
+    /**
+     *
+     * @return the number of workers started so far.
+     */
+    public long getStartedCount()
+    {
+        return mStartedCount.get();
+    }
+
+
+    /**
+     *
+     * @return the number of workers recycled after their page or memory
+     *         limit.
+     */
+    public long getRecycledCount()
+    {
+        return mRecycledCount.get();
+    }
+
+
+    /**
+     *
+     * @return the number of workers that crashed or failed to start.
+     */
+    public long getFailedCount()
+    {
+        return mFailedCount.get();
+    }
+
+
+    /**
+     *
+     * @return the number of images processed by the workers.
+     */
+    public long getPageCount()
+    {
+        return mPageCount.get();
+    }
+
+
+    /**
+     * {@inheritDoc} <br/>
+     * The instance sends its images to the workers of this pool.
+     */
+    @Override
+    public TesseractC createCloseableInstance()
+    {
+        return new RemoteTesseract(this);
+    }
+
+
+    /**
+     * {@inheritDoc} <br/>
+     * The instance sends its images to the workers of this pool.
+     */
+    @Override
+    public Tesseract createInstance()
+    {
+        return new RemoteTesseract(this);
+    }
+
+
+    /**
+     * Find the words in the given image.
+     *
+     * @param aImage
+     *            the image.
+     * @param aLevel
+     *            the page iterator level, see
+     *            {@link net.sourceforge.tess4j.ITessAPI.TessPageIteratorLevel}.
+     * @return the words found.
+     * @throws IOException
+     *             if the worker failed.
+     */
+    public List<Word> getWords(BufferedImage aImage, int aLevel)
+        throws IOException
+    {
+        return request(OCRWorker.OP_WORDS, aLevel, aImage, (aIn) -> {
+            int count = aIn.readInt();
+            List<Word> res = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                String text = aIn.readUTF();
+                float confidence = aIn.readFloat();
+                res.add(new Word(text, confidence, new Rectangle(
+                        aIn.readInt(), aIn.readInt(), aIn.readInt(),
+                        aIn.readInt())));
+            }
+            return res;
+        });
+    }
+
+
+    /**
+     * Recognize the text in the given image.
+     *
+     * @param aImage
+     *            the image.
+     * @return the recognized text.
+     * @throws IOException
+     *             if the worker failed.
+     */
+    public String getText(BufferedImage aImage) throws IOException
+    {
+        return request(OCRWorker.OP_TEXT, 0, aImage,
+                OCRWorker::readString);
+    }
+
+
+    private <T> T request(int aOp, int aLevel, BufferedImage aImage,
+        IResponseReader<T> aReader)
+        throws IOException
+    {
+        Worker w = acquire();
+        T res = null;
+        String error = null;
+        try
+        {
+            w.mSocket.setSoTimeout((int) mRequestTimeout);
+            w.mOut.writeInt(aOp);
+            if (aOp == OCRWorker.OP_WORDS)
+            {
+                w.mOut.writeInt(aLevel);
+            }
+            OCRWorker.writeImage(w.mOut, aImage);
+            w.mOut.flush();
+            if (w.mIn.readInt() == OCRWorker.STATUS_OK)
+            {
+                res = aReader.read(w.mIn);
+            }
+            else
+            {
+                error = OCRWorker.readString(w.mIn);
+            }
+            w.mMemory = w.mIn.readLong();
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            // the worker crashed or the connection is broken
+            mFailedCount.incrementAndGet();
+            String exit = waitForExit(w.mProcess);
+            w.kill();
+            retire();
+            throw new IOException("OCR worker failed" + exit + ": " + ex,
+                    ex);
+        }
+        w.mPages++;
+        mPageCount.incrementAndGet();
+        if (w.mPages >= mMaxPages || w.mMemory >= mMaxMemory)
+        {
+            LOGGER.log(Level.DEBUG,
+                    "Will recycle OCR worker after {0} pages with {1} bytes.",
+                    w.mPages, w.mMemory);
+            mRecycledCount.incrementAndGet();
+            retire();
+            w.stop();
+        }
+        else
+        {
+            release(w);
+        }
+        if (error != null)
+        {
+            throw new IOException("OCR failed: " + error);
+        }
+        return res;
+    }
+
+
+    /**
+     * Give a failed worker a moment to exit.
+     *
+     * @return a description of the exit code or an empty string if the
+     *         process is still running.
+     */
+    private static String waitForExit(Process aProcess)
+    {
+        try
+        {
+            if (aProcess.waitFor(1, TimeUnit.SECONDS))
+            {
+                return " (exit code " + aProcess.exitValue() + ")";
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return "";
+    }
+
+
+    /**
+     * Take an idle worker or start a new one if the pool is not full, else
+     * wait for a worker to become idle. Idle workers that have exited are
+     * replaced.
+     */
+    private Worker acquire() throws IOException
+    {
+        synchronized (this)
+        {
+            while (true)
+            {
+                if (mClosed)
+                {
+                    throw new IOException("OCR worker pool is closed.");
+                }
+                Worker w = mIdle.poll();
+                if (w != null && !w.mProcess.isAlive())
+                {
+                    // died while idle, a new worker is started instead
+                    LOGGER.log(Level.WARNING,
+                            "Idle OCR worker {0} exited with code {1}.",
+                            w.mProcess.pid(), w.mProcess.exitValue());
+                    mFailedCount.incrementAndGet();
+                    mLiveCount--;
+                    w.kill();
+                    continue;
+                }
+                if (w != null)
+                {
+                    return w;
+                }
+                if (mLiveCount < mWorkerCount)
+                {
+                    mLiveCount++;
+                    break;
+                }
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                            "Interrupted while waiting for an OCR worker");
+                }
+            }
+        }
+        try
+        {
+            return startWorker();
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            mFailedCount.incrementAndGet();
+            retire();
+            throw ex;
+        }
+    }
+
+
+    private void release(Worker aWorker)
+    {
+        synchronized (this)
+        {
+            if (!mClosed && mIdle.size() < mWorkerCount)
+            {
+                mIdle.push(aWorker);
+                notifyAll();
+                return;
+            }
+        }
+        retire();
+        aWorker.stop();
+    }
+
+
+    /**
+     * Remove a worker from the count of running workers.
+     */
+    private synchronized void retire()
+    {
+        mLiveCount--;
+        notifyAll();
+    }
+
+
+    private Worker startWorker() throws IOException
+    {
+        try (ServerSocket server = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress()))
+        {
+            String token = UUID.randomUUID().toString();
+            List<String> cmd = new ArrayList<>();
+            cmd.add(Path.of(System.getProperty("java.home"), "bin", "java")
+                    .toString());
+            cmd.addAll(mJvmArguments);
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(OCRWorker.class.getName());
+            cmd.add(String.valueOf(server.getLocalPort()));
+            cmd.add(token);
+            // the native library might write to stdout, which might be used
+            // for output by the application
+            Process p = new ProcessBuilder(cmd).redirectOutput(Redirect.DISCARD)
+                    .redirectError(Redirect.INHERIT).start();
+            try
+            {
+                Worker res = new Worker(p, accept(server, p, token));
+                StringWriter settings = new StringWriter();
+                createSettings().store(settings, null);
+                OCRWorker.writeString(res.mOut, settings.toString());
+                res.mOut.flush();
+                mStartedCount.incrementAndGet();
+                LOGGER.log(Level.DEBUG, "Started OCR worker {0}.", p.pid());
+                return res;
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                p.destroyForcibly();
+                throw ex;
+            }
+        }
+    }
+
+
+    /**
+     * Wait for the worker to connect with the given token.
+     */
+    private Socket accept(ServerSocket aServer, Process aProcess,
+        String aToken)
+        throws IOException
+    {
+        long deadline = System.currentTimeMillis() + mStartTimeout;
+        aServer.setSoTimeout(100);
+        while (true)
+        {
+            try
+            {
+                Socket res = aServer.accept();
+                res.setTcpNoDelay(true);
+                res.setSoTimeout((int) mStartTimeout);
+                if (aToken.equals(new DataInputStream(res.getInputStream())
+                        .readUTF()))
+                {
+                    res.setSoTimeout(0);
+                    return res;
+                }
+                LOGGER.log(Level.WARNING,
+                        "Rejected connection with invalid token from {0}.",
+                        res.getRemoteSocketAddress());
+                res.close();
+            }
+            catch (SocketTimeoutException ex)
+            {
+                if (!aProcess.isAlive())
+                {
+                    throw new IOException("OCR worker exited with code "
+                            + aProcess.exitValue() + " on start.");
+                }
+                if (System.currentTimeMillis() > deadline)
+                {
+                    throw new IOException("OCR worker did not connect within "
+                            + mStartTimeout + "ms.");
+                }
+            }
+        }
+    }
+
+
+    /**
+     *
+     * @return the settings sent to new workers.
+     */
+    private Properties createSettings()
+    {
+        Properties res = new Properties();
+        res.setProperty(OCRWorker.KEY_FACTORY, mEngineFactory);
+        if (getLanguage() != null)
+        {
+            res.setProperty(OCRWorker.KEY_LANGUAGE, getLanguage());
+        }
+        if (getDatapath() != null)
+        {
+            res.setProperty(OCRWorker.KEY_DATAPATH, getDatapath());
+        }
+        res.setProperty(OCRWorker.KEY_ENGINE_MODE,
+                String.valueOf(getOcrEngineMode()));
+        res.setProperty(OCRWorker.KEY_PAGE_SEG_MODE,
+                String.valueOf(getPageSegnMode()));
+        res.setProperty(OCRWorker.KEY_CONFIGS,
+                String.join(";", getConfigList()));
+        Properties vars = getVariables();
+        for (String key : vars.stringPropertyNames())
+        {
+            res.setProperty(OCRWorker.KEY_VAR_PREFIX + key,
+                    vars.getProperty(key));
+        }
+        return res;
+    }
+
+
+    /**
+     * Stop all idle workers. Busy workers are stopped when their current
+     * page is done. The pool can not be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        List<Worker> idle;
+        synchronized (this)
+        {
+            mClosed = true;
+            idle = new ArrayList<>(mIdle);
+            mIdle.clear();
+            mLiveCount -= idle.size();
+            notifyAll();
+        }
+        for (Worker w : idle)
+        {
+            w.stop();
+        }
+    }
+}
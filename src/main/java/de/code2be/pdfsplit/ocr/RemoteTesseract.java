@@ -0,0 +1,91 @@
+package de.code2be.pdfsplit.ocr;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.code2be.help.TesseractC;
+import net.sourceforge.tess4j.TesseractException;
+import net.sourceforge.tess4j.Word;
+
+/**
+ * A Tesseract instance that sends its images to the workers of an
+ * {@link OCRWorkerPool} instead of calling the native library. Only
+ * {@link #getWords(List, int)} and the image based {@link #doOCR} variants
+ * are supported, which are the ones used by the OCR filter and the OCR split
+ * identifier.
+ *
+ * @author Michael Weiss
+ *
+ */
+class RemoteTesseract extends TesseractC
+{
+
+    private final OCRWorkerPool mPool;
+
+    RemoteTesseract(OCRWorkerPool aPool)
+    {
+        mPool = aPool;
+    }
+
+
+    /**
+     * {@inheritDoc} <br/>
+     * If a worker fails (e.g. crashes on the image), an
+     * {@link UncheckedIOException} is thrown instead of returning an empty
+     * list, so the caller can tell a failed page from an empty one.
+     */
+    @Override
+    public List<Word> getWords(List<BufferedImage> aImages, int aLevel)
+    {
+        List<Word> res = new ArrayList<>();
+        for (BufferedImage img : aImages)
+        {
+            try
+            {
+                res.addAll(mPool.getWords(img, aLevel));
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return res;
+    }
+
+
+    @Override
+    public String doOCR(BufferedImage aImage, String aFilename,
+        List<Rectangle> aRects)
+        throws TesseractException
+    {
+        try
+        {
+            if (aRects == null || aRects.isEmpty())
+            {
+                return mPool.getText(aImage);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Rectangle r : aRects)
+            {
+                sb.append(mPool.getText(
+                        aImage.getSubimage(r.x, r.y, r.width, r.height)));
+            }
+            return sb.toString();
+        }
+        catch (IOException ex)
+        {
+            throw new TesseractException(ex);
+        }
+    }
+
+
+    @Override
+    public void close()
+    {
+        // there is no native instance to dispose
+    }
+}
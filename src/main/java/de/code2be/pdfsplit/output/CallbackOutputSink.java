@@ -0,0 +1,200 @@
+package de.code2be.pdfsplit.output;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An output sink that hands each document as stream to a callback. The
+ * callback runs on a separate thread and reads the document while it is
+ * written. Both threads are connected by a pipe with a buffer of configurable
+ * size: if the callback does not read fast enough, the writing thread blocks.
+ * Errors of the callback are reported to the writer when the document stream
+ * is closed.
+ * 
+ * @author Michael Weiss
+ *
+ */
+public class CallbackOutputSink implements IOutputSink
+{
+
+    /**
+     * The callback of a {@link CallbackOutputSink}.
+     */
+    public interface IDocumentCallback
+    {
+
+        /**
+         * Called for each document.
+         * 
+         * @param aName
+         *            the name of the document.
+         * @param aData
+         *            the content of the document. Data not read by the
+         *            callback is skipped.
+         * @throws IOException
+         *             in case the document can not be processed.
+         */
+        void documentWritten(String aName, InputStream aData)
+            throws IOException;
+    }
+
+    private final IDocumentCallback mCallback;
+
+    /**
+     * The size of the pipe buffer.
+     */
+    private final int mBufferSize;
+
+    /**
+     * The thread that runs the callback.
+     */
+    private final ExecutorService mExecutor = Executors
+            .newSingleThreadExecutor((aRunnable) -> {
+                Thread t = new Thread(aRunnable, "pdfsplit-output-callback");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * Create a new sink with a pipe buffer of 64KB.
+     * 
+     * @param aCallback
+     *            the callback to call for each document.
+     */
+    public CallbackOutputSink(IDocumentCallback aCallback)
+    {
+        this(aCallback, 64 * 1024);
+    }
+
+
+    /**
+     * Create a new sink.
+     * 
+     * @param aCallback
+     *            the callback to call for each document.
+     * @param aBufferSize
+     *            the size of the pipe buffer between writer and callback.
+     */
+    public CallbackOutputSink(IDocumentCallback aCallback, int aBufferSize)
+    {
+        mCallback = aCallback;
+        mBufferSize = Math.max(1, aBufferSize);
+    }
+
+
+    @Override
+    public OutputStream openDocument(String aName) throws IOException
+    {
+        PipedInputStream in = new PipedInputStream(mBufferSize);
+        PipedOutputStream out = new PipedOutputStream(in);
+        Future<?> task = mExecutor.submit(() -> {
+            try (InputStream data = in)
+            {
+                mCallback.documentWritten(aName, data);
+                // drain, so the writer is not blocked by unread data
+                data.transferTo(OutputStream.nullOutputStream());
+            }
+            return null;
+        });
+        return new OutputStream()
+        {
+
+            private boolean mClosed = false;
+
+            @Override
+            public void write(int aByte) throws IOException
+            {
+                try
+                {
+                    out.write(aByte);
+                }
+                catch (IOException ex)
+                {
+                    throw failure(ex);
+                }
+            }
+
+
+            @Override
+            public void write(byte[] aBuffer, int aOffset, int aLength)
+                throws IOException
+            {
+                if (task.isDone())
+                {
+                    // the callback failed, report its error
+                    await();
+                }
+                try
+                {
+                    out.write(aBuffer, aOffset, aLength);
+                }
+                catch (IOException ex)
+                {
+                    throw failure(ex);
+                }
+            }
+
+
+            @Override
+            public void close() throws IOException
+            {
+                if (!mClosed)
+                {
+                    mClosed = true;
+                    out.close();
+                    await();
+                }
+            }
+
+
+            /**
+             * The pipe is closed by a failed callback before its task is
+             * done, so wait for the task to report the error of the
+             * callback instead of the closed pipe.
+             */
+            private IOException failure(IOException aPipeError)
+                throws IOException
+            {
+                await();
+                return aPipeError;
+            }
+
+
+            private void await() throws IOException
+            {
+                try
+                {
+                    task.get();
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                            "Interrupted while writing " + aName);
+                }
+                catch (ExecutionException ex)
+                {
+                    // a new exception each time, as write and close can
+                    // both report the error
+                    throw new IOException(ex.getCause().getMessage(),
+                            ex.getCause());
+                }
+            }
+        };
+    }
+
+
+    @Override
+    public void close()
+    {
+        mExecutor.shutdown();
+    }
+}
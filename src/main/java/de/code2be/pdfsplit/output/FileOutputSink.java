@@ -0,0 +1,126 @@
+package de.code2be.pdfsplit.output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output sink that writes each document into a file in a target directory.
+ * If a file with the name of a document exists and overwrite is disabled, a
+ * new temporary file is created in the directory instead.
+ * 
+ * @author Michael Weiss
+ *
+ */
+public class FileOutputSink implements IOutputSink
+{
+
+    /**
+     * The directory to write the files to.
+     */
+    private final File mDirectory;
+
+    /**
+     * A flag to indicate if existing files are overwritten.
+     */
+    private boolean mOverwrite = false;
+
+    /**
+     * The size of the write buffer of a document stream.
+     */
+    private int mBufferSize = 64 * 1024;
+
+    /**
+     * Create a new sink that writes into the given directory.
+     * 
+     * @param aDirectory
+     *            the directory to write the files to.
+     */
+    public FileOutputSink(File aDirectory)
+    {
+        mDirectory = aDirectory;
+    }
+
+
+    /**
+     * 
+     * @return the directory the files are written to.
+     */
+    public File getDirectory()
+    {
+        return mDirectory;
+    }
+
+
+    /**
+     * 
+     * @return true if existing files are overwritten.
+     */
+    public boolean isOverwrite()
+    {
+        return mOverwrite;
+    }
+
+
+    /**
+     * 
+     * @param aOverwrite
+     *            true to overwrite existing files, false to write to a new
+     *            temporary file instead.
+     */
+    public void setOverwrite(boolean aOverwrite)
+    {
+        mOverwrite = aOverwrite;
+    }
+
+
+    /**
+     * 
+     * @return the size of the write buffer of a document stream.
+     */
+    public int getBufferSize()
+    {
+        return mBufferSize;
+    }
+
+
+    /**
+     * 
+     * @param aBufferSize
+     *            the size of the write buffer of a document stream.
+     */
+    public void setBufferSize(int aBufferSize)
+    {
+        mBufferSize = Math.max(1, aBufferSize);
+    }
+
+
+    @Override
+    public File createFile(String aName) throws IOException
+    {
+        File f = new File(mDirectory, aName);
+        if (f.createNewFile() || (mOverwrite && f.isFile()))
+        {
+            return f;
+        }
+        // as a fall back we create a new temporary file
+        return File.createTempFile("pdfsplit_", ".pdf", mDirectory);
+    }
+
+
+    @Override
+    public OutputStream openDocument(String aName) throws IOException
+    {
+        return new BufferedOutputStream(
+                new FileOutputStream(createFile(aName)), mBufferSize);
+    }
+
+
+    @Override
+    public void close()
+    {
+        // nothing to close, each document stream is closed by its writer
+    }
+}
@@ -0,0 +1,49 @@
+package de.code2be.pdfsplit.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Interface for classes that receive the documents written by a split. A sink
+ * either stores documents as files (see {@link #createFile(String)}) or
+ * provides a stream for each document. Each sink decides about its own
+ * buffering and blocks the writing thread if it can not take more data.
+ * 
+ * @author Michael Weiss
+ *
+ */
+public interface IOutputSink extends Closeable
+{
+
+    /**
+     * Create the file to write the next document to. Sinks that do not store
+     * documents as files return null, the document is then written to the
+     * stream returned by {@link #openDocument(String)}.
+     * 
+     * @param aName
+     *            the name of the document.
+     * @return the file to write the document to or null.
+     * @throws IOException
+     *             in case the file can not be created.
+     */
+    default File createFile(String aName) throws IOException
+    {
+        return null;
+    }
+
+
+    /**
+     * Open a stream to write the next document to. The document is complete
+     * when the stream is closed, closing the stream more than once has no
+     * effect. Only one document can be open at a time.
+     * 
+     * @param aName
+     *            the name of the document.
+     * @return the stream to write the document to.
+     * @throws IOException
+     *             in case the document can not be opened.
+     */
+    OutputStream openDocument(String aName) throws IOException;
+}
@@ -0,0 +1,236 @@
+package de.code2be.pdfsplit.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An output sink that keeps the documents as byte arrays in memory, e.g. for
+ * embedding the splitter into another application. The sink holds at most
+ * {@link #getCapacity()} bytes: if a completed document does not fit, the
+ * writing thread blocks until a consumer removes documents by
+ * {@link #take()} or {@link #remove(String)}. A single document is always
+ * accepted if the sink is empty.
+ * 
+ * @author Michael Weiss
+ *
+ */
+public class MemoryOutputSink implements IOutputSink
+{
+
+    /**
+     * The stored documents by name, in the order they were completed.
+     */
+    private final Map<String, byte[]> mDocuments = new LinkedHashMap<>();
+
+    /**
+     * The maximum number of bytes to hold.
+     */
+    private final long mCapacity;
+
+    /**
+     * The number of bytes held.
+     */
+    private long mSize = 0L;
+
+    private boolean mClosed = false;
+
+    /**
+     * Create a new sink without capacity limit.
+     */
+    public MemoryOutputSink()
+    {
+        this(Long.MAX_VALUE);
+    }
+
+
+    /**
+     * Create a new sink with the given capacity.
+     * 
+     * @param aCapacity
+     *            the maximum number of bytes to hold before the writer is
+     *            blocked.
+     */
+    public MemoryOutputSink(long aCapacity)
+    {
+        mCapacity = aCapacity;
+    }
+
+
+    /**
+     * 
+     * @return the maximum number of bytes to hold before the writer is
+     *         blocked.
+     */
+    public long getCapacity()
+    {
+        return mCapacity;
+    }
+
+
+    /**
+     * 
+     * @return the number of bytes currently held.
+     */
+    public synchronized long getSize()
+    {
+        return mSize;
+    }
+
+
+    /**
+     * 
+     * @return the names of the stored documents.
+     */
+    public synchronized List<String> getNames()
+    {
+        return new ArrayList<>(mDocuments.keySet());
+    }
+
+
+    /**
+     * 
+     * @param aName
+     *            the name of the document.
+     * @return the content of the document or null if there is no document
+     *         with the given name.
+     */
+    public synchronized byte[] getDocument(String aName)
+    {
+        return mDocuments.get(aName);
+    }
+
+
+    /**
+     * Remove a document from the sink.
+     * 
+     * @param aName
+     *            the name of the document.
+     * @return the content of the removed document or null if there is no
+     *         document with the given name.
+     */
+    public synchronized byte[] remove(String aName)
+    {
+        byte[] res = mDocuments.remove(aName);
+        if (res != null)
+        {
+            mSize -= res.length;
+            notifyAll();
+        }
+        return res;
+    }
+
+
+    /**
+     * Remove and return the oldest document. This blocks until a document is
+     * available or the sink is closed.
+     * 
+     * @return the name and content of the document or null if the sink is
+     *         closed and empty.
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting.
+     */
+    public synchronized Entry<String, byte[]> take()
+        throws InterruptedException
+    {
+        while (mDocuments.isEmpty() && !mClosed)
+        {
+            wait();
+        }
+        Iterator<Entry<String, byte[]>> it = mDocuments.entrySet()
+                .iterator();
+        if (!it.hasNext())
+        {
+            return null;
+        }
+        String name = it.next().getKey();
+        return Map.entry(name, remove(name));
+    }
+
+
+    @Override
+    public OutputStream openDocument(String aName) throws IOException
+    {
+        synchronized (this)
+        {
+            if (mClosed)
+            {
+                throw new IOException("Sink is closed");
+            }
+        }
+        return new DocumentStream(aName);
+    }
+
+
+    /**
+     * Store a completed document, waiting for free capacity.
+     */
+    private synchronized void commit(String aName, byte[] aData)
+        throws IOException
+    {
+        try
+        {
+            while (!mDocuments.isEmpty() && mSize + aData.length > mCapacity)
+            {
+                wait();
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting to store " + aName);
+        }
+        String name = aName;
+        for (int i = 1; mDocuments.containsKey(name); i++)
+        {
+            name = i + "_" + aName;
+        }
+        mDocuments.put(name, aData);
+        mSize += aData.length;
+        notifyAll();
+    }
+
+
+    @Override
+    public synchronized void close()
+    {
+        mClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * Collects a document and stores it on close.
+     */
+    private class DocumentStream extends ByteArrayOutputStream
+    {
+
+        private final String mName;
+
+        private boolean mCommitted = false;
+
+        DocumentStream(String aName)
+        {
+            super(64 * 1024);
+            mName = aName;
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!mCommitted)
+            {
+                mCommitted = true;
+                commit(mName, toByteArray());
+            }
+        }
+    }
+}
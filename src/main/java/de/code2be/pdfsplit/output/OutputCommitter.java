@@ -0,0 +1,656 @@
+package de.code2be.pdfsplit.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes output files atomically, so programs polling the target directory
+ * never see half written files. A file is written to a hidden temporary name
+ * in the target directory (see {@link #createTempFile(File)}) and renamed to
+ * its target name when it is {@link #commit(File, File) committed}. The
+ * durability mode decides if and when the data is forced to disk before the
+ * rename:
+ * <ul>
+ * <li>{@link #MODE_DIRECT}: no commit protocol, files are written in place.
+ * <li>{@link #MODE_ATOMIC}: renamed immediately without fsync. Readers never
+ * see partial files, but a crash can leave empty or partial files.
+ * <li>{@link #MODE_BATCH}: committed files are collected and forced to disk
+ * together once {@link #getBatchSize()} files are pending or the oldest
+ * pending file waits for {@link #getBatchInterval()}, then renamed. The
+ * interval is watched by a timer, so a batch is also committed if no further
+ * file is committed.
+ * <li>{@link #MODE_SYNC}: every file is forced to disk before the rename.
+ * </ul>
+ * The rename is done by creating a hard link, which atomically fails if the
+ * target exists, and removing the temporary name. If the file system does not
+ * support hard links, the file is moved without replacing an existing file
+ * instead. If the target name was taken in the meantime, a number is appended
+ * to the name. As the published name
+ * of a batch file is only known after the batch is committed, a
+ * {@link PublishListener} passed to {@link #commit(File, File, PublishListener)}
+ * is told the final file once it is published. For a batch committed by the
+ * timer, the listener is called from the timer thread.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class OutputCommitter implements Closeable
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(OutputCommitter.class.getName());
+
+    /**
+     * The timer that commits batches after their interval, shared by all
+     * committers.
+     */
+    private static final ScheduledExecutorService sTimer = Executors
+            .newSingleThreadScheduledExecutor((aRunnable) -> {
+                Thread res = new Thread(aRunnable, "OutputCommitter-Timer");
+                res.setDaemon(true);
+                return res;
+            });
+
+    /**
+     * Mode to write files in place without commit protocol.
+     */
+    public static final int MODE_DIRECT = 0;
+
+    /**
+     * Mode to rename files without forcing them to disk.
+     */
+    public static final int MODE_ATOMIC = 1;
+
+    /**
+     * Mode to force files to disk in batches before they are renamed.
+     */
+    public static final int MODE_BATCH = 2;
+
+    /**
+     * Mode to force every file to disk before it is renamed.
+     */
+    public static final int MODE_SYNC = 3;
+
+    private final int mMode;
+
+    /**
+     * The number of pending files that triggers a batch commit.
+     */
+    private int mBatchSize = 32;
+
+    /**
+     * The maximum time in ms a file waits for a batch commit.
+     */
+    private long mBatchInterval = 1000L;
+
+    /**
+     * The files waiting for a batch commit.
+     */
+    private final List<PendingFile> mPending = new ArrayList<>();
+
+    /**
+     * The time the oldest pending file was committed.
+     */
+    private long mPendingSince = 0L;
+
+    /**
+     * The timer task that commits the pending batch after the interval or
+     * null if none is scheduled.
+     */
+    private ScheduledFuture<?> mScheduledFlush;
+
+    /**
+     * The error of the last batch committed by the timer, thrown by the next
+     * call of {@link #commit(File, File)} or {@link #flush()}.
+     */
+    private IOException mTimerError;
+
+    /**
+     * The number of published files.
+     */
+    private long mCommittedCount = 0L;
+
+    /**
+     * The number of forced flushes to disk (files and directories).
+     */
+    private long mSyncCount = 0L;
+
+    /**
+     * Create a new committer.
+     *
+     * @param aMode
+     *            the durability mode, one of the MODE_* constants.
+     */
+    public OutputCommitter(int aMode)
+    {
+        mMode = aMode;
+    }
+
+
+    /**
+     * Create a committer from its textual representation.
+     *
+     * @param aMode
+     *            one of "direct", "atomic", "batch" or "sync". Unknown values
+     *            result in an atomic committer.
+     * @return the new committer.
+     */
+    public static OutputCommitter forName(String aMode)
+    {
+        String mode = aMode != null ? aMode.trim().toLowerCase() : "atomic";
+        switch (mode)
+        {
+            case "direct":
+                return new OutputCommitter(MODE_DIRECT);
+            case "batch":
+                return new OutputCommitter(MODE_BATCH);
+            case "sync":
+                return new OutputCommitter(MODE_SYNC);
+            case "atomic":
+                return new OutputCommitter(MODE_ATOMIC);
+            default:
+                LOGGER.log(Level.WARNING,
+                        "Unknown commit mode {0}, will use atomic.", aMode);
+                return new OutputCommitter(MODE_ATOMIC);
+        }
+    }
+
+
+    /**
+     *
+     * @return the durability mode, one of the MODE_* constants.
+     */
+    public int getMode()
+    {
+        return mMode;
+    }
+
+
+    /**
+     *
+     * @return the number of pending files that triggers a batch commit.
+     */
+    public int getBatchSize()
+    {
+        return mBatchSize;
+    }
+
+
+    /**
+     *
+     * @param aBatchSize
+     *            the number of pending files that triggers a batch commit.
+     */
+    public void setBatchSize(int aBatchSize)
+    {
+        mBatchSize = Math.max(1, aBatchSize);
+    }
+
+
+    /**
+     *
+     * @return the maximum time in ms a file waits for a batch commit.
+     */
+    public long getBatchInterval()
+    {
+        return mBatchInterval;
+    }
+
+
+    /**
+     * A batch is committed by a timer once its oldest file waited for the
+     * interval.
+     *
+     * @param aBatchInterval
+     *            the maximum time in ms a file waits for a batch commit.
+     */
+    public void setBatchInterval(long aBatchInterval)
+    {
+        mBatchInterval = Math.max(0L, aBatchInterval);
+    }
+
+
+    /**
+     *
+     * @return the number of published files.
+     */
+    public synchronized long getCommittedCount()
+    {
+        return mCommittedCount;
+    }
+
+
+    /**
+     *
+     * @return the number of forced flushes to disk.
+     */
+    public synchronized long getSyncCount()
+    {
+        return mSyncCount;
+    }
+
+
+    /**
+     *
+     * @return the number of files waiting for a batch commit.
+     */
+    public synchronized int getPendingCount()
+    {
+        return mPending.size();
+    }
+
+
+    /**
+     * Create a new empty hidden file in the directory of the target to write
+     * the target to.
+     *
+     * @param aTarget
+     *            the file that is to be written.
+     * @return the temporary file.
+     * @throws IOException
+     *             if the file can not be created.
+     */
+    public File createTempFile(File aTarget) throws IOException
+    {
+        return File.createTempFile("." + aTarget.getName() + ".", ".tmp",
+                aTarget.getAbsoluteFile().getParentFile());
+    }
+
+
+    /**
+     * Commit a completely written temporary file. Depending on the mode, the
+     * file is published immediately or with the next batch.
+     *
+     * @param aTemp
+     *            the temporary file, created by
+     *            {@link #createTempFile(File)}.
+     * @param aTarget
+     *            the name to publish the file with.
+     * @return the file the data is published as or null if the file waits
+     *         for the next batch.
+     * @throws IOException
+     *             if the file can not be committed.
+     */
+    public File commit(File aTemp, File aTarget) throws IOException
+    {
+        return commit(aTemp, aTarget, null);
+    }
+
+
+    /**
+     * Commit a completely written temporary file. Depending on the mode, the
+     * file is published immediately or with the next batch. The listener is
+     * called once the file is published, which can be during a later call of
+     * this method or {@link #flush()}.
+     *
+     * @param aTemp
+     *            the temporary file, created by
+     *            {@link #createTempFile(File)}.
+     * @param aTarget
+     *            the name to publish the file with.
+     * @param aListener
+     *            the listener to be told the published file. This can be
+     *            null.
+     * @return the file the data is published as or null if the file waits
+     *         for the next batch.
+     * @throws IOException
+     *             if the file can not be committed or the listener fails.
+     */
+    public synchronized File commit(File aTemp, File aTarget,
+        PublishListener aListener)
+        throws IOException
+    {
+        File res;
+        switch (mMode)
+        {
+            case MODE_BATCH:
+                if (mPending.isEmpty())
+                {
+                    mPendingSince = System.currentTimeMillis();
+                    scheduleFlush();
+                }
+                mPending.add(new PendingFile(aTemp, aTarget, aListener));
+                if (mPending.size() >= mBatchSize || System
+                        .currentTimeMillis() - mPendingSince >= mBatchInterval)
+                {
+                    flush();
+                }
+                throwTimerError();
+                return null;
+            case MODE_SYNC:
+                force(aTemp.toPath());
+                res = publish(aTemp, aTarget);
+                forceDirectory(res.getAbsoluteFile().getParentFile());
+                break;
+            default:
+                res = publish(aTemp, aTarget);
+                break;
+        }
+        if (aListener != null)
+        {
+            aListener.published(res);
+        }
+        return res;
+    }
+
+
+    /**
+     * Force all pending files to disk and publish them. The listeners of the
+     * published files are called after the directories are forced to disk. A
+     * file that can not be forced or published is deleted, the remaining
+     * files are published anyway.
+     *
+     * @throws IOException
+     *             if a file can not be committed, a listener fails or the last
+     *             batch committed by the timer failed.
+     */
+    public synchronized void flush() throws IOException
+    {
+        IOException error = flushPending();
+        if (error != null)
+        {
+            mTimerError = null;
+            throw error;
+        }
+        throwTimerError();
+    }
+
+
+    /**
+     * Force all pending files to disk and publish them.
+     *
+     * @return the last error or null if all files were committed.
+     */
+    private IOException flushPending()
+    {
+        if (mScheduledFlush != null)
+        {
+            mScheduledFlush.cancel(false);
+            mScheduledFlush = null;
+        }
+        if (mPending.isEmpty())
+        {
+            return null;
+        }
+        List<PendingFile> pending = new ArrayList<>(mPending);
+        mPending.clear();
+        IOException error = null;
+        for (PendingFile f : pending)
+        {
+            try
+            {
+                force(f.mTemp.toPath());
+            }
+            catch (IOException ex)
+            {
+                error = failed(f, ex);
+            }
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        for (PendingFile f : pending)
+        {
+            if (f.mFailed)
+            {
+                continue;
+            }
+            try
+            {
+                f.mPublished = publish(f.mTemp, f.mTarget);
+                dirs.add(f.mPublished.getAbsoluteFile().getParentFile());
+            }
+            catch (IOException ex)
+            {
+                error = failed(f, ex);
+            }
+        }
+        for (File dir : dirs)
+        {
+            forceDirectory(dir);
+        }
+        LOGGER.log(Level.DEBUG, "Committed batch of {0} files.",
+                pending.size());
+        for (PendingFile f : pending)
+        {
+            if (f.mPublished == null || f.mListener == null)
+            {
+                continue;
+            }
+            try
+            {
+                f.mListener.published(f.mPublished);
+            }
+            catch (IOException ex)
+            {
+                LOGGER.log(Level.ERROR, "Can not report {0}: {1}",
+                        f.mPublished, ex.getMessage());
+                error = ex;
+            }
+        }
+        return error;
+    }
+
+
+    /**
+     * Give up a pending file that can not be committed and remove its
+     * temporary file, so no hidden files are left behind.
+     *
+     * @return the given error.
+     */
+    private static IOException failed(PendingFile aFile, IOException aError)
+    {
+        LOGGER.log(Level.ERROR, "Can not publish {0}: {1}", aFile.mTarget,
+                aError.getMessage());
+        aFile.mFailed = true;
+        if (!aFile.mTemp.delete() && aFile.mTemp.exists())
+        {
+            aFile.mTemp.deleteOnExit();
+        }
+        return aError;
+    }
+
+
+    /**
+     * Schedule the commit of the pending batch after the batch interval.
+     */
+    private void scheduleFlush()
+    {
+        if (mBatchInterval <= 0L)
+        {
+            return;
+        }
+        mScheduledFlush = sTimer.schedule(() -> {
+            synchronized (OutputCommitter.this)
+            {
+                IOException error = flushPending();
+                if (error != null)
+                {
+                    mTimerError = error;
+                }
+            }
+        }, mBatchInterval, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Throw the error of the last batch committed by the timer, if any.
+     */
+    private void throwTimerError() throws IOException
+    {
+        IOException error = mTimerError;
+        if (error != null)
+        {
+            mTimerError = null;
+            throw error;
+        }
+    }
+
+
+    /**
+     * Commit all pending files.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+    }
+
+
+    /**
+     * Make the temporary file visible with the target name (or a variant of
+     * it, if the target exists).
+     */
+    private File publish(File aTemp, File aTarget) throws IOException
+    {
+        Path temp = aTemp.toPath();
+        File target = aTarget;
+        for (int i = 1; i < 1000; i++)
+        {
+            boolean linked;
+            try
+            {
+                Files.createLink(target.toPath(), temp);
+                linked = true;
+            }
+            catch (FileAlreadyExistsException ex)
+            {
+                target = variant(aTarget, i);
+                continue;
+            }
+            catch (UnsupportedOperationException | IOException ex)
+            {
+                linked = false;
+            }
+            if (linked)
+            {
+                Files.delete(temp);
+            }
+            else
+            {
+                // no hard links on this file system --> rename without
+                // REPLACE_EXISTING, which fails if the target exists
+                // (ATOMIC_MOVE could replace it)
+                try
+                {
+                    Files.move(temp, target.toPath());
+                }
+                catch (FileAlreadyExistsException ex)
+                {
+                    target = variant(aTarget, i);
+                    continue;
+                }
+            }
+            mCommittedCount++;
+            return target;
+        }
+        throw new IOException("Can not publish " + aTarget);
+    }
+
+
+    private static File variant(File aTarget, int aNumber)
+    {
+        String name = aTarget.getName();
+        int dot = name.lastIndexOf('.');
+        String variant = dot > 0
+                ? name.substring(0, dot) + "_" + aNumber + name.substring(dot)
+                : name + "_" + aNumber;
+        LOGGER.log(Level.DEBUG, "{0} exists, will try {1}.", aTarget, variant);
+        return new File(aTarget.getAbsoluteFile().getParentFile(), variant);
+    }
+
+
+    private void force(Path aFile) throws IOException
+    {
+        try (FileChannel ch = FileChannel.open(aFile, StandardOpenOption.WRITE))
+        {
+            ch.force(true);
+        }
+        mSyncCount++;
+    }
+
+
+    /**
+     * Force the directory entries to disk, so the rename survives a crash.
+     * This is not possible on all platforms and ignored there.
+     */
+    private void forceDirectory(File aDirectory)
+    {
+        try (FileChannel ch = FileChannel.open(aDirectory.toPath(),
+                StandardOpenOption.READ))
+        {
+            ch.force(true);
+            mSyncCount++;
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.TRACE, "Can not sync directory {0}: {1}",
+                    aDirectory, ex.getMessage());
+        }
+    }
+
+
+    /**
+     * Is told the final file once a committed file is published.
+     */
+    @FunctionalInterface
+    public interface PublishListener
+    {
+
+        /**
+         * Called once the committed file is visible with its final name.
+         *
+         * @param aFile
+         *            the published file. This is a variant of the target name
+         *            if the target was taken.
+         * @throws IOException
+         *             if the file can not be processed.
+         */
+        void published(File aFile) throws IOException;
+    }
+
+
+    /**
+     * A file waiting for a batch commit.
+     */
+    private static class PendingFile
+    {
+
+        private final File mTemp;
+
+        private final File mTarget;
+
+        private final PublishListener mListener;
+
+        /**
+         * The file the data was published as, set by the batch commit.
+         */
+        private File mPublished;
+
+        /**
+         * A flag to indicate that the file could not be committed.
+         */
+        private boolean mFailed;
+
+        PendingFile(File aTemp, File aTarget, PublishListener aListener)
+        {
+            mTemp = aTemp;
+            mTarget = aTarget;
+            mListener = aListener;
+        }
+    }
+}
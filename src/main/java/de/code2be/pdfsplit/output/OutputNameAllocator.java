@@ -0,0 +1,227 @@
+package de.code2be.pdfsplit.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.util.BitSet;
+
+/**
+ * Allocates new files in a directory, named by a {@link MessageFormat} pattern
+ * with the index of the file as argument 0 (e.g. "part_{0}.pdf"). The
+ * directory is scanned once for existing names of the pattern, afterwards the
+ * lowest free index is known in memory. Files are created by
+ * {@link File#createNewFile()}, which atomically fails if the file exists, so
+ * concurrent allocators (in this or another process) never hand out the same
+ * file: if another allocator took a name since the scan, the next index is
+ * tried.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class OutputNameAllocator
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(OutputNameAllocator.class.getName());
+
+    /**
+     * The maximum number of names tried by a single allocation.
+     */
+    private static final int MAX_ATTEMPTS = 5000;
+
+    private final File mDirectory;
+
+    private final String mNamePattern;
+
+    /**
+     * The indices known to be used, null until the directory was scanned.
+     */
+    private BitSet mUsed = null;
+
+    /**
+     * The number of files created by this allocator.
+     */
+    private int mAllocatedCount = 0;
+
+    /**
+     * Create a new allocator.
+     *
+     * @param aDirectory
+     *            the directory to create the files in.
+     * @param aNamePattern
+     *            the name pattern with the index as argument 0.
+     */
+    public OutputNameAllocator(File aDirectory, String aNamePattern)
+    {
+        mDirectory = aDirectory;
+        mNamePattern = aNamePattern;
+    }
+
+
+    /**
+     *
+     * @return the directory the files are created in.
+     */
+    public File getDirectory()
+    {
+        return mDirectory;
+    }
+
+
+    /**
+     *
+     * @return the name pattern with the index as argument 0.
+     */
+    public String getNamePattern()
+    {
+        return mNamePattern;
+    }
+
+
+    /**
+     *
+     * @return the number of files created or reserved by this allocator.
+     */
+    public synchronized int getAllocatedCount()
+    {
+        return mAllocatedCount;
+    }
+
+
+    /**
+     * Create a new empty file with the lowest free index.
+     *
+     * @return the created file or null if no file can be created (e.g. no
+     *         write permission or the pattern has no free name).
+     * @throws IOException
+     *             in case the directory can not be accessed.
+     */
+    public synchronized File allocate() throws IOException
+    {
+        return next(true);
+    }
+
+
+    /**
+     * Reserve the lowest free index without creating the file, for writers
+     * that publish the file atomically later (see {@link OutputCommitter}).
+     * The name is only reserved within this allocator, another process can
+     * still create the file. The writer must not replace an existing file
+     * when it publishes, the committer falls back to a variant of the name.
+     *
+     * @return the file with the reserved name or null if the pattern has no
+     *         free name.
+     * @throws IOException
+     *             in case the directory can not be accessed.
+     */
+    public synchronized File reserve() throws IOException
+    {
+        return next(false);
+    }
+
+
+    private File next(boolean aCreate) throws IOException
+    {
+        if (mUsed == null)
+        {
+            mUsed = scan();
+        }
+        for (int i = 0; i < MAX_ATTEMPTS; i++)
+        {
+            int index = mUsed.nextClearBit(0);
+            mUsed.set(index);
+            File f = new File(mDirectory,
+                    MessageFormat.format(mNamePattern, index));
+            if (!aCreate)
+            {
+                if (!f.exists())
+                {
+                    mAllocatedCount++;
+                    return f;
+                }
+                continue;
+            }
+            if (f.createNewFile())
+            {
+                mAllocatedCount++;
+                return f;
+            }
+            if (!f.exists())
+            {
+                // seems we don't have write permission --> no need to try
+                // further names
+                LOGGER.log(Level.WARNING, "Can not create file {0}.", f);
+                return null;
+            }
+            // created by someone else since the scan
+        }
+        return null;
+    }
+
+
+    /**
+     * Collect the indices of all existing files that match the name pattern.
+     */
+    private BitSet scan() throws IOException
+    {
+        BitSet res = new BitSet();
+        String[] names = mDirectory.list();
+        if (names == null)
+        {
+            throw new IOException("Can not list directory " + mDirectory);
+        }
+        MessageFormat format = new MessageFormat(mNamePattern);
+        NumberFormat number = NumberFormat.getIntegerInstance();
+        for (String name : names)
+        {
+            int index = parseIndex(format, number, name);
+            if (index >= 0)
+            {
+                res.set(index);
+            }
+        }
+        LOGGER.log(Level.DEBUG, "Found {0} existing names of {1} in {2}.",
+                res.cardinality(), mNamePattern, mDirectory);
+        return res;
+    }
+
+
+    /**
+     * Get the index of a name created by the pattern.
+     *
+     * @return the index or -1 if the name was not created by the pattern.
+     */
+    private int parseIndex(MessageFormat aFormat, NumberFormat aNumber,
+        String aName)
+    {
+        ParsePosition pos = new ParsePosition(0);
+        Object[] args = aFormat.parse(aName, pos);
+        if (args == null || pos.getIndex() != aName.length() || args.length < 1
+                || args[0] == null)
+        {
+            return -1;
+        }
+        try
+        {
+            Number n = aNumber.parse(args[0].toString());
+            if (n.longValue() < 0 || n.longValue() > Integer.MAX_VALUE - 1)
+            {
+                return -1;
+            }
+            int index = n.intValue();
+            // only accept the exact name, e.g. not "part_01.pdf"
+            return MessageFormat.format(mNamePattern, index).equals(aName)
+                    ? index
+                    : -1;
+        }
+        catch (ParseException ex)
+        {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package de.code2be.pdfsplit.output;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * An output sink that streams all documents as entries of a single ZIP
+ * archive into an output stream (e.g. stdout or a socket). Nothing is written
+ * to temporary files. The archive is written through a buffer of configurable
+ * size, if the target does not take data (e.g. a full pipe), the writing
+ * thread blocks.
+ * 
+ * @author Michael Weiss
+ *
+ */
+public class ZipOutputSink implements IOutputSink
+{
+
+    /**
+     * The archive stream.
+     */
+    private final ZipOutputStream mZip;
+
+    /**
+     * The names of the written entries, to prevent duplicates.
+     */
+    private final Set<String> mNames = new HashSet<>();
+
+    /**
+     * The currently open entry stream or null.
+     */
+    private EntryStream mOpenEntry = null;
+
+    /**
+     * Create a new sink that writes to the given stream with a default buffer
+     * size of 64KB.
+     * 
+     * @param aTarget
+     *            the stream to write the archive to. This is closed when the
+     *            sink is closed.
+     */
+    public ZipOutputSink(OutputStream aTarget)
+    {
+        this(aTarget, 64 * 1024);
+    }
+
+
+    /**
+     * Create a new sink that writes to the given stream.
+     * 
+     * @param aTarget
+     *            the stream to write the archive to. This is closed when the
+     *            sink is closed.
+     * @param aBufferSize
+     *            the size of the write buffer.
+     */
+    public ZipOutputSink(OutputStream aTarget, int aBufferSize)
+    {
+        mZip = new ZipOutputStream(
+                new BufferedOutputStream(aTarget, Math.max(1, aBufferSize)));
+        // PDF streams are mostly compressed already
+        mZip.setLevel(Deflater.BEST_SPEED);
+    }
+
+
+    /**
+     * 
+     * @param aLevel
+     *            the compression level of the entries (0-9).
+     */
+    public void setLevel(int aLevel)
+    {
+        mZip.setLevel(aLevel);
+    }
+
+
+    @Override
+    public synchronized OutputStream openDocument(String aName)
+        throws IOException
+    {
+        if (mOpenEntry != null)
+        {
+            throw new IOException(
+                    "Entry " + mOpenEntry.mName + " is still open");
+        }
+        String name = aName;
+        for (int i = 1; !mNames.add(name); i++)
+        {
+            name = i + "_" + aName;
+        }
+        mZip.putNextEntry(new ZipEntry(name));
+        mOpenEntry = new EntryStream(name);
+        return mOpenEntry;
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (mOpenEntry != null)
+        {
+            mOpenEntry.close();
+        }
+        mZip.close();
+    }
+
+    /**
+     * The stream of a single entry. Closing it completes the entry.
+     */
+    private class EntryStream extends FilterOutputStream
+    {
+
+        private final String mName;
+
+        private boolean mClosed = false;
+
+        EntryStream(String aName)
+        {
+            super(mZip);
+            mName = aName;
+        }
+
+
+        @Override
+        public void write(byte[] aBuffer, int aOffset, int aLength)
+            throws IOException
+        {
+            out.write(aBuffer, aOffset, aLength);
+        }
+
+
+        @Override
+        public void flush()
+        {
+            // the archive is flushed by its buffer
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            synchronized (ZipOutputSink.this)
+            {
+                if (mClosed)
+                {
+                    return;
+                }
+                mClosed = true;
+                mZip.closeEntry();
+                mOpenEntry = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package de.code2be.pdfsplit.shard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The result of a {@link SplitWorker} for its shard, exchanged with the
+ * {@link ShardedSplitter} as text file with one record per line:
+ *
+ * <pre>
+ * shard &lt;first page index&gt; &lt;end page index (exclusive)&gt;
+ * split &lt;index of a split page&gt;
+ * doc &lt;first page index&gt; &lt;last page index&gt; &lt;file name&gt;
+ * </pre>
+ *
+ * @author Michael Weiss
+ *
+ */
+class ShardResult
+{
+
+    /**
+     * A document written by a worker.
+     */
+    static class Segment
+    {
+
+        final int mFirstPage;
+
+        final int mLastPage;
+
+        final File mFile;
+
+        Segment(int aFirstPage, int aLastPage, File aFile)
+        {
+            mFirstPage = aFirstPage;
+            mLastPage = aLastPage;
+            mFile = aFile;
+        }
+    }
+
+    private final int mStartPage;
+
+    private final int mEndPage;
+
+    /**
+     * The split pages found in the shard.
+     */
+    private final BitSet mSplitPages = new BitSet();
+
+    /**
+     * The written documents, in page order.
+     */
+    private final List<Segment> mSegments = new ArrayList<>();
+
+    ShardResult(int aStartPage, int aEndPage)
+    {
+        mStartPage = aStartPage;
+        mEndPage = aEndPage;
+    }
+
+
+    int getStartPage()
+    {
+        return mStartPage;
+    }
+
+
+    int getEndPage()
+    {
+        return mEndPage;
+    }
+
+
+    BitSet getSplitPages()
+    {
+        return mSplitPages;
+    }
+
+
+    List<Segment> getSegments()
+    {
+        return mSegments;
+    }
+
+
+    void addSplitPage(int aPageIndex)
+    {
+        mSplitPages.set(aPageIndex);
+    }
+
+
+    void addSegment(int aFirstPage, int aLastPage, File aFile)
+    {
+        mSegments.add(new Segment(aFirstPage, aLastPage, aFile));
+    }
+
+
+    /**
+     * Write the result. The file is written under a temporary name and
+     * renamed, so a reader never sees a partial result.
+     */
+    void write(File aFile) throws IOException
+    {
+        File temp = new File(aFile.getParentFile(), aFile.getName() + ".tmp");
+        try (Writer wr = Files.newBufferedWriter(temp.toPath(),
+                StandardCharsets.UTF_8))
+        {
+            wr.write("shard " + mStartPage + " " + mEndPage + "\n");
+            for (int i = mSplitPages.nextSetBit(0); i >= 0; i = mSplitPages
+                    .nextSetBit(i + 1))
+            {
+                wr.write("split " + i + "\n");
+            }
+            for (Segment s : mSegments)
+            {
+                wr.write("doc " + s.mFirstPage + " " + s.mLastPage + " "
+                        + s.mFile.getName() + "\n");
+            }
+        }
+        Files.move(temp.toPath(), aFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Read a result. The files of the documents are resolved against the
+     * directory of the result file.
+     */
+    static ShardResult read(File aFile) throws IOException
+    {
+        ShardResult res = null;
+        try (BufferedReader rd = Files.newBufferedReader(aFile.toPath(),
+                StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = rd.readLine()) != null)
+            {
+                String[] parts = line.split(" ", 4);
+                try
+                {
+                    if (parts[0].equals("shard") && parts.length == 3)
+                    {
+                        res = new ShardResult(Integer.parseInt(parts[1]),
+                                Integer.parseInt(parts[2]));
+                    }
+                    else if (res != null && parts[0].equals("split")
+                            && parts.length == 2)
+                    {
+                        res.addSplitPage(Integer.parseInt(parts[1]));
+                    }
+                    else if (res != null && parts[0].equals("doc")
+                            && parts.length == 4)
+                    {
+                        res.addSegment(Integer.parseInt(parts[1]),
+                                Integer.parseInt(parts[2]),
+                                new File(aFile.getParentFile(), parts[3]));
+                    }
+                    else
+                    {
+                        throw new IOException("Invalid record in " + aFile
+                                + ": " + line);
+                    }
+                }
+                catch (NumberFormatException ex)
+                {
+                    throw new IOException("Invalid record in " + aFile + ": "
+                            + line, ex);
+                }
+            }
+        }
+        if (res == null)
+        {
+            throw new IOException("Empty shard result " + aFile);
+        }
+        return res;
+    }
+}
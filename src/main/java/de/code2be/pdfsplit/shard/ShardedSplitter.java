@@ -0,0 +1,566 @@
+package de.code2be.pdfsplit.shard;
+
+import static de.code2be.pdfsplit.Config.PROP_FILTER_DO_OCR;
+import static de.code2be.pdfsplit.Config.PROP_IO_MAPPED;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMMIT;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMMIT_BATCH_INTERVAL;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMMIT_BATCH_SIZE;
+import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_DO_OCR;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import de.code2be.pdfsplit.Config;
+import de.code2be.pdfsplit.MemoryPolicy;
+import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.SmartSplitter;
+import de.code2be.pdfsplit.output.OutputCommitter;
+import de.code2be.pdfsplit.output.OutputNameAllocator;
+
+/**
+ * Splits a large source file with several worker processes. The pages of
+ * the source are divided into shards (page ranges) of equal size, each shard
+ * is split by a {@link SplitWorker} in its own JVM, using
+ * {@link SmartSplitter#setStartPage(int)} and
+ * {@link SmartSplitter#setEndPage(int)}. <br/>
+ * A document that straddles a shard boundary is split into parts by the
+ * workers. The coordinator combines the split pages found by all workers,
+ * which gives the same documents as a split in a single process, as split
+ * pages are detected page by page. Documents written completely by a
+ * worker are used as they are, straddling documents are written again
+ * from the source by the coordinator. All documents are then moved to the
+ * target directory in page order, named by the name pattern and published as
+ * set by the commit mode of the config. Sharded splits have no
+ * {@link de.code2be.pdfsplit.SplitJournal journal}, an interrupted split
+ * starts over. Workers detect split pages by their text layer and QR codes
+ * only, a config that enables OCR is rejected.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class ShardedSplitter
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(ShardedSplitter.class.getName());
+
+    /**
+     * The config the workers are started with (separators and output
+     * options).
+     */
+    private final Config mConfig;
+
+    /**
+     * The number of shards (and worker processes).
+     */
+    private int mShardCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Additional JVM arguments for the worker processes (e.g. -Xmx).
+     */
+    private List<String> mJvmArguments = Collections.emptyList();
+
+    /**
+     * The maximum time in ms to wait for a worker, 0 to wait forever.
+     */
+    private long mWorkerTimeout = 0L;
+
+    private File mTargetDirectory;
+
+    private String mNamePattern;
+
+    /**
+     * The memory policy of the documents written by the coordinator.
+     */
+    private MemoryPolicy mMemoryPolicy = null;
+
+    /**
+     * The split pages found by the last split.
+     */
+    private BitSet mSplitPages = new BitSet();
+
+    /**
+     * Create a new sharded splitter.
+     *
+     * @param aConfig
+     *            the config with the separator and output settings.
+     */
+    public ShardedSplitter(Config aConfig)
+    {
+        mConfig = aConfig;
+    }
+
+
+    /**
+     *
+     * @return the number of shards the source is split into.
+     */
+    public int getShardCount()
+    {
+        return mShardCount;
+    }
+
+
+    /**
+     *
+     * @param aShardCount
+     *            the number of shards (and worker processes) the source is
+     *            split into. Sources with fewer pages use one shard per page.
+     */
+    public void setShardCount(int aShardCount)
+    {
+        if (aShardCount < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Shard count must be at least 1.");
+        }
+        mShardCount = aShardCount;
+    }
+
+
+    /**
+     *
+     * @return the additional JVM arguments for the worker processes.
+     */
+    public List<String> getJvmArguments()
+    {
+        return mJvmArguments;
+    }
+
+
+    /**
+     *
+     * @param aJvmArguments
+     *            additional JVM arguments for the worker processes (e.g.
+     *            -Xmx512m).
+     */
+    public void setJvmArguments(List<String> aJvmArguments)
+    {
+        mJvmArguments = aJvmArguments != null ? List.copyOf(aJvmArguments)
+                : Collections.emptyList();
+    }
+
+
+    /**
+     *
+     * @return the maximum time in ms to wait for a worker, 0 to wait forever.
+     */
+    public long getWorkerTimeout()
+    {
+        return mWorkerTimeout;
+    }
+
+
+    /**
+     *
+     * @param aWorkerTimeout
+     *            the maximum time in ms to wait for a worker, 0 to wait
+     *            forever. Workers that take longer are killed and the split
+     *            fails.
+     */
+    public void setWorkerTimeout(long aWorkerTimeout)
+    {
+        mWorkerTimeout = Math.max(0L, aWorkerTimeout);
+    }
+
+
+    /**
+     *
+     * @return the directory the split files are written to.
+     */
+    public File getTargetDirectory()
+    {
+        return mTargetDirectory;
+    }
+
+
+    /**
+     *
+     * @param aTargetDirectory
+     *            the directory the split files are written to.
+     */
+    public void setTargetDirectory(File aTargetDirectory)
+    {
+        mTargetDirectory = aTargetDirectory;
+    }
+
+
+    /**
+     *
+     * @return the name pattern of the split files.
+     */
+    public String getNamePattern()
+    {
+        return mNamePattern;
+    }
+
+
+    /**
+     *
+     * @param aNamePattern
+     *            the name pattern of the split files with the index as
+     *            argument 0.
+     */
+    public void setNamePattern(String aNamePattern)
+    {
+        mNamePattern = aNamePattern;
+    }
+
+
+    /**
+     *
+     * @return the memory policy of the documents written by the coordinator
+     *         or null if none is set.
+     */
+    public MemoryPolicy getMemoryPolicy()
+    {
+        return mMemoryPolicy;
+    }
+
+
+    /**
+     * Set the memory policy of the documents that straddle shard boundaries
+     * and are written by the coordinator. The policy is not installed by the
+     * splitter, as it is global to the JVM.
+     *
+     * @param aMemoryPolicy
+     *            the memory policy. If this is null, the policy of the config
+     *            is used without being installed.
+     */
+    public void setMemoryPolicy(MemoryPolicy aMemoryPolicy)
+    {
+        mMemoryPolicy = aMemoryPolicy;
+    }
+
+
+    /**
+     *
+     * @return the split pages found by the last split.
+     */
+    public BitSet getSplitPages()
+    {
+        return (BitSet) mSplitPages.clone();
+    }
+
+
+    /**
+     * Split the given source file.
+     *
+     * @param aSource
+     *            the file to split.
+     * @return the split files in page order.
+     * @throws IOException
+     *             if a worker fails or the files can not be written.
+     * @throws IllegalStateException
+     *             if the target directory or name pattern is not set or the
+     *             config enables OCR, which workers do not support.
+     */
+    public List<File> split(File aSource) throws IOException
+    {
+        if (mTargetDirectory == null || mNamePattern == null)
+        {
+            throw new IllegalStateException(
+                    "Target directory and name pattern must be set.");
+        }
+        if (mConfig.getConfigValB(PROP_SEPARATOR_DO_OCR, true)
+                || mConfig.getConfigValB(PROP_FILTER_DO_OCR, true))
+        {
+            throw new IllegalStateException("OCR is not supported by workers, "
+                    + PROP_SEPARATOR_DO_OCR + " and " + PROP_FILTER_DO_OCR
+                    + " must be disabled.");
+        }
+        int pageCount;
+        try (PDDocument doc = PDFHelper.loadPDF(aSource,
+                mConfig.getConfigValB(PROP_IO_MAPPED, false), null))
+        {
+            pageCount = doc.getNumberOfPages();
+        }
+
+        Path workDir = Files.createTempDirectory(mTargetDirectory.toPath(),
+                ".pdfsplit-shards-");
+        try
+        {
+            List<ShardResult> results = runWorkers(aSource, pageCount,
+                    workDir.toFile());
+            mSplitPages = new BitSet(pageCount);
+            Map<Integer, ShardResult.Segment> segments = new HashMap<>();
+            for (ShardResult r : results)
+            {
+                mSplitPages.or(r.getSplitPages());
+                for (ShardResult.Segment s : r.getSegments())
+                {
+                    segments.put(s.mFirstPage, s);
+                }
+            }
+
+            // the documents of a single process split: all page ranges
+            // between split pages
+            List<int[]> docs = new ArrayList<>();
+            BitSet straddling = new BitSet(pageCount);
+            int first = mSplitPages.nextClearBit(0);
+            while (first < pageCount)
+            {
+                int next = mSplitPages.nextSetBit(first);
+                int end = next < 0 ? pageCount : next;
+                docs.add(new int[]
+                {
+                        first, end - 1
+                });
+                ShardResult.Segment s = segments.get(first);
+                if (s == null || s.mLastPage != end - 1)
+                {
+                    straddling.set(first, end);
+                }
+                first = mSplitPages.nextClearBit(end);
+            }
+            if (!straddling.isEmpty())
+            {
+                stitch(aSource, straddling, workDir.toFile(), segments);
+            }
+            return publish(docs, segments);
+        }
+        finally
+        {
+            deleteRecursive(workDir);
+        }
+    }
+
+
+    /**
+     * Start a worker for each shard and wait for all of them.
+     *
+     * @return the results of the shards in page order.
+     */
+    private List<ShardResult> runWorkers(File aSource, int aPageCount,
+        File aWorkDir)
+        throws IOException
+    {
+        File cfgFile = new File(aWorkDir, "shard.cfg");
+        Config.saveConfig(mConfig, cfgFile);
+
+        int shardCount = Math.max(1, Math.min(mShardCount, aPageCount));
+        List<Process> processes = new ArrayList<>();
+        List<File> dirs = new ArrayList<>();
+        List<File> logs = new ArrayList<>();
+        List<ShardResult> res = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < shardCount; i++)
+            {
+                int start = (int) ((long) aPageCount * i / shardCount);
+                int end = (int) ((long) aPageCount * (i + 1) / shardCount);
+                File dir = new File(aWorkDir, "shard_" + i);
+                Files.createDirectory(dir.toPath());
+                File log = new File(aWorkDir, "shard_" + i + ".log");
+                List<String> cmd = new ArrayList<>();
+                cmd.add(Path.of(System.getProperty("java.home"), "bin", "java")
+                        .toString());
+                cmd.addAll(mJvmArguments);
+                cmd.add("-cp");
+                cmd.add(System.getProperty("java.class.path"));
+                cmd.add(SplitWorker.class.getName());
+                cmd.add(cfgFile.getAbsolutePath());
+                cmd.add(aSource.getAbsolutePath());
+                cmd.add(String.valueOf(start));
+                cmd.add(String.valueOf(end));
+                cmd.add(dir.getAbsolutePath());
+                LOGGER.log(Level.DEBUG, "Will start worker for pages {0} to {1}.",
+                        start, end - 1);
+                processes.add(new ProcessBuilder(cmd).redirectErrorStream(true)
+                        .redirectOutput(log).start());
+                dirs.add(dir);
+                logs.add(log);
+            }
+
+            long deadline = System.currentTimeMillis() + mWorkerTimeout;
+            for (int i = 0; i < shardCount; i++)
+            {
+                Process p = processes.get(i);
+                if (!waitFor(p, deadline))
+                {
+                    throw new IOException("Worker " + i
+                            + " timed out, see log:\n" + readLog(logs.get(i)));
+                }
+                if (p.exitValue() != 0)
+                {
+                    throw new IOException("Worker " + i
+                            + " failed with exit code " + p.exitValue()
+                            + ", see log:\n" + readLog(logs.get(i)));
+                }
+                res.add(ShardResult.read(
+                        new File(dirs.get(i), SplitWorker.RESULT_FILE)));
+            }
+        }
+        finally
+        {
+            for (Process p : processes)
+            {
+                if (p.isAlive())
+                {
+                    p.destroyForcibly();
+                }
+            }
+        }
+        return res;
+    }
+
+
+    private boolean waitFor(Process aProcess, long aDeadline)
+        throws IOException
+    {
+        try
+        {
+            if (mWorkerTimeout <= 0L)
+            {
+                aProcess.waitFor();
+                return true;
+            }
+            return aProcess.waitFor(
+                    Math.max(0L, aDeadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for worker", ex);
+        }
+    }
+
+
+    /**
+     *
+     * @return the last lines of a worker log.
+     */
+    private static String readLog(File aLog)
+    {
+        try
+        {
+            List<String> lines = Files.readAllLines(aLog.toPath(),
+                    StandardCharsets.UTF_8);
+            return String.join("\n",
+                    lines.subList(Math.max(0, lines.size() - 20), lines.size()));
+        }
+        catch (IOException ex)
+        {
+            return ex.getMessage();
+        }
+    }
+
+
+    /**
+     * Write the documents that straddle shard boundaries from the source.
+     * All other pages are treated as split pages, so each range of the given
+     * pages becomes a document. This runs in the coordinator, so it uses the
+     * memory policy of the coordinator.
+     */
+    private void stitch(File aSource, BitSet aPages, File aWorkDir,
+        Map<Integer, ShardResult.Segment> aSegments)
+        throws IOException
+    {
+        File dir = new File(aWorkDir, "stitch");
+        Files.createDirectory(dir.toPath());
+        MemoryPolicy memPolicy = mMemoryPolicy != null ? mMemoryPolicy
+                : SplitWorker.createMemoryPolicy(mConfig);
+        ShardResult res = new SplitWorker(mConfig).split(aSource,
+                aPages.nextSetBit(0), aPages.length(), dir,
+                List.of((aDoc, aPage, aIndex) -> !aPages.get(aIndex)),
+                memPolicy);
+        LOGGER.log(Level.DEBUG, "Stitched {0} documents at shard boundaries.",
+                res.getSegments().size());
+        for (ShardResult.Segment s : res.getSegments())
+        {
+            aSegments.put(s.mFirstPage, s);
+        }
+    }
+
+
+    /**
+     * Move the documents to the target directory in page order. Unless the
+     * commit mode of the config is direct, the documents are published by an
+     * {@link OutputCommitter} from the work directory, which is in the target
+     * directory.
+     */
+    private List<File> publish(List<int[]> aDocs,
+        Map<Integer, ShardResult.Segment> aSegments)
+        throws IOException
+    {
+        OutputNameAllocator allocator = new OutputNameAllocator(
+                mTargetDirectory, mNamePattern);
+        OutputCommitter committer = OutputCommitter
+                .forName(mConfig.getConfigValS(PROP_OUTPUT_COMMIT, "atomic"));
+        committer.setBatchSize(
+                mConfig.getConfigValI(PROP_OUTPUT_COMMIT_BATCH_SIZE, 32));
+        committer.setBatchInterval(
+                mConfig.getConfigValI(PROP_OUTPUT_COMMIT_BATCH_INTERVAL, 1000));
+        boolean direct = committer.getMode() == OutputCommitter.MODE_DIRECT;
+        List<File> res = new ArrayList<>(aDocs.size());
+        try (OutputCommitter c = committer)
+        {
+            for (int[] doc : aDocs)
+            {
+                ShardResult.Segment s = aSegments.get(doc[0]);
+                if (s == null || s.mLastPage != doc[1])
+                {
+                    throw new IOException("No document for pages " + doc[0]
+                            + " to " + doc[1]);
+                }
+                File target = direct ? allocator.allocate()
+                        : allocator.reserve();
+                if (target == null)
+                {
+                    throw new IOException(
+                            "Can not create file for pages " + doc[0] + " to "
+                                    + doc[1] + " in " + mTargetDirectory);
+                }
+                if (direct)
+                {
+                    Files.move(s.mFile.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    res.add(target);
+                }
+                else
+                {
+                    // batch files are added in page order by the flush
+                    c.commit(s.mFile, target, res::add);
+                }
+            }
+        }
+        LOGGER.log(Level.INFO, "Wrote {0} documents to {1}.", res.size(),
+                mTargetDirectory);
+        return res;
+    }
+
+
+    private static void deleteRecursive(Path aPath)
+    {
+        try (Stream<Path> paths = Files.walk(aPath))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach((aFile) -> {
+                aFile.toFile().delete();
+            });
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Can not delete {0}: {1}", aPath,
+                    ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package de.code2be.pdfsplit.shard;
+
+import static de.code2be.pdfsplit.Config.PROP_DEADLINE_QR;
+import static de.code2be.pdfsplit.Config.PROP_DEADLINE_RENDER;
+import static de.code2be.pdfsplit.Config.PROP_IO_MAPPED;
+import static de.code2be.pdfsplit.Config.PROP_MEMORY_POLICY;
+import static de.code2be.pdfsplit.Config.PROP_MEMORY_THRESHOLD;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMPACT;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_LINEARIZED;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_PASS_THROUGH;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_RECOMPRESS;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_RECOMPRESS_DPI;
+import static de.code2be.pdfsplit.Config.PROP_RENDER_PROFILE_ANALYSIS;
+import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_MATCH_COUNT;
+import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_QR_CODE;
+import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_TEXT;
+import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_USE_QR;
+import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_USE_TEXT;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import de.code2be.pdfsplit.Config;
+import de.code2be.pdfsplit.MemoryPolicy;
+import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.PageWatchdog;
+import de.code2be.pdfsplit.RenderProfile;
+import de.code2be.pdfsplit.SmartSplitter;
+import de.code2be.pdfsplit.SplitStatusEvent;
+import de.code2be.pdfsplit.image.ImageRecompressor;
+import de.code2be.pdfsplit.split.ISplitPageIdentifier;
+import de.code2be.pdfsplit.split.QRCodeIdentifier;
+import de.code2be.pdfsplit.split.TextSplitIdentifier;
+
+/**
+ * The worker process of a {@link ShardedSplitter}. A worker splits the pages
+ * of its shard (a page range of the source file) with a {@link SmartSplitter}
+ * into its output directory and writes a {@link ShardResult} with the found
+ * split pages and the page ranges of the written documents. <br/>
+ * Usage:
+ *
+ * <pre>
+ * SplitWorker &lt;config file&gt; &lt;source file&gt; &lt;start page&gt; &lt;end page&gt; &lt;output directory&gt;
+ * </pre>
+ *
+ * The process exits with 0 if the result was written, 1 on errors and 2 on
+ * invalid arguments.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class SplitWorker
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(SplitWorker.class.getName());
+
+    /**
+     * The name of the result file in the output directory.
+     */
+    static final String RESULT_FILE = "shard.result";
+
+    /**
+     * The name pattern of the documents in the output directory.
+     */
+    static final String NAME_PATTERN = "part_{0}.pdf";
+
+    private final Config mConfig;
+
+    public SplitWorker(Config aConfig)
+    {
+        mConfig = aConfig;
+    }
+
+
+    public static void main(String[] args)
+    {
+        if (args.length != 5)
+        {
+            System.err.println("Usage: " + SplitWorker.class.getName()
+                    + " <config file> <source file> <start page> <end page> <output directory>");
+            System.exit(2);
+        }
+        try
+        {
+            Config cfg = Config.createDefaultConfig();
+            Config.loadConfig(cfg, new File(args[0]));
+            MemoryPolicy memPolicy = createMemoryPolicy(cfg);
+            if (memPolicy.getMode() == MemoryPolicy.MODE_AUTO)
+            {
+                memPolicy.install();
+            }
+            try
+            {
+                new SplitWorker(cfg).split(new File(args[1]),
+                        Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                        new File(args[4]),
+                        createSplitPageIdentifiers(cfg, new File(args[1])),
+                        memPolicy);
+            }
+            finally
+            {
+                memPolicy.uninstall();
+            }
+        }
+        catch (Exception ex)
+        {
+            LOGGER.log(Level.ERROR, ex.getMessage(), ex);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+
+    /**
+     * Create the memory policy configured in the given config. The policy is
+     * not installed.
+     *
+     * @param aConfig
+     *            the config.
+     * @return the memory policy.
+     */
+    static MemoryPolicy createMemoryPolicy(Config aConfig)
+    {
+        MemoryPolicy res = MemoryPolicy
+                .forName(aConfig.getConfigValS(PROP_MEMORY_POLICY, "auto"));
+        res.setUsageThreshold(
+                aConfig.getConfigValF(PROP_MEMORY_THRESHOLD, 0.75f));
+        return res;
+    }
+
+
+    /**
+     * Create the split page identifiers configured in the given config. Only
+     * the text layer and QR codes are used, workers do not support OCR (see
+     * {@link ShardedSplitter#split(File)}).
+     *
+     * @param aConfig
+     *            the config.
+     * @param aSource
+     *            the source file, renders use copies loaded from it.
+     * @return the identifiers.
+     */
+    static List<ISplitPageIdentifier> createSplitPageIdentifiers(
+        Config aConfig, File aSource)
+    {
+        List<ISplitPageIdentifier> res = new ArrayList<>();
+        if (aConfig.getConfigValB(PROP_SEPARATOR_USE_QR, true))
+        {
+            String qrCode = aConfig.getConfigValS(PROP_SEPARATOR_QR_CODE, null);
+            if (qrCode != null && qrCode.trim().length() > 0)
+            {
+                PageWatchdog watchdog = new PageWatchdog();
+                watchdog.setDeadline(PageWatchdog.STAGE_RENDER,
+                        aConfig.getConfigValI(PROP_DEADLINE_RENDER, 60000));
+                watchdog.setDeadline(PageWatchdog.STAGE_QR,
+                        aConfig.getConfigValI(PROP_DEADLINE_QR, 30000));
+                watchdog.setSourceFile(aSource);
+                QRCodeIdentifier qr = new QRCodeIdentifier(qrCode);
+                qr.setWatchdog(watchdog);
+                qr.setRenderProfile(RenderProfile.forName(aConfig.getConfigValS(
+                        PROP_RENDER_PROFILE_ANALYSIS, RenderProfile.ANALYSIS)));
+                res.add(qr);
+            }
+        }
+        if (aConfig.getConfigValB(PROP_SEPARATOR_USE_TEXT, true))
+        {
+            String sepStr = aConfig.getConfigValS(PROP_SEPARATOR_TEXT, null);
+            if (sepStr != null && sepStr.trim().length() > 0)
+            {
+                res.add(new TextSplitIdentifier(sepStr.split(";"),
+                        aConfig.getConfigValI(PROP_SEPARATOR_MATCH_COUNT, 1)));
+            }
+        }
+        return res;
+    }
+
+
+    /**
+     * Split a shard of the given source.
+     *
+     * @param aSource
+     *            the source file.
+     * @param aStartPage
+     *            the index of the first page of the shard.
+     * @param aEndPage
+     *            the index of the first page after the shard.
+     * @param aDirectory
+     *            the directory to write the documents and result to.
+     * @param aIdentifiers
+     *            the identifiers for split pages.
+     * @param aMemPolicy
+     *            the memory policy of the target documents. It is installed
+     *            by the caller, as it is global to the JVM.
+     * @return the result of the shard.
+     * @throws IOException
+     *             if the source can not be split.
+     */
+    ShardResult split(File aSource, int aStartPage, int aEndPage,
+        File aDirectory, List<ISplitPageIdentifier> aIdentifiers,
+        MemoryPolicy aMemPolicy)
+        throws IOException
+    {
+        ShardResult res = new ShardResult(aStartPage, aEndPage);
+
+        SmartSplitter ss = new SmartSplitter();
+        ss.setTargetDirectory(aDirectory);
+        ss.setNamePattern(NAME_PATTERN);
+        ss.setMemoryPolicy(aMemPolicy);
+        ss.setSourceFile(aSource);
+        ss.setPassThrough(
+                mConfig.getConfigValB(PROP_OUTPUT_PASS_THROUGH, false));
+        ss.setCompact(mConfig.getConfigValB(PROP_OUTPUT_COMPACT, false));
+        ss.setLinearized(mConfig.getConfigValB(PROP_OUTPUT_LINEARIZED, false));
+        if (mConfig.getConfigValB(PROP_OUTPUT_RECOMPRESS, false))
+        {
+            ImageRecompressor recompressor = new ImageRecompressor();
+            recompressor.setTargetDpi(
+                    mConfig.getConfigValI(PROP_OUTPUT_RECOMPRESS_DPI, 300));
+            ss.setImageRecompressor(recompressor);
+        }
+        ss.setStartPage(aStartPage);
+        ss.setEndPage(aEndPage);
+
+        // record the split pages found by any identifier
+        ss.addSplitPageIdentifier((aDoc, aPage, aIndex) -> {
+            for (ISplitPageIdentifier i : aIdentifiers)
+            {
+                if (i.isSplitPage(aDoc, aPage, aIndex))
+                {
+                    res.addSplitPage(aIndex);
+                    return true;
+                }
+            }
+            return false;
+        });
+
+        // record the page range of each written document
+        int[] range = new int[2];
+        ss.addStatusListener((aEvent) -> {
+            switch (aEvent.getID())
+            {
+                case SplitStatusEvent.EVENT_NEW_DOCUMENT:
+                    range[0] = aEvent.getCurrentPage();
+                    break;
+                case SplitStatusEvent.EVENT_NEXT_PAGE:
+                    range[1] = aEvent.getCurrentPage();
+                    break;
+                case SplitStatusEvent.EVENT_DOCUMENT_FINISHED:
+                    res.addSegment(range[0], range[1], aEvent.getFile());
+                    break;
+                default:
+                    break;
+            }
+        });
+
+        try (PDDocument doc = PDFHelper.loadPDF(aSource,
+                mConfig.getConfigValB(PROP_IO_MAPPED, false),
+                aMemPolicy.getStreamCache(aSource)))
+        {
+            for (PDDocument target : ss.split(doc))
+            {
+                target.close();
+            }
+        }
+        LOGGER.log(Level.INFO,
+                "Split pages {0} to {1} of {2} into {3} documents.",
+                aStartPage, aEndPage - 1, aSource, res.getSegments().size());
+        res.write(new File(aDirectory, RESULT_FILE));
+        return res;
+    }
+}
@@ -0,0 +1,28 @@
+package de.code2be.pdfsplit.split;
+
+import java.awt.image.BufferedImage;
+import java.util.EventListener;
+
+/**
+ * A listener that receives the images a split page identifier renders of the
+ * source pages, so they can be analyzed further (e.g. checked for being empty)
+ * without rendering the pages again.
+ * 
+ * @author Michael Weiss
+ *
+ */
+public interface IPageImageListener extends EventListener
+{
+
+    /**
+     * Called for each rendered page. This is called by the splitting thread,
+     * so the image should be handed over to another thread for analysis.
+     * 
+     * @param aPageIndex
+     *            the index of the page in the source document (starting at 0).
+     * @param aImage
+     *            the gray image of the page, rendered with 72 DPI. It must not
+     *            be modified.
+     */
+    void pageRendered(int aPageIndex, BufferedImage aImage);
+}
@@ -5,7 +5,6 @@ import java.awt.image.BufferedImage;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.rendering.ImageType;
-import org.apache.pdfbox.rendering.PDFRenderer;
 
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.LuminanceSource;
@@ -15,6 +14,9 @@ import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 import com.google.zxing.common.HybridBinarizer;
 import com.google.zxing.multi.qrcode.QRCodeMultiReader;
 
+import de.code2be.pdfsplit.PageWatchdog;
+import de.code2be.pdfsplit.RenderProfile;
+
 /**
  * A ISplitPageIdentifier that searches for an QR code for a given string to be
  * contained in the page.
@@ -32,6 +34,22 @@ public class QRCodeIdentifier implements ISplitPageIdentifier
      */
     private final String mSplitString;
 
+    /**
+     * The optional watchdog that limits the time for rendering and decoding.
+     */
+    private transient PageWatchdog mWatchdog;
+
+    /**
+     * The profile to render pages with.
+     */
+    private RenderProfile mRenderProfile = RenderProfile
+            .forName(RenderProfile.ANALYSIS);
+
+    /**
+     * The optional listener that gets the rendered pages.
+     */
+    private transient IPageImageListener mPageImageListener;
+
     /**
      * Create a new instance of the identifier for the given QR code string (the
      * value of the QR code as string).
@@ -56,29 +74,105 @@ public class QRCodeIdentifier implements ISplitPageIdentifier
     }
 
 
+    /**
+     * 
+     * @return the watchdog that limits the time for rendering and decoding or
+     *         null.
+     */
+    public PageWatchdog getWatchdog()
+    {
+        return mWatchdog;
+    }
+
+
+    /**
+     * 
+     * @param aWatchdog
+     *            the watchdog that limits the time for rendering
+     *            ({@link PageWatchdog#STAGE_RENDER}) and decoding
+     *            ({@link PageWatchdog#STAGE_QR}) of a page or null.
+     */
+    public void setWatchdog(PageWatchdog aWatchdog)
+    {
+        mWatchdog = aWatchdog;
+    }
+
+
+    /**
+     * 
+     * @return the profile pages are rendered with.
+     */
+    public RenderProfile getRenderProfile()
+    {
+        return mRenderProfile;
+    }
+
+
+    /**
+     * 
+     * @param aRenderProfile
+     *            the profile to render pages with, by default
+     *            {@link RenderProfile#ANALYSIS}.
+     */
+    public void setRenderProfile(RenderProfile aRenderProfile)
+    {
+        mRenderProfile = aRenderProfile;
+    }
+
+
+    /**
+     * 
+     * @return the listener that gets the rendered pages or null.
+     */
+    public IPageImageListener getPageImageListener()
+    {
+        return mPageImageListener;
+    }
+
+
+    /**
+     * 
+     * @param aPageImageListener
+     *            the listener that gets the rendered pages, e.g. to check them
+     *            for being empty, or null.
+     */
+    public void setPageImageListener(IPageImageListener aPageImageListener)
+    {
+        mPageImageListener = aPageImageListener;
+    }
+
+
     @Override
     public boolean isSplitPage(PDDocument aDocument, PDPage aPage,
             int aPageIndex)
         throws Exception
     {
-        BufferedImage img;
-        synchronized (aDocument)
+        BufferedImage img = PageWatchdog.render(mWatchdog, aDocument,
+                aPageIndex, (aDoc) -> mRenderProfile.createRenderer(aDoc)
+                        .renderImageWithDPI(aPageIndex, 72f, ImageType.GRAY));
+        IPageImageListener listener = mPageImageListener;
+        if (listener != null)
         {
-            img = new PDFRenderer(aDocument).renderImageWithDPI(aPageIndex,
-                    72f, ImageType.GRAY);
+            listener.pageRendered(aPageIndex, img);
         }
         LuminanceSource source = new BufferedImageLuminanceSource(img);
         BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
 
-        Result[] results;
-        try
-        {
-            results = new QRCodeMultiReader().decodeMultiple(bitmap);
-        }
-        catch (NotFoundException ex)
+        Result[] results = PageWatchdog.call(mWatchdog, PageWatchdog.STAGE_QR,
+                aPageIndex, () -> {
+                    try
+                    {
+                        return new QRCodeMultiReader().decodeMultiple(bitmap);
+                    }
+                    catch (NotFoundException ex)
+                    {
+                        // simply ignore this as it is expected that no all
+                        // pages have a QR code
+                        return null;
+                    }
+                });
+        if (results == null)
         {
-            // simply ignore this as it is expected that no all pages have a QR
-            // code
             return false;
         }
 
@@ -1,15 +1,22 @@
 package de.code2be.pdfsplit.split;
 
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.util.function.Supplier;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
+import de.code2be.pdfsplit.PageTimeoutException;
+import de.code2be.pdfsplit.PageWatchdog;
+import de.code2be.pdfsplit.RenderAbandonedException;
+import de.code2be.pdfsplit.image.ImagePreprocessor;
 import net.sourceforge.tess4j.Tesseract;
 
 /**
@@ -46,6 +53,22 @@ public class TextSplitIdentifierOCR extends TextSplitIdentifier
      */
     private float mScale = 3.0f;
 
+    /**
+     * The optional image pre-processing to apply to rendered pages before OCR.
+     */
+    private ImagePreprocessor mPreprocessor;
+
+    /**
+     * The optional watchdog that limits the time for rendering and OCR.
+     */
+    private transient PageWatchdog mWatchdog;
+
+    /**
+     * Creates a new tesseract instance if the current one is abandoned after
+     * an OCR timeout.
+     */
+    private transient Supplier<? extends Tesseract> mTesseractSupplier;
+
     /**
      * Create a new instance of the identifier.
      * 
@@ -94,6 +117,30 @@ public class TextSplitIdentifierOCR extends TextSplitIdentifier
     }
 
 
+    /**
+     * 
+     * @param aPreprocessor
+     *            the image pre-processing to apply to rendered pages before
+     *            OCR. If this is null, pages are rendered as binary image and
+     *            passed to OCR without further processing.
+     */
+    public void setPreprocessor(ImagePreprocessor aPreprocessor)
+    {
+        mPreprocessor = aPreprocessor;
+    }
+
+
+    /**
+     * 
+     * @return the image pre-processing applied before OCR or null if none is
+     *         used.
+     */
+    public ImagePreprocessor getPreprocessor()
+    {
+        return mPreprocessor;
+    }
+
+
     /**
      * 
      * @param aTesseract
@@ -105,6 +152,56 @@ public class TextSplitIdentifierOCR extends TextSplitIdentifier
     }
 
 
+    /**
+     * 
+     * @return the tesseract instance used for OCR. This is not the instance
+     *         set before if that one was abandoned after an OCR timeout.
+     */
+    public Tesseract getTesseract()
+    {
+        return mTesseract;
+    }
+
+
+    /**
+     * 
+     * @param aTesseractSupplier
+     *            creates a new tesseract instance if the current one is still
+     *            busy with an abandoned page after an OCR timeout. The
+     *            abandoned instance is not used anymore and closed (if it is
+     *            {@link Closeable}) when the abandoned page is done.
+     */
+    public void setTesseractSupplier(
+        Supplier<? extends Tesseract> aTesseractSupplier)
+    {
+        mTesseractSupplier = aTesseractSupplier;
+    }
+
+
+    /**
+     * 
+     * @param aWatchdog
+     *            the watchdog that limits the time for rendering
+     *            ({@link PageWatchdog#STAGE_RENDER}) and OCR
+     *            ({@link PageWatchdog#STAGE_OCR}) of a page or null.
+     */
+    public void setWatchdog(PageWatchdog aWatchdog)
+    {
+        mWatchdog = aWatchdog;
+    }
+
+
+    /**
+     * 
+     * @return the watchdog that limits the time for rendering and OCR or
+     *         null.
+     */
+    public PageWatchdog getWatchdog()
+    {
+        return mWatchdog;
+    }
+
+
     /**
      * 
      * @return the force OCR flag value.
@@ -137,14 +234,35 @@ public class TextSplitIdentifierOCR extends TextSplitIdentifier
                 mTesseract.setDatapath(dataPath.getAbsolutePath());
                 // mTesseract.setOcrEngineMode(TessOcrEngineMode.OEM_TESSERACT_ONLY);
             }
-            BufferedImage img;
-            synchronized (aDocument)
+            ImagePreprocessor preprocessor = mPreprocessor;
+            BufferedImage img = PageWatchdog.render(mWatchdog, aDocument,
+                    aPageIndex,
+                    (aDoc) -> new PDFRenderer(aDoc).renderImage(aPageIndex,
+                            mScale, preprocessor != null ? ImageType.GRAY
+                                    : ImageType.BINARY));
+            if (preprocessor != null)
             {
-                img = new PDFRenderer(aDocument).renderImage(aPageIndex, mScale,
-                        ImageType.BINARY);
+                img = preprocessor.process(img).toBufferedImage();
             }
 
-            String ocrText = mTesseract.doOCR(img);
+            Tesseract tesseract = mTesseract;
+            BufferedImage ocrImg = img;
+            String ocrText;
+            try
+            {
+                ocrText = PageWatchdog.call(mWatchdog, PageWatchdog.STAGE_OCR,
+                        aPageIndex, () -> tesseract.doOCR(ocrImg),
+                        () -> closeAbandoned(tesseract));
+            }
+            catch (PageTimeoutException ex)
+            {
+                // the instance is still busy with this page, it is closed
+                // when the page is done
+                mTesseract = mTesseractSupplier != null
+                        ? mTesseractSupplier.get()
+                        : null;
+                throw ex;
+            }
             if (ocrText != null)
             {
                 // we have OCR text --> return original and OCR text
@@ -158,6 +276,16 @@ public class TextSplitIdentifierOCR extends TextSplitIdentifier
                 return sb.toString();
             }
         }
+        catch (PageTimeoutException ex)
+        {
+            LOGGER.log(Level.WARNING, "Using text layer only: {0}",
+                    ex.getMessage());
+        }
+        catch (RenderAbandonedException ex)
+        {
+            // the document is still in use by the abandoned render
+            throw ex;
+        }
         catch (Exception ex)
         {
             LOGGER.log(Level.ERROR, ex.getMessage(), ex);
@@ -165,4 +293,24 @@ public class TextSplitIdentifierOCR extends TextSplitIdentifier
         return text;
     }
 
+
+    /**
+     * Close a tesseract instance once its abandoned OCR finished.
+     */
+    private static void closeAbandoned(Tesseract aTesseract)
+    {
+        if (aTesseract instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable) aTesseract).close();
+            }
+            catch (IOException ex)
+            {
+                LOGGER.log(Level.DEBUG, "Can not close tesseract: {0}",
+                        ex.toString());
+            }
+        }
+    }
+
 }
@@ -0,0 +1,412 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A cache for preview images on disk, so the pages of a document that is
+ * opened again are shown without rendering them. The images are stored as PNG
+ * files, named by a key of the document (built from the hash of the file
+ * content), the page and the image size. PNG keeps the formats of
+ * {@link ThumbnailCache#compact(BufferedImage)}, so a black and white page is
+ * stored with 1 bit per pixel and a gray page with 8 bit before compression.
+ * <br/>
+ * The cache has a size limit. If it is exceeded, the least recently used files
+ * are deleted. The time of use is the last modified time of a file, which is
+ * updated on each read, so the order survives a restart.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class DiskThumbnailCache
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(DiskThumbnailCache.class.getName());
+
+    private static final String SUFFIX = ".png";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static DiskThumbnailCache sDefault;
+
+    /**
+     * The directory of the cache, null if the cache is disabled.
+     */
+    private File mDirectory;
+
+    /**
+     * The maximum number of bytes of all cached files.
+     */
+    private long mBudget = 256L * 1024L * 1024L;
+
+    /**
+     * The current number of bytes of all cached files.
+     */
+    private long mSize = 0L;
+
+    private long mHitCount = 0L;
+
+    private long mMissCount = 0L;
+
+    private long mEvictionCount = 0L;
+
+    /**
+     * The names of the cached files with their length in access order, the
+     * least recently used first.
+     */
+    private final LinkedHashMap<String, Long> mFiles = new LinkedHashMap<>(256,
+            0.75f, true);
+
+    /**
+     *
+     * @return the cache shared by all page panels. It is disabled until a
+     *         directory is set.
+     */
+    public static synchronized DiskThumbnailCache getDefault()
+    {
+        if (sDefault == null)
+        {
+            sDefault = new DiskThumbnailCache();
+        }
+        return sDefault;
+    }
+
+
+    /**
+     * Set the directory of the cache. The files already in the directory are
+     * taken over, the least recently used are deleted if they exceed the
+     * budget.
+     *
+     * @param aDirectory
+     *            the directory, it is created if it does not exist. Null to
+     *            disable the cache.
+     */
+    public synchronized void setDirectory(File aDirectory)
+    {
+        File dir = aDirectory != null ? aDirectory.getAbsoluteFile() : null;
+        if (dir == null ? mDirectory == null : dir.equals(mDirectory))
+        {
+            return;
+        }
+        mFiles.clear();
+        mSize = 0L;
+        mDirectory = null;
+        if (dir == null)
+        {
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs())
+        {
+            LOGGER.log(Level.WARNING,
+                    "Can not create preview cache directory {0}.", dir);
+            return;
+        }
+        mDirectory = dir;
+        File[] files = dir.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files)
+        {
+            if (f.getName().endsWith(TEMP_SUFFIX))
+            {
+                // left over by a write that did not finish
+                delete(f);
+            }
+            else if (f.isFile() && f.getName().endsWith(SUFFIX))
+            {
+                mFiles.put(f.getName(), Long.valueOf(f.length()));
+                mSize += f.length();
+            }
+        }
+        evict(null);
+        LOGGER.log(Level.DEBUG, "Opened preview cache {0}: {1}", dir, this);
+    }
+
+
+    /**
+     *
+     * @return the directory of the cache or null if it is disabled.
+     */
+    public synchronized File getDirectory()
+    {
+        return mDirectory;
+    }
+
+
+    /**
+     *
+     * @return true if the cache has a directory to store images in.
+     */
+    public synchronized boolean isEnabled()
+    {
+        return mDirectory != null;
+    }
+
+
+    /**
+     *
+     * @param aBudget
+     *            the maximum number of bytes of all cached files.
+     */
+    public synchronized void setBudget(long aBudget)
+    {
+        mBudget = aBudget;
+        evict(null);
+    }
+
+
+    /**
+     *
+     * @return the maximum number of bytes of all cached files.
+     */
+    public synchronized long getBudget()
+    {
+        return mBudget;
+    }
+
+
+    /**
+     *
+     * @return the current number of bytes of all cached files.
+     */
+    public synchronized long getSize()
+    {
+        return mSize;
+    }
+
+
+    /**
+     *
+     * @return the number of cached images.
+     */
+    public synchronized int getCount()
+    {
+        return mFiles.size();
+    }
+
+
+    /**
+     *
+     * @return the number of files deleted to stay within the budget.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return mEvictionCount;
+    }
+
+
+    /**
+     * Read an image from the cache.
+     *
+     * @param aDocKey
+     *            the key of the document, see {@link #put}.
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aSize
+     *            the size the image was stored with.
+     * @return the image or null if it is not cached or can not be read.
+     */
+    public BufferedImage get(String aDocKey, int aPageIndex, Dimension aSize)
+    {
+        String name = getFileName(aDocKey, aPageIndex, aSize);
+        File file;
+        synchronized (this)
+        {
+            if (mDirectory == null || mFiles.get(name) == null)
+            {
+                mMissCount++;
+                return null;
+            }
+            file = new File(mDirectory, name);
+        }
+        try
+        {
+            BufferedImage img = ImageIO.read(file);
+            if (img == null)
+            {
+                throw new IOException("Unknown image format");
+            }
+            // the file time keeps the order of use for the next start
+            file.setLastModified(System.currentTimeMillis());
+            synchronized (this)
+            {
+                mHitCount++;
+            }
+            return restoreGray(img);
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.DEBUG, "Can not read cached preview {0}: {1}",
+                    file, ex.toString());
+            synchronized (this)
+            {
+                mMissCount++;
+                remove(name);
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * Store an image in the cache. Least recently used files are deleted until
+     * the cache is within its budget again, the new file is kept in any case.
+     * Errors are logged only, the image is just not cached then.
+     *
+     * @param aDocKey
+     *            the key of the document. It has to change with the content
+     *            of the document and must be usable in a file name.
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aSize
+     *            the size the image is requested with, which can differ from
+     *            the size of the image itself.
+     * @param aImage
+     *            the image.
+     */
+    public void put(String aDocKey, int aPageIndex, Dimension aSize,
+        BufferedImage aImage)
+    {
+        String name = getFileName(aDocKey, aPageIndex, aSize);
+        File dir;
+        synchronized (this)
+        {
+            dir = mDirectory;
+        }
+        if (dir == null)
+        {
+            return;
+        }
+        File file = new File(dir, name);
+        File temp = new File(dir, name + "." + Thread.currentThread().getId()
+                + TEMP_SUFFIX);
+        try
+        {
+            // a reader never sees a partly written file
+            if (!ImageIO.write(aImage, "png", temp))
+            {
+                throw new IOException("No PNG writer");
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.DEBUG, "Can not write cached preview {0}: {1}",
+                    file, ex.toString());
+            delete(temp);
+            return;
+        }
+        synchronized (this)
+        {
+            if (!dir.equals(mDirectory))
+            {
+                return;
+            }
+            Long old = mFiles.put(name, Long.valueOf(file.length()));
+            if (old != null)
+            {
+                mSize -= old.longValue();
+            }
+            mSize += file.length();
+            evict(name);
+        }
+    }
+
+
+    /**
+     * Build the name of the file of an image.
+     *
+     * @return the file name.
+     */
+    static String getFileName(String aDocKey, int aPageIndex, Dimension aSize)
+    {
+        return aDocKey + "_" + aPageIndex + "_" + aSize.width + "x"
+                + aSize.height + SUFFIX;
+    }
+
+
+    private void remove(String aName)
+    {
+        Long len = mFiles.remove(aName);
+        if (len != null)
+        {
+            mSize -= len.longValue();
+            delete(new File(mDirectory, aName));
+        }
+    }
+
+
+    private void evict(String aKeep)
+    {
+        Iterator<Map.Entry<String, Long>> it = mFiles.entrySet().iterator();
+        while (mSize > mBudget && it.hasNext())
+        {
+            Map.Entry<String, Long> e = it.next();
+            if (e.getKey().equals(aKeep))
+            {
+                continue;
+            }
+            mSize -= e.getValue().longValue();
+            mEvictionCount++;
+            it.remove();
+            delete(new File(mDirectory, e.getKey()));
+        }
+    }
+
+
+    private static void delete(File aFile)
+    {
+        try
+        {
+            Files.deleteIfExists(aFile.toPath());
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.DEBUG, "Can not delete cached preview {0}: {1}",
+                    aFile, ex.toString());
+        }
+    }
+
+
+    /**
+     * PNG stores the gray palette of {@link ThumbnailCache#compact} as gray
+     * image, which is read with a linear color space. This restores the
+     * palette, so the gray values are shown unchanged.
+     */
+    private static BufferedImage restoreGray(BufferedImage aImage)
+    {
+        if (aImage.getType() != BufferedImage.TYPE_BYTE_GRAY)
+        {
+            return aImage;
+        }
+        return new BufferedImage(ThumbnailCache.GRAY_PALETTE,
+                aImage.getRaster(), false, null);
+    }
+
+
+    @Override
+    public synchronized String toString()
+    {
+        return mFiles.size() + " images, " + mSize / 1024L + "KB of "
+                + mBudget / 1024L + "KB, " + mHitCount + " hits, "
+                + mMissCount + " misses, " + mEvictionCount + " evictions";
+    }
+}
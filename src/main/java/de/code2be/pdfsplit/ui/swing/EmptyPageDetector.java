@@ -0,0 +1,177 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import java.awt.image.BufferedImage;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import de.code2be.pdfsplit.EmptyPageChecker;
+import de.code2be.pdfsplit.split.IPageImageListener;
+
+/**
+ * Detects the empty pages of split documents on a few worker threads, so
+ * splitting does not wait for it. Empty pages are disabled in their
+ * {@link PDFDocumentPanel} as the results arrive. <br/>
+ * Pages already rendered while splitting (e.g. by the QR code search) are
+ * handed over as {@link IPageImageListener} and checked right away. The pages
+ * of a finished document use these results by their source page index, only
+ * the other pages are rendered again.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class EmptyPageDetector implements IPageImageListener
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(EmptyPageDetector.class.getName());
+
+    private final ExecutorService mExecutor;
+
+    /**
+     * Creates a configured checker for a document, null for checking images
+     * only.
+     */
+    private final Function<PDDocument, EmptyPageChecker> mCheckerFactory;
+
+    /**
+     * The results for the images of the source pages rendered while
+     * splitting, by source page index.
+     */
+    private final Map<Integer, CompletableFuture<Boolean>> mSourceResults = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new detector.
+     *
+     * @param aThreadCount
+     *            the number of worker threads.
+     * @param aCheckerFactory
+     *            creates a configured checker for a document. The document is
+     *            null if only images are checked.
+     */
+    public EmptyPageDetector(int aThreadCount,
+            Function<PDDocument, EmptyPageChecker> aCheckerFactory)
+    {
+        mCheckerFactory = aCheckerFactory;
+        AtomicInteger count = new AtomicInteger();
+        mExecutor = Executors.newFixedThreadPool(aThreadCount, (aRunnable) -> {
+            Thread t = new Thread(aRunnable,
+                    "EmptyPageCheck-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    /**
+     * Forget the results of the source pages, e.g. when a new source
+     * document is split. Documents already queued keep their results.
+     */
+    public void clearSourceResults()
+    {
+        mSourceResults.clear();
+    }
+
+
+    /**
+     * Check an image of a source page rendered while splitting.
+     */
+    @Override
+    public void pageRendered(int aPageIndex, BufferedImage aImage)
+    {
+        mSourceResults.put(Integer.valueOf(aPageIndex),
+                CompletableFuture.supplyAsync(() -> Boolean.valueOf(
+                        mCheckerFactory.apply(null).isImageEmpty(aImage)),
+                        mExecutor));
+    }
+
+
+    /**
+     * Queue the detection of the empty pages of a document. This returns at
+     * once, empty pages are disabled in the panel on the event dispatch
+     * thread as they are detected.
+     *
+     * @param aPanel
+     *            the panel of the document.
+     * @param aSourcePages
+     *            the index of the source page for each page of the document
+     *            or null if not known.
+     * @return a future that is completed when all pages are checked.
+     */
+    public CompletableFuture<Void> checkDocument(PDFDocumentPanel aPanel,
+        int[] aSourcePages)
+    {
+        int pageCount = aPanel.getPageCount();
+        CompletableFuture<?>[] pages = new CompletableFuture<?>[pageCount];
+        int reused = 0;
+        for (int idx = 0; idx < pageCount; idx++)
+        {
+            int pageIndex = idx;
+            CompletableFuture<Boolean> res = null;
+            if (aSourcePages != null && aSourcePages.length == pageCount)
+            {
+                res = mSourceResults
+                        .get(Integer.valueOf(aSourcePages[pageIndex]));
+            }
+            if (res != null)
+            {
+                reused++;
+            }
+            else
+            {
+                res = CompletableFuture.supplyAsync(
+                        () -> Boolean.valueOf(checkPage(aPanel, pageIndex)),
+                        mExecutor);
+            }
+            pages[idx] = res.thenAccept((aEmpty) -> {
+                if (aEmpty.booleanValue())
+                {
+                    SwingUtilities.invokeLater(
+                            () -> aPanel.setPageEnabled(pageIndex, false));
+                }
+            }).exceptionally((aEx) -> {
+                LOGGER.log(Level.WARNING,
+                        "Can not check page {0} of {1} for being empty: {2}",
+                        pageIndex, aPanel.getName(), aEx.toString());
+                return null;
+            });
+        }
+        LOGGER.log(Level.DEBUG,
+                "Will check {0} pages of {1} for being empty, {2} from split images.",
+                pageCount, aPanel.getName(), reused);
+        return CompletableFuture.allOf(pages);
+    }
+
+
+    private boolean checkPage(PDFDocumentPanel aPanel, int aPageIndex)
+    {
+        // loads a released document again
+        PDDocument doc = aPanel.getDocument();
+        PDPage page;
+        synchronized (doc)
+        {
+            page = doc.getPage(aPageIndex);
+        }
+        return mCheckerFactory.apply(doc).isPageEmpty(page, aPageIndex);
+    }
+
+
+    /**
+     * Stop the worker threads. Queued checks are dropped.
+     */
+    public void shutdown()
+    {
+        mExecutor.shutdownNow();
+    }
+}
@@ -1,15 +1,20 @@
 package de.code2be.pdfsplit.ui.swing;
 
+import static de.code2be.pdfsplit.Config.PROP_IO_MAPPED;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_LINEARIZED;
+import static de.code2be.pdfsplit.Config.PROP_RENDER_PROFILE_PREVIEW;
+
 import java.awt.BorderLayout;
-import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
+import java.awt.event.HierarchyEvent;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
-import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 import javax.swing.JLabel;
@@ -19,10 +24,11 @@ import javax.swing.JScrollPane;
 import javax.swing.SwingUtilities;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
 
 import de.code2be.help.I18n;
 import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.RenderProfile;
+import de.code2be.pdfsplit.io.LinearizedWriter;
 
 public class PDFDocumentPanel extends JPanel
 {
@@ -34,28 +40,83 @@ public class PDFDocumentPanel extends JPanel
 
     private final PDFSplitFrame mFrame;
 
-    private final PDDocument mDocument;
+    /**
+     * The document, null while it is released.
+     */
+    private PDDocument mDocument;
+
+    /**
+     * The number of pages of the document, which is known while it is
+     * released.
+     */
+    private final int mPageCount;
+
+    /**
+     * The file the document can be loaded from again, null if it has to be
+     * kept open (e.g. the file was overwritten by saving).
+     */
+    private File mSourceFile;
+
+    /**
+     * The time of the last access to the document.
+     */
+    private long mLastUse = System.currentTimeMillis();
+
+    private final Object mDocumentLock = new Object();
 
     private Dimension mPageSize;
 
+    /**
+     * The panel of the pages, created when the panel is shown for the first
+     * time.
+     */
     private PDFPagesPanel mMainPanel;
 
     private File mFile;
 
     private JLabel mLblFileName;
 
-    private final JScrollPane mScrollPane;
+    private JScrollPane mScrollPane;
 
     private boolean mUnsaved = true;
 
+    /**
+     * The indexes of the pages that are not enabled, i.e. will not be
+     * included in the saved document.
+     */
+    private final BitSet mDisabledPages = new BitSet();
+
+    /**
+     * The profile to render page previews with.
+     */
+    private final RenderProfile mRenderProfile;
+
+    /**
+     * The key of the previews of the document in the
+     * {@link DiskThumbnailCache}, null if they are not cached on disk.
+     */
+    private String mDiskCacheKey;
+
+    /**
+     * True if {@link #mDiskCacheKey} is computed or must no longer be
+     * computed, because the file does not match the pages any more.
+     */
+    private boolean mDiskCacheKeyDone = false;
+
+    private final Object mDiskCacheLock = new Object();
+
     public PDFDocumentPanel(PDFSplitFrame aFrame, PDDocument aDocument,
             File aFile)
     {
         mFrame = aFrame;
         mDocument = aDocument;
+        mPageCount = aDocument.getNumberOfPages();
         mFile = aFile;
-        mMainPanel = new PDFPagesPanel();
-
+        mSourceFile = aFile;
+        mRenderProfile = RenderProfile.forName(mFrame != null
+                ? mFrame.getConfig().getConfigValS(PROP_RENDER_PROFILE_PREVIEW,
+                        RenderProfile.PREVIEW)
+                : RenderProfile.PREVIEW);
         int pageWidth = 200;
         int pageHeight = (int) ((297.0d / 210.0d) * pageWidth);
         mPageSize = new Dimension(pageWidth, pageHeight);
@@ -67,42 +128,64 @@ public class PDFDocumentPanel extends JPanel
         mLblFileName.setFont(mLblFileName.getFont().deriveFont(16.0f));
 
         add(pnlTop, BorderLayout.NORTH);
-        add(mScrollPane = new JScrollPane(mMainPanel), BorderLayout.CENTER);
-        mScrollPane.setHorizontalScrollBarPolicy(
-                JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-        mScrollPane.setVerticalScrollBarPolicy(
-                JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
-        mScrollPane.addMouseWheelListener((aE) -> {
-
-            mFrame.zoomOnMouseWheel(aE);
-            if (!aE.isConsumed())
+        addHierarchyListener((aE) -> {
+            if ((aE.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0
+                    && isShowing())
             {
-                mScrollPane.getParent().dispatchEvent(aE);
+                showPages();
             }
-
         });
         refillPages();
         updateStatusLabel();
     }
 
 
+    /**
+     * Create the panel of the pages when the panel is shown for the first
+     * time, e.g. its tab is selected. Tabs that are never selected have no
+     * page panel at all. The cells of a released document are filled again.
+     */
+    protected void showPages()
+    {
+        if (mMainPanel == null)
+        {
+            mMainPanel = new PDFPagesPanel(this);
+            mMainPanel.setPreviewSize(mPageSize);
+            add(mScrollPane = new JScrollPane(mMainPanel),
+                    BorderLayout.CENTER);
+            mScrollPane.setHorizontalScrollBarPolicy(
+                    JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+            mScrollPane.setVerticalScrollBarPolicy(
+                    JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
+            mScrollPane.getViewport().addChangeListener(
+                    (aE) -> mMainPanel.updateCells());
+            mScrollPane.addMouseWheelListener((aE) -> {
+
+                mFrame.zoomOnMouseWheel(aE);
+                if (!aE.isConsumed())
+                {
+                    mScrollPane.getParent().dispatchEvent(aE);
+                }
+
+            });
+            revalidate();
+        }
+        if (mMainPanel.getPageCount() != mPageCount)
+        {
+            mMainPanel.setPageCount(mPageCount);
+        }
+    }
+
+
     protected void updateStatusLabel()
     {
         StringBuilder sb = new StringBuilder("<html>");
         sb.append(I18n.getMessage(PDFDocumentPanel.class,
                 "main.fileInfo.fileName",
                 (mFile != null) ? mFile.getAbsolutePath() : ""));
-        List<PDFPagePanel> pages = getPagePanels();
-        int enabled = 0;
-        for (PDFPagePanel page : pages)
-        {
-            if (page.isPageEnabled())
-            {
-                enabled++;
-            }
-        }
         sb.append("<br/>").append(I18n.getMessage(PDFDocumentPanel.class,
-                "main.fileInfo.pages", enabled, pages.size()));
+                "main.fileInfo.pages", getEnabledPageCount(),
+                getPageCount()));
 
         SwingUtilities.invokeLater(() -> {
             mLblFileName.setText(sb.toString());
@@ -110,15 +193,144 @@ public class PDFDocumentPanel extends JPanel
     }
 
 
+    /**
+     * Get the document of the panel. A released document is loaded again from
+     * its file.
+     * 
+     * @return the document.
+     * @throws UncheckedIOException
+     *             if a released document can not be loaded.
+     */
     public PDDocument getDocument()
     {
-        return mDocument;
+        synchronized (mDocumentLock)
+        {
+            mLastUse = System.currentTimeMillis();
+            if (mDocument == null)
+            {
+                if (mSourceFile == null)
+                {
+                    throw new IllegalStateException("The document is closed.");
+                }
+                try
+                {
+                    LOGGER.log(Level.DEBUG, "Will load released document {0}.",
+                            mSourceFile);
+                    PDDocument doc = PDFHelper.loadPDF(mSourceFile,
+                            mFrame != null && mFrame.getConfig()
+                                    .getConfigValB(PROP_IO_MAPPED, false),
+                            null);
+                    if (doc.getNumberOfPages() != mPageCount)
+                    {
+                        doc.close();
+                        throw new IOException("The file " + mSourceFile
+                                + " has changed, it has "
+                                + doc.getNumberOfPages() + " instead of "
+                                + mPageCount + " pages.");
+                    }
+                    mDocument = doc;
+                }
+                catch (IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return mDocument;
+        }
+    }
+
+
+    /**
+     * Close the document to free its memory, if it can be loaded again from
+     * its file. The enabled state of the pages is kept. The document is
+     * loaded again by the next call of {@link #getDocument()}. This has to be
+     * called on the event dispatch thread.
+     * 
+     * @return true if the document was released.
+     */
+    public boolean releaseDocument()
+    {
+        PDDocument doc;
+        synchronized (mDocumentLock)
+        {
+            doc = mDocument;
+            if (doc == null || mSourceFile == null || !mSourceFile.isFile())
+            {
+                return false;
+            }
+            mDocument = null;
+        }
+        if (mMainPanel != null)
+        {
+            // the cells keep the document in their preview keys
+            mMainPanel.setPageCount(0);
+        }
+        PDFPagePanel.releaseImages(doc);
+        try
+        {
+            // a running render finishes first
+            synchronized (doc)
+            {
+                doc.close();
+            }
+            LOGGER.log(Level.DEBUG, "Released document {0}.", mSourceFile);
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Can not close document {0}: {1}",
+                    mSourceFile, ex.toString());
+        }
+        if (isShowing())
+        {
+            showPages();
+        }
+        return true;
+    }
+
+
+    /**
+     * 
+     * @return true if the document is loaded, false if it is released.
+     */
+    public boolean isDocumentLoaded()
+    {
+        synchronized (mDocumentLock)
+        {
+            return mDocument != null;
+        }
+    }
+
+
+    /**
+     * 
+     * @return the time in ms since the document was accessed the last time.
+     */
+    public long getIdleTime()
+    {
+        synchronized (mDocumentLock)
+        {
+            return System.currentTimeMillis() - mLastUse;
+        }
     }
 
 
     public void setPreviewSize(Dimension aSize)
     {
-        mMainPanel.setPreviewSize(aSize);
+        mPageSize = aSize;
+        if (mMainPanel != null)
+        {
+            mMainPanel.setPreviewSize(aSize);
+        }
+    }
+
+
+    /**
+     * 
+     * @return the profile to render page previews with.
+     */
+    public RenderProfile getRenderProfile()
+    {
+        return mRenderProfile;
     }
 
 
@@ -166,16 +378,33 @@ public class PDFDocumentPanel extends JPanel
         }
         try
         {
-            PDDocument newDoc = PDFHelper.createNewDocument(null, mDocument);
+            PDDocument doc = getDocument();
+            PDDocument newDoc = PDFHelper.createNewDocument(null, doc);
 
-            for (PDFPagePanel p : getPagePanels())
+            for (int i = 0; i < mPageCount; i++)
             {
-                if (p.isPageEnabled())
+                if (isPageEnabled(i))
                 {
-                    PDFHelper.importPage(newDoc, p.getPage());
+                    PDFHelper.importPage(newDoc, doc.getPage(i));
                 }
             }
-            newDoc.save(mFile);
+            if (mFile.getAbsoluteFile().equals(mSourceFile != null
+                    ? mSourceFile.getAbsoluteFile()
+                    : null))
+            {
+                // the saved file has no disabled pages, so the document can
+                // not be loaded from it again
+                dropSourceFile();
+            }
+            if (mFrame != null && mFrame.getConfig()
+                    .getConfigValB(PROP_OUTPUT_LINEARIZED, false))
+            {
+                new LinearizedWriter(newDoc).write(mFile);
+            }
+            else
+            {
+                newDoc.save(mFile);
+            }
             setUnsaved(false);
         }
         catch (Exception ex)
@@ -187,6 +416,67 @@ public class PDFDocumentPanel extends JPanel
     }
 
 
+    /**
+     * The key of the previews of this document in the
+     * {@link DiskThumbnailCache}. It is built from the hash of the source file
+     * content, the number of pages and the render profile, so it is computed
+     * on first use by a render thread.
+     * 
+     * @return the key or null if the previews are not cached on disk, e.g.
+     *         because the cache is disabled or the file does not exist.
+     */
+    public String getDiskCacheKey()
+    {
+        synchronized (mDiskCacheLock)
+        {
+            if (!mDiskCacheKeyDone)
+            {
+                mDiskCacheKeyDone = true;
+                File file;
+                synchronized (mDocumentLock)
+                {
+                    file = mSourceFile;
+                }
+                if (file != null && file.isFile()
+                        && DiskThumbnailCache.getDefault().isEnabled())
+                {
+                    try
+                    {
+                        mDiskCacheKey = PDFHelper.computeHash(file) + "-"
+                                + mPageCount + "-" + mRenderProfile.getName();
+                    }
+                    catch (IOException ex)
+                    {
+                        LOGGER.log(Level.WARNING,
+                                "Can not compute hash of {0}: {1}", file,
+                                ex.toString());
+                    }
+                }
+            }
+            return mDiskCacheKey;
+        }
+    }
+
+
+    /**
+     * Forget the source file, as it no longer matches the pages of the
+     * document. The document is kept open from now on. A disk cache key
+     * already computed stays valid, as it describes the pages, otherwise the
+     * previews are no longer cached on disk.
+     */
+    private void dropSourceFile()
+    {
+        synchronized (mDocumentLock)
+        {
+            mSourceFile = null;
+        }
+        synchronized (mDiskCacheLock)
+        {
+            mDiskCacheKeyDone = true;
+        }
+    }
+
+
     public void saveAs(File aFile)
     {
         setFile(aFile);
@@ -216,72 +506,115 @@ public class PDFDocumentPanel extends JPanel
 
     public int getPageCount()
     {
-        return mDocument.getNumberOfPages();
+        return mPageCount;
     }
 
 
     public int getEnabledPageCount()
     {
-        int res = 0;
-        for (Component c : mMainPanel.getComponents())
+        return getPageCount() - mDisabledPages.cardinality();
+    }
+
+
+    /**
+     * 
+     * @param aPageIndex
+     *            the index of a page.
+     * @return true if the page is enabled, false otherwise. <br/>
+     *         An enabled page is saved into a target document, where as an not
+     *         enabled page is removed.
+     */
+    public boolean isPageEnabled(int aPageIndex)
+    {
+        return !mDisabledPages.get(aPageIndex);
+    }
+
+
+    /**
+     * Change the enabled status of a page. This marks the document as unsaved.
+     * 
+     * @param aPageIndex
+     *            the index of the page.
+     * @param aPageEnabled
+     *            the new value of the enabled attribute.
+     */
+    public void setPageEnabled(int aPageIndex, boolean aPageEnabled)
+    {
+        if (isPageEnabled(aPageIndex) != aPageEnabled)
         {
-            if (c instanceof PDFPagePanel)
+            mDisabledPages.set(aPageIndex, !aPageEnabled);
+            if (mMainPanel != null)
             {
-                if (((PDFPagePanel) c).isPageEnabled())
-                {
-                    res++;
-                }
+                mMainPanel.repaintPage(aPageIndex);
             }
+            firePropertyChange("pageEnabled", !aPageEnabled, aPageEnabled);
+            updateStatusLabel();
+            setUnsaved(true);
         }
-        return res;
     }
 
 
+    /**
+     * 
+     * @return the panels of the pages that are currently shown. Pages out of
+     *         view have no panel.
+     */
     public List<PDFPagePanel> getPagePanels()
     {
-        List<PDFPagePanel> res = new ArrayList<>();
-        for (Component c : mMainPanel.getComponents())
+        return mMainPanel != null ? mMainPanel.getPagePanels()
+                : Collections.emptyList();
+    }
+
+
+    /**
+     * Release the preview images of all pages and close the document. This is
+     * to be called when the panel is removed.
+     */
+    public void dispose()
+    {
+        if (mMainPanel != null)
+        {
+            mMainPanel.setPageCount(0);
+        }
+        PDDocument doc;
+        synchronized (mDocumentLock)
+        {
+            doc = mDocument;
+            mDocument = null;
+            mSourceFile = null;
+        }
+        if (doc != null)
         {
-            if (c instanceof PDFPagePanel)
+            PDFPagePanel.releaseImages(doc);
+            try
+            {
+                synchronized (doc)
+                {
+                    doc.close();
+                }
+            }
+            catch (IOException ex)
             {
-                res.add((PDFPagePanel) c);
+                LOGGER.log(Level.WARNING, "Can not close document {0}: {1}",
+                        mFile, ex.toString());
             }
         }
-        return res;
     }
 
 
     protected void refillPages()
     {
-        for (Component c : mMainPanel.getComponents())
+        synchronized (mDocumentLock)
         {
-            if (c instanceof PDFPagePanel)
+            if (mDocument != null)
             {
-                mMainPanel.remove(c);
-                ((PDFPagePanel) c).removePropertyChangeListener("enabled",
-                        mPageEnabledChanged);
+                PDFPagePanel.releaseImages(mDocument);
             }
         }
-        int pnum = 0;
-        for (PDPage page : mDocument.getPages())
+        mDisabledPages.clear();
+        if (mMainPanel != null)
         {
-            PDFPagePanel pp = new PDFPagePanel(this, page, pnum);
-            // pp.addMouseWheelListener((aE) -> mFrame.zoomOnMouseWheel(aE));
-            pp.setPreferredSize(mPageSize);
-            pp.addPropertyChangeListener("enabled", mPageEnabledChanged);
-            mMainPanel.add(pp);
-            pnum++;
+            mMainPanel.setPageCount(mPageCount);
         }
     }
-
-    private final PropertyChangeListener mPageEnabledChanged = new PropertyChangeListener()
-    {
-
-        @Override
-        public void propertyChange(PropertyChangeEvent aEvt)
-        {
-            updateStatusLabel();
-            setUnsaved(true);
-        }
-    };
 }
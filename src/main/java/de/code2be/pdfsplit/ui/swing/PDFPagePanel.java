@@ -3,6 +3,8 @@ package de.code2be.pdfsplit.ui.swing;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
@@ -17,7 +19,8 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.ImageType;
-import org.apache.pdfbox.rendering.PDFRenderer;
+
+import de.code2be.pdfsplit.image.ScanThumbnailDecoder;
 
 /**
  * This panel is used to display a preview of the assigned PDF page.
@@ -34,14 +37,20 @@ public class PDFPagePanel extends JComponent
             .getLogger(PDFPagePanel.class.getName());
 
     /**
-     * The PDF page object.
+     * The smallest width or height of a rendered image. Larger images are
+     * rendered in steps of factor sqrt(2) above it.
+     */
+    private static final int MIN_RENDER_LENGTH = 32;
+
+    /**
+     * The factor the size of the draft image is below the final one.
      */
-    private final PDPage mPage;
+    private static final int DRAFT_FACTOR = 4;
 
     /**
-     * The index of the page.
+     * The index of the page, -1 if the panel shows no page.
      */
-    private final int mPageIndex;
+    private int mPageIndex = -1;
 
     /**
      * The parent PDF document panel.
@@ -49,43 +58,118 @@ public class PDFPagePanel extends JComponent
     private final PDFDocumentPanel mDocPanel;
 
     /**
-     * The image of the page to be displayed.
+     * The key of the image of the page in the {@link ThumbnailCache} for the
+     * current page and size.
      */
-    private BufferedImage mPageImage;
+    private PreviewKey mKey;
 
     /**
      * A previously rendered PDF page. This is used to display the page on
-     * re-scaling while the new image is being rendered.
+     * re-scaling while the new image is being rendered. The current image of
+     * the page is held by the {@link ThumbnailCache}.
      */
     private BufferedImage mOldPageImage;
 
     /**
-     * A flag to indicate if the page image is currently rendering.
+     * The render of the page image that is queued or running, null if the page
+     * is not rendering.
      */
-    private boolean mRendering = false;
+    private RenderScheduler.Task mRenderTask;
 
     /**
-     * A flag to indicate if the page is enabled, not enabled pages will not be
-     * included in saved documents.
+     * The key of the image the render task is rendering.
      */
-    private boolean mPageEnabled = true;
+    private PreviewKey mRenderKey;
 
     /**
-     * Create a new instance of a page panel.
+     * The key of a preview image in the {@link ThumbnailCache}. Images are
+     * kept by document, page and size, so a panel can be re-used for other
+     * pages and images of previous sizes are still available when zooming
+     * back.
+     */
+    public static final class PreviewKey
+    {
+
+        private final PDDocument mDocument;
+
+        private final int mPageIndex;
+
+        private final int mWidth;
+
+        private final int mHeight;
+
+        public PreviewKey(PDDocument aDocument, int aPageIndex,
+                Dimension aSize)
+        {
+            mDocument = aDocument;
+            mPageIndex = aPageIndex;
+            mWidth = aSize.width;
+            mHeight = aSize.height;
+        }
+
+
+        /**
+         *
+         * @return the document of the page.
+         */
+        public PDDocument getDocument()
+        {
+            return mDocument;
+        }
+
+
+        /**
+         *
+         * @return the index of the page.
+         */
+        public int getPageIndex()
+        {
+            return mPageIndex;
+        }
+
+
+        /**
+         *
+         * @return the size of the image.
+         */
+        public Dimension getSize()
+        {
+            return new Dimension(mWidth, mHeight);
+        }
+
+
+        @Override
+        public boolean equals(Object aObj)
+        {
+            if (!(aObj instanceof PreviewKey))
+            {
+                return false;
+            }
+            PreviewKey other = (PreviewKey) aObj;
+            return mDocument == other.mDocument
+                    && mPageIndex == other.mPageIndex
+                    && mWidth == other.mWidth && mHeight == other.mHeight;
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return ((System.identityHashCode(mDocument) * 31 + mPageIndex)
+                    * 31 + mWidth) * 31 + mHeight;
+        }
+    }
+
+    /**
+     * Create a new instance of a page panel. It shows no page until
+     * {@link #setPageNumber(int)} is called.
      * 
      * @param aDocPanel
      *            the parent PDF document panel.
-     * @param aPage
-     *            the page to be displayed.
-     * @param aPageIndex
-     *            the index of the page to be displayed.
      */
-    public PDFPagePanel(PDFDocumentPanel aDocPanel, PDPage aPage,
-            int aPageIndex)
+    public PDFPagePanel(PDFDocumentPanel aDocPanel)
     {
         mDocPanel = aDocPanel;
-        mPage = aPage;
-        mPageIndex = aPageIndex;
         setBackground(Color.WHITE);
         setBorder(BorderFactory.createLineBorder(Color.black));
 
@@ -95,6 +179,19 @@ public class PDFPagePanel extends JComponent
     }
 
 
+    /**
+     * Release the preview images of all pages of a document.
+     *
+     * @param aDocument
+     *            the document.
+     */
+    public static void releaseImages(PDDocument aDocument)
+    {
+        ThumbnailCache.getDefault().removeIf((aKey) -> aKey instanceof PreviewKey
+                && ((PreviewKey) aKey).getDocument() == aDocument);
+    }
+
+
     /**
      * 
      * @return true if the page is flagged as enabled, false otherwise. <br/>
@@ -103,25 +200,22 @@ public class PDFPagePanel extends JComponent
      */
     public boolean isPageEnabled()
     {
-        return mPageEnabled;
+        return mPageIndex >= 0 && mDocPanel.isPageEnabled(mPageIndex);
     }
 
 
     /**
-     * Change the enabled status of the page. Changing this attribute triggers a
-     * pageEnabled property change event.
+     * Change the enabled status of the page. The status is kept by the
+     * {@link PDFDocumentPanel}.
      * 
      * @param aPageEnabled
      *            the new value of the enabled attribute.
      */
     public void setPageEnabled(boolean aPageEnabled)
     {
-        setEnabled(aPageEnabled);
-        if (isPageEnabled() != aPageEnabled)
+        if (mPageIndex >= 0)
         {
-            mPageEnabled = aPageEnabled;
-            firePropertyChange("pageEnabled", !aPageEnabled, aPageEnabled);
-            repaint();
+            mDocPanel.setPageEnabled(mPageIndex, aPageEnabled);
         }
     }
 
@@ -132,7 +226,7 @@ public class PDFPagePanel extends JComponent
      */
     public PDPage getPage()
     {
-        return mPage;
+        return mDocPanel.getDocument().getPage(mPageIndex);
     }
 
 
@@ -146,6 +240,91 @@ public class PDFPagePanel extends JComponent
     }
 
 
+    /**
+     * Assign a page to this panel. A render of the previous page is
+     * cancelled.
+     *
+     * @param aPageIndex
+     *            the index of the page to be displayed.
+     */
+    public void setPageNumber(int aPageIndex)
+    {
+        synchronized (this)
+        {
+            if (aPageIndex == mPageIndex)
+            {
+                return;
+            }
+            abandonRender();
+            mPageIndex = aPageIndex;
+            mKey = null;
+            mOldPageImage = null;
+        }
+        repaint();
+    }
+
+
+    /**
+     * Get the size to render an image in for a display size. Images are only
+     * rendered in discrete sizes (steps of factor sqrt(2) in width and height)
+     * and scaled down on paint, so small zoom steps do not need a new image.
+     *
+     * @param aSize
+     *            the size the page is displayed in.
+     * @return the size to render the page in, at least the display size.
+     */
+    public static Dimension getRenderSize(Dimension aSize)
+    {
+        return new Dimension(getRenderLength(aSize.width),
+                getRenderLength(aSize.height));
+    }
+
+
+    private static int getRenderLength(int aLength)
+    {
+        int step = 0;
+        int res = MIN_RENDER_LENGTH;
+        while (res < aLength)
+        {
+            step++;
+            res = (int) Math
+                    .round(MIN_RENDER_LENGTH * Math.pow(2.0d, step / 2.0d));
+        }
+        return res;
+    }
+
+
+    /**
+     *
+     * @return the key of the image for the current page and size.
+     */
+    protected synchronized PreviewKey getPreviewKey()
+    {
+        if (mKey == null && mPageIndex >= 0)
+        {
+            mKey = new PreviewKey(mDocPanel.getDocument(), mPageIndex,
+                    getRenderSize(getPreferredSize()));
+        }
+        return mKey;
+    }
+
+
+    /**
+     *
+     * @param aKey
+     *            the key of the final image.
+     * @return the key of the fast low resolution image that is shown until
+     *         the final one is rendered.
+     */
+    private static PreviewKey getDraftKey(PreviewKey aKey)
+    {
+        Dimension size = aKey.getSize();
+        return new PreviewKey(aKey.getDocument(), aKey.getPageIndex(),
+                getRenderSize(new Dimension(size.width / DRAFT_FACTOR,
+                        size.height / DRAFT_FACTOR)));
+    }
+
+
     /**
      * Trigger a re rendering of the PDF page image. This method only triggers
      * the re rendering. The rendering itself is done in an asynchronous thread
@@ -153,14 +332,27 @@ public class PDFPagePanel extends JComponent
      */
     protected void rerenderPageImage()
     {
-        BufferedImage curImg = mPageImage;
-        mPageImage = null;
-        firePropertyChange("pageImage", curImg, mPageImage);
-        // we keep the old image until the new one is ready to be able to render
-        // something at all.
-        if (curImg != null)
+        synchronized (this)
         {
-            mOldPageImage = curImg;
+            if (mKey != null && mKey.getSize()
+                    .equals(getRenderSize(getPreferredSize())))
+            {
+                // the current image is scaled to the new size
+                repaint();
+                return;
+            }
+            // a queued render would be for the previous size
+            abandonRender();
+            BufferedImage curImg = mKey != null
+                    ? ThumbnailCache.getDefault().get(mKey)
+                    : null;
+            mKey = null;
+            // we keep the old image until the new one is ready to be able to
+            // render something at all.
+            if (curImg != null)
+            {
+                mOldPageImage = curImg;
+            }
         }
         revalidate();
         repaint();
@@ -168,30 +360,58 @@ public class PDFPagePanel extends JComponent
 
 
     /**
-     * This method is called in a separate thread and performs the rendering of
-     * the PDF page into an image.
+     * This method is called by a thread of the {@link RenderScheduler} and
+     * performs the rendering of the PDF page into an image.
+     * 
+     * @param aKey
+     *            the page and size to render.
+     * @return true if the image is for the current page of the panel.
      */
-    private void doRenderImage()
+    private boolean doRenderImage(PreviewKey aKey)
     {
+        boolean current = false;
         BufferedImage img = null;
-        Dimension prefSize = getPreferredSize();
+        Dimension prefSize = aKey.getSize();
         boolean successed = false;
+        boolean fromDisk = false;
+        String diskKey = null;
         try
         {
-            PDRectangle mediaBox = mPage.getMediaBox();
-            double scaleH = mediaBox.getHeight() / prefSize.getHeight();
-            double scaleW = mediaBox.getWidth() / prefSize.getWidth();
-
-            double scale = Math.max(scaleH, scaleW);
-
-            PDDocument pdfDoc = mDocPanel.getDocument();
-            synchronized (pdfDoc)
+            // pages of a document opened before are read from the disk cache
+            diskKey = mDocPanel.getDiskCacheKey();
+            if (diskKey != null)
             {
-                float dpi = (float) (72.0f / scale);
-                img = new PDFRenderer(pdfDoc).renderImageWithDPI(mPageIndex,
-                        dpi, ImageType.RGB);
-                successed = true;
+                img = DiskThumbnailCache.getDefault().get(diskKey,
+                        aKey.getPageIndex(), prefSize);
+                fromDisk = img != null;
+            }
+            if (!fromDisk)
+            {
+                PDDocument pdfDoc = aKey.getDocument();
+                synchronized (pdfDoc)
+                {
+                    PDPage page = pdfDoc.getPage(aKey.getPageIndex());
+                    // scanned pages are decoded directly at the thumbnail size
+                    img = ScanThumbnailDecoder.decode(page, prefSize);
+                    if (img == null)
+                    {
+                        PDRectangle mediaBox = page.getMediaBox();
+                        double scaleH = mediaBox.getHeight()
+                                / prefSize.getHeight();
+                        double scaleW = mediaBox.getWidth()
+                                / prefSize.getWidth();
+
+                        double scale = Math.max(scaleH, scaleW);
+
+                        float dpi = (float) (72.0f / scale);
+                        img = mDocPanel.getRenderProfile()
+                                .createRenderer(pdfDoc)
+                                .renderImageWithDPI(aKey.getPageIndex(), dpi,
+                                        ImageType.RGB);
+                    }
+                }
             }
+            successed = true;
         }
         catch (Exception ex)
         {
@@ -210,53 +430,177 @@ public class PDFPagePanel extends JComponent
         }
         finally
         {
+            // the image is valid for its key even if the panel moved on to
+            // another page or size in between
+            img = ThumbnailCache.compact(img);
+            if (successed && !fromDisk && diskKey != null)
+            {
+                DiskThumbnailCache.getDefault().put(diskKey,
+                        aKey.getPageIndex(), prefSize, img);
+            }
+            ThumbnailCache.getDefault().put(aKey, img);
             synchronized (this)
             {
-                mRendering = false;
-
-                // only keep the image if the preferred size did not change in
-                // between
-                if (prefSize.equals(getPreferredSize()))
+                if (aKey == mRenderKey)
+                {
+                    mRenderTask = null;
+                    mRenderKey = null;
+                }
+                if (aKey.equals(mKey))
                 {
-                    // here mPageImage is likely null but to be sure we store it
-                    // for correct property change event
-                    BufferedImage curImg = mPageImage;
-                    mPageImage = img;
                     if (successed)
                     {
                         // clear the old image if the new one was successfully
                         // rendered.
                         mOldPageImage = null;
                     }
-                    firePropertyChange("pageImage", curImg, mPageImage);
+                    firePropertyChange("pageImage", null, img);
+                    current = true;
+                }
+                else
+                {
+                    current = mKey != null && aKey.equals(getDraftKey(mKey));
+                }
+                if (current)
+                {
+                    SwingUtilities.invokeLater(() -> {
+                        revalidate();
+                        repaint();
+                    });
                 }
-                SwingUtilities.invokeLater(() -> {
-                    revalidate();
-                    repaint();
-                });
             }
         }
+        return current;
     }
 
 
     /**
      * Helper method that ensures the page is already rendered, or rendering is
-     * triggered.
+     * triggered with the priority of a visible page.
      */
     protected void ensureRendered()
     {
+        requestRender(RenderScheduler.PRIORITY_VISIBLE);
+    }
+
+
+    /**
+     * Queue the rendering of the page ahead of it being scrolled into view.
+     * 
+     * @param aDistance
+     *            the distance of the page to the viewport in pixels. Closer
+     *            pages are rendered first.
+     */
+    public void prefetch(int aDistance)
+    {
+        requestRender(
+                RenderScheduler.PRIORITY_PREFETCH + Math.max(0, aDistance));
+    }
+
+
+    /**
+     * Queue the rendering of the page if it is not rendered yet. A render
+     * already queued with a lower priority is re-queued. <br/>
+     * A visible page without any image gets a fast low resolution render
+     * first, the final image is queued when it is finished. Both are read from
+     * the {@link DiskThumbnailCache} if the document was opened before. While
+     * the user is zooming, no renders are queued at all.
+     * 
+     * @param aPriority
+     *            the priority, see {@link RenderScheduler}.
+     */
+    protected void requestRender(int aPriority)
+    {
+        if (getParent() instanceof PDFPagesPanel
+                && ((PDFPagesPanel) getParent()).isZooming())
+        {
+            return;
+        }
+        RenderScheduler scheduler = RenderScheduler.getDefault();
+        ThumbnailCache cache = ThumbnailCache.getDefault();
         synchronized (this)
         {
-            if (mPageImage != null || mRendering == true)
+            PreviewKey key = getPreviewKey();
+            if (key == null || cache.contains(key))
+            {
+                return;
+            }
+            if (mRenderTask != null)
             {
+                if (mRenderTask.getPriority() <= aPriority
+                        || !scheduler.cancel(mRenderTask))
+                {
+                    // queued with a higher priority or already rendering
+                    return;
+                }
+            }
+            PreviewKey draft = getDraftKey(key);
+            if (aPriority == RenderScheduler.PRIORITY_VISIBLE
+                    && mOldPageImage == null && !draft.equals(key)
+                    && !cache.contains(draft))
+            {
+                // queued behind the drafts of the other visible pages
+                mRenderKey = draft;
+                mRenderTask = scheduler.submit(() -> {
+                    if (doRenderImage(draft))
+                    {
+                        requestRender(aPriority);
+                    }
+                }, aPriority);
                 return;
             }
-            mRendering = true;
+            mRenderKey = key;
+            mRenderTask = scheduler.submit(() -> doRenderImage(key),
+                    aPriority);
+        }
+    }
+
+
+    /**
+     * Cancel the rendering of the page if it is queued but not started yet,
+     * e.g. because the page scrolled out of view.
+     */
+    public void cancelRender()
+    {
+        synchronized (this)
+        {
+            if (mRenderTask != null
+                    && RenderScheduler.getDefault().cancel(mRenderTask))
+            {
+                mRenderTask = null;
+                mRenderKey = null;
+            }
         }
+    }
+
 
-        Thread t = new Thread(() -> doRenderImage());
-        t.setDaemon(true);
-        t.start();
+    /**
+     * Cancel a queued render and forget a running one, whose image is cached
+     * but not shown when it is finished.
+     */
+    private void abandonRender()
+    {
+        cancelRender();
+        mRenderTask = null;
+        mRenderKey = null;
+    }
+
+
+    /**
+     * Cancel a queued render and drop the images of the page, e.g. when the
+     * panel is removed.
+     */
+    public void releaseImage()
+    {
+        synchronized (this)
+        {
+            cancelRender();
+            if (mKey != null)
+            {
+                ThumbnailCache.getDefault().remove(mKey);
+            }
+            mOldPageImage = null;
+        }
     }
 
 
@@ -264,7 +608,7 @@ public class PDFPagePanel extends JComponent
     protected void paintComponent(Graphics aG)
     {
         super.paintComponent(aG);
-        Graphics g = aG.create();
+        Graphics2D g = (Graphics2D) aG.create();
         try
         {
             ensureRendered();
@@ -275,12 +619,26 @@ public class PDFPagePanel extends JComponent
             g.setColor(Color.white);
             g.fillRect(0, 0, width, height);
 
-            BufferedImage img = mPageImage != null ? mPageImage : mOldPageImage;
+            PreviewKey key = getPreviewKey();
+            BufferedImage img = key != null
+                    ? ThumbnailCache.getDefault().get(key)
+                    : null;
+            if (img == null)
+            {
+                img = mOldPageImage;
+            }
+            if (img == null && key != null)
+            {
+                img = ThumbnailCache.getDefault().get(getDraftKey(key));
+            }
             if (img != null)
             {
+                // images are rendered in steps and scaled to the panel size
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
                 g.drawImage(img, x, y, width, height, this);
 
-                if (!mPageEnabled)
+                if (!isPageEnabled())
                 {
                     g.setColor(new Color(0, 0, 0, 20));
                     g.fillRect(0, 0, getWidth(), getHeight());
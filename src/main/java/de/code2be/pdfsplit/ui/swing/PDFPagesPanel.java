@@ -2,17 +2,29 @@ package de.code2be.pdfsplit.ui.swing;
 
 import java.awt.Component;
 import java.awt.Dimension;
-import java.awt.FlowLayout;
 import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.swing.JPanel;
+import javax.swing.JViewport;
 import javax.swing.Scrollable;
+import javax.swing.Timer;
 
 /**
- * This is a special JPanel that will hold all {@link PDFPagePanel}'s of a
- * document. This panel is normally placed inside of an
- * {@link PDFDocumentPanel}.
- * 
+ * This is a special JPanel that shows the pages of a document as a grid. It is
+ * normally placed inside of an {@link PDFDocumentPanel}. <br/>
+ * The grid is virtual: its layout is calculated from the page count and the
+ * preview size, and {@link PDFPagePanel}'s exist only for the pages that
+ * intersect the viewport or are about to be scrolled into it. Cells of pages
+ * that leave this area are re-used for other pages, so even documents with
+ * thousands of pages need only a few components.
+ *
  * @author Michael Weiss
  *
  */
@@ -21,27 +33,99 @@ public class PDFPagesPanel extends JPanel implements Scrollable
 
     private static final long serialVersionUID = -9001224467365315544L;
 
+    /**
+     * The horizontal and vertical gap between pages.
+     */
+    private static final int GAP = 5;
+
+    /**
+     * The time in ms after the last change of the preview size until pages
+     * are rendered in the new size.
+     */
+    private static final int ZOOM_DELAY = 200;
+
+    private final PDFDocumentPanel mDocPanel;
+
     private Dimension mPreviewSize = new Dimension(210, 295);
 
-    public PDFPagesPanel()
+    /**
+     * The number of pages of the document.
+     */
+    private int mPageCount = 0;
+
+    /**
+     * The cells currently showing a page, by page index.
+     */
+    private final TreeMap<Integer, PDFPagePanel> mCells = new TreeMap<>();
+
+    /**
+     * Cells not showing a page, ready to be re-used.
+     */
+    private final Deque<PDFPagePanel> mFreeCells = new ArrayDeque<>();
+
+    /**
+     * The visible area on the last update of the cells, used to find the
+     * scroll direction.
+     */
+    private Rectangle mLastVisibleRect = new Rectangle();
+
+    /**
+     * The last scroll direction, 1 for down and -1 for up.
+     */
+    private int mScrollDirection = 1;
+
+    /**
+     * Restarted on each change of the preview size, renders are suspended
+     * while it is running.
+     */
+    private final Timer mZoomTimer;
+
+    /**
+     * Create a new pages panel.
+     *
+     * @param aDocPanel
+     *            the document panel that holds the document and the enabled
+     *            state of its pages.
+     */
+    public PDFPagesPanel(PDFDocumentPanel aDocPanel)
     {
-        super(new FlowWrapLayout(FlowLayout.LEFT, 5, 5));
+        super(null);
+        mDocPanel = aDocPanel;
+        mZoomTimer = new Timer(ZOOM_DELAY, (aE) -> {
+            updateCells();
+            repaint();
+        });
+        mZoomTimer.setRepeats(false);
     }
 
 
+    /**
+     * Change the size of the pages. The layout changes at once and the
+     * current images are scaled to the new size. Pages are rendered in the
+     * new size when the size did not change for {@value #ZOOM_DELAY}ms, so
+     * fast zooming does not queue renders for sizes that are gone before they
+     * are finished.
+     *
+     * @param aPanelSize
+     *            the new size of the pages.
+     */
     public void setPreviewSize(Dimension aPanelSize)
     {
+        if (mPreviewSize.equals(aPanelSize))
+        {
+            return;
+        }
+        if (!mCells.isEmpty())
+        {
+            mZoomTimer.restart();
+        }
         mPreviewSize = aPanelSize;
-        for (Component c : getComponents())
+        for (PDFPagePanel pagePanel : mCells.values())
         {
-            if (c instanceof PDFPagePanel)
-            {
-                PDFPagePanel pagePanel = (PDFPagePanel) c;
-                pagePanel.setPreferredSize(mPreviewSize);
-            }
+            pagePanel.setPreferredSize(mPreviewSize);
         }
         revalidate();
-
+        repaint();
     }
 
 
@@ -51,6 +135,214 @@ public class PDFPagesPanel extends JPanel implements Scrollable
     }
 
 
+    /**
+     *
+     * @return true if the preview size changed recently and pages should not
+     *         be rendered yet.
+     */
+    public boolean isZooming()
+    {
+        return mZoomTimer.isRunning();
+    }
+
+
+    /**
+     * Set the number of pages to show. All cells are released.
+     *
+     * @param aPageCount
+     *            the number of pages.
+     */
+    public void setPageCount(int aPageCount)
+    {
+        for (PDFPagePanel cell : mCells.values())
+        {
+            cell.releaseImage();
+            cell.setVisible(false);
+            mFreeCells.add(cell);
+        }
+        mCells.clear();
+        mPageCount = aPageCount;
+        revalidate();
+        repaint();
+    }
+
+
+    /**
+     *
+     * @return the number of pages.
+     */
+    public int getPageCount()
+    {
+        return mPageCount;
+    }
+
+
+    /**
+     *
+     * @return the cells that currently show a page, ordered by page index.
+     */
+    public List<PDFPagePanel> getPagePanels()
+    {
+        return new ArrayList<>(mCells.values());
+    }
+
+
+    /**
+     * Repaint a page if it is currently shown.
+     *
+     * @param aPageIndex
+     *            the index of the page.
+     */
+    public void repaintPage(int aPageIndex)
+    {
+        PDFPagePanel cell = mCells.get(aPageIndex);
+        if (cell != null)
+        {
+            cell.repaint();
+        }
+    }
+
+
+    /**
+     *
+     * @return the number of columns of the grid for the current width.
+     */
+    protected int getColumnCount()
+    {
+        int width = getWidth();
+        if (getParent() instanceof JViewport
+                && getScrollableTracksViewportWidth())
+        {
+            width = getParent().getWidth();
+        }
+        return Math.max(1, (width - GAP) / (mPreviewSize.width + GAP));
+    }
+
+
+    /**
+     *
+     * @param aPageIndex
+     *            the index of a page.
+     * @param aColumnCount
+     *            the number of columns of the grid.
+     * @return the bounds of the page in the grid.
+     */
+    protected Rectangle getCellBounds(int aPageIndex, int aColumnCount)
+    {
+        return new Rectangle(
+                GAP + (aPageIndex % aColumnCount) * (mPreviewSize.width + GAP),
+                GAP + (aPageIndex / aColumnCount)
+                        * (mPreviewSize.height + GAP),
+                mPreviewSize.width, mPreviewSize.height);
+    }
+
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        if (isPreferredSizeSet())
+        {
+            return super.getPreferredSize();
+        }
+        int cols = Math.min(getColumnCount(), Math.max(1, mPageCount));
+        int rows = (mPageCount + cols - 1) / cols;
+        return new Dimension(GAP + cols * (mPreviewSize.width + GAP),
+                GAP + rows * (mPreviewSize.height + GAP));
+    }
+
+
+    @Override
+    public Dimension getMinimumSize()
+    {
+        return new Dimension(mPreviewSize);
+    }
+
+
+    @Override
+    public void doLayout()
+    {
+        updateCells();
+    }
+
+
+    /**
+     * Update the cells after the visible area, the size or the pages changed.
+     * Pages intersecting the visible area and pages within one viewport height
+     * beyond it in scroll direction get a cell, all other cells are released
+     * for re-use. Visible pages are rendered on paint, the pages ahead are
+     * queued for rendering, closer ones first.
+     */
+    public void updateCells()
+    {
+        Rectangle visible = getVisibleRect();
+        if (visible.y != mLastVisibleRect.y)
+        {
+            mScrollDirection = visible.y > mLastVisibleRect.y ? 1 : -1;
+        }
+        mLastVisibleRect = visible;
+
+        int first = 0;
+        int last = -1;
+        int cols = getColumnCount();
+        if (!visible.isEmpty() && mPageCount > 0)
+        {
+            int rowHeight = mPreviewSize.height + GAP;
+            int top = mScrollDirection > 0 ? visible.y
+                    : visible.y - visible.height;
+            int bottom = mScrollDirection > 0
+                    ? visible.y + 2 * visible.height
+                    : visible.y + visible.height;
+            // row r covers GAP + r * rowHeight up to (r + 1) * rowHeight
+            first = Math.max(0, top) / rowHeight * cols;
+            last = Math.min(mPageCount - 1,
+                    (Math.max(0, bottom - GAP - 1) / rowHeight + 1) * cols
+                            - 1);
+        }
+
+        // release the cells out of range first, so they can be re-used
+        Iterator<Map.Entry<Integer, PDFPagePanel>> it = mCells.entrySet()
+                .iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<Integer, PDFPagePanel> e = it.next();
+            if (e.getKey() < first || e.getKey() > last)
+            {
+                PDFPagePanel cell = e.getValue();
+                cell.cancelRender();
+                cell.setVisible(false);
+                mFreeCells.add(cell);
+                it.remove();
+            }
+        }
+
+        for (int i = first; i <= last; i++)
+        {
+            PDFPagePanel cell = mCells.get(i);
+            if (cell == null)
+            {
+                cell = mFreeCells.poll();
+                if (cell == null)
+                {
+                    cell = new PDFPagePanel(mDocPanel);
+                    add(cell);
+                }
+                cell.setPageNumber(i);
+                mCells.put(i, cell);
+            }
+            cell.setPreferredSize(mPreviewSize);
+            Rectangle bounds = getCellBounds(i, cols);
+            cell.setBounds(bounds);
+            cell.setVisible(true);
+            if (!bounds.intersects(visible))
+            {
+                cell.prefetch(mScrollDirection > 0
+                        ? bounds.y - (visible.y + visible.height)
+                        : visible.y - (bounds.y + bounds.height));
+            }
+        }
+    }
+
+
     @Override
     public Dimension getPreferredScrollableViewportSize()
     {
@@ -77,15 +369,13 @@ public class PDFPagesPanel extends JPanel implements Scrollable
     @Override
     public boolean getScrollableTracksViewportWidth()
     {
-        if (getComponentCount() > 0)
+        Component parent = getParent();
+        if (mPageCount > 0 && parent != null
+                && parent.getWidth() < mPreviewSize.width + 2 * GAP)
         {
-            int minWidth = getComponent(0).getPreferredSize().width;
-            if (getParent().getWidth() < minWidth)
-            {
-                // even a single page is wider than the view port --> we need
-                // our own witdh
-                return false;
-            }
+            // even a single page is wider than the view port --> we need
+            // our own witdh
+            return false;
         }
         // viewport is wider than one page --> we stick to viewport width.
         return true;
@@ -1,5 +1,8 @@
 package de.code2be.pdfsplit.ui.swing;
 
+import static de.code2be.pdfsplit.Config.PROP_DEADLINE_OCR;
+import static de.code2be.pdfsplit.Config.PROP_DEADLINE_QR;
+import static de.code2be.pdfsplit.Config.PROP_DEADLINE_RENDER;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_DO_EMPTY_PAGE;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_DO_OCR;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_BLOCKCOUNT_H;
@@ -7,10 +10,34 @@ import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_BLOCKCOUNT_V;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_TH_BLOCK;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_TH_PAGE;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_TH_PIXEL;
+import static de.code2be.pdfsplit.Config.PROP_IO_MAPPED;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMMIT;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMMIT_BATCH_INTERVAL;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMMIT_BATCH_SIZE;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMPACT;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_LINEARIZED;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_PASS_THROUGH;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_RECOMPRESS;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_RECOMPRESS_DPI;
+import static de.code2be.pdfsplit.Config.PROP_MEMORY_POLICY;
+import static de.code2be.pdfsplit.Config.PROP_MEMORY_THRESHOLD;
 import static de.code2be.pdfsplit.Config.PROP_OCR_DATAPATH;
 import static de.code2be.pdfsplit.Config.PROP_OCR_ENGINE_MODE;
 import static de.code2be.pdfsplit.Config.PROP_OCR_IMG_SCALE;
 import static de.code2be.pdfsplit.Config.PROP_OCR_LANG;
+import static de.code2be.pdfsplit.Config.PROP_OCR_PREPROCESS;
+import static de.code2be.pdfsplit.Config.PROP_OCR_PREPROCESS_BINARIZE;
+import static de.code2be.pdfsplit.Config.PROP_OCR_PREPROCESS_DESKEW;
+import static de.code2be.pdfsplit.Config.PROP_OCR_PREPROCESS_DESPECKLE;
+import static de.code2be.pdfsplit.Config.PROP_OCR_THREAD_COUNT;
+import static de.code2be.pdfsplit.Config.PROP_OCR_WORKERS;
+import static de.code2be.pdfsplit.Config.PROP_OCR_WORKERS_MAX_MEMORY;
+import static de.code2be.pdfsplit.Config.PROP_OCR_WORKERS_MAX_PAGES;
+import static de.code2be.pdfsplit.Config.PROP_PREVIEW_CACHE_SIZE;
+import static de.code2be.pdfsplit.Config.PROP_PREVIEW_DISK_CACHE_DIR;
+import static de.code2be.pdfsplit.Config.PROP_PREVIEW_DISK_CACHE_SIZE;
+import static de.code2be.pdfsplit.Config.PROP_TABS_IDLE_TIMEOUT;
+import static de.code2be.pdfsplit.Config.PROP_RENDER_PROFILE_ANALYSIS;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_DO_OCR;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_FORCE_OCR;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_MATCH_COUNT;
@@ -18,6 +45,7 @@ import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_QR_CODE;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_TEXT;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_USE_QR;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_USE_TEXT;
+import static de.code2be.pdfsplit.Config.PROP_SPLIT_JOURNAL;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
@@ -32,11 +60,13 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
+import java.io.IOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -53,9 +83,9 @@ import javax.swing.JTextField;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
 import de.code2be.help.I18n;
@@ -64,10 +94,24 @@ import de.code2be.help.TesseractFactory;
 import de.code2be.pdfsplit.Config;
 import de.code2be.pdfsplit.EmptyPageChecker;
 import de.code2be.pdfsplit.ISplitStatusListener;
+import de.code2be.pdfsplit.MemoryPolicy;
+import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.PageTimeoutException;
+import de.code2be.pdfsplit.PageWatchdog;
+import de.code2be.pdfsplit.RenderProfile;
 import de.code2be.pdfsplit.SmartSplitter;
+import de.code2be.pdfsplit.SplitJournal;
 import de.code2be.pdfsplit.SplitStatusEvent;
 import de.code2be.pdfsplit.filters.DocumentFilterEvent;
 import de.code2be.pdfsplit.filters.OCRFilter;
+import de.code2be.pdfsplit.filters.OCRThreadPolicy;
+import de.code2be.pdfsplit.image.BinarizeStep;
+import de.code2be.pdfsplit.image.DeskewStep;
+import de.code2be.pdfsplit.image.DespeckleStep;
+import de.code2be.pdfsplit.image.ImagePreprocessor;
+import de.code2be.pdfsplit.image.ImageRecompressor;
+import de.code2be.pdfsplit.ocr.OCRWorkerPool;
+import de.code2be.pdfsplit.output.OutputCommitter;
 import de.code2be.pdfsplit.split.QRCodeIdentifier;
 import de.code2be.pdfsplit.split.TextSplitIdentifier;
 import de.code2be.pdfsplit.split.TextSplitIdentifierOCR;
@@ -98,6 +142,11 @@ public class PDFSplitFrame extends JFrame
     private static final Logger LOGGER = System
             .getLogger(PDFSplitFrame.class.getName());
 
+    /**
+     * The interval in ms to check for documents of unused tabs to release.
+     */
+    private static final int IDLE_CHECK_INTERVAL = 30000;
+
     private File mPDFFile;
 
     private PDDocument mPDFDocument;
@@ -116,6 +165,18 @@ public class PDFSplitFrame extends JFrame
 
     private ImageIcon mPdfFileIcon;
 
+    private MemoryPolicy mMemoryPolicy;
+
+    /**
+     * The timer that releases the documents of unused tabs.
+     */
+    private Timer mIdleTimer;
+
+    /**
+     * The detector of empty pages of split documents, created on first use.
+     */
+    private EmptyPageDetector mEmptyPageDetector;
+
     /**
      * Create a new instance of the frame.
      */
@@ -189,6 +250,9 @@ public class PDFSplitFrame extends JFrame
 
         mDocsPane.setDropTarget(mDocPaneDropTarget);
 
+        mIdleTimer = new Timer(IDLE_CHECK_INTERVAL,
+                (aE) -> releaseIdleDocuments());
+        mIdleTimer.start();
     }
 
 
@@ -611,6 +675,35 @@ public class PDFSplitFrame extends JFrame
     }
 
 
+    /**
+     * 
+     * @return a new pool of OCR worker processes with the settings of
+     *         {@link #createOCRFactory()} or null if OCR should run in this
+     *         process.
+     */
+    protected OCRWorkerPool createOCRWorkerPool()
+    {
+        int workers = getConfig().getConfigValI(PROP_OCR_WORKERS, 0);
+        if (workers <= 0)
+        {
+            return null;
+        }
+        OCRWorkerPool res = new OCRWorkerPool();
+        // the workers use the same engine settings as OCR in this process
+        res.setSettings(createOCRFactory());
+        res.setWorkerCount(workers);
+        res.setMaxPages(
+                getConfig().getConfigValI(PROP_OCR_WORKERS_MAX_PAGES, 500));
+        res.setMaxMemory(
+                getConfig().getConfigValI(PROP_OCR_WORKERS_MAX_MEMORY, 1024)
+                        * 1024L * 1024L);
+        // a stuck worker is killed at the OCR deadline
+        res.setRequestTimeout(
+                getConfig().getConfigValI(PROP_DEADLINE_OCR, 120000));
+        return res;
+    }
+
+
     protected TesseractC createOCREngine()
     {
         File dataPath = new File(
@@ -640,6 +733,167 @@ public class PDFSplitFrame extends JFrame
     }
 
 
+    /**
+     * 
+     * @return a new watchdog with the configured deadlines for the page
+     *         analysis stages.
+     */
+    protected PageWatchdog createPageWatchdog()
+    {
+        PageWatchdog res = new PageWatchdog();
+        res.setDeadline(PageWatchdog.STAGE_RENDER,
+                getConfig().getConfigValI(PROP_DEADLINE_RENDER, 60000));
+        res.setDeadline(PageWatchdog.STAGE_QR,
+                getConfig().getConfigValI(PROP_DEADLINE_QR, 30000));
+        res.setDeadline(PageWatchdog.STAGE_OCR,
+                getConfig().getConfigValI(PROP_DEADLINE_OCR, 120000));
+        return res;
+    }
+
+
+    /**
+     * 
+     * @return a new instance of the configured OCR image pre-processing or null
+     *         if pre-processing is disabled.
+     */
+    protected ImagePreprocessor createImagePreprocessor()
+    {
+        if (!getConfig().getConfigValB(PROP_OCR_PREPROCESS, false))
+        {
+            return null;
+        }
+        ImagePreprocessor res = new ImagePreprocessor();
+
+        String method = getConfig()
+                .getConfigValS(PROP_OCR_PREPROCESS_BINARIZE, "sauvola").trim();
+        if (method.equalsIgnoreCase("otsu"))
+        {
+            res.addStep(new BinarizeStep(BinarizeStep.METHOD_OTSU));
+        }
+        else if (method.equalsIgnoreCase("sauvola"))
+        {
+            res.addStep(new BinarizeStep(BinarizeStep.METHOD_SAUVOLA));
+        }
+        else if (!method.equalsIgnoreCase("none"))
+        {
+            LOGGER.log(Level.WARNING,
+                    "Unknown binarization method {0}, will not binarize.",
+                    method);
+        }
+
+        int speckleSize = getConfig()
+                .getConfigValI(PROP_OCR_PREPROCESS_DESPECKLE, 4);
+        if (speckleSize > 0)
+        {
+            res.addStep(new DespeckleStep(speckleSize));
+        }
+
+        if (getConfig().getConfigValB(PROP_OCR_PREPROCESS_DESKEW, true))
+        {
+            res.addStep(new DeskewStep());
+        }
+        return res;
+    }
+
+
+    /**
+     * 
+     * @return the configured profile to render pages that are searched for QR
+     *         codes or checked for being empty.
+     */
+    protected RenderProfile createAnalysisProfile()
+    {
+        return RenderProfile.forName(getConfig().getConfigValS(
+                PROP_RENDER_PROFILE_ANALYSIS, RenderProfile.ANALYSIS));
+    }
+
+
+    /**
+     * Create an empty page checker with the configured thresholds.
+     * 
+     * @param aDocument
+     *            the document to check pages from or null to check images
+     *            only.
+     * @return the checker.
+     */
+    protected EmptyPageChecker createEmptyPageChecker(PDDocument aDocument)
+    {
+        EmptyPageChecker epc = new EmptyPageChecker(aDocument);
+        epc.setRenderProfile(createAnalysisProfile());
+        epc.setBlockCountH(Integer.valueOf(getConfig()
+                .getConfigValI(PROP_FILTER_EMPTY_PAGE_BLOCKCOUNT_H, 10)));
+        epc.setBlockCountV(getConfig()
+                .getConfigValI(PROP_FILTER_EMPTY_PAGE_BLOCKCOUNT_V, 10));
+        epc.setPixelFilledThreshold(getConfig()
+                .getConfigValI(PROP_FILTER_EMPTY_PAGE_TH_PIXEL, 25));
+        epc.setBlockFilledThreshold(getConfig()
+                .getConfigValI(PROP_FILTER_EMPTY_PAGE_TH_BLOCK, 2));
+        epc.setPageFilledThreshold(getConfig()
+                .getConfigValI(PROP_FILTER_EMPTY_PAGE_TH_PAGE, 6));
+        return epc;
+    }
+
+
+    /**
+     * 
+     * @return the detector of empty pages of split documents.
+     */
+    protected synchronized EmptyPageDetector getEmptyPageDetector()
+    {
+        if (mEmptyPageDetector == null)
+        {
+            mEmptyPageDetector = new EmptyPageDetector(
+                    Math.max(1, Math.min(4,
+                            Runtime.getRuntime().availableProcessors() / 2)),
+                    this::createEmptyPageChecker);
+        }
+        return mEmptyPageDetector;
+    }
+
+
+    /**
+     * Apply the configured directory and size to the
+     * {@link DiskThumbnailCache}. A size of 0 or an empty directory disables
+     * it.
+     */
+    protected void configureDiskCache()
+    {
+        DiskThumbnailCache cache = DiskThumbnailCache.getDefault();
+        int size = getConfig().getConfigValI(PROP_PREVIEW_DISK_CACHE_SIZE,
+                256);
+        String dir = getConfig().getConfigValS(PROP_PREVIEW_DISK_CACHE_DIR,
+                "");
+        cache.setBudget(size * 1024L * 1024L);
+        cache.setDirectory(size > 0 && !dir.trim().isEmpty()
+                ? new File(dir.trim())
+                : null);
+    }
+
+
+    /**
+     * Create the memory policy as configured. A previously created policy is
+     * uninstalled.
+     * 
+     * @return the memory policy to use for the next document.
+     */
+    protected synchronized MemoryPolicy createMemoryPolicy()
+    {
+        if (mMemoryPolicy != null)
+        {
+            mMemoryPolicy.uninstall();
+        }
+        mMemoryPolicy = MemoryPolicy
+                .forName(getConfig().getConfigValS(PROP_MEMORY_POLICY, "auto"));
+        mMemoryPolicy.setUsageThreshold(
+                getConfig().getConfigValF(PROP_MEMORY_THRESHOLD, 0.75f));
+        if (mMemoryPolicy.getMode() == MemoryPolicy.MODE_AUTO)
+        {
+            mMemoryPolicy.install();
+        }
+        return mMemoryPolicy;
+    }
+
+
     /**
      * Open a PDF file and split it into multiple documents. This method is
      * blocking and should not be called from within the AWT thread. All UI
@@ -690,19 +944,76 @@ public class PDFSplitFrame extends JFrame
             }
         }
 
+        SplitJournal journal = null;
+        OCRWorkerPool ocrPool = null;
+        PageWatchdog watchdog = null;
         try
         {
             mPDFFile = aFile;
             updateFileInfoLabel(null);
             setStatusText(I18n.getMessage(PDFSplitFrame.class,
                     "open.msgWillOpen", mPDFFile.getAbsolutePath()));
-            mPDFDocument = Loader.loadPDF(mPDFFile);
+            MemoryPolicy memPolicy = createMemoryPolicy();
+            ThumbnailCache.getDefault().setBudget(
+                    getConfig().getConfigValI(PROP_PREVIEW_CACHE_SIZE, 128)
+                            * 1024L * 1024L);
+            configureDiskCache();
+            // the page indices of the last source do not fit this one
+            getEmptyPageDetector().clearSourceResults();
+            mPDFDocument = PDFHelper.loadPDF(mPDFFile,
+                    getConfig().getConfigValB(PROP_IO_MAPPED, false),
+                    memPolicy.getStreamCache(mPDFFile));
+            if (getConfig().getConfigValB(PROP_SPLIT_JOURNAL, true))
+            {
+                try
+                {
+                    journal = SplitJournal.open(mPDFFile,
+                            mPDFFile.getParentFile(),
+                            SplitJournal.getSettings(getConfig(), mPDFFile
+                                    .getName().replace(".pdf", "_{0}.pdf")));
+                }
+                catch (IOException ex)
+                {
+                    LOGGER.log(Level.WARNING,
+                            "Can not open split journal for {0}: {1}",
+                            mPDFFile, ex.getMessage());
+                }
+            }
+            // pages that got an OCR text layer can not be copied as is
+            AtomicInteger ocrPageCount = new AtomicInteger();
+            watchdog = createPageWatchdog();
+            // a stuck render keeps a copy of the source, not the document
+            watchdog.setSourceFile(mPDFFile);
+            ocrPool = createOCRWorkerPool();
             if (getConfig().getConfigValB(PROP_FILTER_DO_OCR, true))
             {
-                TesseractFactory tf = createOCRFactory();
+                TesseractFactory tf = ocrPool != null ? ocrPool
+                        : createOCRFactory();
                 OCRFilter ocrFilter = new OCRFilter(tf);
                 ocrFilter.setScale(
                         getConfig().getConfigValF(PROP_OCR_IMG_SCALE, 1.0f));
+                ocrFilter.setPreprocessor(createImagePreprocessor());
+                ocrFilter.setWatchdog(watchdog);
+                if (journal != null)
+                {
+                    // pages of finished split files are not processed again
+                    ocrFilter.setStartPage(journal.getResumePage());
+                }
+                int threadCount = getConfig()
+                        .getConfigValI(PROP_OCR_THREAD_COUNT, 0);
+                if (threadCount > 0)
+                {
+                    ocrFilter.setThreadCount(threadCount);
+                }
+                else if (ocrPool != null)
+                {
+                    // the work is done by the worker processes
+                    ocrFilter.setThreadCount(ocrPool.getWorkerCount());
+                }
+                else
+                {
+                    ocrFilter.setThreadPolicy(new OCRThreadPolicy());
+                }
                 ocrFilter.addDocumentFilterListener((aEvent) -> {
                     if (aEvent.getID() == DocumentFilterEvent.EVENT_NEXT_PAGE)
                     {
@@ -711,6 +1022,11 @@ public class PDFSplitFrame extends JFrame
                                 aEvent.getPageIndex() + 1,
                                 aEvent.getPageCount()));
                     }
+                    else if (aEvent
+                            .getID() == DocumentFilterEvent.EVENT_PAGE_DONE)
+                    {
+                        ocrPageCount.incrementAndGet();
+                    }
                 });
                 mPDFDocument = ocrFilter.filter(mPDFDocument);
             }
@@ -719,6 +1035,29 @@ public class PDFSplitFrame extends JFrame
 
             SmartSplitter smsp = new SmartSplitter();
             smsp.addStatusListener(mSplitListener);
+            smsp.setMemoryPolicy(memPolicy);
+            smsp.setSourceFile(mPDFFile);
+            smsp.setPassThrough(ocrPageCount.get() == 0 && getConfig()
+                    .getConfigValB(PROP_OUTPUT_PASS_THROUGH, false));
+            smsp.setCompact(
+                    getConfig().getConfigValB(PROP_OUTPUT_COMPACT, false));
+            smsp.setLinearized(
+                    getConfig().getConfigValB(PROP_OUTPUT_LINEARIZED, false));
+            OutputCommitter committer = OutputCommitter.forName(
+                    getConfig().getConfigValS(PROP_OUTPUT_COMMIT, "atomic"));
+            committer.setBatchSize(getConfig()
+                    .getConfigValI(PROP_OUTPUT_COMMIT_BATCH_SIZE, 32));
+            committer.setBatchInterval(getConfig()
+                    .getConfigValI(PROP_OUTPUT_COMMIT_BATCH_INTERVAL, 1000));
+            smsp.setOutputCommitter(committer);
+            smsp.setJournal(journal);
+            if (getConfig().getConfigValB(PROP_OUTPUT_RECOMPRESS, false))
+            {
+                ImageRecompressor recompressor = new ImageRecompressor();
+                recompressor.setTargetDpi(getConfig()
+                        .getConfigValI(PROP_OUTPUT_RECOMPRESS_DPI, 300));
+                smsp.setImageRecompressor(recompressor);
+            }
 
             String namePattern = mPDFFile.getName().replace(".pdf", "_{0}.pdf");
             smsp.setNamePattern(namePattern);
@@ -736,7 +1075,18 @@ public class PDFSplitFrame extends JFrame
                 {
                     LOGGER.log(Level.INFO, "Will use QR code splitter for: {0}",
                             qrCode);
-                    smsp.addSplitPageIdentifier(new QRCodeIdentifier(qrCode));
+                    QRCodeIdentifier qrIdentifier = new QRCodeIdentifier(qrCode);
+                    qrIdentifier.setWatchdog(watchdog);
+                    qrIdentifier.setRenderProfile(createAnalysisProfile());
+                    if (getConfig().getConfigValB(PROP_FILTER_DO_EMPTY_PAGE,
+                            true))
+                    {
+                        // the pages are checked for being empty from the
+                        // QR code search images
+                        qrIdentifier
+                                .setPageImageListener(getEmptyPageDetector());
+                    }
+                    smsp.addSplitPageIdentifier(qrIdentifier);
                 }
             }
 
@@ -765,7 +1115,7 @@ public class PDFSplitFrame extends JFrame
                 sepArr = new String[0];
             }
 
-            TesseractC ocrEng = null;
+            TextSplitIdentifierOCR ocrSplitter = null;
             try
             {
                 if (sepArr.length > 0)
@@ -783,11 +1133,25 @@ public class PDFSplitFrame extends JFrame
                                 {
                                         sepStr, reqFindCount, forceOCR
                                 });
-                        TextSplitIdentifierOCR ocrSplitter = new TextSplitIdentifierOCR(
-                                sepArr, reqFindCount, forceOCR);
-                        ocrSplitter.setTesseract(ocrEng = createOCREngine());
+                        ocrSplitter = new TextSplitIdentifierOCR(sepArr,
+                                reqFindCount, forceOCR);
+                        if (ocrPool != null)
+                        {
+                            ocrSplitter.setTesseract(
+                                    ocrPool.createCloseableInstance());
+                            ocrSplitter.setTesseractSupplier(
+                                    ocrPool::createCloseableInstance);
+                        }
+                        else
+                        {
+                            ocrSplitter.setTesseract(createOCREngine());
+                            ocrSplitter.setTesseractSupplier(
+                                    this::createOCREngine);
+                        }
+                        ocrSplitter.setWatchdog(watchdog);
                         ocrSplitter.setScale(getConfig()
                                 .getConfigValF(PROP_OCR_IMG_SCALE, 1.0f));
+                        ocrSplitter.setPreprocessor(createImagePreprocessor());
                         smsp.addSplitPageIdentifier(ocrSplitter);
                     }
                     else
@@ -805,13 +1169,22 @@ public class PDFSplitFrame extends JFrame
                 setStatusText(
                         "Will split file " + mPDFFile.getAbsolutePath() + ".");
                 smsp.split(mPDFDocument);
+                LOGGER.log(Level.INFO, "Page analysis of {0}: {1}",
+                        mPDFFile.getName(), watchdog);
+                for (PageTimeoutException timeout : watchdog.getTimeouts())
+                {
+                    LOGGER.log(Level.WARNING, "Abandoned {0}",
+                            timeout.getMessage());
+                }
                 setStatusText("Ready");
             }
             finally
             {
-                if (ocrEng != null)
+                // an instance abandoned after an OCR timeout closes itself
+                if (ocrSplitter != null
+                        && ocrSplitter.getTesseract() instanceof TesseractC)
                 {
-                    ocrEng.close();
+                    ((TesseractC) ocrSplitter.getTesseract()).close();
                 }
             }
 
@@ -823,6 +1196,25 @@ public class PDFSplitFrame extends JFrame
         }
         finally
         {
+            if (ocrPool != null)
+            {
+                ocrPool.close();
+            }
+            if (watchdog != null)
+            {
+                watchdog.close();
+            }
+            if (journal != null)
+            {
+                try
+                {
+                    journal.close();
+                }
+                catch (IOException ex)
+                {
+                    LOGGER.log(Level.ERROR, ex.getMessage(), ex);
+                }
+            }
             mWorking = false;
         }
     }
@@ -834,34 +1226,21 @@ public class PDFSplitFrame extends JFrame
      * @param aDocument
      *            the document that should be displayed in a new PDF document
      *            panel.
+     * @param aFile
+     *            the file of the document.
+     * @param aSourcePages
+     *            the index of the source page for each page of the document
+     *            or null if not known.
      */
-    protected void addTabForDoc(PDDocument aDocument, File aFile)
+    protected void addTabForDoc(PDDocument aDocument, File aFile,
+        int[] aSourcePages)
     {
         PDFDocumentPanel pnl = new PDFDocumentPanel(this, aDocument, aFile);
 
         if (getConfig().getConfigValB(PROP_FILTER_DO_EMPTY_PAGE, true))
         {
-            EmptyPageChecker epc = new EmptyPageChecker(aDocument);
-            epc.setBlockCountH(Integer.valueOf(getConfig()
-                    .getConfigValI(PROP_FILTER_EMPTY_PAGE_BLOCKCOUNT_H, 10)));
-            epc.setBlockCountV(getConfig()
-                    .getConfigValI(PROP_FILTER_EMPTY_PAGE_BLOCKCOUNT_V, 10));
-            epc.setPixelFilledThreshold(getConfig()
-                    .getConfigValI(PROP_FILTER_EMPTY_PAGE_TH_PIXEL, 25));
-            epc.setBlockFilledThreshold(getConfig()
-                    .getConfigValI(PROP_FILTER_EMPTY_PAGE_TH_BLOCK, 2));
-            epc.setPageFilledThreshold(getConfig()
-                    .getConfigValI(PROP_FILTER_EMPTY_PAGE_TH_PAGE, 6));
-
-            int idx = 0;
-            for (PDFPagePanel pagePanel : pnl.getPagePanels())
-            {
-                if (epc.isPageEmpty(pagePanel.getPage(), idx))
-                {
-                    pagePanel.setPageEnabled(false);
-                }
-                idx++;
-            }
+            // empty pages are disabled later on, splitting goes on
+            getEmptyPageDetector().checkDocument(pnl, aSourcePages);
         }
 
         JLabel lbl = new JLabel(pnl.getName(), mPdfFileIcon, JLabel.LEFT);
@@ -874,9 +1253,10 @@ public class PDFSplitFrame extends JFrame
 
         Runnable r = () -> {
             int size = mDocsPane.getTabCount();
+            // the first tab is selected, the others are built when the user
+            // selects them
             mDocsPane.insertTab(pnl.getName(), mPdfFileIcon, pnl, pnl.getName(),
                     size);
-            mDocsPane.setSelectedIndex(size);
             mDocsPane.setTabComponentAt(size, lbl);
         };
 
@@ -884,11 +1264,41 @@ public class PDFSplitFrame extends JFrame
     }
 
 
+    /**
+     * Release the documents of all tabs that are not selected and were not
+     * used for the configured time. Their panels load them again on the next
+     * use.
+     */
+    protected void releaseIdleDocuments()
+    {
+        long timeout = getConfig().getConfigValI(PROP_TABS_IDLE_TIMEOUT, 300)
+                * 1000L;
+        if (timeout <= 0L)
+        {
+            return;
+        }
+        PDFDocumentPanel selected = getSelectedDocumentPanel();
+        for (PDFDocumentPanel pnl : getDocumentPanels())
+        {
+            if (pnl != selected && pnl.isDocumentLoaded()
+                    && pnl.getIdleTime() > timeout)
+            {
+                pnl.releaseDocument();
+            }
+        }
+    }
+
+
     public void closeAllTabs()
     {
         while (mDocsPane.getTabCount() > 0)
         {
+            Component c = mDocsPane.getComponentAt(0);
             mDocsPane.remove(0);
+            if (c instanceof PDFDocumentPanel)
+            {
+                ((PDFDocumentPanel) c).dispose();
+            }
         }
     }
 
@@ -935,7 +1345,8 @@ public class PDFSplitFrame extends JFrame
             updateFileInfoLabel(aEvent);
             if (aEvent.getID() == SplitStatusEvent.EVENT_DOCUMENT_FINISHED)
             {
-                addTabForDoc(aEvent.getDocument(), aEvent.getFile());
+                addTabForDoc(aEvent.getDocument(), aEvent.getFile(),
+                        aEvent.getSourcePageIndices());
             }
         }
     };
@@ -9,12 +9,32 @@ import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_BLOCKCOUNT_V;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_TH_BLOCK;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_TH_PAGE;
 import static de.code2be.pdfsplit.Config.PROP_FILTER_EMPTY_PAGE_TH_PIXEL;
+import static de.code2be.pdfsplit.Config.PROP_IO_MAPPED;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMMIT;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_COMPACT;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_LINEARIZED;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_PASS_THROUGH;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_RECOMPRESS;
+import static de.code2be.pdfsplit.Config.PROP_OUTPUT_RECOMPRESS_DPI;
+import static de.code2be.pdfsplit.Config.PROP_MEMORY_POLICY;
+import static de.code2be.pdfsplit.Config.PROP_MEMORY_THRESHOLD;
 import static de.code2be.pdfsplit.Config.PROP_OCR_DATAPATH;
+import static de.code2be.pdfsplit.Config.PROP_PREVIEW_CACHE_SIZE;
+import static de.code2be.pdfsplit.Config.PROP_PREVIEW_DISK_CACHE_DIR;
+import static de.code2be.pdfsplit.Config.PROP_PREVIEW_DISK_CACHE_SIZE;
+import static de.code2be.pdfsplit.Config.PROP_TABS_IDLE_TIMEOUT;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_QR_CODE;
+import static de.code2be.pdfsplit.Config.PROP_SPLIT_JOURNAL;
 
 import static de.code2be.pdfsplit.Config.PROP_OCR_ENGINE_MODE;
 import static de.code2be.pdfsplit.Config.PROP_OCR_IMG_SCALE;
 import static de.code2be.pdfsplit.Config.PROP_OCR_LANG;
+import static de.code2be.pdfsplit.Config.PROP_OCR_PREPROCESS;
+import static de.code2be.pdfsplit.Config.PROP_OCR_PREPROCESS_BINARIZE;
+import static de.code2be.pdfsplit.Config.PROP_OCR_PREPROCESS_DESKEW;
+import static de.code2be.pdfsplit.Config.PROP_OCR_PREPROCESS_DESPECKLE;
+import static de.code2be.pdfsplit.Config.PROP_OCR_THREAD_COUNT;
+import static de.code2be.pdfsplit.Config.PROP_OCR_WORKERS;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_DO_OCR;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_FORCE_OCR;
 import static de.code2be.pdfsplit.Config.PROP_SEPARATOR_TEXT;
@@ -86,6 +106,29 @@ public class PDFSplitSettingsPanel extends JPanel
                 I18n.getMessage(PDFSplitSettingsPanel.class, "panel.general")));
         pnlGeneral.add(createLabeledTextFor(PROP_DIRECTORY_OPEN));
         pnlGeneral.add(createLabeledTextFor(PROP_DIRECTORY_SAVE));
+        pnlGeneral.add(createLabeledTextFor(PROP_MEMORY_POLICY));
+        pnlGeneral.add(createLabeledTextFor(PROP_MEMORY_THRESHOLD));
+        pnlGeneral.add(createLabeledTextFor(PROP_PREVIEW_CACHE_SIZE));
+        pnlGeneral.add(createLabeledTextFor(PROP_PREVIEW_DISK_CACHE_SIZE));
+        pnlGeneral.add(createLabeledTextFor(PROP_PREVIEW_DISK_CACHE_DIR));
+        pnlGeneral.add(createLabeledTextFor(PROP_TABS_IDLE_TIMEOUT));
+        pnlGeneral.add(createLabeledCheckBoxFor(PROP_IO_MAPPED, I18n
+                .getMessage(PDFSplitSettingsPanel.class, "label.io.mapped")));
+        pnlGeneral.add(createLabeledCheckBoxFor(PROP_OUTPUT_PASS_THROUGH,
+                I18n.getMessage(PDFSplitSettingsPanel.class,
+                        "label.output.passThrough")));
+        pnlGeneral.add(createLabeledCheckBoxFor(PROP_OUTPUT_COMPACT, I18n
+                .getMessage(PDFSplitSettingsPanel.class, "label.output.compact")));
+        pnlGeneral.add(createLabeledCheckBoxFor(PROP_OUTPUT_RECOMPRESS,
+                I18n.getMessage(PDFSplitSettingsPanel.class,
+                        "label.output.recompress")));
+        pnlGeneral.add(createLabeledTextFor(PROP_OUTPUT_RECOMPRESS_DPI));
+        pnlGeneral.add(createLabeledCheckBoxFor(PROP_OUTPUT_LINEARIZED,
+                I18n.getMessage(PDFSplitSettingsPanel.class,
+                        "label.output.linearized")));
+        pnlGeneral.add(createLabeledTextFor(PROP_OUTPUT_COMMIT));
+        pnlGeneral.add(createLabeledCheckBoxFor(PROP_SPLIT_JOURNAL, I18n
+                .getMessage(PDFSplitSettingsPanel.class, "label.split.journal")));
 
         add(pnlGeneral);
 
@@ -146,6 +189,19 @@ public class PDFSplitSettingsPanel extends JPanel
 
         pnlOcr.add(createLabeledTextFor(PROP_OCR_LANG, "Language:"));
         pnlOcr.add(createLabeledTextFor(PROP_OCR_IMG_SCALE, "Image Scale:"));
+        pnlOcr.add(createLabeledTextFor(PROP_OCR_THREAD_COUNT,
+                "Threads (0 = auto):"));
+        pnlOcr.add(createLabeledTextFor(PROP_OCR_WORKERS,
+                "Worker Processes (0 = none):"));
+        pnlOcr.add(createColumnPanel(
+                createLabeledCheckBoxFor(PROP_OCR_PREPROCESS,
+                        "Pre-Process Images"),
+                createLabeledCheckBoxFor(PROP_OCR_PREPROCESS_DESKEW,
+                        "Deskew")));
+        pnlOcr.add(createLabeledTextFor(PROP_OCR_PREPROCESS_BINARIZE,
+                "Binarization:"));
+        pnlOcr.add(createLabeledTextFor(PROP_OCR_PREPROCESS_DESPECKLE,
+                "Max. Speckle Size:"));
         add(pnlOcr);
 
         List<JLabel> labels = new ArrayList<>();
@@ -0,0 +1,249 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded scheduler for rendering page previews. All
+ * {@link PDFPagePanel}'s share a small number of render threads instead of
+ * starting a thread per page. Renders are executed by priority: visible pages
+ * ({@link #PRIORITY_VISIBLE}) first, then pages just beyond the viewport
+ * ({@link #PRIORITY_PREFETCH} plus the distance to the viewport). Queued
+ * renders can be cancelled, e.g. if the page scrolled away or its size
+ * changed.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class RenderScheduler
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(RenderScheduler.class.getName());
+
+    /**
+     * The priority of pages that are currently visible.
+     */
+    public static final int PRIORITY_VISIBLE = 0;
+
+    /**
+     * The base priority of pages beyond the viewport. The distance in pixels
+     * to the viewport is added.
+     */
+    public static final int PRIORITY_PREFETCH = 1;
+
+    private static RenderScheduler sDefault;
+
+    private final PriorityBlockingQueue<Task> mQueue = new PriorityBlockingQueue<>();
+
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final AtomicLong mRenderCount = new AtomicLong();
+
+    private final AtomicLong mCancelledCount = new AtomicLong();
+
+    private final AtomicLong mTotalLatency = new AtomicLong();
+
+    private final AtomicLong mMaxLatency = new AtomicLong();
+
+    /**
+     * A queued render.
+     */
+    public static final class Task implements Comparable<Task>
+    {
+
+        private final Runnable mWork;
+
+        private final int mPriority;
+
+        private final long mSequence;
+
+        private final long mSubmitTime = System.nanoTime();
+
+        private Task(Runnable aWork, int aPriority, long aSequence)
+        {
+            mWork = aWork;
+            mPriority = aPriority;
+            mSequence = aSequence;
+        }
+
+
+        /**
+         *
+         * @return the priority of the task, lower values are executed first.
+         */
+        public int getPriority()
+        {
+            return mPriority;
+        }
+
+
+        @Override
+        public int compareTo(Task aOther)
+        {
+            int res = Integer.compare(mPriority, aOther.mPriority);
+            return res != 0 ? res : Long.compare(mSequence, aOther.mSequence);
+        }
+    }
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param aThreadCount
+     *            the number of render threads.
+     */
+    public RenderScheduler(int aThreadCount)
+    {
+        for (int i = 0; i < aThreadCount; i++)
+        {
+            Thread t = new Thread(this::work, "PDFPageRender-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+
+    /**
+     *
+     * @return the scheduler shared by all page panels. Renders of the same
+     *         document are serialized on the document, so a few threads are
+     *         enough.
+     */
+    public static synchronized RenderScheduler getDefault()
+    {
+        if (sDefault == null)
+        {
+            sDefault = new RenderScheduler(Math.max(1,
+                    Math.min(4, Runtime.getRuntime().availableProcessors())));
+        }
+        return sDefault;
+    }
+
+
+    /**
+     * Queue a render.
+     *
+     * @param aWork
+     *            the render to execute.
+     * @param aPriority
+     *            the priority, lower values are executed first.
+     * @return the task, which can be used to cancel the render while it is
+     *         queued.
+     */
+    public Task submit(Runnable aWork, int aPriority)
+    {
+        Task res = new Task(aWork, aPriority, mSequence.incrementAndGet());
+        mQueue.add(res);
+        return res;
+    }
+
+
+    /**
+     * Cancel a queued render.
+     *
+     * @param aTask
+     *            the task to cancel.
+     * @return true if the task was removed from the queue, false if it is
+     *         already running or done.
+     */
+    public boolean cancel(Task aTask)
+    {
+        if (mQueue.remove(aTask))
+        {
+            mCancelledCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     *
+     * @return the number of queued renders.
+     */
+    public int getQueueDepth()
+    {
+        return mQueue.size();
+    }
+
+
+    /**
+     *
+     * @return the number of finished renders.
+     */
+    public long getRenderCount()
+    {
+        return mRenderCount.get();
+    }
+
+
+    /**
+     *
+     * @return the number of renders cancelled while queued.
+     */
+    public long getCancelledCount()
+    {
+        return mCancelledCount.get();
+    }
+
+
+    /**
+     *
+     * @return the average time in ms from submitting to finishing a render.
+     */
+    public long getAverageLatency()
+    {
+        long count = mRenderCount.get();
+        return count > 0 ? mTotalLatency.get() / count : 0L;
+    }
+
+
+    /**
+     *
+     * @return the maximum time in ms from submitting to finishing a render.
+     */
+    public long getMaxLatency()
+    {
+        return mMaxLatency.get();
+    }
+
+
+    private void work()
+    {
+        while (true)
+        {
+            Task task;
+            try
+            {
+                task = mQueue.take();
+            }
+            catch (InterruptedException ex)
+            {
+                return;
+            }
+            try
+            {
+                task.mWork.run();
+            }
+            catch (Throwable ex)
+            {
+                LOGGER.log(Level.ERROR, ex.getMessage(), ex);
+            }
+            long latency = (System.nanoTime() - task.mSubmitTime) / 1000000L;
+            mTotalLatency.addAndGet(latency);
+            mMaxLatency.accumulateAndGet(latency, Math::max);
+            mRenderCount.incrementAndGet();
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return mRenderCount.get() + " renders, " + mCancelledCount.get()
+                + " cancelled, " + getQueueDepth() + " queued, avg "
+                + getAverageLatency() + "ms, max " + getMaxLatency() + "ms";
+    }
+}
@@ -0,0 +1,327 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A cache for the preview images of all {@link PDFPagePanel}'s with a memory
+ * budget. If the budget is exceeded, the least recently painted images are
+ * dropped, which are the ones of pages out of view. A page without image is
+ * rendered again when it is painted. <br/>
+ * Images are stored in the most compact format that keeps them unchanged:
+ * 1 bit per pixel for black and white, 8 bit for gray and RGB only for
+ * colored pages.
+ *
+ * @author Michael Weiss
+ *
+ */
+public class ThumbnailCache
+{
+
+    private static ThumbnailCache sDefault;
+
+    /**
+     * A palette of all gray values. Unlike {@link BufferedImage#TYPE_BYTE_GRAY}
+     * with its linear color space, this keeps the gray values unchanged.
+     */
+    static final IndexColorModel GRAY_PALETTE = createGrayPalette();
+
+    /**
+     * The maximum number of bytes of all cached images.
+     */
+    private long mBudget = 128L * 1024L * 1024L;
+
+    /**
+     * The current number of bytes of all cached images.
+     */
+    private long mSize = 0L;
+
+    private long mHitCount = 0L;
+
+    private long mMissCount = 0L;
+
+    private long mEvictionCount = 0L;
+
+    /**
+     * The cached images in access order, the least recently used first.
+     */
+    private final LinkedHashMap<Object, BufferedImage> mImages = new LinkedHashMap<>(
+            256, 0.75f, true);
+
+    /**
+     *
+     * @return the cache shared by all page panels.
+     */
+    public static synchronized ThumbnailCache getDefault()
+    {
+        if (sDefault == null)
+        {
+            sDefault = new ThumbnailCache();
+        }
+        return sDefault;
+    }
+
+
+    /**
+     *
+     * @param aBudget
+     *            the maximum number of bytes of all cached images. It should
+     *            hold at least the images of all visible pages.
+     */
+    public synchronized void setBudget(long aBudget)
+    {
+        mBudget = aBudget;
+        evict(null);
+    }
+
+
+    /**
+     *
+     * @return the maximum number of bytes of all cached images.
+     */
+    public synchronized long getBudget()
+    {
+        return mBudget;
+    }
+
+
+    /**
+     *
+     * @return the current number of bytes of all cached images.
+     */
+    public synchronized long getSize()
+    {
+        return mSize;
+    }
+
+
+    /**
+     *
+     * @return the number of cached images.
+     */
+    public synchronized int getCount()
+    {
+        return mImages.size();
+    }
+
+
+    /**
+     *
+     * @return the number of images dropped to stay within the budget.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return mEvictionCount;
+    }
+
+
+    /**
+     *
+     * @param aKey
+     *            the key of the image.
+     * @return the image or null if it is not cached. The image is marked as
+     *         recently used.
+     */
+    public synchronized BufferedImage get(Object aKey)
+    {
+        BufferedImage res = mImages.get(aKey);
+        if (res != null)
+        {
+            mHitCount++;
+        }
+        else
+        {
+            mMissCount++;
+        }
+        return res;
+    }
+
+
+    /**
+     *
+     * @param aKey
+     *            the key of the image.
+     * @return true if an image is cached for the key. This does not change the
+     *         order of use.
+     */
+    public synchronized boolean contains(Object aKey)
+    {
+        return mImages.containsKey(aKey);
+    }
+
+
+    /**
+     * Add an image to the cache. Least recently used images are dropped until
+     * the cache is within its budget again, the new image is kept in any case.
+     *
+     * @param aKey
+     *            the key of the image.
+     * @param aImage
+     *            the image.
+     */
+    public synchronized void put(Object aKey, BufferedImage aImage)
+    {
+        BufferedImage old = mImages.put(aKey, aImage);
+        if (old != null)
+        {
+            mSize -= sizeOf(old);
+        }
+        mSize += sizeOf(aImage);
+        evict(aKey);
+    }
+
+
+    /**
+     *
+     * @param aKey
+     *            the key of the image.
+     * @return the removed image or null if none was cached.
+     */
+    public synchronized BufferedImage remove(Object aKey)
+    {
+        BufferedImage res = mImages.remove(aKey);
+        if (res != null)
+        {
+            mSize -= sizeOf(res);
+        }
+        return res;
+    }
+
+
+    /**
+     * Remove all images whose key matches a filter, e.g. all images of a
+     * closed document.
+     *
+     * @param aFilter
+     *            the filter for the keys to remove.
+     */
+    public synchronized void removeIf(Predicate<Object> aFilter)
+    {
+        Iterator<Map.Entry<Object, BufferedImage>> it = mImages.entrySet()
+                .iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<Object, BufferedImage> e = it.next();
+            if (aFilter.test(e.getKey()))
+            {
+                mSize -= sizeOf(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+
+    private void evict(Object aKeep)
+    {
+        Iterator<Map.Entry<Object, BufferedImage>> it = mImages.entrySet()
+                .iterator();
+        while (mSize > mBudget && it.hasNext())
+        {
+            Map.Entry<Object, BufferedImage> e = it.next();
+            if (e.getKey() == aKeep)
+            {
+                continue;
+            }
+            mSize -= sizeOf(e.getValue());
+            mEvictionCount++;
+            it.remove();
+        }
+    }
+
+
+    /**
+     *
+     * @param aImage
+     *            the image.
+     * @return the number of bytes of the image data.
+     */
+    public static long sizeOf(BufferedImage aImage)
+    {
+        DataBuffer db = aImage.getRaster().getDataBuffer();
+        return (long) db.getSize() * db.getNumBanks()
+                * (DataBuffer.getDataTypeSize(db.getDataType()) / 8);
+    }
+
+
+    /**
+     * Convert an RGB image into the most compact format that keeps it
+     * unchanged.
+     *
+     * @param aImage
+     *            the image to convert.
+     * @return a binary image if all pixels are black or white, an 8 bit image
+     *         with a gray palette if all pixels are gray, else the given
+     *         image.
+     */
+    public static BufferedImage compact(BufferedImage aImage)
+    {
+        if (aImage.getType() != BufferedImage.TYPE_INT_RGB
+                || aImage.getRaster().getParent() != null)
+        {
+            return aImage;
+        }
+        int[] data = ((DataBufferInt) aImage.getRaster().getDataBuffer())
+                .getData();
+        boolean binary = true;
+        for (int rgb : data)
+        {
+            int r = (rgb >> 16) & 0xFF;
+            int g = (rgb >> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            if (r != g || g != b)
+            {
+                return aImage;
+            }
+            if (binary && r != 0 && r != 0xFF)
+            {
+                binary = false;
+            }
+        }
+        int w = aImage.getWidth();
+        int h = aImage.getHeight();
+        BufferedImage res = binary
+                ? new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY)
+                : new BufferedImage(w, h, BufferedImage.TYPE_BYTE_INDEXED,
+                        GRAY_PALETTE);
+        WritableRaster raster = res.getRaster();
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++)
+        {
+            int off = y * w;
+            for (int x = 0; x < w; x++)
+            {
+                int v = data[off + x] & 0xFF;
+                row[x] = binary ? (v != 0 ? 1 : 0) : v;
+            }
+            raster.setSamples(0, y, w, 1, 0, row);
+        }
+        return res;
+    }
+
+
+    private static IndexColorModel createGrayPalette()
+    {
+        byte[] gray = new byte[256];
+        for (int i = 0; i < gray.length; i++)
+        {
+            gray[i] = (byte) i;
+        }
+        return new IndexColorModel(8, 256, gray, gray, gray);
+    }
+
+
+    @Override
+    public synchronized String toString()
+    {
+        return mImages.size() + " images, " + mSize / 1024L + "KB of "
+                + mBudget / 1024L + "KB, " + mHitCount + " hits, "
+                + mMissCount + " misses, " + mEvictionCount + " evictions";
+    }
+}
@@ -0,0 +1,123 @@
+package de.code2be.generic;
+
+import java.io.File;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.SmartSplitter;
+import de.code2be.pdfsplit.output.OutputCommitter;
+
+/**
+ * A simple benchmark that compares the throughput of the output commit modes
+ * (direct, atomic, batch, sync). Run it on the file system the split files
+ * are written to, as fsync costs differ a lot between local disks and network
+ * shares.<br/>
+ * Usage: CommitModeBenchmark &lt;pdf file&gt; [pages per file] [runs] [output
+ * directory]
+ */
+public class CommitModeBenchmark
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(CommitModeBenchmark.class.getName());
+
+    private static final String[] MODES =
+    {
+            "direct", "atomic", "batch", "sync"
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println(
+                    "Usage: CommitModeBenchmark <pdf file> [pages per file] [runs] [output directory]");
+            return;
+        }
+        File file = new File(args[0]);
+        int every = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        File outDir = args.length > 3
+                ? Files.createTempDirectory(new File(args[3]).toPath(),
+                        "pdfsplit_bench").toFile()
+                : Files.createTempDirectory("pdfsplit_bench").toFile();
+        try
+        {
+            // warm up all modes once
+            for (String mode : MODES)
+            {
+                run(file, mode, every, outDir);
+            }
+
+            for (int i = 0; i < runs; i++)
+            {
+                for (String mode : MODES)
+                {
+                    long[] res = run(file, mode, every, outDir);
+                    LOGGER.log(Level.INFO,
+                            "Run {0} {1}: {2} files in {3}ms ({4} files/s), {5} syncs",
+                            i, mode, res[0], res[1],
+                            res[1] > 0 ? res[0] * 1000L / res[1] : res[0],
+                            res[2]);
+                }
+            }
+        }
+        finally
+        {
+            for (File f : outDir.listFiles())
+            {
+                f.delete();
+            }
+            outDir.delete();
+        }
+    }
+
+
+    /**
+     * Split the given file once with the given commit mode.
+     *
+     * @return the number of written files, the split time in ms and the number
+     *         of forced flushes to disk.
+     */
+    private static long[] run(File aFile, String aMode, int aEvery,
+            File aOutDir)
+        throws Exception
+    {
+        try (PDDocument doc = PDFHelper.loadPDF(aFile, false, null))
+        {
+            OutputCommitter committer = OutputCommitter.forName(aMode);
+            SmartSplitter splitter = new SmartSplitter();
+            splitter.setTargetDirectory(aOutDir);
+            splitter.setNamePattern("part_{0}.pdf");
+            splitter.setOutputCommitter(committer);
+            // every (n+1)th page is a separator page, so each file has n
+            // pages
+            splitter.addSplitPageIdentifier(
+                    (aDoc, aPage, aIndex) -> aIndex % (aEvery + 1) == aEvery);
+
+            long start = System.nanoTime();
+            List<PDDocument> docs = splitter.split(doc);
+            long split = System.nanoTime();
+
+            for (PDDocument d : docs)
+            {
+                d.close();
+            }
+            long count = 0L;
+            for (File f : aOutDir.listFiles())
+            {
+                count++;
+                f.delete();
+            }
+            return new long[]
+            {
+                    count, (split - start) / 1000000L, committer.getSyncCount()
+            };
+        }
+    }
+}
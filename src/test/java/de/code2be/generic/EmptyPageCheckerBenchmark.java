@@ -0,0 +1,137 @@
+package de.code2be.generic;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import de.code2be.pdfsplit.EmptyPageChecker;
+import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.RenderProfile;
+
+/**
+ * A simple benchmark that compares the empty page check block by block from
+ * the raster (as done before, RGB at the default scale) with the check on the
+ * summed area table of a gray 72 DPI render. The pages are rendered once, only
+ * the checks are timed.<br/>
+ * Usage: EmptyPageCheckerBenchmark &lt;pdf file&gt; [runs]
+ */
+public class EmptyPageCheckerBenchmark
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(EmptyPageCheckerBenchmark.class.getName());
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println(
+                    "Usage: EmptyPageCheckerBenchmark <pdf file> [runs]");
+            return;
+        }
+        File file = new File(args[0]);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        try (PDDocument doc = PDFHelper.loadPDF(file, false, null))
+        {
+            PDFRenderer renderer = RenderProfile
+                    .forName(RenderProfile.ANALYSIS).createRenderer(doc);
+            int pageCount = doc.getNumberOfPages();
+            BufferedImage[] rgb = new BufferedImage[pageCount];
+            BufferedImage[] gray = new BufferedImage[pageCount];
+            for (int i = 0; i < pageCount; i++)
+            {
+                rgb[i] = renderer.renderImage(i);
+                gray[i] = renderer.renderImageWithDPI(i, 72f, ImageType.GRAY);
+            }
+
+            BlockChecker checker = new BlockChecker();
+            // warm up both checks
+            for (int i = 0; i < 3; i++)
+            {
+                run(checker, rgb, false);
+                run(checker, gray, true);
+            }
+
+            for (int i = 0; i < runs; i++)
+            {
+                long blocks = run(checker, rgb, false);
+                long table = run(checker, gray, true);
+                LOGGER.log(Level.INFO,
+                        "Run {0}: {1} pages, blocks={2}us, table={3}us, {4} empty",
+                        i, pageCount, blocks / 1000L, table / 1000L,
+                        checker.mEmpty);
+            }
+        }
+    }
+
+
+    /**
+     * Check all images once.
+     *
+     * @return the time in ns.
+     */
+    private static long run(BlockChecker aChecker, BufferedImage[] aImages,
+            boolean aTable)
+    {
+        aChecker.mEmpty = 0;
+        long start = System.nanoTime();
+        for (BufferedImage img : aImages)
+        {
+            boolean empty = aTable ? aChecker.isImageEmpty(img)
+                    : aChecker.isImageEmptyByBlocks(img);
+            if (empty)
+            {
+                aChecker.mEmpty++;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    /**
+     * Gives access to the block check, which is protected.
+     */
+    private static class BlockChecker extends EmptyPageChecker
+    {
+
+        private int mEmpty;
+
+        BlockChecker()
+        {
+            super(null);
+        }
+
+
+        /**
+         * The check as it was before the summed area table.
+         */
+        boolean isImageEmptyByBlocks(BufferedImage aImage)
+        {
+            int bands = aImage.getRaster().getNumBands();
+            int bW = aImage.getWidth() / getBlockCountH();
+            int bH = aImage.getHeight() / getBlockCountV();
+            int[] buffer = new int[bW * bH * bands];
+            int sumBlocks = 0;
+            for (int bx = 0; bx < getBlockCountH(); bx++)
+            {
+                for (int by = 0; by < getBlockCountV(); by++)
+                {
+                    buffer = aImage.getRaster().getPixels(bx * bW, by * bH,
+                            bW, bH, buffer);
+                    if (isBlockFilled(buffer, bands)
+                            && ++sumBlocks >= getPageFilledThreshold())
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package de.code2be.generic;
+
+import java.io.File;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.SmartSplitter;
+
+/**
+ * A simple benchmark that compares loading and splitting a PDF file with the
+ * buffered file reader of PDFBox and with the memory mapped reader.<br/>
+ * Usage: MappedReadBenchmark &lt;pdf file&gt; [split every n pages] [runs]
+ */
+public class MappedReadBenchmark
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(MappedReadBenchmark.class.getName());
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println(
+                    "Usage: MappedReadBenchmark <pdf file> [split every n pages] [runs]");
+            return;
+        }
+        File file = new File(args[0]);
+        int every = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        File outDir = Files.createTempDirectory("pdfsplit_bench").toFile();
+        try
+        {
+            // warm up both readers once
+            run(file, false, every, outDir);
+            run(file, true, every, outDir);
+
+            for (int i = 0; i < runs; i++)
+            {
+                long[] buffered = run(file, false, every, outDir);
+                long[] mapped = run(file, true, every, outDir);
+                LOGGER.log(Level.INFO,
+                        "Run {0}: buffered load={1}ms split={2}ms, mapped load={3}ms split={4}ms",
+                        i, buffered[0], buffered[1], mapped[0], mapped[1]);
+            }
+        }
+        finally
+        {
+            for (File f : outDir.listFiles())
+            {
+                f.delete();
+            }
+            outDir.delete();
+        }
+    }
+
+
+    /**
+     * Load and split the given file once.
+     *
+     * @return the load and split time in ms.
+     */
+    private static long[] run(File aFile, boolean aMapped, int aEvery,
+            File aOutDir)
+        throws Exception
+    {
+        long start = System.nanoTime();
+        try (PDDocument doc = PDFHelper.loadPDF(aFile, aMapped, null))
+        {
+            doc.getNumberOfPages();
+            long loaded = System.nanoTime();
+
+            SmartSplitter splitter = new SmartSplitter();
+            splitter.setTargetDirectory(aOutDir);
+            splitter.setNamePattern("part_{0}.pdf");
+            splitter.addSplitPageIdentifier(
+                    (aDoc, aPage, aIndex) -> aIndex > 0 && aIndex % aEvery == 0);
+            List<PDDocument> docs = splitter.split(doc);
+            long split = System.nanoTime();
+
+            for (PDDocument d : docs)
+            {
+                d.close();
+            }
+            for (File f : aOutDir.listFiles())
+            {
+                f.delete();
+            }
+            return new long[]
+            {
+                    (loaded - start) / 1000000L, (split - loaded) / 1000000L
+            };
+        }
+    }
+}
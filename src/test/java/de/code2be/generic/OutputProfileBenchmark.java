@@ -0,0 +1,118 @@
+package de.code2be.generic;
+
+import java.io.File;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.SmartSplitter;
+
+/**
+ * A simple benchmark that compares the save time and the size of split files
+ * written by PDFBox (default), by the pass through writer and with the compact
+ * output profile.<br/>
+ * Usage: OutputProfileBenchmark &lt;pdf file&gt; [split every n pages] [runs]
+ */
+public class OutputProfileBenchmark
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(OutputProfileBenchmark.class.getName());
+
+    private static final String[] PROFILES =
+    {
+            "default", "passThrough", "compact"
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println(
+                    "Usage: OutputProfileBenchmark <pdf file> [split every n pages] [runs]");
+            return;
+        }
+        File file = new File(args[0]);
+        int every = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        File outDir = Files.createTempDirectory("pdfsplit_bench").toFile();
+        try
+        {
+            // warm up all profiles once
+            for (int p = 0; p < PROFILES.length; p++)
+            {
+                run(file, p, every, outDir);
+            }
+
+            for (int i = 0; i < runs; i++)
+            {
+                for (int p = 0; p < PROFILES.length; p++)
+                {
+                    long[] res = run(file, p, every, outDir);
+                    LOGGER.log(Level.INFO,
+                            "Run {0} {1}: split={2}ms size={3} bytes, dedup saved={4} bytes",
+                            i, PROFILES[p], res[0], res[1], res[2]);
+                }
+            }
+        }
+        finally
+        {
+            for (File f : outDir.listFiles())
+            {
+                f.delete();
+            }
+            outDir.delete();
+        }
+    }
+
+
+    /**
+     * Split the given file once with the given profile.
+     *
+     * @return the split time in ms, the total size of all split files and the
+     *         bytes saved by removing duplicate streams.
+     */
+    private static long[] run(File aFile, int aProfile, int aEvery,
+            File aOutDir)
+        throws Exception
+    {
+        try (PDDocument doc = PDFHelper.loadPDF(aFile, false, null))
+        {
+            long[] saved = new long[1];
+            SmartSplitter splitter = new SmartSplitter();
+            splitter.setTargetDirectory(aOutDir);
+            splitter.setNamePattern("part_{0}.pdf");
+            splitter.setSourceFile(aFile);
+            splitter.setPassThrough(aProfile == 1);
+            splitter.setCompact(aProfile == 2);
+            splitter.addStatusListener(
+                    (aEvent) -> saved[0] += aEvent.getSavedBytes());
+            splitter.addSplitPageIdentifier(
+                    (aDoc, aPage, aIndex) -> aIndex > 0 && aIndex % aEvery == 0);
+
+            long start = System.nanoTime();
+            List<PDDocument> docs = splitter.split(doc);
+            long split = System.nanoTime();
+
+            for (PDDocument d : docs)
+            {
+                d.close();
+            }
+            long size = 0L;
+            for (File f : aOutDir.listFiles())
+            {
+                size += f.length();
+                f.delete();
+            }
+            return new long[]
+            {
+                    (split - start) / 1000000L, size, saved[0]
+            };
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.code2be.generic;
+
+import java.io.File;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import de.code2be.pdfsplit.PDFHelper;
+import de.code2be.pdfsplit.RenderProfile;
+
+/**
+ * A simple benchmark that compares the time to render all pages of a document
+ * with the different render profiles. Previews are rendered like
+ * PDFPagePanel does (RGB, fitted into 210 x 297 pixels), analysis renders like
+ * QRCodeIdentifier does (gray, 72 DPI).<br/>
+ * Usage: RenderProfileBenchmark &lt;pdf file&gt; [runs]
+ */
+public class RenderProfileBenchmark
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(RenderProfileBenchmark.class.getName());
+
+    private static final String[] PROFILES =
+    {
+            RenderProfile.QUALITY, RenderProfile.PREVIEW, RenderProfile.ANALYSIS
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: RenderProfileBenchmark <pdf file> [runs]");
+            return;
+        }
+        File file = new File(args[0]);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        try (PDDocument doc = PDFHelper.loadPDF(file, false, null))
+        {
+            // warm up all profiles once
+            for (String profile : PROFILES)
+            {
+                run(doc, profile, false);
+                run(doc, profile, true);
+            }
+
+            for (int i = 0; i < runs; i++)
+            {
+                for (String profile : PROFILES)
+                {
+                    long preview = run(doc, profile, false);
+                    long analysis = run(doc, profile, true);
+                    LOGGER.log(Level.INFO,
+                            "Run {0} {1}: {2} pages, preview={3}ms, analysis={4}ms",
+                            i, profile, doc.getNumberOfPages(), preview,
+                            analysis);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Render all pages of the document once.
+     *
+     * @return the time in ms.
+     */
+    private static long run(PDDocument aDoc, String aProfile,
+            boolean aAnalysis)
+        throws Exception
+    {
+        PDFRenderer renderer = RenderProfile.forName(aProfile)
+                .createRenderer(aDoc);
+        long start = System.nanoTime();
+        for (int i = 0; i < aDoc.getNumberOfPages(); i++)
+        {
+            if (aAnalysis)
+            {
+                renderer.renderImageWithDPI(i, 72f, ImageType.GRAY);
+            }
+            else
+            {
+                float dpi = (float) (72.0d / Math.max(
+                        aDoc.getPage(i).getMediaBox().getWidth() / 210.0d,
+                        aDoc.getPage(i).getMediaBox().getHeight() / 297.0d));
+                renderer.renderImageWithDPI(i, dpi, ImageType.RGB);
+            }
+        }
+        return (System.nanoTime() - start) / 1000000L;
+    }
+}
@@ -88,6 +88,33 @@ class TesseractFactoryTest
     }
 
 
+    @Test
+    void testSetSettings()
+    {
+        TesseractFactory f = new TesseractFactory();
+        f.setConfigs(List.of("config1"));
+        f.setDatapath("./tessdata");
+        f.setLanguage("deu");
+        f.setOcrEngineMode(2);
+        f.setPageSegnMode(6);
+        f.setVariable("variable1", "Value1");
+
+        TesseractFactory copy = new TesseractFactory();
+        copy.setVariable("variable2", "Value2");
+        copy.setSettings(f);
+        assertLinesMatch(List.of("config1"), copy.getConfigList());
+        assertEquals("./tessdata", copy.getDatapath());
+        assertEquals("deu", copy.getLanguage());
+        assertEquals(2, copy.getOcrEngineMode());
+        assertEquals(6, copy.getPageSegnMode());
+        assertEquals(f.getVariables(), copy.getVariables());
+
+        // the copy is independent of the original
+        f.setVariable("variable1", "Value3");
+        assertEquals("Value1", copy.getVariable("variable1"));
+    }
+
+
     private Object getFieldValue(Object aObject, String aFieldName)
     {
         return getFieldValue(aObject.getClass(), aObject, aFieldName);
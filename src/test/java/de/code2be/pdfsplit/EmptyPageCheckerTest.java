@@ -0,0 +1,125 @@
+package de.code2be.pdfsplit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class EmptyPageCheckerTest
+{
+
+    /**
+     * Create an image with a few random gray boxes on white.
+     */
+    private static BufferedImage createImage(int aType, long aSeed)
+    {
+        Random rnd = new Random(aSeed);
+        BufferedImage res = new BufferedImage(297, 421, aType);
+        Graphics2D g = res.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, res.getWidth(), res.getHeight());
+        for (int i = 0; i < 12; i++)
+        {
+            int v = rnd.nextInt(256);
+            g.setColor(new Color(v, v, rnd.nextInt(256)));
+            g.fillRect(rnd.nextInt(res.getWidth()), rnd.nextInt(res.getHeight()),
+                    1 + rnd.nextInt(30), 1 + rnd.nextInt(30));
+        }
+        g.dispose();
+        return res;
+    }
+
+
+    /**
+     * Count the filled blocks the way the checker did before the summed area
+     * table, block by block from the raster.
+     */
+    private static int countBlocks(EmptyPageChecker aChecker,
+        BufferedImage aImage, int aBlockCountH, int aBlockCountV)
+    {
+        int bands = aImage.getRaster().getNumBands();
+        int bW = aImage.getWidth() / aBlockCountH;
+        int bH = aImage.getHeight() / aBlockCountV;
+        int[] buffer = new int[bW * bH * bands];
+        int res = 0;
+        for (int bx = 0; bx < aBlockCountH; bx++)
+        {
+            for (int by = 0; by < aBlockCountV; by++)
+            {
+                aImage.getRaster().getPixels(bx * bW, by * bH, bW, bH, buffer);
+                if (aChecker.isBlockFilled(buffer, bands))
+                {
+                    res++;
+                }
+            }
+        }
+        return res;
+    }
+
+
+    @Test
+    void testSameAsBlockCheck()
+    {
+        EmptyPageChecker epc = new EmptyPageChecker(null);
+        int[][] grids =
+        {
+                { 10, 10 }, { 7, 13 }, { 1, 1 }, { 40, 40 }
+        };
+        for (int type : new int[] { BufferedImage.TYPE_BYTE_GRAY,
+                BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR })
+        {
+            for (long seed = 0; seed < 5; seed++)
+            {
+                BufferedImage img = createImage(type, seed);
+                // all grids are counted on the same table
+                int[] table = epc.createFilledTable(img);
+                for (int[] grid : grids)
+                {
+                    assertEquals(countBlocks(epc, img, grid[0], grid[1]),
+                            epc.countFilledBlocks(table, img.getWidth(),
+                                    img.getHeight(), grid[0], grid[1],
+                                    Integer.MAX_VALUE),
+                            "type " + type + ", seed " + seed + ", grid "
+                                    + grid[0] + "x" + grid[1]);
+                }
+            }
+        }
+
+        // a part of an image shares the data buffer with an offset
+        BufferedImage img = createImage(BufferedImage.TYPE_BYTE_GRAY, 7L);
+        BufferedImage sub = img.getSubimage(31, 17, 200, 300);
+        assertEquals(countBlocks(epc, sub, 10, 10),
+                epc.countFilledBlocks(epc.createFilledTable(sub), 200, 300, 10,
+                        10, Integer.MAX_VALUE));
+    }
+
+
+    @Test
+    void testBlockCount()
+    {
+        BufferedImage img = new BufferedImage(200, 200,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 200, 200);
+        g.setColor(Color.BLACK);
+        // fills 4 of 10 x 10 blocks, but only 1 of 2 x 2 blocks
+        g.fillRect(0, 0, 40, 40);
+        g.dispose();
+
+        EmptyPageChecker epc = new EmptyPageChecker(null);
+        epc.setPageFilledThreshold(2);
+        assertFalse(epc.isImageEmpty(img));
+        epc.setBlockCountH(2);
+        epc.setBlockCountV(2);
+        assertTrue(epc.isImageEmpty(img));
+        epc.setPageFilledThreshold(1);
+        assertFalse(epc.isImageEmpty(img));
+    }
+}
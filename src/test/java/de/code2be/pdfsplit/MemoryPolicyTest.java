@@ -0,0 +1,127 @@
+package de.code2be.pdfsplit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.junit.jupiter.api.Test;
+
+class MemoryPolicyTest
+{
+
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * A policy with simulated heap values.
+     */
+    private static class TestPolicy extends MemoryPolicy
+    {
+
+        long mMaxHeap = 1024L * MB;
+
+        long mFreeHeap = 1024L * MB;
+
+        @Override
+        protected long getMaxHeap()
+        {
+            return mMaxHeap;
+        }
+
+
+        @Override
+        protected long getFreeHeap()
+        {
+            return mFreeHeap;
+        }
+    }
+
+    @Test
+    void testAutoBySize()
+    {
+        TestPolicy p = new TestPolicy();
+
+        // 10MB file --> 30MB expected, 256MB allowed --> main memory that
+        // spills to temp files if the document grows
+        MemoryUsageSetting s = p.getMemoryUsageSetting(10 * MB);
+        assertTrue(s.useMainMemory());
+        assertTrue(s.useTempFile());
+        assertEquals(256 * MB, s.getMaxMainMemoryBytes());
+
+        // new document, size unknown --> the same
+        s = p.getMemoryUsageSetting(-1L);
+        assertTrue(s.useMainMemory());
+        assertTrue(s.useTempFile());
+        assertEquals(256 * MB, s.getMaxMainMemoryBytes());
+
+        // 200MB file --> 600MB expected --> mixed
+        s = p.getMemoryUsageSetting(200 * MB);
+        assertTrue(s.useMainMemory());
+        assertTrue(s.useTempFile());
+        assertEquals(256 * MB, s.getMaxMainMemoryBytes());
+
+        // 2GB file --> temp file only
+        s = p.getMemoryUsageSetting(2048 * MB);
+        assertFalse(s.useMainMemory());
+        assertTrue(s.useTempFile());
+    }
+
+
+    @Test
+    void testAutoUnderPressure()
+    {
+        TestPolicy p = new TestPolicy();
+        p.mFreeHeap = 200 * MB;
+        assertTrue(p.isUnderPressure());
+
+        MemoryUsageSetting s = p.getMemoryUsageSetting(-1L);
+        assertFalse(s.useMainMemory());
+        assertTrue(s.useTempFile());
+
+        p.mFreeHeap = 800 * MB;
+        assertFalse(p.isUnderPressure());
+        assertTrue(p.getMemoryUsageSetting(-1L).useMainMemory());
+    }
+
+
+    @Test
+    void testFixedModes()
+    {
+        assertEquals(MemoryPolicy.MODE_AUTO,
+                MemoryPolicy.forName("something").getMode());
+        assertFalse(MemoryPolicy.forName("file").getMemoryUsageSetting(1L)
+                .useMainMemory());
+        assertFalse(MemoryPolicy.forName("memory")
+                .getMemoryUsageSetting(4096 * MB).useTempFile());
+        MemoryUsageSetting s = MemoryPolicy.forName(" Mixed ")
+                .getMemoryUsageSetting(1L);
+        assertTrue(s.useMainMemory());
+        assertTrue(s.useTempFile());
+    }
+
+
+    @Test
+    void testInstall()
+    {
+        MemoryPolicy p = new MemoryPolicy();
+        p.install();
+        try
+        {
+            // just make sure the threshold was accepted by the JVM
+            p.isUnderPressure();
+        }
+        finally
+        {
+            p.uninstall();
+        }
+    }
+
+
+    @Test
+    void testFreeHeap()
+    {
+        MemoryPolicy p = new MemoryPolicy();
+        long free = p.getFreeHeap();
+        assertTrue(free > 0L && free <= p.getMaxHeap());
+    }
+}
@@ -0,0 +1,263 @@
+package de.code2be.pdfsplit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PageWatchdogTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    /**
+     * Wait for the latch, even if interrupted, like a native call does.
+     */
+    private static void awaitUninterruptibly(CountDownLatch aLatch)
+    {
+        while (true)
+        {
+            try
+            {
+                aLatch.await();
+                return;
+            }
+            catch (InterruptedException ex)
+            {
+                // ignore, stuck work does not react on interrupts
+            }
+        }
+    }
+
+
+    private static void awaitAbandoned(PageWatchdog aWatchdog)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while (aWatchdog.getAbandonedCount() > 0
+                && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(0, aWatchdog.getAbandonedCount());
+    }
+
+
+    @Test
+    void testNoDeadline() throws Exception
+    {
+        PageWatchdog wd = new PageWatchdog();
+        Thread caller = Thread.currentThread();
+        assertSame(caller, wd.call(PageWatchdog.STAGE_RENDER, 0,
+                () -> Thread.currentThread()));
+        assertEquals(1, wd.getStats(PageWatchdog.STAGE_RENDER).getCount());
+        assertEquals(0, wd.getDeadline(PageWatchdog.STAGE_RENDER));
+    }
+
+
+    @Test
+    void testTimeout() throws Exception
+    {
+        PageWatchdog wd = new PageWatchdog();
+        wd.setDeadline(PageWatchdog.STAGE_OCR, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        PageTimeoutException ex = assertThrows(PageTimeoutException.class,
+                () -> wd.call(PageWatchdog.STAGE_OCR, 4, () -> {
+                    awaitUninterruptibly(release);
+                    return "late";
+                }));
+        assertEquals(PageWatchdog.STAGE_OCR, ex.getStage());
+        assertEquals(4, ex.getPageIndex());
+        assertEquals(100, ex.getDeadline());
+        assertEquals(1, wd.getAbandonedCount());
+        assertEquals(List.of(ex), wd.getTimeouts());
+
+        // the next page is not affected
+        assertEquals("next", wd.call(PageWatchdog.STAGE_OCR, 5, () -> "next"));
+        PageWatchdog.StageStats stats = wd.getStats(PageWatchdog.STAGE_OCR);
+        assertEquals(2, stats.getCount());
+        assertEquals(1, stats.getTimeoutCount());
+        assertEquals(100, stats.getMaxLatency());
+
+        release.countDown();
+        long end = System.currentTimeMillis() + 5000;
+        while (wd.getAbandonedCount() > 0 && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(0, wd.getAbandonedCount());
+    }
+
+
+    @Test
+    void testTaskException()
+    {
+        PageWatchdog wd = new PageWatchdog();
+        wd.setDeadline(PageWatchdog.STAGE_QR, 1000);
+        IOException ex = assertThrows(IOException.class,
+                () -> wd.call(PageWatchdog.STAGE_QR, 0, () -> {
+                    throw new IOException("broken");
+                }));
+        assertEquals("broken", ex.getMessage());
+        assertEquals(0, wd.getTimeouts().size());
+    }
+
+
+    @Test
+    void testPercentiles()
+    {
+        PageWatchdog.StageStats stats = new PageWatchdog.StageStats();
+        assertEquals(0, stats.getPercentile(0.5));
+        for (int i = 100; i > 0; i--)
+        {
+            stats.record(i, false);
+        }
+        assertEquals(50, stats.getPercentile(0.5));
+        assertEquals(95, stats.getPercentile(0.95));
+        assertEquals(99, stats.getPercentile(0.99));
+        assertEquals(100, stats.getMaxLatency());
+    }
+
+
+    @Test
+    void testSplitContinues() throws IOException
+    {
+        PageWatchdog wd = new PageWatchdog();
+        wd.setDeadline(PageWatchdog.STAGE_QR, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        SmartSplitter ss = new SmartSplitter();
+        // page 1 is stuck, pages 2 and 4 are split pages
+        ss.addSplitPageIdentifier((aDoc, aPage, aPageIndex) -> PageWatchdog
+                .call(wd, PageWatchdog.STAGE_QR, aPageIndex, () -> {
+                    if (aPageIndex == 1)
+                    {
+                        awaitUninterruptibly(release);
+                        return true;
+                    }
+                    return aPageIndex == 2 || aPageIndex == 4;
+                }));
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < 6; i++)
+            {
+                doc.addPage(new PDPage());
+            }
+            List<PDDocument> docs = ss.split(doc);
+            // the stuck page is not a split page
+            assertEquals(3, docs.size());
+            assertEquals(2, docs.get(0).getNumberOfPages());
+            assertEquals(1, docs.get(1).getNumberOfPages());
+            assertEquals(1, docs.get(2).getNumberOfPages());
+            for (PDDocument d : docs)
+            {
+                d.close();
+            }
+        }
+        finally
+        {
+            release.countDown();
+        }
+        assertEquals(1, wd.getTimeouts().size());
+        assertEquals(1, wd.getTimeouts().get(0).getPageIndex());
+    }
+
+
+    @Test
+    void testRenderFromCopy() throws Exception
+    {
+        File file = mTempDir.resolve("scan.pdf").toFile();
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < 4; i++)
+            {
+                doc.addPage(new PDPage());
+            }
+            doc.save(file);
+        }
+        PageWatchdog wd = new PageWatchdog();
+        wd.setDeadline(PageWatchdog.STAGE_RENDER, 100);
+        wd.setSourceFile(file);
+        CountDownLatch release = new CountDownLatch(1);
+        List<PDDocument> used = Collections.synchronizedList(new ArrayList<>());
+        try (PDDocument doc = Loader.loadPDF(file))
+        {
+            assertThrows(PageTimeoutException.class,
+                    () -> wd.render(doc, 1, (aDoc) -> {
+                        used.add(aDoc);
+                        awaitUninterruptibly(release);
+                        return "late";
+                    }));
+
+            // the next page does not wait for the stuck render
+            assertEquals("next", wd.render(doc, 2, (aDoc) -> {
+                used.add(aDoc);
+                return "next";
+            }));
+            assertEquals(2, used.size());
+            assertNotSame(doc, used.get(0));
+            assertNotSame(doc, used.get(1));
+            assertNotSame(used.get(0), used.get(1));
+            assertEquals(1, wd.getTimeouts().size());
+        }
+        finally
+        {
+            release.countDown();
+        }
+        awaitAbandoned(wd);
+        // the copy of the abandoned render is closed when it finishes
+        assertTrue(used.get(0).getDocument().isClosed());
+        wd.close();
+        assertTrue(used.get(1).getDocument().isClosed());
+    }
+
+
+    @Test
+    void testRenderWithoutCopy() throws Exception
+    {
+        PageWatchdog wd = new PageWatchdog();
+        wd.setDeadline(PageWatchdog.STAGE_RENDER, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        SmartSplitter ss = new SmartSplitter();
+        ss.addSplitPageIdentifier((aDoc, aPage, aPageIndex) -> PageWatchdog
+                .render(wd, aDoc, aPageIndex, (aRenderDoc) -> {
+                    if (aPageIndex == 1)
+                    {
+                        awaitUninterruptibly(release);
+                    }
+                    return aPageIndex == 3;
+                }));
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < 6; i++)
+            {
+                doc.addPage(new PDPage());
+            }
+            // the stuck render still uses the document, so splitting fails
+            // instead of merging the remaining pages
+            RenderAbandonedException ex = assertThrows(
+                    RenderAbandonedException.class, () -> ss.split(doc));
+            assertEquals(1, ex.getPageIndex());
+        }
+        finally
+        {
+            release.countDown();
+        }
+        awaitAbandoned(wd);
+    }
+}
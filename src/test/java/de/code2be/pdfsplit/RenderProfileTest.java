@@ -0,0 +1,64 @@
+package de.code2be.pdfsplit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.RenderingHints;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.junit.jupiter.api.Test;
+
+class RenderProfileTest
+{
+
+    @Test
+    void testProfiles()
+    {
+        RenderProfile quality = RenderProfile.forName(RenderProfile.QUALITY);
+        assertFalse(quality.isSubsampling());
+        assertTrue(quality.isAnnotations());
+        assertNull(quality.createRenderingHints());
+
+        RenderProfile preview = RenderProfile.forName(" Preview ");
+        assertEquals(RenderProfile.PREVIEW, preview.getName());
+        assertTrue(preview.isSubsampling());
+        assertFalse(preview.isAnnotations());
+        RenderingHints hints = preview.createRenderingHints();
+        assertEquals(RenderingHints.VALUE_ANTIALIAS_ON,
+                hints.get(RenderingHints.KEY_ANTIALIASING));
+        assertEquals(RenderingHints.VALUE_INTERPOLATION_BILINEAR,
+                hints.get(RenderingHints.KEY_INTERPOLATION));
+
+        hints = RenderProfile.forName(RenderProfile.ANALYSIS)
+                .createRenderingHints();
+        assertEquals(RenderingHints.VALUE_ANTIALIAS_OFF,
+                hints.get(RenderingHints.KEY_ANTIALIASING));
+        assertEquals(RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR,
+                hints.get(RenderingHints.KEY_INTERPOLATION));
+
+        assertEquals(RenderProfile.QUALITY,
+                RenderProfile.forName("unknown").getName());
+    }
+
+
+    @Test
+    void testCreateRenderer() throws IOException
+    {
+        try (PDDocument doc = new PDDocument())
+        {
+            PDFRenderer renderer = RenderProfile
+                    .forName(RenderProfile.ANALYSIS).createRenderer(doc);
+            assertTrue(renderer.isSubsamplingAllowed());
+            assertFalse(renderer.getAnnotationsFilter().accept(null));
+
+            renderer = RenderProfile.forName(RenderProfile.QUALITY)
+                    .createRenderer(doc);
+            assertFalse(renderer.isSubsamplingAllowed());
+            assertNull(renderer.getRenderingHints());
+        }
+    }
+}
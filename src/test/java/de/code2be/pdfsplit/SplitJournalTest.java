@@ -0,0 +1,249 @@
+package de.code2be.pdfsplit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.code2be.pdfsplit.output.OutputCommitter;
+
+class SplitJournalTest
+{
+
+    /**
+     * The split pages of the source document with 7 pages, so the documents
+     * contain pages 0-1, 3 and 5-6.
+     */
+    private static final List<Integer> SPLIT_PAGES = List.of(2, 4);
+
+    @TempDir
+    Path mTempDir;
+
+    /**
+     * The separator text of the settings the journal is opened with.
+     */
+    private String mSeparator = "SPLIT";
+
+    /**
+     * Thrown by the split page detection to interrupt splitting like a
+     * crash. Errors are not caught by the splitter.
+     */
+    private static class CrashError extends Error
+    {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     *
+     * @return the settings of the splits of the test.
+     */
+    private String settings()
+    {
+        Config cfg = new Config();
+        cfg.setConfigValS(Config.PROP_SEPARATOR_TEXT, mSeparator);
+        return SplitJournal.getSettings(cfg, "scan_{0}.pdf");
+    }
+
+
+    private File createSource() throws IOException
+    {
+        File res = mTempDir.resolve("scan.pdf").toFile();
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < 7; i++)
+            {
+                doc.addPage(new PDPage());
+            }
+            doc.save(res);
+        }
+        return res;
+    }
+
+
+    /**
+     * Split the source with a journal.
+     *
+     * @param aDetected
+     *            collects the pages the split page detection ran for.
+     * @param aCrashAt
+     *            the index of the page to interrupt splitting at or 0.
+     * @param aAbortAfter
+     *            the number of finished documents to abort after or 0.
+     * @return the page counts of the documents or null if splitting was
+     *         interrupted.
+     */
+    private List<Integer> split(File aSource, List<Integer> aDetected,
+        int aCrashAt, int aAbortAfter, String aCommitMode)
+        throws IOException
+    {
+        List<Integer> res = new ArrayList<>();
+        SmartSplitter ss = new SmartSplitter();
+        ss.setTargetDirectory(mTempDir.toFile());
+        ss.setNamePattern("scan_{0}.pdf");
+        ss.setOutputCommitter(OutputCommitter.forName(aCommitMode));
+        ss.addSplitPageIdentifier((aDoc, aPage, aIndex) -> {
+            if (aCrashAt > 0 && aIndex == aCrashAt)
+            {
+                throw new CrashError();
+            }
+            aDetected.add(aIndex);
+            return SPLIT_PAGES.contains(aIndex);
+        });
+        AtomicInteger finished = new AtomicInteger();
+        ss.addStatusListener((aEvent) -> {
+            if (aEvent.getID() == SplitStatusEvent.EVENT_DOCUMENT_FINISHED
+                    && finished.incrementAndGet() == aAbortAfter)
+            {
+                ss.doAbort();
+            }
+        });
+        try (PDDocument doc = Loader.loadPDF(aSource);
+                SplitJournal journal = SplitJournal.open(aSource,
+                        mTempDir.toFile(), settings()))
+        {
+            ss.setJournal(journal);
+            for (PDDocument target : ss.split(doc))
+            {
+                res.add(target.getNumberOfPages());
+                target.close();
+            }
+        }
+        catch (CrashError ex)
+        {
+            return null;
+        }
+        return res;
+    }
+
+
+    private int splitFileCount()
+    {
+        return mTempDir.toFile()
+                .list((aDir, aName) -> aName.startsWith("scan_")).length;
+    }
+
+
+    @Test
+    void testResume() throws IOException
+    {
+        File source = createSource();
+        File journalFile = mTempDir.resolve(".scan.pdf.journal").toFile();
+
+        List<Integer> detected = new ArrayList<>();
+        assertNull(split(source, detected, 5, 0, "atomic"));
+        assertEquals(List.of(0, 1, 2, 3, 4), detected);
+        assertEquals(2, splitFileCount());
+        assertTrue(journalFile.isFile());
+
+        try (SplitJournal journal = SplitJournal.open(source,
+                mTempDir.toFile(), settings()))
+        {
+            assertEquals(4, journal.getResumePage());
+            assertEquals(2, journal.getCompletedFiles().size());
+            assertEquals(Boolean.TRUE, journal.getSplitPage(4));
+            assertEquals(Boolean.FALSE, journal.getSplitPage(3));
+            assertNull(journal.getSplitPage(5));
+        }
+
+        // finished documents are loaded, detection only runs for new pages
+        detected.clear();
+        assertEquals(List.of(2, 1, 2),
+                split(source, detected, 0, 0, "atomic"));
+        assertEquals(List.of(5, 6), detected);
+        assertEquals(3, splitFileCount());
+        assertFalse(journalFile.exists());
+
+        // a completed split starts over
+        detected.clear();
+        assertEquals(List.of(2, 1, 2),
+                split(source, detected, 0, 0, "atomic"));
+        assertEquals(7, detected.size());
+        assertEquals(6, splitFileCount());
+    }
+
+
+    @Test
+    void testMissingFile() throws IOException
+    {
+        File source = createSource();
+        List<Integer> detected = new ArrayList<>();
+        split(source, detected, 5, 0, "batch");
+        Files.delete(mTempDir.resolve("scan_1.pdf"));
+
+        // the pages of the missing file are split again
+        detected.clear();
+        assertEquals(List.of(2, 1, 2),
+                split(source, detected, 0, 0, "atomic"));
+        assertEquals(List.of(5, 6), detected);
+        assertEquals(3, splitFileCount());
+    }
+
+
+    @Test
+    void testSourceChanged() throws IOException
+    {
+        File source = createSource();
+        List<Integer> detected = new ArrayList<>();
+        split(source, detected, 3, 0, "direct");
+        Files.write(source.toPath(), new byte[]
+        {
+                '\n'
+        }, StandardOpenOption.APPEND);
+
+        try (SplitJournal journal = SplitJournal.open(source,
+                mTempDir.toFile(), settings()))
+        {
+            assertEquals(0, journal.getResumePage());
+            assertTrue(journal.getCompletedFiles().isEmpty());
+            assertNull(journal.getSplitPage(0));
+        }
+    }
+
+
+    @Test
+    void testSettingsChanged() throws IOException
+    {
+        File source = createSource();
+        List<Integer> detected = new ArrayList<>();
+        assertNull(split(source, detected, 5, 0, "atomic"));
+
+        // the cached detection results do not fit another separator
+        mSeparator = "NEXT";
+        detected.clear();
+        assertEquals(List.of(2, 1, 2),
+                split(source, detected, 0, 0, "atomic"));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), detected);
+        assertEquals(5, splitFileCount());
+    }
+
+
+    @Test
+    void testAbort() throws IOException
+    {
+        File source = createSource();
+        List<Integer> detected = new ArrayList<>();
+        assertEquals(List.of(2, 1), split(source, detected, 0, 2, "atomic"));
+        assertFalse(mTempDir.resolve(".scan.pdf.journal").toFile().exists());
+
+        // an abort by the user is not resumed
+        detected.clear();
+        assertEquals(List.of(2, 1, 2), split(source, detected, 0, 0, "atomic"));
+        assertEquals(7, detected.size());
+    }
+}
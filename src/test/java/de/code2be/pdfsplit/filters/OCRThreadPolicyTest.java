@@ -0,0 +1,202 @@
+package de.code2be.pdfsplit.filters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class OCRThreadPolicyTest
+{
+
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * A policy with simulated heap and GC values.
+     */
+    private static class TestPolicy extends OCRThreadPolicy
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        long mMaxHeap = 1024L * MB;
+
+        long mFreeHeap = 1024L * MB;
+
+        long mGcTime = 0;
+
+        TestPolicy(int aMaxThreadCount)
+        {
+            super(aMaxThreadCount);
+        }
+
+
+        @Override
+        protected long getMaxHeap()
+        {
+            return mMaxHeap;
+        }
+
+
+        @Override
+        protected long getFreeHeap()
+        {
+            return mFreeHeap;
+        }
+
+
+        @Override
+        protected long getGcTime()
+        {
+            return mGcTime;
+        }
+    }
+
+    private static void finishWindow(OCRThreadPolicy aPolicy)
+    {
+        int count = Math.max(2, aPolicy.getTargetThreadCount());
+        for (int i = 0; i < count; i++)
+        {
+            aPolicy.pageDone();
+        }
+    }
+
+
+    @Test
+    void testInitialThreadCount()
+    {
+        TestPolicy p = new TestPolicy(8);
+        // plenty of memory --> limited by cores
+        assertEquals(8, p.start(100 * MB, 100));
+        // limited by the number of pages
+        assertEquals(3, p.start(100 * MB, 3));
+
+        // 400MB free, 15% of 1GB reserved --> 246MB usable --> 2 workers
+        p.mFreeHeap = 400 * MB;
+        assertEquals(2, p.start(100 * MB, 100));
+
+        // never less than one
+        p.mFreeHeap = 10 * MB;
+        assertEquals(1, p.start(100 * MB, 100));
+    }
+
+
+    @Test
+    void testWorkerMemory()
+    {
+        OCRThreadPolicy p = new OCRThreadPolicy(2);
+        p.setTesseractMemory(10 * MB);
+        assertEquals(10 * MB + 3L * 100 * 200, p.estimateWorkerMemory(100, 200));
+    }
+
+
+    @Test
+    void testBackOffOnMemoryPressure()
+    {
+        TestPolicy p = new TestPolicy(8);
+        assertEquals(8, p.start(10 * MB, 100));
+
+        p.mFreeHeap = 50 * MB;
+        finishWindow(p);
+        assertEquals(4, p.getTargetThreadCount());
+        finishWindow(p);
+        assertEquals(2, p.getTargetThreadCount());
+
+        // GC pressure: a lot of GC time within the window
+        p.mFreeHeap = 800 * MB;
+        p.mGcTime += 100000;
+        finishWindow(p);
+        assertEquals(1, p.getTargetThreadCount());
+
+        p.outOfMemory();
+        assertEquals(1, p.getTargetThreadCount());
+    }
+
+
+    @Test
+    void testIncreaseWithoutGain() throws Exception
+    {
+        TestPolicy p = new TestPolicy(4);
+        p.mFreeHeap = 380 * MB;
+        // (380 - 153) / 100 --> 2 workers
+        assertEquals(2, p.start(100 * MB, 100));
+
+        // first window: no pressure --> one more thread is probed
+        finishWindow(p);
+        assertEquals(3, p.getTargetThreadCount());
+
+        // the probe window is slower --> revert
+        Thread.sleep(50);
+        finishWindow(p);
+        assertEquals(2, p.getTargetThreadCount());
+
+        // hold for some windows
+        finishWindow(p);
+        assertEquals(2, p.getTargetThreadCount());
+    }
+
+
+    @Test
+    void testPermits() throws Exception
+    {
+        TestPolicy p = new TestPolicy(2);
+        assertEquals(2, p.start(10 * MB, 10));
+        p.acquire();
+        p.acquire();
+
+        Thread t = new Thread(() -> {
+            try
+            {
+                p.acquire();
+                p.release();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+        t.start();
+        t.join(200);
+        assertTrue(t.isAlive(), "Third permit must block");
+
+        p.release();
+        t.join(2000);
+        assertTrue(!t.isAlive(), "Third permit must be granted after release");
+        p.release();
+    }
+
+
+    @Test
+    void testSurplusEngines()
+    {
+        TestPolicy p = new TestPolicy(4);
+        assertEquals(4, p.start(10 * MB, 100));
+        for (int i = 0; i < 4; i++)
+        {
+            p.engineCreated();
+        }
+        assertFalse(p.releaseSurplusEngine());
+
+        // memory pressure --> two workers have to close their instance
+        p.mFreeHeap = 50 * MB;
+        finishWindow(p);
+        assertEquals(2, p.getTargetThreadCount());
+        assertTrue(p.releaseSurplusEngine());
+        assertTrue(p.releaseSurplusEngine());
+        assertFalse(p.releaseSurplusEngine());
+        assertEquals(2, p.getEngineCount());
+
+        // an abandoned instance is not counted anymore
+        p.engineClosed();
+        assertEquals(1, p.getEngineCount());
+    }
+
+
+    @Test
+    void testFreeHeap()
+    {
+        OCRThreadPolicy p = new OCRThreadPolicy(1);
+        long free = p.getFreeHeap();
+        assertTrue(free > 0L && free <= p.getMaxHeap());
+    }
+}
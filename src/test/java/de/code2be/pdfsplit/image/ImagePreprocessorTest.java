@@ -0,0 +1,193 @@
+package de.code2be.pdfsplit.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class ImagePreprocessorTest
+{
+
+    /**
+     * Create a white image with some horizontal black "text lines" that are
+     * rotated by the given angle (in degrees).
+     */
+    private static BufferedImage createLines(int aWidth, int aHeight,
+            double aAngle)
+    {
+        BufferedImage img = new BufferedImage(aWidth, aHeight,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = img.createGraphics();
+        try
+        {
+            g.setColor(Color.white);
+            g.fillRect(0, 0, aWidth, aHeight);
+            g.rotate(Math.toRadians(aAngle), aWidth / 2.0d, aHeight / 2.0d);
+            g.setColor(Color.black);
+            for (int y = 60; y < aHeight - 60; y += 30)
+            {
+                g.fillRect(60, y, aWidth - 120, 6);
+            }
+        }
+        finally
+        {
+            g.dispose();
+        }
+        return img;
+    }
+
+
+    private static int countBlack(GrayImage aImage)
+    {
+        int res = 0;
+        for (byte b : aImage.getPixels())
+        {
+            if ((b & 0xFF) < 128)
+            {
+                res++;
+            }
+        }
+        return res;
+    }
+
+
+    @Test
+    void testOtsuThreshold()
+    {
+        byte[] px = new byte[100];
+        Arrays.fill(px, 0, 30, (byte) 40);
+        Arrays.fill(px, 30, 100, (byte) 200);
+        GrayImage img = new GrayImage(10, 10, px);
+
+        int th = BinarizeStep.calculateOtsuThreshold(img);
+        assertTrue(th >= 40 && th < 200, "Threshold was " + th);
+
+        new BinarizeStep(BinarizeStep.METHOD_OTSU).process(img);
+        assertEquals(30, countBlack(img));
+        for (byte b : img.getPixels())
+        {
+            int v = b & 0xFF;
+            assertTrue(v == GrayImage.BLACK || v == GrayImage.WHITE);
+        }
+    }
+
+
+    @Test
+    void testSauvolaUnevenBackground()
+    {
+        // background gets darker from left (240) to right (120), text is
+        // always 60 below the background
+        int w = 200;
+        int h = 100;
+        byte[] px = new byte[w * h];
+        int textPixels = 0;
+        for (int y = 0; y < h; y++)
+        {
+            for (int x = 0; x < w; x++)
+            {
+                int bg = 240 - (120 * x) / w;
+                boolean text = (y >= 40 && y < 44) && (x % 20) < 10;
+                if (text)
+                {
+                    textPixels++;
+                }
+                px[y * w + x] = (byte) (text ? bg - 100 : bg);
+            }
+        }
+        GrayImage img = new GrayImage(w, h, px);
+        BinarizeStep step = new BinarizeStep(BinarizeStep.METHOD_SAUVOLA);
+        step.setWindowSize(15);
+        step.process(img);
+
+        // all text pixels must be black and the (dark) background on the
+        // right side must stay white
+        int black = countBlack(img);
+        assertTrue(black >= textPixels, "Found " + black + " black pixels");
+        assertTrue(black < textPixels * 2, "Found " + black + " black pixels");
+        assertEquals(GrayImage.WHITE, img.getPixels()[10 * w + (w - 5)] & 0xFF);
+    }
+
+
+    @Test
+    void testDespeckle()
+    {
+        int w = 50;
+        int h = 50;
+        byte[] px = new byte[w * h];
+        Arrays.fill(px, (byte) GrayImage.WHITE);
+        // two single pixel speckles
+        px[5 * w + 5] = GrayImage.BLACK;
+        px[40 * w + 7] = GrayImage.BLACK;
+        // a 2x2 speckle
+        px[10 * w + 30] = GrayImage.BLACK;
+        px[10 * w + 31] = GrayImage.BLACK;
+        px[11 * w + 30] = GrayImage.BLACK;
+        px[11 * w + 31] = GrayImage.BLACK;
+        // a 10x10 block (text)
+        for (int y = 20; y < 30; y++)
+        {
+            for (int x = 20; x < 30; x++)
+            {
+                px[y * w + x] = GrayImage.BLACK;
+            }
+        }
+        GrayImage img = new GrayImage(w, h, px);
+        new DespeckleStep(4).process(img);
+
+        assertEquals(100, countBlack(img));
+        assertEquals(GrayImage.BLACK, img.getPixels()[25 * w + 25] & 0xFF);
+        assertEquals(GrayImage.WHITE, img.getPixels()[5 * w + 5] & 0xFF);
+    }
+
+
+    @Test
+    void testDeskewDetection()
+    {
+        DeskewStep step = new DeskewStep();
+        for (double angle : new double[]
+        {
+                -3.0d, -1.2d, 0.0d, 2.0d
+        })
+        {
+            GrayImage img = GrayImage
+                    .fromBufferedImage(createLines(600, 400, angle));
+            double detected = step.detectSkewAngle(img);
+            assertEquals(angle, detected, 0.15d, "Angle " + angle);
+        }
+    }
+
+
+    @Test
+    void testPreprocessorChain()
+    {
+        ImagePreprocessor pp = new ImagePreprocessor();
+        pp.addStep(new BinarizeStep(BinarizeStep.METHOD_OTSU));
+        pp.addStep(new DespeckleStep(4));
+        pp.addStep(new DeskewStep());
+        assertEquals(3, pp.getSteps().size());
+
+        GrayImage img = pp.process(createLines(600, 400, 2.0d));
+        assertEquals(Math.toRadians(-2.0d), img.getRotation(),
+                Math.toRadians(0.15d));
+        // convert + 3 steps
+        assertEquals(4, img.getTimings().size());
+
+        // after deskew the lines must be horizontal again
+        assertEquals(0.0d, new DeskewStep().detectSkewAngle(img), 0.15d);
+
+        // a box at the image center is not moved by the mapping
+        Rectangle center = new Rectangle(290, 190, 20, 20);
+        assertEquals(center, img.mapToSource(center));
+
+        BufferedImage out = img.toBufferedImage();
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, out.getType());
+        assertEquals(600, out.getWidth());
+        assertEquals(400, out.getHeight());
+    }
+}
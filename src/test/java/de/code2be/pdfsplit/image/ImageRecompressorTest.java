@@ -0,0 +1,172 @@
+package de.code2be.pdfsplit.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+class ImageRecompressorTest
+{
+
+    private static final COSName IM1 = COSName.getPDFName("Im1");
+
+    /**
+     * Create a scanned text page at 200 DPI for a letter page.
+     */
+    private static BufferedImage createTextScan()
+    {
+        BufferedImage res = new BufferedImage(1700, 2200,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = res.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, res.getWidth(), res.getHeight());
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 40));
+        for (int y = 200; y < 2000; y += 60)
+        {
+            g.drawString("The quick brown fox jumps over the lazy dog", 150, y);
+        }
+        g.dispose();
+        return res;
+    }
+
+
+    /**
+     * Create a colored photo like image at 200 DPI for a letter page.
+     */
+    private static BufferedImage createPhoto()
+    {
+        BufferedImage res = new BufferedImage(1700, 2200,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < res.getHeight(); y++)
+        {
+            for (int x = 0; x < res.getWidth(); x++)
+            {
+                int r = (x * 255) / res.getWidth();
+                int b = (y * 255) / res.getHeight();
+                res.setRGB(x, y, (r << 16) | (128 << 8) | b);
+            }
+        }
+        return res;
+    }
+
+
+    private static PDPage addPage(PDDocument aDoc, PDImageXObject aImage)
+        throws IOException
+    {
+        PDPage page = new PDPage(PDRectangle.LETTER);
+        aDoc.addPage(page);
+        try (PDPageContentStream cs = new PDPageContentStream(aDoc, page))
+        {
+            cs.drawImage(aImage, 0, 0, PDRectangle.LETTER.getWidth(),
+                    PDRectangle.LETTER.getHeight());
+        }
+        return page;
+    }
+
+
+    @Test
+    void testBitonalToCCITT() throws IOException
+    {
+        try (PDDocument doc = new PDDocument())
+        {
+            BufferedImage scan = createTextScan();
+            addPage(doc, JPEGFactory.createFromImage(doc, scan, 0.9f));
+
+            ImageRecompressor rc = new ImageRecompressor();
+            rc.setTargetDpi(0);
+            long saved = rc.recompress(doc);
+            assertEquals(1, rc.getReplacedCount());
+            assertTrue(saved > 0);
+
+            PDImageXObject img = (PDImageXObject) doc.getPage(0)
+                    .getResources().getXObject(IM1);
+            assertEquals(1, img.getBitsPerComponent());
+            assertEquals(COSName.CCITTFAX_DECODE,
+                    img.getStream().getFilters().get(0));
+            assertEquals(1700, img.getWidth());
+
+            // background and text are kept
+            BufferedImage res = img.getImage();
+            assertEquals(Color.WHITE.getRGB(), res.getRGB(50, 50));
+            int black = 0;
+            for (int x = 150; x < 1500; x++)
+            {
+                if (res.getRGB(x, 190) == Color.BLACK.getRGB())
+                {
+                    black++;
+                }
+            }
+            assertTrue(black > 50, "black pixels: " + black);
+        }
+    }
+
+
+    @Test
+    void testDownsamplePhoto() throws IOException
+    {
+        try (PDDocument doc = new PDDocument())
+        {
+            addPage(doc, LosslessFactory.createFromImage(doc, createPhoto()));
+
+            ImageRecompressor rc = new ImageRecompressor();
+            rc.setThreadCount(2);
+            rc.setTargetDpi(300);
+            assertEquals(0L, rc.recompress(doc));
+            assertEquals(0, rc.getReplacedCount());
+
+            rc.setTargetDpi(100);
+            assertTrue(rc.recompress(doc) > 0);
+            PDImageXObject img = (PDImageXObject) doc.getPage(0)
+                    .getResources().getXObject(IM1);
+            assertEquals(850, img.getWidth());
+            assertEquals(1100, img.getHeight());
+            assertNotEquals(COSName.CCITTFAX_DECODE,
+                    img.getStream().getFilters().get(0));
+        }
+    }
+
+
+    @Test
+    void testSourceNotChanged() throws IOException
+    {
+        try (PDDocument src = new PDDocument();
+                PDDocument target = new PDDocument())
+        {
+            PDImageXObject scan = JPEGFactory.createFromImage(src,
+                    createTextScan(), 0.9f);
+            addPage(src, scan);
+            addPage(src, scan);
+            target.importPage(src.getPage(0));
+            target.importPage(src.getPage(1));
+
+            ImageRecompressor rc = new ImageRecompressor();
+            assertTrue(rc.recompress(target) > 0);
+            // a shared image is only converted once
+            assertEquals(1, rc.getReplacedCount());
+            assertSame(
+                    target.getPage(0).getResources().getXObject(IM1)
+                            .getCOSObject(),
+                    target.getPage(1).getResources().getXObject(IM1)
+                            .getCOSObject());
+            assertSame(scan.getCOSObject(), src.getPage(0).getResources()
+                    .getXObject(IM1).getCOSObject());
+        }
+    }
+}
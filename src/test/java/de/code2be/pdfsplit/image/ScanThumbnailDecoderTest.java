@@ -0,0 +1,147 @@
+package de.code2be.pdfsplit.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.junit.jupiter.api.Test;
+
+class ScanThumbnailDecoderTest
+{
+
+    /**
+     * Create a scan at 200 DPI for an A4 page: white paper with a black bar
+     * at the top and a red square at the bottom.
+     */
+    private static BufferedImage createScan()
+    {
+        BufferedImage res = new BufferedImage(1654, 2339,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = res.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, res.getWidth(), res.getHeight());
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, res.getWidth(), 400);
+        g.setColor(Color.RED);
+        g.fillRect(400, 1600, 800, 600);
+        g.dispose();
+        return res;
+    }
+
+
+    private static PDPage addPage(PDDocument aDoc, PDImageXObject aImage)
+        throws IOException
+    {
+        PDPage page = new PDPage(PDRectangle.A4);
+        aDoc.addPage(page);
+        try (PDPageContentStream cs = new PDPageContentStream(aDoc, page))
+        {
+            cs.drawImage(aImage, 0, 0, PDRectangle.A4.getWidth(),
+                    PDRectangle.A4.getHeight());
+        }
+        return page;
+    }
+
+
+    /**
+     * @return the average difference per color component of two images of
+     *         the same size.
+     */
+    private static double difference(BufferedImage aImg1, BufferedImage aImg2)
+    {
+        long sum = 0L;
+        for (int y = 0; y < aImg1.getHeight(); y++)
+        {
+            for (int x = 0; x < aImg1.getWidth(); x++)
+            {
+                int c1 = aImg1.getRGB(x, y);
+                int c2 = aImg2.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8)
+                {
+                    sum += Math.abs(((c1 >> shift) & 0xFF)
+                            - ((c2 >> shift) & 0xFF));
+                }
+            }
+        }
+        return sum / (3.0d * aImg1.getWidth() * aImg1.getHeight());
+    }
+
+
+    @Test
+    void testSingleJpegPage() throws IOException
+    {
+        try (PDDocument doc = new PDDocument())
+        {
+            PDPage page = addPage(doc,
+                    JPEGFactory.createFromImage(doc, createScan(), 0.9f));
+            Dimension size = new Dimension(210, 297);
+            BufferedImage thumb = ScanThumbnailDecoder.decode(page, size);
+            assertNotNull(thumb);
+
+            // same size and (almost) same content as the rendered page
+            float dpi = (float) (72.0f
+                    / Math.max(PDRectangle.A4.getWidth() / 210.0d,
+                            PDRectangle.A4.getHeight() / 297.0d));
+            BufferedImage rendered = new PDFRenderer(doc)
+                    .renderImageWithDPI(0, dpi, ImageType.RGB);
+            assertEquals(rendered.getWidth(), thumb.getWidth());
+            assertEquals(rendered.getHeight(), thumb.getHeight());
+            double diff = difference(rendered, thumb);
+            assertTrue(diff < 8.0d, "difference " + diff);
+        }
+    }
+
+
+    @Test
+    void testFallback() throws IOException
+    {
+        try (PDDocument doc = new PDDocument())
+        {
+            // lossless image
+            PDPage page = addPage(doc,
+                    LosslessFactory.createFromImage(doc, createScan()));
+            assertNull(ScanThumbnailDecoder.decode(page,
+                    new Dimension(210, 297)));
+
+            // JPEG with additional text
+            page = addPage(doc,
+                    JPEGFactory.createFromImage(doc, createScan(), 0.9f));
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page,
+                    PDPageContentStream.AppendMode.APPEND, false))
+            {
+                cs.beginText();
+                cs.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA),
+                        12);
+                cs.newLineAtOffset(100, 100);
+                cs.showText("Stamp");
+                cs.endText();
+            }
+            assertNull(ScanThumbnailDecoder.decode(page,
+                    new Dimension(210, 297)));
+
+            // empty page
+            page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            assertNull(ScanThumbnailDecoder.decode(page,
+                    new Dimension(210, 297)));
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package de.code2be.pdfsplit.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts.FontName;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+class LinearizedWriterTest
+{
+
+    private static final Logger LOGGER = System
+            .getLogger(LinearizedWriterTest.class.getName());
+
+    private static final Pattern LIN_DICT = Pattern.compile(
+            "/L (\\d+) +/H \\[ (\\d+) +(\\d+) +\\] /O (\\d+) +/E (\\d+) +"
+                    + "/N (\\d+) +/T (\\d+)");
+
+    @TempDir
+    Path mTempDir;
+
+    /**
+     * Create a document with the given number of pages. All pages share a
+     * font, each page has its own noise image.
+     */
+    private static PDDocument createDocument(int aPages) throws IOException
+    {
+        PDDocument res = new PDDocument();
+        PDType1Font font = new PDType1Font(FontName.HELVETICA);
+        Random rnd = new Random(aPages);
+        for (int i = 0; i < aPages; i++)
+        {
+            PDPage page = new PDPage();
+            res.addPage(page);
+            BufferedImage img = new BufferedImage(64, 64,
+                    BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < 64; y++)
+            {
+                for (int x = 0; x < 64; x++)
+                {
+                    img.setRGB(x, y, rnd.nextInt(0x1000000));
+                }
+            }
+            try (PDPageContentStream cs = new PDPageContentStream(res, page))
+            {
+                cs.drawImage(LosslessFactory.createFromImage(res, img), 50,
+                        50);
+                cs.beginText();
+                cs.setFont(font, 12);
+                cs.newLineAtOffset(50, 700);
+                cs.showText("Page number " + (i + 1));
+                cs.endText();
+            }
+        }
+        return res;
+    }
+
+
+    private File writeLinearized(int aPages, String aName) throws IOException
+    {
+        File res = mTempDir.resolve(aName).toFile();
+        try (PDDocument doc = createDocument(aPages))
+        {
+            new LinearizedWriter(doc).write(res);
+        }
+        return res;
+    }
+
+
+    private static Matcher linearization(byte[] aHead)
+    {
+        Matcher m = LIN_DICT.matcher(
+                new String(aHead, StandardCharsets.ISO_8859_1));
+        assertTrue(m.find(), "no linearization dictionary");
+        return m;
+    }
+
+
+    private static int indexOf(byte[] aData, String aText)
+    {
+        return new String(aData, StandardCharsets.ISO_8859_1).indexOf(aText);
+    }
+
+
+    @Test
+    void testWriteAndLoad() throws IOException
+    {
+        File file = writeLinearized(5, "lin.pdf");
+        byte[] data = Files.readAllBytes(file.toPath());
+        assertTrue(indexOf(data, "/Linearized 1") < 1024);
+
+        Matcher m = linearization(data);
+        assertEquals(data.length, Long.parseLong(m.group(1)));
+        assertEquals(5, Integer.parseInt(m.group(6)));
+        int hintOffset = Integer.parseInt(m.group(2));
+        assertTrue(new String(data, hintOffset, 20, StandardCharsets.ISO_8859_1)
+                .matches("\\d+ 0 obj\\n<< /Length [\\s\\S]*"));
+        // the first page is completely contained in the first page section
+        int firstPage = indexOf(data, "\n" + m.group(4) + " 0 obj\n") + 1;
+        long end = Long.parseLong(m.group(5));
+        assertTrue(firstPage > hintOffset && firstPage < end);
+        assertTrue(indexOf(data, "\n" + (Integer.parseInt(m.group(4)) + 1)
+                + " 0 obj\n") < end);
+        int t = Integer.parseInt(m.group(7));
+        assertEquals("\n0000000000 65535 f",
+                new String(data, t, 19, StandardCharsets.ISO_8859_1));
+
+        try (PDDocument doc = Loader.loadPDF(file))
+        {
+            assertEquals(5, doc.getNumberOfPages());
+            for (int i = 0; i < 5; i++)
+            {
+                PDFTextStripper ts = new PDFTextStripper();
+                ts.setStartPage(i + 1);
+                ts.setEndPage(i + 1);
+                assertEquals("Page number " + (i + 1),
+                        ts.getText(doc).trim());
+                assertTrue(doc.getPage(i).getResources().getXObjectNames()
+                        .iterator().hasNext());
+            }
+        }
+    }
+
+
+    @Test
+    void testOverwriteSource() throws IOException
+    {
+        File file = mTempDir.resolve("source.pdf").toFile();
+        try (PDDocument doc = createDocument(3))
+        {
+            doc.save(file);
+        }
+        try (PDDocument doc = Loader.loadPDF(file))
+        {
+            new LinearizedWriter(doc).write(file);
+        }
+        try (PDDocument doc = Loader.loadPDF(file))
+        {
+            assertEquals(3, doc.getNumberOfPages());
+        }
+    }
+
+
+    @Test
+    void testEncryptedRejected() throws IOException
+    {
+        try (PDDocument doc = createDocument(1))
+        {
+            doc.protect(new StandardProtectionPolicy("owner", "",
+                    new AccessPermission()));
+            File file = mTempDir.resolve("enc.pdf").toFile();
+            doc.save(file);
+            try (PDDocument enc = Loader.loadPDF(file, ""))
+            {
+                assertThrows(IOException.class,
+                        () -> new LinearizedWriter(enc));
+            }
+        }
+    }
+
+
+    /**
+     * Load the first page section of a file like a viewer with range requests
+     * does: fetch the head to read the linearization dictionary, then fetch
+     * the remaining bytes up to the end of the first page.
+     *
+     * @return the number of loaded bytes.
+     */
+    private static long loadFirstPage(String aUrl) throws IOException
+    {
+        byte[] head = fetch(aUrl, 0, 1023);
+        long end = Long.parseLong(linearization(head).group(5));
+        byte[] rest = fetch(aUrl, head.length, end - 1);
+        return head.length + rest.length;
+    }
+
+
+    private static byte[] fetch(String aUrl, long aFrom, long aTo)
+        throws IOException
+    {
+        HttpURLConnection con = (HttpURLConnection) new URL(aUrl)
+                .openConnection();
+        con.setRequestProperty("Range", "bytes=" + aFrom + "-" + aTo);
+        assertEquals(206, con.getResponseCode());
+        try (InputStream in = con.getInputStream())
+        {
+            return in.readAllBytes();
+        }
+    }
+
+
+    /**
+     * Start a server that serves the files of the temp directory and supports
+     * single range requests.
+     */
+    private HttpServer startServer() throws IOException
+    {
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", (aExchange) -> {
+            Path file = mTempDir.resolve(
+                    aExchange.getRequestURI().getPath().substring(1));
+            byte[] data = Files.readAllBytes(file);
+            Matcher m = Pattern.compile("bytes=(\\d+)-(\\d+)").matcher(
+                    aExchange.getRequestHeaders().getFirst("Range"));
+            m.matches();
+            int from = Integer.parseInt(m.group(1));
+            int to = Math.min(Integer.parseInt(m.group(2)), data.length - 1);
+            aExchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + from + "-" + to + "/" + data.length);
+            aExchange.sendResponseHeaders(206, to - from + 1);
+            try (OutputStream out = aExchange.getResponseBody())
+            {
+                out.write(data, from, to - from + 1);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+
+    @Test
+    void testFirstPageRangeRequest() throws IOException
+    {
+        File small = writeLinearized(5, "small.pdf");
+        File large = writeLinearized(100, "large.pdf");
+        HttpServer server = startServer();
+        try
+        {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort()
+                    + "/";
+            // warm up
+            loadFirstPage(base + small.getName());
+
+            long start = System.nanoTime();
+            long smallBytes = loadFirstPage(base + small.getName());
+            long smallTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            long largeBytes = loadFirstPage(base + large.getName());
+            long largeTime = System.nanoTime() - start;
+            LOGGER.log(Level.INFO,
+                    "First page of {0} bytes: {1} bytes in {2}us, of {3} bytes: {4} bytes in {5}us",
+                    small.length(), smallBytes, smallTime / 1000L,
+                    large.length(), largeBytes, largeTime / 1000L);
+
+            // only the hint tables grow with the page count
+            assertTrue(largeBytes - smallBytes < 1024,
+                    smallBytes + " / " + largeBytes);
+            assertTrue(largeBytes * 20 < large.length());
+        }
+        finally
+        {
+            server.stop(0);
+        }
+    }
+}
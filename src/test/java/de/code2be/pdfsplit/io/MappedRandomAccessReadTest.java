@@ -0,0 +1,128 @@
+package de.code2be.pdfsplit.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.pdfbox.io.RandomAccessReadView;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.code2be.pdfsplit.PDFHelper;
+
+class MappedRandomAccessReadTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    private File createFile(int aSize) throws IOException
+    {
+        byte[] data = new byte[aSize];
+        for (int i = 0; i < aSize; i++)
+        {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        File res = mTempDir.resolve("data.bin").toFile();
+        Files.write(res.toPath(), data);
+        return res;
+    }
+
+
+    @Test
+    void testReadAcrossChunks() throws IOException
+    {
+        File f = createFile(1000);
+        byte[] expected = Files.readAllBytes(f.toPath());
+        try (MappedRandomAccessRead rd = new MappedRandomAccessRead(f, 64))
+        {
+            assertEquals(1000, rd.length());
+            assertEquals(64, rd.getChunkSize());
+
+            // single bytes
+            for (int i = 0; i < 200; i++)
+            {
+                assertEquals(expected[i] & 0xFF, rd.read());
+            }
+            assertEquals(200, rd.getPosition());
+
+            // a block spanning multiple chunks
+            byte[] buf = new byte[300];
+            assertEquals(300, rd.read(buf, 0, 300));
+            assertArrayEquals(Arrays.copyOfRange(expected, 200, 500), buf);
+
+            // seek backwards, peek and rewind
+            rd.seek(63);
+            assertEquals(expected[63] & 0xFF, rd.peek());
+            assertEquals(expected[63] & 0xFF, rd.read());
+            assertEquals(expected[64] & 0xFF, rd.read());
+            rd.rewind(2);
+            assertEquals(63, rd.getPosition());
+
+            // read beyond the end
+            rd.seek(990);
+            assertEquals(10, rd.read(buf, 0, 100));
+            assertTrue(rd.isEOF());
+            assertEquals(-1, rd.read());
+            assertEquals(-1, rd.read(buf, 0, 10));
+        }
+    }
+
+
+    @Test
+    void testView() throws IOException
+    {
+        File f = createFile(500);
+        byte[] expected = Files.readAllBytes(f.toPath());
+        MappedRandomAccessRead rd = new MappedRandomAccessRead(f, 50);
+        rd.seek(10);
+        RandomAccessReadView view = rd.createView(120, 200);
+        byte[] buf = new byte[200];
+        assertEquals(200, view.read(buf, 0, 200));
+        assertArrayEquals(Arrays.copyOfRange(expected, 120, 320), buf);
+        // the view has its own position
+        assertEquals(10, rd.getPosition());
+        view.close();
+        assertEquals(expected[10] & 0xFF, rd.read());
+
+        assertThrows(IOException.class, () -> rd.createView(400, 200));
+
+        RandomAccessReadView view2 = rd.createView(0, 10);
+        rd.close();
+        assertTrue(rd.isClosed());
+        assertThrows(IOException.class, () -> view2.read());
+    }
+
+
+    @Test
+    void testLoadPDF() throws IOException
+    {
+        File f = mTempDir.resolve("test.pdf").toFile();
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < 5; i++)
+            {
+                doc.addPage(new PDPage());
+            }
+            doc.save(f);
+        }
+
+        try (PDDocument doc = PDFHelper.loadPDF(f, true, null))
+        {
+            assertEquals(5, doc.getNumberOfPages());
+        }
+        try (PDDocument doc = PDFHelper.loadPDF(f, false, null))
+        {
+            assertEquals(5, doc.getNumberOfPages());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package de.code2be.pdfsplit.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts.FontName;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PassThroughWriterTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    private File createSource(CompressParameters aCompress) throws IOException
+    {
+        File res = mTempDir.resolve("source.pdf").toFile();
+        try (PDDocument doc = new PDDocument())
+        {
+            PDType1Font font = new PDType1Font(FontName.HELVETICA);
+            for (int i = 0; i < 6; i++)
+            {
+                PDPage page = new PDPage(
+                        i % 2 == 0 ? PDRectangle.A4 : PDRectangle.LETTER);
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc,
+                        page))
+                {
+                    cs.beginText();
+                    cs.setFont(font, 12);
+                    cs.newLineAtOffset(50, 700);
+                    cs.showText("Page number " + (i + 1));
+                    cs.endText();
+                }
+            }
+            doc.save(res, aCompress);
+        }
+        return res;
+    }
+
+
+    private static String text(PDDocument aDoc, int aPage) throws IOException
+    {
+        PDFTextStripper ts = new PDFTextStripper();
+        ts.setStartPage(aPage + 1);
+        ts.setEndPage(aPage + 1);
+        return ts.getText(aDoc).trim();
+    }
+
+
+    private void checkSplit(CompressParameters aCompress, boolean aExpectRaw)
+        throws IOException
+    {
+        File src = createSource(aCompress);
+        File out1 = mTempDir.resolve("part1.pdf").toFile();
+        File out2 = mTempDir.resolve("part2.pdf").toFile();
+        try (PDDocument doc = Loader.loadPDF(src);
+                PassThroughWriter w = new PassThroughWriter(doc, src))
+        {
+            w.write(List.of(0, 1, 2), out1);
+            w.write(List.of(5, 3), out2);
+            if (aExpectRaw)
+            {
+                assertTrue(w.getRawCount() > 0);
+            }
+
+            try (PDDocument p1 = Loader.loadPDF(out1);
+                    PDDocument p2 = Loader.loadPDF(out2))
+            {
+                assertEquals(3, p1.getNumberOfPages());
+                assertEquals(2, p2.getNumberOfPages());
+                for (int i = 0; i < 3; i++)
+                {
+                    assertEquals(text(doc, i), text(p1, i));
+                    assertEquals(doc.getPage(i).getMediaBox().toString(),
+                            p1.getPage(i).getMediaBox().toString());
+                }
+                assertEquals("Page number 6", text(p2, 0));
+                assertEquals("Page number 4", text(p2, 1));
+                assertEquals(PDRectangle.LETTER.toString(),
+                        p2.getPage(0).getMediaBox().toString());
+            }
+        }
+    }
+
+
+    @Test
+    void testUncompressedSource() throws IOException
+    {
+        checkSplit(CompressParameters.NO_COMPRESSION, true);
+    }
+
+
+    @Test
+    void testObjectStreamSource() throws IOException
+    {
+        checkSplit(CompressParameters.DEFAULT_COMPRESSION, true);
+    }
+
+
+    @Test
+    void testModifiedPage() throws IOException
+    {
+        File src = createSource(CompressParameters.NO_COMPRESSION);
+        File out = mTempDir.resolve("part.pdf").toFile();
+        try (PDDocument doc = Loader.loadPDF(src);
+                PassThroughWriter w = new PassThroughWriter(doc, src))
+        {
+            // add a text layer after loading, like the OCR filter does
+            PDPage page = doc.getPage(1);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page,
+                    AppendMode.APPEND, false, true))
+            {
+                cs.beginText();
+                cs.setFont(new PDType1Font(FontName.TIMES_ROMAN), 10);
+                cs.newLineAtOffset(50, 600);
+                cs.showText("Added");
+                cs.endText();
+            }
+
+            w.write(List.of(1), out);
+            try (PDDocument p = Loader.loadPDF(out))
+            {
+                assertEquals(1, p.getNumberOfPages());
+                String t = text(p, 0);
+                assertTrue(t.contains("Page number 2"), t);
+                assertTrue(t.contains("Added"), t);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.code2be.pdfsplit.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StreamDeduplicatorTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    private static BufferedImage createLogo(Color aColor)
+    {
+        BufferedImage res = new BufferedImage(200, 100,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = res.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 200, 100);
+        g.setColor(aColor);
+        g.fillOval(10, 10, 180, 80);
+        g.dispose();
+        return res;
+    }
+
+
+    /**
+     * Create a document that embeds the given images once per page.
+     */
+    private static PDDocument createDocument(BufferedImage... aImages)
+        throws IOException
+    {
+        PDDocument res = new PDDocument();
+        int y = 600;
+        for (BufferedImage img : aImages)
+        {
+            PDPage page = new PDPage();
+            res.addPage(page);
+            PDImageXObject xobj = LosslessFactory.createFromImage(res, img);
+            try (PDPageContentStream cs = new PDPageContentStream(res, page))
+            {
+                // different positions, so the content streams differ
+                cs.drawImage(xobj, 50, y);
+            }
+            y -= 10;
+        }
+        return res;
+    }
+
+
+    private static Object image(PDDocument aDoc, int aPage)
+    {
+        return aDoc.getPage(aPage).getResources().getCOSObject()
+                .getCOSDictionary(COSName.XOBJECT).getDictionaryObject(
+                        COSName.getPDFName("Im1"));
+    }
+
+
+    @Test
+    void testDuplicatesRemoved() throws IOException
+    {
+        BufferedImage logo = createLogo(Color.BLUE);
+        File plain = mTempDir.resolve("plain.pdf").toFile();
+        File compact = mTempDir.resolve("compact.pdf").toFile();
+        try (PDDocument doc = createDocument(logo, logo, logo))
+        {
+            doc.save(plain, CompressParameters.NO_COMPRESSION);
+            assertNotSame(image(doc, 0), image(doc, 1));
+
+            StreamDeduplicator dedup = new StreamDeduplicator();
+            long saved = dedup.deduplicate(doc);
+            assertEquals(2, dedup.getRemovedCount());
+            assertTrue(saved > 0);
+            assertSame(image(doc, 0), image(doc, 1));
+            assertSame(image(doc, 0), image(doc, 2));
+
+            doc.save(compact, CompressParameters.DEFAULT_COMPRESSION);
+        }
+        assertTrue(compact.length() < plain.length());
+
+        try (PDDocument doc = Loader.loadPDF(compact))
+        {
+            assertEquals(3, doc.getNumberOfPages());
+            for (int i = 0; i < 3; i++)
+            {
+                PDImageXObject img = (PDImageXObject) doc.getPage(i)
+                        .getResources().getXObject(COSName.getPDFName("Im1"));
+                assertEquals(200, img.getWidth());
+                assertEquals(logo.getRGB(100, 50),
+                        img.getImage().getRGB(100, 50));
+            }
+        }
+    }
+
+
+    @Test
+    void testDifferentStreamsKept() throws IOException
+    {
+        try (PDDocument doc = createDocument(createLogo(Color.BLUE),
+                createLogo(Color.RED)))
+        {
+            StreamDeduplicator dedup = new StreamDeduplicator();
+            assertEquals(0L, dedup.deduplicate(doc));
+            assertEquals(0, dedup.getRemovedCount());
+            assertNotSame(image(doc, 0), image(doc, 1));
+        }
+    }
+}
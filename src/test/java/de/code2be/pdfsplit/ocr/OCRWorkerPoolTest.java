@@ -0,0 +1,318 @@
+package de.code2be.pdfsplit.ocr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import de.code2be.help.TesseractC;
+import de.code2be.help.TesseractFactory;
+import net.sourceforge.tess4j.Word;
+
+class OCRWorkerPoolTest
+{
+
+    /**
+     * Images of this width crash the worker process.
+     */
+    private static final int CRASH_WIDTH = 13;
+
+    /**
+     * Images of this width make the engine throw an exception.
+     */
+    private static final int ERROR_WIDTH = 17;
+
+    /**
+     * A factory for an engine that does not need the native library. The
+     * engine returns the size and the number of black pixels of the image.
+     */
+    public static class FakeFactory extends TesseractFactory
+    {
+
+        @Override
+        public TesseractC createCloseableInstance()
+        {
+            return new FakeEngine(getLanguage() + getVariable("suffix"));
+        }
+    }
+
+    static class FakeEngine extends TesseractC
+    {
+
+        private final String mPrefix;
+
+        FakeEngine(String aPrefix)
+        {
+            mPrefix = aPrefix;
+        }
+
+
+        private String describe(BufferedImage aImage)
+        {
+            if (aImage.getWidth() == CRASH_WIDTH)
+            {
+                Runtime.getRuntime().halt(3);
+            }
+            if (aImage.getWidth() == ERROR_WIDTH)
+            {
+                throw new IllegalStateException("bad image");
+            }
+            int black = 0;
+            for (int y = 0; y < aImage.getHeight(); y++)
+            {
+                for (int x = 0; x < aImage.getWidth(); x++)
+                {
+                    if ((aImage.getRGB(x, y) & 0xFFFFFF) == 0)
+                    {
+                        black++;
+                    }
+                }
+            }
+            return mPrefix + " " + aImage.getWidth() + "x"
+                    + aImage.getHeight() + " " + black;
+        }
+
+
+        @Override
+        public List<Word> getWords(List<BufferedImage> aImages, int aLevel)
+        {
+            List<Word> res = new ArrayList<>();
+            for (BufferedImage img : aImages)
+            {
+                res.add(new Word(describe(img), aLevel, new Rectangle(1, 2,
+                        img.getWidth(), img.getHeight())));
+            }
+            return res;
+        }
+
+
+        @Override
+        public String doOCR(BufferedImage aImage, String aFilename,
+            List<Rectangle> aRects)
+        {
+            return describe(aImage);
+        }
+
+
+        @Override
+        public void close()
+        {
+            // nothing to dispose
+        }
+    }
+
+    private static OCRWorkerPool createPool(int aWorkers)
+    {
+        OCRWorkerPool res = new OCRWorkerPool();
+        res.setEngineFactory(FakeFactory.class.getName());
+        res.setWorkerCount(aWorkers);
+        res.setLanguage("xyz");
+        res.setVariable("suffix", "!");
+        return res;
+    }
+
+
+    /**
+     * Create an image with a black rectangle of 3x2 pixels.
+     */
+    private static BufferedImage createImage(int aWidth, int aHeight,
+        int aType)
+    {
+        BufferedImage res = new BufferedImage(aWidth, aHeight, aType);
+        Graphics2D g = res.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, aWidth, aHeight);
+        g.setColor(Color.BLACK);
+        g.fillRect(1, 1, 3, 2);
+        g.dispose();
+        return res;
+    }
+
+
+    @Test
+    void testRoundtrip() throws Exception
+    {
+        try (OCRWorkerPool pool = createPool(1);
+                TesseractC ocr = pool.createCloseableInstance())
+        {
+            List<Word> words = ocr.getWords(
+                    createImage(40, 20, BufferedImage.TYPE_BYTE_BINARY), 3);
+            assertEquals(1, words.size());
+            assertEquals("xyz! 40x20 6", words.get(0).getText());
+            assertEquals(3.0f, words.get(0).getConfidence());
+            assertEquals(new Rectangle(1, 2, 40, 20),
+                    words.get(0).getBoundingBox());
+
+            BufferedImage rgb = createImage(30, 10,
+                    BufferedImage.TYPE_INT_RGB);
+            assertEquals("xyz! 30x10 6", ocr.doOCR(rgb));
+            assertEquals("xyz! 4x3 4", ocr.doOCR(rgb, null, List.of(
+                    new Rectangle(2, 0, 4, 3))));
+            assertEquals(1, pool.getStartedCount());
+            assertEquals(3, pool.getPageCount());
+        }
+    }
+
+
+    @Test
+    void testRecycle() throws IOException
+    {
+        try (OCRWorkerPool pool = createPool(1))
+        {
+            pool.setMaxPages(2);
+            BufferedImage img = createImage(20, 10,
+                    BufferedImage.TYPE_BYTE_GRAY);
+            for (int i = 0; i < 5; i++)
+            {
+                assertEquals("xyz! 20x10 6", pool.getText(img));
+            }
+            assertEquals(3, pool.getStartedCount());
+            assertEquals(2, pool.getRecycledCount());
+
+            // every worker exceeds a memory limit of 1 byte
+            pool.setMaxPages(0);
+            pool.setMaxMemory(1);
+            pool.getText(img);
+            pool.getText(img);
+            assertEquals(4, pool.getStartedCount());
+            assertEquals(4, pool.getRecycledCount());
+        }
+    }
+
+
+    @Test
+    void testCrash() throws IOException
+    {
+        try (OCRWorkerPool pool = createPool(1))
+        {
+            BufferedImage img = createImage(20, 10,
+                    BufferedImage.TYPE_BYTE_BINARY);
+            assertEquals("xyz! 20x10 6", pool.getText(img));
+            IOException ex = assertThrows(IOException.class,
+                    () -> pool.getWords(createImage(CRASH_WIDTH, 10,
+                            BufferedImage.TYPE_BYTE_BINARY), 0));
+            assertTrue(ex.getMessage().contains("exit code 3"),
+                    ex.getMessage());
+            assertEquals(1, pool.getFailedCount());
+            // a new worker takes over
+            assertEquals("xyz! 20x10 6", pool.getText(img));
+            assertEquals(2, pool.getStartedCount());
+        }
+    }
+
+
+    @Test
+    void testEngineError() throws IOException
+    {
+        try (OCRWorkerPool pool = createPool(1))
+        {
+            IOException ex = assertThrows(IOException.class,
+                    () -> pool.getText(createImage(ERROR_WIDTH, 10,
+                            BufferedImage.TYPE_BYTE_GRAY)));
+            assertTrue(ex.getMessage().contains("bad image"),
+                    ex.getMessage());
+            // the worker is still usable
+            assertEquals("xyz! 20x10 6", pool.getText(createImage(20, 10,
+                    BufferedImage.TYPE_BYTE_GRAY)));
+            assertEquals(1, pool.getStartedCount());
+            assertEquals(0, pool.getFailedCount());
+        }
+    }
+
+
+    @Test
+    void testConcurrent() throws Exception
+    {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try (OCRWorkerPool pool = createPool(2))
+        {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+            {
+                int width = 20 + i;
+                results.add(exec.submit(() -> pool.getText(createImage(width,
+                        10, BufferedImage.TYPE_BYTE_BINARY))));
+            }
+            for (int i = 0; i < results.size(); i++)
+            {
+                assertEquals("xyz! " + (20 + i) + "x10 6",
+                        results.get(i).get());
+            }
+            assertTrue(pool.getStartedCount() <= 2);
+        }
+        finally
+        {
+            exec.shutdownNow();
+        }
+    }
+
+
+    @Test
+    void testStartFailure()
+    {
+        try (OCRWorkerPool pool = createPool(1))
+        {
+            pool.setJvmArguments(List.of("-XX:+NoSuchOption"));
+            IOException ex = assertThrows(IOException.class,
+                    () -> pool.getText(createImage(20, 10,
+                            BufferedImage.TYPE_BYTE_GRAY)));
+            assertTrue(ex.getMessage().contains("exited with code"),
+                    ex.getMessage());
+            assertEquals(1, pool.getFailedCount());
+        }
+    }
+
+
+    @Test
+    void testSettings() throws IOException
+    {
+        TesseractFactory tf = new TesseractFactory();
+        tf.setLanguage("abc");
+        tf.setVariable("suffix", "?");
+        tf.setPageSegnMode(6);
+        try (OCRWorkerPool pool = new OCRWorkerPool())
+        {
+            pool.setEngineFactory(FakeFactory.class.getName());
+            pool.setWorkerCount(1);
+            pool.setSettings(tf);
+            assertEquals(6, pool.getPageSegnMode());
+            // the variables reach the engine of the worker
+            assertEquals("abc? 20x10 6", pool.getText(createImage(20, 10,
+                    BufferedImage.TYPE_BYTE_GRAY)));
+        }
+    }
+
+
+    @Test
+    void testDeadIdleWorker() throws Exception
+    {
+        try (OCRWorkerPool pool = createPool(1))
+        {
+            BufferedImage img = createImage(20, 10,
+                    BufferedImage.TYPE_BYTE_GRAY);
+            assertEquals("xyz! 20x10 6", pool.getText(img));
+            // the idle worker is killed from outside
+            for (ProcessHandle p : ProcessHandle.current().children()
+                    .toArray(ProcessHandle[]::new))
+            {
+                p.destroyForcibly();
+                p.onExit().get();
+            }
+            assertEquals("xyz! 20x10 6", pool.getText(img));
+            assertEquals(2, pool.getStartedCount());
+            assertEquals(1, pool.getFailedCount());
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package de.code2be.pdfsplit.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts.FontName;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.code2be.pdfsplit.SmartSplitter;
+import de.code2be.pdfsplit.SplitStatusEvent;
+
+class OutputCommitterTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    private File write(OutputCommitter aCommitter, File aTarget,
+        String aContent)
+        throws IOException
+    {
+        File temp = aCommitter.createTempFile(aTarget);
+        assertTrue(temp.getName().startsWith("." + aTarget.getName()));
+        assertTrue(temp.getName().endsWith(".tmp"));
+        Files.writeString(temp.toPath(), aContent);
+        return aCommitter.commit(temp, aTarget);
+    }
+
+
+    private int tempFileCount()
+    {
+        return mTempDir.toFile().list((aDir, aName) -> aName.endsWith(".tmp"))
+                .length;
+    }
+
+
+    @Test
+    void testAtomic() throws IOException
+    {
+        OutputCommitter c = OutputCommitter.forName("atomic");
+        assertEquals(OutputCommitter.MODE_ATOMIC, c.getMode());
+        File target = mTempDir.resolve("a.pdf").toFile();
+        assertEquals(target, write(c, target, "data"));
+        assertEquals("data", Files.readString(target.toPath()));
+        assertEquals(0, tempFileCount());
+        assertEquals(1L, c.getCommittedCount());
+        assertEquals(0L, c.getSyncCount());
+    }
+
+
+    @Test
+    void testSync() throws IOException
+    {
+        OutputCommitter c = OutputCommitter.forName("sync");
+        File target = mTempDir.resolve("a.pdf").toFile();
+        write(c, target, "data");
+        assertTrue(target.isFile());
+        assertTrue(c.getSyncCount() >= 1L);
+    }
+
+
+    @Test
+    void testBatch() throws IOException
+    {
+        OutputCommitter c = OutputCommitter.forName("batch");
+        c.setBatchSize(3);
+        c.setBatchInterval(60000L);
+        List<File> targets = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            targets.add(mTempDir.resolve("b_" + i + ".pdf").toFile());
+        }
+        write(c, targets.get(0), "0");
+        write(c, targets.get(1), "1");
+        // not visible before the batch is committed
+        assertFalse(targets.get(0).exists());
+        assertFalse(targets.get(1).exists());
+        assertEquals(2, c.getPendingCount());
+
+        write(c, targets.get(2), "2");
+        assertEquals(0, c.getPendingCount());
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(String.valueOf(i),
+                    Files.readString(targets.get(i).toPath()));
+        }
+        assertTrue(c.getSyncCount() >= 3L);
+        assertEquals(0, tempFileCount());
+
+        // the rest is committed on close
+        File last = mTempDir.resolve("b_3.pdf").toFile();
+        write(c, last, "3");
+        assertFalse(last.exists());
+        c.close();
+        assertTrue(last.exists());
+    }
+
+
+    @Test
+    void testTargetTaken() throws IOException
+    {
+        OutputCommitter c = new OutputCommitter(OutputCommitter.MODE_ATOMIC);
+        File target = mTempDir.resolve("a.pdf").toFile();
+        Files.writeString(target.toPath(), "other");
+        File res = write(c, target, "data");
+        assertEquals("a_1.pdf", res.getName());
+        assertEquals("other", Files.readString(target.toPath()));
+        assertEquals("data", Files.readString(res.toPath()));
+    }
+
+
+    @Test
+    void testBatchTargetTaken() throws IOException
+    {
+        OutputCommitter c = new OutputCommitter(OutputCommitter.MODE_BATCH);
+        c.setBatchSize(2);
+        c.setBatchInterval(60000L);
+        List<File> published = new ArrayList<>();
+        File target = mTempDir.resolve("a.pdf").toFile();
+        File temp = c.createTempFile(target);
+        Files.writeString(temp.toPath(), "data");
+        assertNull(c.commit(temp, target, published::add));
+        assertTrue(published.isEmpty());
+        // taken before the batch is committed
+        Files.writeString(target.toPath(), "other");
+        c.flush();
+        assertEquals(1, published.size());
+        assertEquals("a_1.pdf", published.get(0).getName());
+        assertEquals("data", Files.readString(published.get(0).toPath()));
+        assertEquals("other", Files.readString(target.toPath()));
+    }
+
+
+    @Test
+    void testBatchInterval() throws Exception
+    {
+        OutputCommitter c = new OutputCommitter(OutputCommitter.MODE_BATCH);
+        c.setBatchSize(100);
+        c.setBatchInterval(100L);
+        List<File> published = Collections.synchronizedList(new ArrayList<>());
+        File target = mTempDir.resolve("a.pdf").toFile();
+        File temp = c.createTempFile(target);
+        Files.writeString(temp.toPath(), "data");
+        assertNull(c.commit(temp, target, published::add));
+
+        // committed by the timer without a further commit
+        long end = System.currentTimeMillis() + 5000;
+        while (published.isEmpty() && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of(target), published);
+        assertEquals("data", Files.readString(target.toPath()));
+        assertEquals(0, c.getPendingCount());
+    }
+
+
+    @Test
+    void testBatchFailure() throws IOException
+    {
+        OutputCommitter c = new OutputCommitter(OutputCommitter.MODE_BATCH);
+        c.setBatchSize(100);
+        c.setBatchInterval(60000L);
+        List<File> published = new ArrayList<>();
+        File lost = mTempDir.resolve("a.pdf").toFile();
+        File lostTemp = c.createTempFile(lost);
+        c.commit(lostTemp, lost, published::add);
+        File target = mTempDir.resolve("b.pdf").toFile();
+        File temp = c.createTempFile(target);
+        Files.writeString(temp.toPath(), "data");
+        c.commit(temp, target, published::add);
+        // a file that can not be forced (e.g. a failing disk)
+        Files.delete(lostTemp.toPath());
+
+        assertThrows(IOException.class, () -> c.flush());
+        // the other files of the batch are published anyway
+        assertEquals(List.of(target), published);
+        assertEquals("data", Files.readString(target.toPath()));
+        assertFalse(lost.exists());
+        assertEquals(0, tempFileCount());
+        assertEquals(0, c.getPendingCount());
+    }
+
+
+    @Test
+    void testSplitterBatch() throws IOException
+    {
+        List<File> events = new ArrayList<>();
+        OutputCommitter c = OutputCommitter.forName("batch");
+        c.setBatchSize(100);
+        try (PDDocument doc = new PDDocument())
+        {
+            PDType1Font font = new PDType1Font(FontName.HELVETICA);
+            for (int i = 0; i < 5; i++)
+            {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc,
+                        page))
+                {
+                    cs.beginText();
+                    cs.setFont(font, 12);
+                    cs.newLineAtOffset(50, 700);
+                    cs.showText("Page " + (i + 1));
+                    cs.endText();
+                }
+            }
+            SmartSplitter splitter = new SmartSplitter();
+            splitter.setTargetDirectory(mTempDir.toFile());
+            splitter.setNamePattern("part_{0}.pdf");
+            splitter.setOutputCommitter(c);
+            splitter.addSplitPageIdentifier((aDoc, aPage, aIndex) -> {
+                if (aIndex == 3)
+                {
+                    // take the name of the pending first document
+                    try
+                    {
+                        Files.writeString(mTempDir.resolve("part_0.pdf"), "x");
+                    }
+                    catch (IOException ex)
+                    {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+                return aIndex % 2 == 1;
+            });
+            splitter.addStatusListener((aEvent) -> {
+                if (aEvent
+                        .getID() == SplitStatusEvent.EVENT_DOCUMENT_FINISHED)
+                {
+                    events.add(aEvent.getFile());
+                }
+            });
+            List<PDDocument> docs = splitter.split(doc);
+            assertEquals(3, docs.size());
+            // the loaded documents are still readable after the rename
+            assertEquals("Page 5",
+                    new PDFTextStripper().getText(docs.get(2)).trim());
+            for (PDDocument d : docs)
+            {
+                d.close();
+            }
+        }
+        assertEquals(3, events.size());
+        for (File f : events)
+        {
+            assertTrue(f.isFile(), f.toString());
+        }
+        assertEquals("part_2.pdf", events.get(2).getName());
+        // the target of the first document was taken during the split
+        assertEquals("part_0_1.pdf", events.get(0).getName());
+        assertEquals(0, tempFileCount());
+        assertEquals(3L, c.getCommittedCount());
+    }
+}
@@ -0,0 +1,99 @@
+package de.code2be.pdfsplit.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputNameAllocatorTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    private void touch(String aName) throws IOException
+    {
+        Files.createFile(mTempDir.resolve(aName));
+    }
+
+
+    @Test
+    void testFreeIndicesUsed() throws IOException
+    {
+        touch("part_0.pdf");
+        touch("part_1.pdf");
+        touch("part_3.pdf");
+        // not created by the pattern
+        touch("part_02.pdf");
+        touch("part_x.pdf");
+        touch("other_2.pdf");
+
+        OutputNameAllocator alloc = new OutputNameAllocator(
+                mTempDir.toFile(), "part_{0}.pdf");
+        assertEquals("part_2.pdf", alloc.allocate().getName());
+        assertEquals("part_4.pdf", alloc.allocate().getName());
+        // created by someone else after the scan
+        touch("part_5.pdf");
+        assertEquals("part_6.pdf", alloc.allocate().getName());
+        assertEquals(3, alloc.getAllocatedCount());
+    }
+
+
+    @Test
+    void testConcurrentAllocators() throws Exception
+    {
+        for (int i = 0; i < 50; i += 2)
+        {
+            touch("doc_" + i + ".pdf");
+        }
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<List<File>>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++)
+            {
+                Callable<List<File>> task = () -> {
+                    // each splitter has its own allocator
+                    OutputNameAllocator alloc = new OutputNameAllocator(
+                            mTempDir.toFile(), "doc_{0}.pdf");
+                    List<File> res = new ArrayList<>();
+                    for (int n = 0; n < 100; n++)
+                    {
+                        res.add(alloc.allocate());
+                    }
+                    return res;
+                };
+                tasks.add(exec.submit(task));
+            }
+            Set<File> all = new HashSet<>();
+            for (Future<List<File>> f : tasks)
+            {
+                for (File file : f.get())
+                {
+                    assertTrue(all.add(file), "allocated twice: " + file);
+                    assertTrue(file.isFile());
+                }
+            }
+            assertEquals(400, all.size());
+            assertEquals(425, mTempDir.toFile().list().length);
+        }
+        finally
+        {
+            exec.shutdown();
+        }
+    }
+}
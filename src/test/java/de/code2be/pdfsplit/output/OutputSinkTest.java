@@ -0,0 +1,280 @@
+package de.code2be.pdfsplit.output;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts.FontName;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.code2be.pdfsplit.SmartSplitter;
+import de.code2be.pdfsplit.io.PassThroughWriter;
+
+class OutputSinkTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    /**
+     * Create a source file with 6 pages, every third page is a split page.
+     */
+    private File createSource() throws IOException
+    {
+        File res = mTempDir.resolve("source.pdf").toFile();
+        try (PDDocument doc = new PDDocument())
+        {
+            PDType1Font font = new PDType1Font(FontName.HELVETICA);
+            for (int i = 0; i < 6; i++)
+            {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc,
+                        page))
+                {
+                    cs.beginText();
+                    cs.setFont(font, 12);
+                    cs.newLineAtOffset(50, 700);
+                    cs.showText(i % 3 == 2 ? "SPLIT" : "Page " + (i + 1));
+                    cs.endText();
+                }
+            }
+            doc.save(res);
+        }
+        return res;
+    }
+
+
+    private static List<PDDocument> split(File aSource, IOutputSink aSink,
+        boolean aPassThrough, boolean aLinearized)
+        throws IOException
+    {
+        try (PDDocument doc = Loader.loadPDF(aSource))
+        {
+            SmartSplitter splitter = new SmartSplitter();
+            splitter.setNamePattern("part_{0}.pdf");
+            splitter.setOutputSink(aSink);
+            splitter.setSourceFile(aSource);
+            splitter.setPassThrough(aPassThrough);
+            splitter.setLinearized(aLinearized);
+            splitter.addSplitPageIdentifier(
+                    (aDoc, aPage, aIndex) -> aIndex % 3 == 2);
+            List<PDDocument> res = splitter.split(doc);
+            for (PDDocument d : res)
+            {
+                d.close();
+            }
+            return res;
+        }
+    }
+
+
+    private static String text(byte[] aData) throws IOException
+    {
+        try (PDDocument doc = Loader.loadPDF(aData))
+        {
+            return new PDFTextStripper().getText(doc).replaceAll("\\s+", " ")
+                    .trim();
+        }
+    }
+
+
+    @Test
+    void testZipSink() throws IOException
+    {
+        File src = createSource();
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputSink sink = new ZipOutputSink(zip, 1024))
+        {
+            assertEquals(2, split(src, sink, true, false).size());
+        }
+        // nothing but the source was written to the file system
+        assertEquals(1, mTempDir.toFile().list().length);
+
+        List<String> names = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(
+                new ByteArrayInputStream(zip.toByteArray())))
+        {
+            ZipEntry e;
+            while ((e = in.getNextEntry()) != null)
+            {
+                names.add(e.getName());
+                texts.add(text(in.readAllBytes()));
+            }
+        }
+        assertEquals(List.of("part_0.pdf", "part_1.pdf"), names);
+        assertEquals(List.of("Page 1 Page 2", "Page 4 Page 5"), texts);
+    }
+
+
+    @Test
+    void testMemorySinkBlocksWhenFull() throws Exception
+    {
+        File src = createSource();
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        MemoryOutputSink sink = new MemoryOutputSink(1);
+        try
+        {
+            Future<List<PDDocument>> task = exec
+                    .submit(() -> split(src, sink, false, true));
+            Entry<String, byte[]> first = sink.take();
+            assertEquals("part_0.pdf", first.getKey());
+            assertEquals("Page 1 Page 2", text(first.getValue()));
+            Entry<String, byte[]> second = sink.take();
+            assertEquals("part_1.pdf", second.getKey());
+            assertEquals("Page 4 Page 5", text(second.getValue()));
+            assertEquals(2, task.get().size());
+            assertEquals(0L, sink.getSize());
+            // a closed sink has no more documents
+            sink.close();
+            assertNull(sink.take());
+        }
+        finally
+        {
+            sink.close();
+            exec.shutdown();
+        }
+    }
+
+
+    @Test
+    void testMemorySinkKeepsDocuments() throws IOException
+    {
+        File src = createSource();
+        try (MemoryOutputSink sink = new MemoryOutputSink())
+        {
+            split(src, sink, true, false);
+            assertEquals(List.of("part_0.pdf", "part_1.pdf"), sink.getNames());
+            assertEquals("Page 4 Page 5",
+                    text(sink.getDocument("part_1.pdf")));
+            byte[] data = sink.getDocument("part_0.pdf");
+            assertArrayEquals(data, sink.remove("part_0.pdf"));
+            assertEquals(sink.getDocument("part_1.pdf").length,
+                    sink.getSize());
+        }
+    }
+
+
+    @Test
+    void testCallbackSink() throws IOException
+    {
+        File src = createSource();
+        Map<String, String> texts = new ConcurrentHashMap<>();
+        try (CallbackOutputSink sink = new CallbackOutputSink(
+                (aName, aData) -> texts.put(aName, text(aData.readAllBytes())),
+                512))
+        {
+            split(src, sink, false, false);
+        }
+        assertEquals(Map.of("part_0.pdf", "Page 1 Page 2", "part_1.pdf",
+                "Page 4 Page 5"), texts);
+    }
+
+
+    @Test
+    void testPassThroughFallback() throws IOException
+    {
+        File src = createSource();
+        Map<String, String> texts = new ConcurrentHashMap<>();
+        try (CallbackOutputSink sink = new CallbackOutputSink(
+                (aName, aData) -> texts.put(aName, text(aData.readAllBytes())),
+                512); PDDocument doc = Loader.loadPDF(src))
+        {
+            SmartSplitter splitter = new SmartSplitter()
+            {
+
+                @Override
+                protected PassThroughWriter createPassThroughWriter()
+                {
+                    // copying fails, as the source can not be read
+                    PassThroughWriter res = super.createPassThroughWriter();
+                    try
+                    {
+                        res.close();
+                    }
+                    catch (IOException ex)
+                    {
+                        throw new UncheckedIOException(ex);
+                    }
+                    return res;
+                }
+            };
+            splitter.setNamePattern("part_{0}.pdf");
+            splitter.setOutputSink(sink);
+            splitter.setSourceFile(src);
+            splitter.setPassThrough(true);
+            splitter.addSplitPageIdentifier(
+                    (aDoc, aPage, aIndex) -> aIndex % 3 == 2);
+            for (PDDocument d : splitter.split(doc))
+            {
+                d.close();
+            }
+        }
+        // the documents are saved instead
+        assertEquals(Map.of("part_0.pdf", "Page 1 Page 2", "part_1.pdf",
+                "Page 4 Page 5"), texts);
+    }
+
+
+    @Test
+    void testCallbackErrorReported() throws IOException
+    {
+        File src = createSource();
+        try (CallbackOutputSink sink = new CallbackOutputSink((aName, aData) -> {
+            throw new IOException("Rejected " + aName);
+        }))
+        {
+            IOException ex = assertThrows(IOException.class,
+                    () -> split(src, sink, false, false));
+            assertTrue(ex.getMessage().contains("part_0.pdf"),
+                    ex.getMessage());
+        }
+    }
+
+
+    @Test
+    void testFileSink() throws IOException
+    {
+        File src = createSource();
+        File dir = Files.createDirectory(mTempDir.resolve("out")).toFile();
+        Files.writeString(dir.toPath().resolve("part_0.pdf"), "existing");
+        try (FileOutputSink sink = new FileOutputSink(dir))
+        {
+            split(src, sink, true, false);
+        }
+        // the existing file is kept, the first part goes to a new file
+        assertEquals("existing",
+                Files.readString(dir.toPath().resolve("part_0.pdf")));
+        assertEquals(3, dir.list().length);
+        assertEquals("Page 4 Page 5", text(
+                Files.readAllBytes(dir.toPath().resolve("part_1.pdf"))));
+    }
+}
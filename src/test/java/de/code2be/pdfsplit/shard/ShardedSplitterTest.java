@@ -0,0 +1,254 @@
+package de.code2be.pdfsplit.shard;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts.FontName;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.code2be.pdfsplit.Config;
+import de.code2be.pdfsplit.MemoryPolicy;
+import de.code2be.pdfsplit.SmartSplitter;
+import de.code2be.pdfsplit.split.TextSplitIdentifier;
+
+class ShardedSplitterTest
+{
+
+    private static final String SEPARATOR = "SPLIT-HERE";
+
+    @TempDir
+    Path mTempDir;
+
+    /**
+     * Create a source where the given pages are separator pages, all others
+     * contain their page number.
+     */
+    private File createSource(int aPages, Set<Integer> aSplitPages)
+        throws IOException
+    {
+        File res = mTempDir.resolve("source.pdf").toFile();
+        try (PDDocument doc = new PDDocument())
+        {
+            PDType1Font font = new PDType1Font(FontName.HELVETICA);
+            for (int i = 0; i < aPages; i++)
+            {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc,
+                        page))
+                {
+                    cs.beginText();
+                    cs.setFont(font, 12);
+                    cs.newLineAtOffset(50, 700);
+                    cs.showText(aSplitPages.contains(i) ? SEPARATOR
+                            : "Page " + i);
+                    cs.endText();
+                }
+            }
+            doc.save(res);
+        }
+        return res;
+    }
+
+
+    private static Config createConfig()
+    {
+        Config res = Config.createDefaultConfig();
+        res.put(Config.PROP_SEPARATOR_USE_QR, String.valueOf(false));
+        res.put(Config.PROP_SEPARATOR_TEXT, SEPARATOR);
+        res.put(Config.PROP_SEPARATOR_DO_OCR, String.valueOf(false));
+        res.put(Config.PROP_FILTER_DO_OCR, String.valueOf(false));
+        return res;
+    }
+
+
+    private static String text(File aFile) throws IOException
+    {
+        try (PDDocument doc = Loader.loadPDF(aFile))
+        {
+            return new PDFTextStripper().getText(doc).trim()
+                    .replaceAll("\\s+", " ");
+        }
+    }
+
+
+    /**
+     *
+     * @return the texts of the documents of a split in a single process.
+     */
+    private List<String> splitInProcess(File aSource) throws IOException
+    {
+        File dir = Files.createDirectory(mTempDir.resolve("single")).toFile();
+        SmartSplitter ss = new SmartSplitter();
+        ss.setTargetDirectory(dir);
+        ss.setNamePattern("single_{0}.pdf");
+        ss.addSplitPageIdentifier(new TextSplitIdentifier(new String[]
+        {
+                SEPARATOR
+        }, 1));
+        List<String> res = new ArrayList<>();
+        try (PDDocument doc = Loader.loadPDF(aSource))
+        {
+            for (PDDocument target : ss.split(doc))
+            {
+                res.add(new PDFTextStripper().getText(target).trim()
+                        .replaceAll("\\s+", " "));
+                target.close();
+            }
+        }
+        return res;
+    }
+
+
+    private List<String> splitSharded(File aSource, int aShards,
+        String aCommitMode)
+        throws IOException
+    {
+        File dir = Files
+                .createDirectory(mTempDir.resolve("sharded_" + aCommitMode))
+                .toFile();
+        Config cfg = createConfig();
+        cfg.put(Config.PROP_OUTPUT_COMMIT, aCommitMode);
+        ShardedSplitter ss = new ShardedSplitter(cfg);
+        ss.setShardCount(aShards);
+        ss.setTargetDirectory(dir);
+        ss.setNamePattern("part_{0}.pdf");
+        List<File> files = ss.split(aSource);
+        List<String> res = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++)
+        {
+            assertEquals("part_" + i + ".pdf", files.get(i).getName());
+            res.add(text(files.get(i)));
+        }
+        // no work files are left
+        assertEquals(files.size(), dir.list().length);
+        return res;
+    }
+
+
+    @Test
+    void testSameAsSingleProcess() throws IOException
+    {
+        // shards are pages 0-2, 3-5 and 6-9
+        File source = createSource(10, Set.of(3, 4, 8));
+        List<String> expected = splitInProcess(source);
+        assertEquals(List.of("Page 0 Page 1 Page 2", "Page 5 Page 6 Page 7",
+                "Page 9"), expected);
+        assertEquals(expected, splitSharded(source, 3, "atomic"));
+    }
+
+
+    @Test
+    void testCommitModes() throws IOException
+    {
+        File source = createSource(10, Set.of(3, 4, 8));
+        List<String> expected = List.of("Page 0 Page 1 Page 2",
+                "Page 5 Page 6 Page 7", "Page 9");
+        assertEquals(expected, splitSharded(source, 3, "batch"));
+        assertEquals(expected, splitSharded(source, 3, "direct"));
+    }
+
+
+    @Test
+    void testDocumentAcrossShards() throws IOException
+    {
+        File source = createSource(9, Set.of(1));
+        ShardedSplitter ss = new ShardedSplitter(createConfig());
+        ss.setShardCount(3);
+        ss.setTargetDirectory(mTempDir.toFile());
+        ss.setNamePattern("part_{0}.pdf");
+        List<File> files = ss.split(source);
+        assertEquals(2, files.size());
+        assertEquals("Page 0", text(files.get(0)));
+        assertEquals("Page 2 Page 3 Page 4 Page 5 Page 6 Page 7 Page 8",
+                text(files.get(1)));
+        BitSet expected = new BitSet();
+        expected.set(1);
+        assertEquals(expected, ss.getSplitPages());
+    }
+
+
+    @Test
+    void testWorkerFailure() throws IOException
+    {
+        File source = createSource(4, Set.of(2));
+        ShardedSplitter ss = new ShardedSplitter(createConfig());
+        ss.setShardCount(2);
+        ss.setJvmArguments(List.of("-XX:+NoSuchOption"));
+        ss.setTargetDirectory(mTempDir.toFile());
+        ss.setNamePattern("part_{0}.pdf");
+        IOException ex = assertThrows(IOException.class,
+                () -> ss.split(source));
+        assertTrue(ex.getMessage().contains("NoSuchOption"), ex.getMessage());
+        // the work directory is removed
+        assertEquals(1, mTempDir.toFile().list().length);
+    }
+
+
+    @Test
+    void testOCRNotSupported() throws IOException
+    {
+        File source = createSource(4, Set.of(2));
+        Config cfg = createConfig();
+        cfg.put(Config.PROP_SEPARATOR_DO_OCR, String.valueOf(true));
+        ShardedSplitter ss = new ShardedSplitter(cfg);
+        ss.setShardCount(2);
+        ss.setTargetDirectory(mTempDir.toFile());
+        ss.setNamePattern("part_{0}.pdf");
+        assertThrows(IllegalStateException.class, () -> ss.split(source));
+        // no worker is started
+        assertEquals(1, mTempDir.toFile().list().length);
+    }
+
+
+    @Test
+    void testCoordinatorMemoryPolicy() throws IOException
+    {
+        File source = createSource(9, Set.of(1));
+        AtomicInteger loads = new AtomicInteger();
+        MemoryPolicy memPolicy = new MemoryPolicy()
+        {
+
+            @Override
+            public synchronized void install()
+            {
+                throw new IllegalStateException("Installed by the splitter");
+            }
+
+
+            @Override
+            public StreamCacheCreateFunction getStreamCache(File aFile)
+            {
+                loads.incrementAndGet();
+                return super.getStreamCache(aFile);
+            }
+        };
+        ShardedSplitter ss = new ShardedSplitter(createConfig());
+        ss.setShardCount(3);
+        ss.setMemoryPolicy(memPolicy);
+        ss.setTargetDirectory(mTempDir.toFile());
+        ss.setNamePattern("part_{0}.pdf");
+        assertEquals(2, ss.split(source).size());
+        // the straddling document is stitched with the given policy
+        assertTrue(loads.get() > 0);
+    }
+}
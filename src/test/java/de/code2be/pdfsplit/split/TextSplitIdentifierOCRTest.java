@@ -0,0 +1,102 @@
+package de.code2be.pdfsplit.split;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+
+import de.code2be.pdfsplit.PageWatchdog;
+import net.sourceforge.tess4j.Tesseract;
+
+class TextSplitIdentifierOCRTest
+{
+
+    /**
+     * An engine that counts how often it is closed. OCR waits for the latch,
+     * even if interrupted, like a native call does.
+     */
+    private static class CountingTesseract extends Tesseract
+            implements Closeable
+    {
+
+        private final CountDownLatch mRelease;
+
+        private final AtomicInteger mClosed;
+
+        CountingTesseract(CountDownLatch aRelease, AtomicInteger aClosed)
+        {
+            mRelease = aRelease;
+            mClosed = aClosed;
+        }
+
+
+        @Override
+        public String doOCR(BufferedImage aImage)
+        {
+            while (true)
+            {
+                try
+                {
+                    mRelease.await();
+                    return "";
+                }
+                catch (InterruptedException ex)
+                {
+                    // ignore, native OCR does not react on interrupts
+                }
+            }
+        }
+
+
+        @Override
+        public void close()
+        {
+            mClosed.incrementAndGet();
+        }
+    }
+
+    @Test
+    void testAbandonedEngineClosed() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger closed = new AtomicInteger();
+        CountingTesseract engine = new CountingTesseract(release, closed);
+        PageWatchdog wd = new PageWatchdog();
+        wd.setDeadline(PageWatchdog.STAGE_OCR, 100);
+        TextSplitIdentifierOCR id = new TextSplitIdentifierOCR(new String[]
+        {
+                "SPLIT"
+        }, 1, true);
+        id.setTesseract(engine);
+        id.setTesseractSupplier(
+                () -> new CountingTesseract(new CountDownLatch(0), closed));
+        id.setWatchdog(wd);
+        try (PDDocument doc = new PDDocument())
+        {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            // the timeout falls back to the (empty) text layer
+            assertEquals("", id.getTextofPage(doc, page, 0).trim());
+        }
+        assertNotSame(engine, id.getTesseract());
+        assertEquals(1, wd.getAbandonedCount());
+        assertEquals(0, closed.get());
+
+        // the engine is closed once its OCR returns
+        release.countDown();
+        long end = System.currentTimeMillis() + 5000;
+        while (closed.get() == 0 && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(1, closed.get());
+        assertEquals(0, wd.getAbandonedCount());
+    }
+}
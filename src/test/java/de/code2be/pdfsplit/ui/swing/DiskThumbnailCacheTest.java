@@ -0,0 +1,127 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DiskThumbnailCacheTest
+{
+
+    private static final Dimension SIZE = new Dimension(64, 90);
+
+    @TempDir
+    Path mTempDir;
+
+    /**
+     * Create a page image with a gray gradient and, if requested, a red line.
+     */
+    private static BufferedImage createImage(boolean aColor)
+    {
+        BufferedImage res = new BufferedImage(SIZE.width, SIZE.height,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < SIZE.height; y++)
+        {
+            for (int x = 0; x < SIZE.width; x++)
+            {
+                int v = (x * 4) & 0xFF;
+                res.setRGB(x, y, aColor && y == 10 ? 0xFF0000
+                        : (v << 16) | (v << 8) | v);
+            }
+        }
+        return res;
+    }
+
+
+    private static void assertSameRGB(BufferedImage aExpected,
+        BufferedImage aActual)
+    {
+        assertEquals(aExpected.getWidth(), aActual.getWidth());
+        assertEquals(aExpected.getHeight(), aActual.getHeight());
+        for (int y = 0; y < aExpected.getHeight(); y++)
+        {
+            for (int x = 0; x < aExpected.getWidth(); x++)
+            {
+                assertEquals(aExpected.getRGB(x, y) & 0xFFFFFF,
+                        aActual.getRGB(x, y) & 0xFFFFFF, x + "," + y);
+            }
+        }
+    }
+
+
+    @Test
+    void testRoundTrip()
+    {
+        DiskThumbnailCache cache = new DiskThumbnailCache();
+        cache.setDirectory(mTempDir.toFile());
+        assertTrue(cache.isEnabled());
+
+        BufferedImage gray = ThumbnailCache.compact(createImage(false));
+        BufferedImage color = ThumbnailCache.compact(createImage(true));
+        cache.put("doc", 0, SIZE, gray);
+        cache.put("doc", 1, SIZE, color);
+        assertEquals(2, cache.getCount());
+
+        // the gray values are unchanged
+        BufferedImage img = cache.get("doc", 0, SIZE);
+        assertNotNull(img);
+        assertSameRGB(gray, img);
+        assertSameRGB(color, cache.get("doc", 1, SIZE));
+
+        assertNull(cache.get("doc", 2, SIZE));
+        assertNull(cache.get("doc", 0, new Dimension(32, 45)));
+        assertNull(cache.get("other", 0, SIZE));
+
+        // a new cache on the same directory finds the images
+        DiskThumbnailCache reopened = new DiskThumbnailCache();
+        reopened.setDirectory(mTempDir.toFile());
+        assertEquals(2, reopened.getCount());
+        assertEquals(cache.getSize(), reopened.getSize());
+        assertSameRGB(gray, reopened.get("doc", 0, SIZE));
+    }
+
+
+    @Test
+    void testEviction()
+    {
+        DiskThumbnailCache cache = new DiskThumbnailCache();
+        cache.setDirectory(mTempDir.toFile());
+        BufferedImage img = createImage(true);
+        cache.put("doc", 0, SIZE, img);
+        long fileSize = cache.getSize();
+        assertTrue(fileSize > 0L);
+
+        // room for two images
+        cache.setBudget(fileSize * 2L + fileSize / 2L);
+        cache.put("doc", 1, SIZE, img);
+        // page 0 is used again, so page 1 is the least recently used
+        assertNotNull(cache.get("doc", 0, SIZE));
+        cache.put("doc", 2, SIZE, img);
+        assertEquals(2, cache.getCount());
+        assertEquals(1L, cache.getEvictionCount());
+        assertNull(cache.get("doc", 1, SIZE));
+        assertNotNull(cache.get("doc", 0, SIZE));
+        assertNotNull(cache.get("doc", 2, SIZE));
+        assertFalse(new File(mTempDir.toFile(),
+                DiskThumbnailCache.getFileName("doc", 1, SIZE)).exists());
+
+        // a file deleted from outside is a miss
+        assertTrue(new File(mTempDir.toFile(),
+                DiskThumbnailCache.getFileName("doc", 2, SIZE)).delete());
+        assertNull(cache.get("doc", 2, SIZE));
+        assertEquals(1, cache.getCount());
+
+        cache.setDirectory(null);
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get("doc", 0, SIZE));
+    }
+}
@@ -0,0 +1,149 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.code2be.pdfsplit.EmptyPageChecker;
+
+class EmptyPageDetectorTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    private EmptyPageDetector mDetector;
+
+    @BeforeEach
+    void setUp()
+    {
+        mDetector = new EmptyPageDetector(2, EmptyPageChecker::new);
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        mDetector.shutdown();
+    }
+
+
+    /**
+     * Create a document where every page with an index in aFilled is filled
+     * with black boxes, all other pages are blank.
+     */
+    private PDFDocumentPanel createPanel(int aPageCount, int... aFilled)
+        throws IOException
+    {
+        File file = File.createTempFile("split", ".pdf", mTempDir.toFile());
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < aPageCount; i++)
+            {
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                for (int f : aFilled)
+                {
+                    if (f != i)
+                    {
+                        continue;
+                    }
+                    try (PDPageContentStream cs = new PDPageContentStream(doc,
+                            page))
+                    {
+                        for (int b = 0; b < 8; b++)
+                        {
+                            cs.addRect(50 + b * 60, 100 + b * 80, 40, 40);
+                        }
+                        cs.fill();
+                    }
+                }
+            }
+            doc.save(file);
+        }
+        return new PDFDocumentPanel(null, Loader.loadPDF(file), file);
+    }
+
+
+    private static BufferedImage createImage(boolean aFilled)
+    {
+        BufferedImage res = new BufferedImage(200, 280,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = res.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, res.getWidth(), res.getHeight());
+        if (aFilled)
+        {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, res.getWidth(), res.getHeight() / 2);
+        }
+        g.dispose();
+        return res;
+    }
+
+
+    private static void flushEDT() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+        });
+    }
+
+
+    @Test
+    void testCheckDocument() throws Exception
+    {
+        PDFDocumentPanel pnl = createPanel(3, 1);
+        mDetector.checkDocument(pnl, null).get(30, TimeUnit.SECONDS);
+        flushEDT();
+        assertFalse(pnl.isPageEnabled(0));
+        assertTrue(pnl.isPageEnabled(1));
+        assertFalse(pnl.isPageEnabled(2));
+        assertEquals(1, pnl.getEnabledPageCount());
+        pnl.dispose();
+    }
+
+
+    @Test
+    void testReuseSourceImages() throws Exception
+    {
+        // the document is blank, the result comes from the source images
+        PDFDocumentPanel pnl = createPanel(2);
+        mDetector.pageRendered(4, createImage(true));
+        mDetector.pageRendered(5, createImage(false));
+        mDetector.checkDocument(pnl, new int[] { 4, 5 }).get(30,
+                TimeUnit.SECONDS);
+        flushEDT();
+        assertTrue(pnl.isPageEnabled(0));
+        assertFalse(pnl.isPageEnabled(1));
+
+        // without source results the pages are rendered
+        mDetector.clearSourceResults();
+        PDFDocumentPanel other = createPanel(2);
+        mDetector.checkDocument(other, new int[] { 4, 5 }).get(30,
+                TimeUnit.SECONDS);
+        flushEDT();
+        assertEquals(0, other.getEnabledPageCount());
+        pnl.dispose();
+        other.dispose();
+    }
+}
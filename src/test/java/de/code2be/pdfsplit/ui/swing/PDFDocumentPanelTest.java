@@ -0,0 +1,87 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PDFDocumentPanelTest
+{
+
+    @TempDir
+    Path mTempDir;
+
+    private File createFile(String aName, int aPageCount) throws IOException
+    {
+        File res = mTempDir.resolve(aName).toFile();
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < aPageCount; i++)
+            {
+                doc.addPage(new PDPage());
+            }
+            doc.save(res);
+        }
+        return res;
+    }
+
+
+    @Test
+    void testReleaseDocument() throws IOException
+    {
+        File file = createFile("split.pdf", 3);
+        PDDocument doc = Loader.loadPDF(file);
+        PDFDocumentPanel pnl = new PDFDocumentPanel(null, doc, file);
+        // the pages are not built until the panel is shown
+        assertTrue(pnl.getPagePanels().isEmpty());
+        pnl.setPageEnabled(1, false);
+
+        assertTrue(pnl.releaseDocument());
+        assertFalse(pnl.isDocumentLoaded());
+        assertFalse(pnl.releaseDocument());
+        assertEquals(3, pnl.getPageCount());
+        assertEquals(2, pnl.getEnabledPageCount());
+        assertFalse(pnl.isPageEnabled(1));
+
+        // loaded again on access
+        PDDocument reloaded = pnl.getDocument();
+        assertNotSame(doc, reloaded);
+        assertEquals(3, reloaded.getNumberOfPages());
+        assertTrue(pnl.isDocumentLoaded());
+        assertSame(reloaded, pnl.getDocument());
+        assertTrue(pnl.getIdleTime() < 60000L);
+
+        // a changed file is not taken
+        assertTrue(pnl.releaseDocument());
+        createFile("split.pdf", 2);
+        assertThrows(UncheckedIOException.class, () -> pnl.getDocument());
+        pnl.dispose();
+    }
+
+
+    @Test
+    void testKeepDocumentWithoutFile() throws IOException
+    {
+        try (PDDocument doc = new PDDocument())
+        {
+            doc.addPage(new PDPage());
+            PDFDocumentPanel pnl = new PDFDocumentPanel(null, doc,
+                    mTempDir.resolve("missing.pdf").toFile());
+            assertFalse(pnl.releaseDocument());
+            assertSame(doc, pnl.getDocument());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.swing.JScrollPane;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+
+class PDFPagesPanelTest
+{
+
+    @Test
+    void testVirtualGrid() throws IOException
+    {
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < 3000; i++)
+            {
+                doc.addPage(new PDPage());
+            }
+            PDFDocumentPanel docPanel = new PDFDocumentPanel(null, doc,
+                    new File("test.pdf"));
+            PDFPagesPanel pages = new PDFPagesPanel(docPanel);
+            pages.setPreviewSize(new Dimension(100, 140));
+            pages.setPageCount(doc.getNumberOfPages());
+            JScrollPane scroll = new JScrollPane(pages);
+            scroll.setSize(539, 600);
+            scroll.doLayout();
+            scroll.getViewport().doLayout();
+            pages.doLayout();
+
+            // 5 columns of 105 pixels fit, 600 rows of 145 pixels
+            int width = scroll.getViewport().getWidth();
+            assertEquals((width - 5) / 105, pages.getColumnCount());
+            int cols = pages.getColumnCount();
+            int rows = (3000 + cols - 1) / cols;
+            assertEquals(5 + rows * 145, pages.getPreferredSize().height);
+
+            // visible rows plus one viewport ahead, not all pages
+            List<PDFPagePanel> cells = pages.getPagePanels();
+            assertTrue(cells.size() < 100, "cells: " + cells.size());
+            assertEquals(0, cells.get(0).getPageNumber());
+            int created = pages.getComponentCount();
+
+            // scroll far down, the cells are re-used
+            scroll.getViewport().setViewPosition(new Point(0, 145 * 400));
+            pages.updateCells();
+            cells = pages.getPagePanels();
+            assertEquals(400 * cols, cells.get(0).getPageNumber());
+            assertEquals(created, pages.getComponentCount());
+            for (PDFPagePanel cell : cells)
+            {
+                assertEquals(
+                        pages.getCellBounds(cell.getPageNumber(), cols),
+                        cell.getBounds());
+            }
+
+            // the enabled state is kept for all pages, shown or not
+            docPanel.setPageEnabled(2, false);
+            cells.get(1).setPageEnabled(false);
+            assertFalse(docPanel.isPageEnabled(2));
+            assertFalse(docPanel.isPageEnabled(400 * cols + 1));
+            assertEquals(2998, docPanel.getEnabledPageCount());
+
+            pages.setPageCount(0);
+            assertEquals(0, pages.getPagePanels().size());
+        }
+    }
+
+
+    @Test
+    void testZoom() throws IOException
+    {
+        // small zoom steps keep the render size
+        Dimension size = PDFPagePanel.getRenderSize(new Dimension(200, 283));
+        assertEquals(new Dimension(256, 362), size);
+        assertEquals(size,
+                PDFPagePanel.getRenderSize(new Dimension(230, 325)));
+        assertEquals(new Dimension(362, 512),
+                PDFPagePanel.getRenderSize(new Dimension(260, 368)));
+
+        try (PDDocument doc = new PDDocument())
+        {
+            for (int i = 0; i < 20; i++)
+            {
+                doc.addPage(new PDPage());
+            }
+            PDFDocumentPanel docPanel = new PDFDocumentPanel(null, doc,
+                    new File("test.pdf"));
+            PDFPagesPanel pages = new PDFPagesPanel(docPanel);
+            pages.setPageCount(doc.getNumberOfPages());
+            JScrollPane scroll = new JScrollPane(pages);
+            scroll.setSize(600, 600);
+            scroll.doLayout();
+            scroll.getViewport().doLayout();
+            pages.doLayout();
+            assertFalse(pages.isZooming());
+
+            // the layout follows at once, renders wait for the zoom to end
+            pages.setPreviewSize(new Dimension(100, 141));
+            assertTrue(pages.isZooming());
+            pages.doLayout();
+            for (PDFPagePanel cell : pages.getPagePanels())
+            {
+                assertEquals(new Dimension(100, 141), cell.getSize());
+            }
+            long end = System.currentTimeMillis() + 5000;
+            while (pages.isZooming() && System.currentTimeMillis() < end)
+            {
+                Thread.yield();
+            }
+            assertFalse(pages.isZooming());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class RenderSchedulerTest
+{
+
+    @Test
+    void testPriorityAndCancel() throws InterruptedException
+    {
+        RenderScheduler rs = new RenderScheduler(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        // block the only thread, so the following tasks are queued
+        RenderScheduler.Task blocker = rs.submit(() -> {
+            started.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }, RenderScheduler.PRIORITY_VISIBLE);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertFalse(rs.cancel(blocker));
+
+        rs.submit(() -> {
+            order.add("prefetch far");
+            done.countDown();
+        }, RenderScheduler.PRIORITY_PREFETCH + 500);
+        RenderScheduler.Task away = rs.submit(() -> order.add("away"),
+                RenderScheduler.PRIORITY_PREFETCH + 100);
+        rs.submit(() -> {
+            order.add("prefetch near");
+            done.countDown();
+        }, RenderScheduler.PRIORITY_PREFETCH + 10);
+        rs.submit(() -> {
+            order.add("visible");
+            done.countDown();
+        }, RenderScheduler.PRIORITY_VISIBLE);
+        assertEquals(4, rs.getQueueDepth());
+        assertTrue(rs.cancel(away));
+        assertEquals(3, rs.getQueueDepth());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("visible", "prefetch near", "prefetch far"),
+                order);
+        assertEquals(1, rs.getCancelledCount());
+        assertEquals(0, rs.getQueueDepth());
+    }
+}
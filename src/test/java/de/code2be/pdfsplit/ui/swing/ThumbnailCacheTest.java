@@ -0,0 +1,87 @@
+package de.code2be.pdfsplit.ui.swing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+class ThumbnailCacheTest
+{
+
+    private static BufferedImage createImage(int aWidth, int aHeight,
+        int aRGB)
+    {
+        BufferedImage res = new BufferedImage(aWidth, aHeight,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < aHeight; y++)
+        {
+            for (int x = 0; x < aWidth; x++)
+            {
+                res.setRGB(x, y, aRGB);
+            }
+        }
+        return res;
+    }
+
+
+    @Test
+    void testEviction()
+    {
+        ThumbnailCache cache = new ThumbnailCache();
+        // 100 x 100 RGB images take 40000 bytes each
+        cache.setBudget(100000L);
+        cache.put("a", createImage(100, 100, 0x102030));
+        cache.put("b", createImage(100, 100, 0x102030));
+        assertEquals(80000L, cache.getSize());
+
+        // a is used more recently than b now
+        assertNotNull(cache.get("a"));
+        cache.put("c", createImage(100, 100, 0x102030));
+        assertEquals(2, cache.getCount());
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertEquals(1L, cache.getEvictionCount());
+
+        // an image above the budget is kept anyway
+        cache.put("d", createImage(200, 200, 0x102030));
+        assertEquals(1, cache.getCount());
+        assertNotNull(cache.get("d"));
+
+        assertNotNull(cache.remove("d"));
+        assertNull(cache.get("d"));
+        assertEquals(0L, cache.getSize());
+    }
+
+
+    @Test
+    void testCompact()
+    {
+        BufferedImage bw = createImage(10, 4, 0xFFFFFF);
+        bw.setRGB(3, 2, 0x000000);
+        BufferedImage res = ThumbnailCache.compact(bw);
+        assertEquals(BufferedImage.TYPE_BYTE_BINARY, res.getType());
+        assertEquals(0xFF000000, res.getRGB(3, 2));
+        assertEquals(0xFFFFFFFF, res.getRGB(4, 2));
+        assertTrue(ThumbnailCache.sizeOf(res) < ThumbnailCache.sizeOf(bw));
+
+        BufferedImage gray = createImage(10, 4, 0xFFFFFF);
+        gray.setRGB(1, 1, 0x808080);
+        res = ThumbnailCache.compact(gray);
+        assertEquals(BufferedImage.TYPE_BYTE_INDEXED, res.getType());
+        assertEquals(0xFF808080, res.getRGB(1, 1));
+        assertEquals(0xFFFFFFFF, res.getRGB(2, 1));
+        assertEquals(40L, ThumbnailCache.sizeOf(res));
+
+        BufferedImage color = createImage(10, 4, 0xFFFFFF);
+        color.setRGB(1, 1, 0xFF0000);
+        assertSame(color, ThumbnailCache.compact(color));
+        assertEquals(160L, ThumbnailCache.sizeOf(color));
+    }
+}